@@ -0,0 +1,70 @@
+package com.levelrin.wsvoip;
+
+import com.google.gson.JsonObject;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One broadcast of a channel event to every session without batching.
+ * The message is serialized once, so the score should grow linearly with the sessions
+ * and gc.alloc.rate.norm should stay the same for any number of sessions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    /**
+     * Number of online users.
+     */
+    @Param({"10", "100", "1000"})
+    public int sessions;
+
+    /**
+     * As is.
+     */
+    private WsConnections wsConnections;
+
+    /**
+     * The event to broadcast.
+     */
+    private JsonObject message;
+
+    /**
+     * Connect the sessions.
+     */
+    @Setup
+    public void setup() {
+        this.wsConnections = new WsConnections();
+        for (int index = 0; index < this.sessions; ++index) {
+            this.wsConnections.add("user" + index, new StubConnection("session" + index));
+        }
+        this.message = new JsonObject();
+        this.message.addProperty("about", "voice channel is created");
+        this.message.addProperty("name", "bench");
+        this.message.addProperty("id", 1);
+        this.message.addProperty("mixing", false);
+    }
+
+    /**
+     * As is.
+     */
+    @Benchmark
+    public void broadcast() {
+        this.wsConnections.broadcast(this.message);
+    }
+
+}
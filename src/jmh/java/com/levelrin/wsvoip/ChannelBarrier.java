@@ -0,0 +1,73 @@
+package com.levelrin.wsvoip;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import com.levelrin.wsvoip.audio.FrameReceiver;
+
+/**
+ * It waits until the thread of a channel has run everything posted to it so far.
+ * The relay only hands the frames over to the thread of the channel,
+ * so a benchmark must wait for it to measure the delivery.
+ * It posts a frame like the relay does, so waiting does not allocate.
+ */
+public final class ChannelBarrier {
+
+    /**
+     * Executor of the channel.
+     */
+    private final ChannelExecutor executor;
+
+    /**
+     * For the frame that marks the barrier.
+     */
+    private final AudioFramePool framePool;
+
+    /**
+     * True once the thread of the channel reaches the barrier.
+     */
+    private volatile boolean reached;
+
+    /**
+     * We keep it in a field to avoid creating a lambda per wait.
+     */
+    private final FrameReceiver receiver = this::reach;
+
+    /**
+     * Constructor.
+     * @param voiceChannels It has the channel.
+     * @param channelName As is.
+     * @param framePool For the frame that marks the barrier.
+     */
+    public ChannelBarrier(final VoiceChannels voiceChannels, final String channelName, final AudioFramePool framePool) {
+        this.executor = voiceChannels.executor(channelName);
+        this.framePool = framePool;
+    }
+
+    /**
+     * Wait for the thread of the channel.
+     * It spins because the wait is usually shorter than parking a thread.
+     */
+    public void await() {
+        this.reached = false;
+        final AudioFrame frame = this.framePool.acquire();
+        try {
+            this.executor.post(this.receiver, "barrier", frame);
+        } finally {
+            frame.release();
+        }
+        while (!this.reached) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Mark the barrier as reached on the thread of the channel.
+     * @param channelName Of the thread.
+     * @param username Not used.
+     * @param frame Not used.
+     */
+    private void reach(final String channelName, final String username, final AudioFrame frame) {
+        this.reached = true;
+    }
+
+}
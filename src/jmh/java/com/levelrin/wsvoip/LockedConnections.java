@@ -0,0 +1,104 @@
+package com.levelrin.wsvoip;
+
+import com.google.gson.JsonObject;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The registry as it was before {@link WsConnections} became lock-free.
+ * Both maps are behind one lock and messages are sent while holding it.
+ * It's kept only as the baseline of {@link WsConnectionsBenchmark}.
+ */
+public final class LockedConnections {
+
+    /**
+     * Key - Username
+     * Value - WebSocket connection.
+     */
+    private final Map<String, Connection> usernameToContext = new HashMap<>();
+
+    /**
+     * Key - WebSocket session ID.
+     * Value - Username.
+     */
+    private final Map<String, String> sessionToUsername = new HashMap<>();
+
+    /**
+     * Thread lock.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Same as {@link WsConnections#add(String, Connection)}.
+     * @param username As is.
+     * @param context New connection.
+     */
+    public void add(final String username, final Connection context) {
+        synchronized (this.lock) {
+            if (this.usernameToContext.containsKey(username)) {
+                final Connection oldContext = this.usernameToContext.get(username);
+                this.usernameToContext.replace(username, context);
+                this.sessionToUsername.remove(oldContext.id());
+                this.sessionToUsername.put(context.id(), username);
+                final JsonObject message = new JsonObject();
+                message.addProperty("about", "another device is used");
+                oldContext.send(message.toString());
+            } else {
+                this.usernameToContext.put(username, context);
+                this.sessionToUsername.put(context.id(), username);
+                final JsonObject message = new JsonObject();
+                message.addProperty("about", "user is connected to the websocket server");
+                message.addProperty("username", username);
+                for (final Connection each: this.usernameToContext.values()) {
+                    each.send(message.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link WsConnections#remove(String)}.
+     * @param sessionId As is.
+     */
+    public void remove(final String sessionId) {
+        synchronized (this.lock) {
+            if (this.sessionToUsername.containsKey(sessionId)) {
+                final String username = this.sessionToUsername.get(sessionId);
+                this.sessionToUsername.remove(sessionId);
+                this.usernameToContext.remove(username);
+                final JsonObject message = new JsonObject();
+                message.addProperty("about", "user is disconnected from the websocket server");
+                message.addProperty("username", username);
+                for (final Connection each: this.usernameToContext.values()) {
+                    each.send(message.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link WsConnections#broadcast(JsonObject)}.
+     * @param message JSON.
+     */
+    public void broadcast(final JsonObject message) {
+        synchronized (this.lock) {
+            for (final Connection context: this.usernameToContext.values()) {
+                if (context.open()) {
+                    context.send(message.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link WsConnections#hasUser(String)}.
+     * @param name Username.
+     * @return True if the user is online.
+     */
+    public boolean hasUser(final String name) {
+        synchronized (this.lock) {
+            return this.usernameToContext.containsKey(name);
+        }
+    }
+
+}
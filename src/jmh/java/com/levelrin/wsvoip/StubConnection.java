@@ -0,0 +1,66 @@
+package com.levelrin.wsvoip;
+
+import java.nio.ByteBuffer;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Connection that discards everything it sends.
+ * It can burn some CPU per send to simulate the cost of writing to the socket.
+ */
+public final class StubConnection implements Connection {
+
+    /**
+     * WebSocket session ID.
+     */
+    private final String id;
+
+    /**
+     * Amount of {@link Blackhole#consumeCPU(long)} per send.
+     */
+    private final long sendTokens;
+
+    /**
+     * Constructor.
+     * @param id WebSocket session ID.
+     */
+    public StubConnection(final String id) {
+        this(id, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param id WebSocket session ID.
+     * @param sendTokens Amount of {@link Blackhole#consumeCPU(long)} per send.
+     */
+    public StubConnection(final String id, final long sendTokens) {
+        this.id = id;
+        this.sendTokens = sendTokens;
+    }
+
+    @Override
+    public String id() {
+        return this.id;
+    }
+
+    @Override
+    public boolean open() {
+        return true;
+    }
+
+    @Override
+    public void send(final String message) {
+        Blackhole.consumeCPU(this.sendTokens);
+    }
+
+    @Override
+    public void send(final ByteBuffer message) {
+        Blackhole.consumeCPU(this.sendTokens);
+        message.position(message.limit());
+    }
+
+    @Override
+    public void close(final String reason) {
+        // Nothing to close.
+    }
+
+}
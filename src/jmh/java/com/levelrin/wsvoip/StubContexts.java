@@ -0,0 +1,47 @@
+package com.levelrin.wsvoip;
+
+import io.javalin.http.Context;
+import io.javalin.websocket.WsMessageContext;
+import java.lang.reflect.Proxy;
+import org.eclipse.jetty.websocket.api.Session;
+
+/**
+ * HTTP and WebSocket contexts for calling the endpoints' logic without a server.
+ */
+public final class StubContexts {
+
+    /**
+     * Utility class.
+     */
+    private StubContexts() {
+    }
+
+    /**
+     * HTTP context that ignores the response.
+     * Only methods that return nothing or an object can be used.
+     * @return As is.
+     */
+    public static Context http() {
+        return (Context) Proxy.newProxyInstance(
+            Context.class.getClassLoader(),
+            new Class<?>[] {Context.class},
+            (proxy, method, args) -> null
+        );
+    }
+
+    /**
+     * WebSocket message context whose session ignores everything.
+     * @param sessionId As is.
+     * @param message Text of the message.
+     * @return As is.
+     */
+    public static WsMessageContext wsMessage(final String sessionId, final String message) {
+        final Session session = (Session) Proxy.newProxyInstance(
+            Session.class.getClassLoader(),
+            new Class<?>[] {Session.class},
+            (proxy, method, args) -> null
+        );
+        return new WsMessageContext(sessionId, session, message);
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.levelrin.wsvoip;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import io.javalin.http.Context;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Membership churn in many channels at once.
+ * Each thread joins a channel, switches to another one, and leaves it.
+ * Each change is a message to the thread of a channel that the caller waits for.
+ * Threads work in different channels, which are spread over the channel threads,
+ * so the throughput of 'churnAllCores' should grow with the cores that the channel threads get.
+ * In 'crowdAllCores', all threads churn between the same two channels,
+ * which shows the cost of queueing on the threads of the channels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VoiceChannelsBenchmark {
+
+    /**
+     * Number of channels.
+     * Thread N churns between the channels N * 2 and N * 2 + 1 modulo this number.
+     */
+    @Param({"256"})
+    public int channels;
+
+    /**
+     * Number of users that stay in each channel during the benchmark.
+     */
+    @Param({"0", "50"})
+    public int bystanders;
+
+    /**
+     * As is.
+     */
+    private VoiceChannels voiceChannels;
+
+    /**
+     * The threads of the channels.
+     */
+    private ChannelThreads channelThreads;
+
+    /**
+     * To give each thread its own channels.
+     */
+    private final AtomicInteger threads = new AtomicInteger();
+
+    /**
+     * Create the channels and put the bystanders in them.
+     */
+    @Setup
+    public void setup() {
+        this.channelThreads = new ChannelThreads(Runtime.getRuntime().availableProcessors());
+        this.voiceChannels = new VoiceChannels(this.channelThreads, new AudioFramePool(1, AudioFrame.MAX_BYTES));
+        final Context http = StubContexts.http();
+        final WsConnections wsConnections = new WsConnections();
+        for (int channel = 0; channel < this.channels; ++channel) {
+            this.voiceChannels.create("channel" + channel, false, http, wsConnections);
+            for (int index = 0; index < this.bystanders; ++index) {
+                final String username = "bystander" + channel + "-" + index;
+                wsConnections.add(username, new StubConnection(username));
+                this.voiceChannels.join(username, "channel" + channel, http, wsConnections);
+            }
+        }
+    }
+
+    /**
+     * As is.
+     */
+    @TearDown
+    public void tearDown() {
+        this.channelThreads.close();
+    }
+
+    /**
+     * As is.
+     * @param user The user of the thread.
+     */
+    @Benchmark
+    @Threads(1)
+    public void churn(final User user) {
+        user.churn(this.voiceChannels);
+    }
+
+    /**
+     * As is.
+     * @param user The user of the thread.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void churnAllCores(final User user) {
+        user.churn(this.voiceChannels);
+    }
+
+    /**
+     * As is.
+     * @param user The user of the thread.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void crowdAllCores(final User user) {
+        user.crowd(this.voiceChannels);
+    }
+
+    /**
+     * A user that only the thread uses.
+     * It has its own {@link WsConnections} so that the broadcasts do not reach the other threads.
+     */
+    @State(Scope.Thread)
+    public static class User {
+
+        /**
+         * As is.
+         */
+        private String username;
+
+        /**
+         * The channel that the user joins.
+         */
+        private String first;
+
+        /**
+         * The channel that the user switches to.
+         */
+        private String second;
+
+        /**
+         * As is.
+         */
+        private WsConnections wsConnections;
+
+        /**
+         * As is.
+         */
+        private Context http;
+
+        /**
+         * Pick the channels of the thread.
+         * @param benchmark As is.
+         */
+        @Setup
+        public void setup(final VoiceChannelsBenchmark benchmark) {
+            final int thread = benchmark.threads.getAndIncrement();
+            this.username = "user" + thread;
+            this.first = "channel" + (thread * 2 % benchmark.channels);
+            this.second = "channel" + ((thread * 2 + 1) % benchmark.channels);
+            this.wsConnections = new WsConnections();
+            this.wsConnections.add(this.username, new StubConnection(this.username));
+            this.http = StubContexts.http();
+        }
+
+        /**
+         * Join, switch, and leave.
+         * @param voiceChannels As is.
+         */
+        void churn(final VoiceChannels voiceChannels) {
+            voiceChannels.join(this.username, this.first, this.http, this.wsConnections);
+            voiceChannels.switchChannel(this.username, this.first, this.second, this.http, this.wsConnections);
+            voiceChannels.leave(this.username, this.second, this.http, this.wsConnections);
+        }
+
+        /**
+         * Join, switch, and leave the channels that every thread uses.
+         * @param voiceChannels As is.
+         */
+        void crowd(final VoiceChannels voiceChannels) {
+            voiceChannels.join(this.username, "channel0", this.http, this.wsConnections);
+            voiceChannels.switchChannel(this.username, "channel0", "channel1", this.http, this.wsConnections);
+            voiceChannels.leave(this.username, "channel1", this.http, this.wsConnections);
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.levelrin.wsvoip;
+
+import com.google.gson.JsonObject;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sessions connecting, checking presence, and disconnecting while a broadcast runs.
+ * Compare the throughput of the 'connect' and 'presence' methods between the two groups.
+ * In the locked group, they wait for the whole broadcast; in the lock-free group, they do not.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WsConnectionsBenchmark {
+
+    /**
+     * Number of users that stay online.
+     */
+    @Param({"1000", "5000"})
+    public int sessions;
+
+    /**
+     * Cost of each send, which simulates a socket write.
+     */
+    @Param({"10"})
+    public long sendTokens;
+
+    /**
+     * As is.
+     */
+    private WsConnections lockFree;
+
+    /**
+     * Baseline.
+     */
+    private LockedConnections locked;
+
+    /**
+     * To give each connecting session a unique name.
+     */
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Message of the broadcast.
+     */
+    private final JsonObject message = new JsonObject();
+
+    /**
+     * Put the users online.
+     */
+    @Setup
+    public void setup() {
+        this.lockFree = new WsConnections();
+        this.locked = new LockedConnections();
+        for (int index = 0; index < this.sessions; ++index) {
+            this.lockFree.add("user" + index, new StubConnection("session" + index, this.sendTokens));
+            this.locked.add("user" + index, new StubConnection("session" + index, this.sendTokens));
+        }
+        this.message.addProperty("about", "voice channel is created");
+        this.message.addProperty("name", "benchmark");
+    }
+
+    /**
+     * A session connects and disconnects right away.
+     * Both steps broadcast the presence to everyone.
+     */
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(2)
+    public void lockFreeConnect() {
+        final String name = "churn" + this.counter.incrementAndGet();
+        final StubConnection connection = new StubConnection(name);
+        this.lockFree.add(name, connection);
+        this.lockFree.remove(connection.id());
+    }
+
+    /**
+     * As is.
+     * @return To avoid dead code elimination.
+     */
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(2)
+    public boolean lockFreePresence() {
+        return this.lockFree.hasUser("user0");
+    }
+
+    /**
+     * As is.
+     */
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(1)
+    public void lockFreeBroadcast() {
+        this.lockFree.broadcast(this.message);
+    }
+
+    /**
+     * A session connects and disconnects right away.
+     * Both steps broadcast the presence to everyone.
+     */
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(2)
+    public void lockedConnect() {
+        final String name = "churn" + this.counter.incrementAndGet();
+        final StubConnection connection = new StubConnection(name);
+        this.locked.add(name, connection);
+        this.locked.remove(connection.id());
+    }
+
+    /**
+     * As is.
+     * @return To avoid dead code elimination.
+     */
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(2)
+    public boolean lockedPresence() {
+        return this.locked.hasUser("user0");
+    }
+
+    /**
+     * As is.
+     */
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public void lockedBroadcast() {
+        this.locked.broadcast(this.message);
+    }
+
+}
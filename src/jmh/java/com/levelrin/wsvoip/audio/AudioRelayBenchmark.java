@@ -0,0 +1,149 @@
+package com.levelrin.wsvoip.audio;
+
+import com.levelrin.wsvoip.ChannelBarrier;
+import com.levelrin.wsvoip.ChannelThreads;
+import com.levelrin.wsvoip.StubConnection;
+import com.levelrin.wsvoip.StubContexts;
+import com.levelrin.wsvoip.VoiceChannels;
+import com.levelrin.wsvoip.WsConnections;
+import io.javalin.http.Context;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Relay of one binary audio frame from the WebSocket message to every listener.
+ * The frames are relayed in batches, and each batch waits for the thread of the channel,
+ * so the score includes the hand-over to the thread of the channel.
+ * Run it with the gc profiler (it's on by default in build.gradle).
+ * The gc.alloc.rate.norm should stay at 0 B/op, which means the audio path does not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudioRelayBenchmark {
+
+    /**
+     * Frames relayed before waiting for the thread of the channel.
+     * It's less than the frames that a channel holds, so nothing is dropped.
+     */
+    private static final int BATCH = 64;
+
+    /**
+     * Number of people in the channel including the talker.
+     */
+    @Param({"2", "20"})
+    public int members;
+
+    /**
+     * As is.
+     */
+    private AudioFramePool framePool;
+
+    /**
+     * As is.
+     */
+    private AudioFanOut fanOut;
+
+    /**
+     * The threads of the channel.
+     */
+    private ChannelThreads threads;
+
+    /**
+     * To wait for the thread of the channel.
+     */
+    private ChannelBarrier barrier;
+
+    /**
+     * Binary WebSocket message from the talker.
+     */
+    private byte[] message;
+
+    /**
+     * Create a channel and put the members in it.
+     */
+    @Setup
+    public void setup() {
+        this.threads = new ChannelThreads(1);
+        this.framePool = new AudioFramePool(BATCH * 2, AudioFrame.MAX_BYTES);
+        final WsConnections wsConnections = new WsConnections();
+        final VoiceChannels voiceChannels = new VoiceChannels(this.threads, this.framePool);
+        final Context http = StubContexts.http();
+        voiceChannels.create("bench", false, http, wsConnections);
+        for (int index = 0; index < this.members; ++index) {
+            wsConnections.add("user" + index, new StubConnection("session" + index));
+            voiceChannels.join("user" + index, "bench", http, wsConnections);
+        }
+        this.fanOut = new AudioFanOut(voiceChannels, wsConnections, this.framePool);
+        this.message = frame(voiceChannels.channelId("bench"), 128);
+        this.barrier = new ChannelBarrier(voiceChannels, "bench", this.framePool);
+    }
+
+    /**
+     * As is.
+     */
+    @TearDown
+    public void tearDown() {
+        this.threads.close();
+    }
+
+    /**
+     * Same steps as Main's ws.onBinaryMessage for a batch of frames.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void relay() {
+        for (int count = 0; count < BATCH; ++count) {
+            final AudioFrame frame = this.framePool.acquire();
+            try {
+                if (frame.load(this.message, 0, this.message.length) && frame.valid()) {
+                    this.fanOut.relay("session0", frame);
+                }
+            } finally {
+                frame.release();
+            }
+        }
+        this.barrier.await();
+    }
+
+    /**
+     * Build a mono PCM float32 frame.
+     * @param channelId ID of the voice channel.
+     * @param samples Number of samples.
+     * @return Binary WebSocket message.
+     */
+    static byte[] frame(final int channelId, final int samples) {
+        final ByteBuffer buffer = ByteBuffer.allocate(AudioFrame.HEADER_BYTES + samples * 4)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(AudioFrame.VERSION);
+        buffer.put(AudioFrame.CODEC_PCM_FLOAT32);
+        buffer.put((byte) 1);
+        buffer.put((byte) 0);
+        buffer.putInt(48_000);
+        buffer.putInt(0);
+        buffer.putInt(channelId);
+        buffer.putInt(0);
+        for (int index = 0; index < samples; ++index) {
+            buffer.putFloat((float) Math.sin(index * 0.05));
+        }
+        return buffer.array();
+    }
+
+}
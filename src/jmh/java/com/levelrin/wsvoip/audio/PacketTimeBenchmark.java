@@ -0,0 +1,145 @@
+package com.levelrin.wsvoip.audio;
+
+import com.levelrin.wsvoip.ChannelBarrier;
+import com.levelrin.wsvoip.ChannelThreads;
+import com.levelrin.wsvoip.StubConnection;
+import com.levelrin.wsvoip.StubContexts;
+import com.levelrin.wsvoip.VoiceChannels;
+import com.levelrin.wsvoip.WsConnections;
+import io.javalin.http.Context;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Relay of one second of a talker's audio at each packet time.
+ * The score is the relay CPU per talker in microseconds per second of audio,
+ * so dividing it by a million gives the share of a core that a talker takes.
+ * The talker's thread and the thread of the channel overlap, so it's closer to the CPU of the busier one.
+ * 128 samples is a render quantum of the browser without packetization,
+ * and 480, 960, and 1920 samples are 10, 20, and 40 ms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketTimeBenchmark {
+
+    /**
+     * Frames relayed before waiting for the thread of the channel.
+     * It's less than the frames that a channel holds, so nothing is dropped.
+     */
+    private static final int BATCH = 64;
+
+    /**
+     * Samples per frame at 48 kHz.
+     */
+    @Param({"128", "480", "960", "1920"})
+    public int samples;
+
+    /**
+     * Number of people in the channel including the talker.
+     */
+    @Param({"20"})
+    public int members;
+
+    /**
+     * Amount of {@link org.openjdk.jmh.infra.Blackhole#consumeCPU(long)} per send,
+     * which stands for the cost of writing a message to a socket.
+     */
+    @Param({"0", "100"})
+    public long sendTokens;
+
+    /**
+     * As is.
+     */
+    private AudioFramePool framePool;
+
+    /**
+     * As is.
+     */
+    private AudioFanOut fanOut;
+
+    /**
+     * The threads of the channel.
+     */
+    private ChannelThreads threads;
+
+    /**
+     * To wait for the thread of the channel.
+     */
+    private ChannelBarrier barrier;
+
+    /**
+     * Binary WebSocket message from the talker.
+     */
+    private byte[] message;
+
+    /**
+     * Frames in one second of audio.
+     */
+    private int framesPerSecond;
+
+    /**
+     * Create a channel and put the members in it.
+     */
+    @Setup
+    public void setup() {
+        this.threads = new ChannelThreads(1);
+        this.framePool = new AudioFramePool(BATCH * 2, AudioFrame.MAX_BYTES);
+        final WsConnections wsConnections = new WsConnections();
+        final VoiceChannels voiceChannels = new VoiceChannels(this.threads, this.framePool);
+        final Context http = StubContexts.http();
+        voiceChannels.create("bench", false, http, wsConnections);
+        for (int index = 0; index < this.members; ++index) {
+            wsConnections.add("user" + index, new StubConnection("session" + index, this.sendTokens));
+            voiceChannels.join("user" + index, "bench", http, wsConnections);
+        }
+        this.fanOut = new AudioFanOut(voiceChannels, wsConnections, this.framePool);
+        this.message = AudioRelayBenchmark.frame(voiceChannels.channelId("bench"), this.samples);
+        this.framesPerSecond = ChannelMixer.SAMPLE_RATE / this.samples;
+        this.barrier = new ChannelBarrier(voiceChannels, "bench", this.framePool);
+    }
+
+    /**
+     * As is.
+     */
+    @TearDown
+    public void tearDown() {
+        this.threads.close();
+    }
+
+    /**
+     * Same steps as Main's ws.onBinaryMessage for every frame in a second.
+     */
+    @Benchmark
+    public void relaySecond() {
+        for (int count = 0; count < this.framesPerSecond; ++count) {
+            final AudioFrame frame = this.framePool.acquire();
+            try {
+                if (frame.load(this.message, 0, this.message.length) && frame.valid()) {
+                    this.fanOut.relay("session0", frame);
+                }
+            } finally {
+                frame.release();
+            }
+            if ((count + 1) % BATCH == 0) {
+                this.barrier.await();
+            }
+        }
+        this.barrier.await();
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encoding and decoding one 20 ms Opus frame on the server.
+ * A real-time talker needs one of each every 20 ms, so 20,000,000 ns divided by the score
+ * is roughly how many talkers one core can transcode.
+ * The setup prints the signal-to-noise ratio of a round trip so that the bitrates can be compared by quality too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpusCodecBenchmark {
+
+    /**
+     * Number of frames in the test signal, which is one second.
+     */
+    private static final int FRAMES = 50;
+
+    /**
+     * Bits per second.
+     */
+    @Param({"16000", "32000", "64000"})
+    public int bitrate;
+
+    /**
+     * Speech-like test signal split into frames.
+     */
+    private float[][] signal;
+
+    /**
+     * Opus packets of the test signal.
+     */
+    private ByteBuffer[] packets;
+
+    /**
+     * Lengths of the packets in bytes.
+     */
+    private int[] lengths;
+
+    /**
+     * As is.
+     */
+    private AudioEncoder encoder;
+
+    /**
+     * As is.
+     */
+    private AudioDecoder decoder;
+
+    /**
+     * Where the encoder writes.
+     */
+    private final ByteBuffer encoded = ByteBuffer.allocate(OpusCodec.MAX_PACKET_BYTES);
+
+    /**
+     * Where the decoder writes.
+     */
+    private final float[] decoded = new float[OpusCodec.MAX_PACKET_SAMPLES];
+
+    /**
+     * Index of the next frame.
+     */
+    private int next;
+
+    /**
+     * Encode the test signal and print the quality of the round trip.
+     */
+    @Setup
+    public void setup() {
+        this.signal = speech();
+        this.packets = new ByteBuffer[FRAMES];
+        this.lengths = new int[FRAMES];
+        final AudioEncoder setupEncoder = new OpusStreamEncoder(this.bitrate);
+        long bytes = 0;
+        for (int frame = 0; frame < FRAMES; ++frame) {
+            this.packets[frame] = ByteBuffer.allocate(OpusCodec.MAX_PACKET_BYTES);
+            this.lengths[frame] = setupEncoder.encode(
+                this.signal[frame], OpusCodec.FRAME_SAMPLES, this.packets[frame], 0
+            );
+            bytes = bytes + this.lengths[frame];
+        }
+        final AudioDecoder setupDecoder = new OpusStreamDecoder();
+        final float[] output = new float[FRAMES * OpusCodec.FRAME_SAMPLES];
+        for (int frame = 0; frame < FRAMES; ++frame) {
+            setupDecoder.decode(this.packets[frame], 0, this.lengths[frame], 1, this.decoded);
+            System.arraycopy(this.decoded, 0, output, frame * OpusCodec.FRAME_SAMPLES, OpusCodec.FRAME_SAMPLES);
+        }
+        System.out.println(
+            String.format(
+                "%nOpus at %d bit/s: %.1f bytes per frame, SNR %.1f dB.",
+                this.bitrate,
+                (double) bytes / FRAMES,
+                snr(this.signal, output)
+            )
+        );
+        this.encoder = new OpusStreamEncoder(this.bitrate);
+        this.decoder = new OpusStreamDecoder();
+    }
+
+    /**
+     * As is.
+     * @return Bytes of the packet.
+     */
+    @Benchmark
+    public int encode() {
+        final int frame = this.next;
+        this.next = (frame + 1) % FRAMES;
+        return this.encoder.encode(this.signal[frame], OpusCodec.FRAME_SAMPLES, this.encoded, 0);
+    }
+
+    /**
+     * As is.
+     * @return Decoded samples.
+     */
+    @Benchmark
+    public int decode() {
+        final int frame = this.next;
+        this.next = (frame + 1) % FRAMES;
+        return this.decoder.decode(this.packets[frame], 0, this.lengths[frame], 1, this.decoded);
+    }
+
+    /**
+     * A voice-like signal: harmonics of a gliding pitch, a syllable rate envelope, and a bit of breath noise.
+     * @return Frames of {@link OpusCodec#FRAME_SAMPLES} samples.
+     */
+    private static float[][] speech() {
+        final float[][] result = new float[FRAMES][OpusCodec.FRAME_SAMPLES];
+        final Random random = new Random(42);
+        double phase = 0;
+        for (int frame = 0; frame < FRAMES; ++frame) {
+            for (int index = 0; index < OpusCodec.FRAME_SAMPLES; ++index) {
+                final double time = (frame * OpusCodec.FRAME_SAMPLES + index) / (double) OpusCodec.SAMPLE_RATE;
+                final double pitch = 140 + 30 * Math.sin(2 * Math.PI * 1.5 * time);
+                phase = phase + 2 * Math.PI * pitch / OpusCodec.SAMPLE_RATE;
+                double voiced = 0;
+                for (int harmonic = 1; harmonic <= 10; ++harmonic) {
+                    voiced = voiced + Math.sin(harmonic * phase) / harmonic;
+                }
+                final double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * time);
+                result[frame][index] = (float) (0.25 * envelope * voiced + 0.01 * random.nextGaussian());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Signal-to-noise ratio of the round trip.
+     * Opus delays the audio by a few milliseconds, so it compares at the lag that fits best.
+     * @param original Frames of the test signal.
+     * @param output Decoded audio in one array.
+     * @return In decibels.
+     */
+    private static double snr(final float[][] original, final float[] output) {
+        final float[] input = new float[output.length];
+        for (int frame = 0; frame < FRAMES; ++frame) {
+            System.arraycopy(original[frame], 0, input, frame * OpusCodec.FRAME_SAMPLES, OpusCodec.FRAME_SAMPLES);
+        }
+        double best = Double.NEGATIVE_INFINITY;
+        // Up to 10 ms, which is longer than the delay of the encoder and the decoder together.
+        for (int lag = 0; lag <= 480; ++lag) {
+            double signalPower = 0;
+            double noisePower = 0;
+            for (int index = 0; index + lag < output.length; ++index) {
+                final double difference = output[index + lag] - input[index];
+                signalPower = signalPower + input[index] * input[index];
+                noisePower = noisePower + difference * difference;
+            }
+            best = Math.max(best, 10 * Math.log10(signalPower / Math.max(noisePower, 1e-12)));
+        }
+        return best;
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encoding and decoding one block of 128 samples, which is what the browser sends at a time.
+ * Run it with the gc profiler (it's on by default in build.gradle).
+ * The gc.alloc.rate.norm should stay at 0 B/op.
+ * The setup prints the size and the signal-to-noise ratio of a round trip so that the codecs can be compared by quality too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PcmCodecsBenchmark {
+
+    /**
+     * Samples per block.
+     */
+    private static final int SAMPLES = 128;
+
+    /**
+     * Codec name.
+     */
+    @Param({"float32", "int16", "mulaw", "alaw", "adpcm"})
+    public String codec;
+
+    /**
+     * Test signal.
+     */
+    private final float[] signal = new float[SAMPLES];
+
+    /**
+     * Where the encoder writes.
+     */
+    private final ByteBuffer encoded = ByteBuffer.allocate(SAMPLES * 4).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Bytes of the encoded block.
+     */
+    private int length;
+
+    /**
+     * Where the decoder writes.
+     */
+    private final float[] decoded = new float[SAMPLES];
+
+    /**
+     * As is.
+     */
+    private AudioEncoder encoder;
+
+    /**
+     * As is.
+     */
+    private AudioDecoder decoder;
+
+    /**
+     * Encode the test signal and print the quality of the round trip.
+     */
+    @Setup
+    public void setup() {
+        final AudioCodec selected = AudioCodecs.negotiate(this.codec);
+        this.encoder = selected.encoder();
+        this.decoder = selected.decoder();
+        for (int index = 0; index < SAMPLES; ++index) {
+            this.signal[index] = (float) (0.3 * Math.sin(index * 0.07) + 0.1 * Math.sin(index * 0.61));
+        }
+        // A few blocks first so that the adaptive codecs have settled as they would in a stream.
+        for (int block = 0; block < 4; ++block) {
+            this.length = this.encoder.encode(this.signal, SAMPLES, this.encoded, 0);
+        }
+        this.decoder.decode(this.encoded, 0, this.length, 1, this.decoded);
+        double signalPower = 0;
+        double noisePower = 0;
+        for (int index = 0; index < SAMPLES; ++index) {
+            final double difference = this.decoded[index] - this.signal[index];
+            signalPower = signalPower + this.signal[index] * this.signal[index];
+            noisePower = noisePower + difference * difference;
+        }
+        System.out.println(
+            String.format(
+                "%n%s: %d bytes per block, SNR %.1f dB.",
+                selected.name(),
+                this.length,
+                10 * Math.log10(signalPower / Math.max(noisePower, 1e-12))
+            )
+        );
+    }
+
+    /**
+     * As is.
+     * @return Bytes of the block.
+     */
+    @Benchmark
+    public int encode() {
+        return this.encoder.encode(this.signal, SAMPLES, this.encoded, 0);
+    }
+
+    /**
+     * As is.
+     * @return Decoded samples.
+     */
+    @Benchmark
+    public int decode() {
+        return this.decoder.decode(this.encoded, 0, this.length, 1, this.decoded);
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.levelrin.wsvoip.messagelogic;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.levelrin.wsvoip.ChannelBarrier;
+import com.levelrin.wsvoip.ChannelThreads;
+import com.levelrin.wsvoip.StubConnection;
+import com.levelrin.wsvoip.StubContexts;
+import com.levelrin.wsvoip.VoiceChannels;
+import com.levelrin.wsvoip.WsConnections;
+import com.levelrin.wsvoip.audio.AudioFanOut;
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import io.javalin.http.Context;
+import io.javalin.websocket.WsMessageContext;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Handling of one JSON audio message of 128 samples, which is what the browser used to send at a time.
+ * 'parseAndSerialize' is what the server used to do per message: build a JSON tree and write it back.
+ * 'dispatch' is what the WebSocket handler does today, from reading the 'about' attribute to the delivery.
+ * 'handle' is {@link HandleArrayOfFloat32Array} alone.
+ * The difference between 'dispatch' and 'handle' is the cost of the dispatcher.
+ * Both run in batches that wait for the thread of the channel, so they include the delivery.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonAudioBenchmark {
+
+    /**
+     * Samples in the message.
+     */
+    private static final int SAMPLES = 128;
+
+    /**
+     * Messages handled before waiting for the thread of the channel.
+     */
+    private static final int BATCH = 64;
+
+    /**
+     * Number of people in the channel including the talker.
+     */
+    @Param({"2", "20"})
+    public int members;
+
+    /**
+     * As is.
+     */
+    private final Gson gson = new Gson();
+
+    /**
+     * The threads of the channel.
+     */
+    private ChannelThreads threads;
+
+    /**
+     * To wait for the thread of the channel.
+     */
+    private ChannelBarrier barrier;
+
+    /**
+     * JSON audio message from the talker.
+     */
+    private String message;
+
+    /**
+     * Context of the message from the talker.
+     */
+    private WsMessageContext context;
+
+    /**
+     * As is.
+     */
+    private WsMessageDispatcher dispatcher;
+
+    /**
+     * As is.
+     */
+    private HandleArrayOfFloat32Array logic;
+
+    /**
+     * Create a channel, put the members in it, and build the message.
+     */
+    @Setup
+    public void setup() {
+        this.threads = new ChannelThreads(1);
+        final AudioFramePool framePool = new AudioFramePool(2, AudioFrame.MAX_BYTES);
+        final WsConnections wsConnections = new WsConnections();
+        final VoiceChannels voiceChannels = new VoiceChannels(this.threads, framePool);
+        final Context http = StubContexts.http();
+        voiceChannels.create("bench", false, http, wsConnections);
+        for (int index = 0; index < this.members; ++index) {
+            wsConnections.add("user" + index, new StubConnection("session" + index));
+            voiceChannels.join("user" + index, "bench", http, wsConnections);
+        }
+        this.logic = new HandleArrayOfFloat32Array(new AudioFanOut(voiceChannels, wsConnections, framePool));
+        final Map<String, WsMessageLogic<?>> messageLogicMap = new HashMap<>();
+        messageLogicMap.put("audio data", this.logic);
+        this.dispatcher = new WsMessageDispatcher(messageLogicMap, this.gson);
+        this.message = message();
+        this.context = StubContexts.wsMessage("session0", this.message);
+        this.barrier = new ChannelBarrier(voiceChannels, "bench", framePool);
+    }
+
+    /**
+     * As is.
+     */
+    @TearDown
+    public void tearDown() {
+        this.threads.close();
+    }
+
+    /**
+     * Parse the message into a JSON tree and serialize it again.
+     * @return Serialized message.
+     */
+    @Benchmark
+    public String parseAndSerialize() {
+        return this.gson.fromJson(this.message, JsonObject.class).toString();
+    }
+
+    /**
+     * As is.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void dispatch() {
+        for (int count = 0; count < BATCH; ++count) {
+            this.dispatcher.dispatch(this.context);
+        }
+        this.barrier.await();
+    }
+
+    /**
+     * As is.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void handle() {
+        for (int count = 0; count < BATCH; ++count) {
+            this.logic.handle(this.context, this.message);
+        }
+        this.barrier.await();
+    }
+
+    /**
+     * Build the message as the browser did.
+     * JSON.stringify writes a Float32Array as an object whose keys are the indexes.
+     * @return JSON text.
+     */
+    private static String message() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"about\":\"audio data\",\"dataType\":\"array of Float32Array\",\"data\":[[{");
+        for (int index = 0; index < SAMPLES; ++index) {
+            if (index > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append(index).append("\":");
+            builder.append(String.format(Locale.ROOT, "%.9f", 0.3 * Math.sin(index * 0.07)));
+        }
+        builder.append("}]]}");
+        return builder.toString();
+    }
+
+}
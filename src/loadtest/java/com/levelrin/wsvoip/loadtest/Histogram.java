@@ -0,0 +1,105 @@
+package com.levelrin.wsvoip.loadtest;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies counted in buckets of 10 microseconds.
+ * Unlike {@link Latencies}, it does not keep every value,
+ * so it can record the latency of every audio frame for as long as the test runs.
+ * It's thread-safe.
+ */
+final class Histogram {
+
+    /**
+     * Width of a bucket in nanoseconds.
+     */
+    private static final long BUCKET_NANOS = 10_000;
+
+    /**
+     * Number of buckets, which covers 10 seconds.
+     * Longer latencies go to the last bucket.
+     */
+    private static final int BUCKETS = 1_000_000;
+
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    /**
+     * Number of latencies in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Number of recorded latencies.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The longest recorded latency in nanoseconds.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * As is.
+     * @param latency In nanoseconds.
+     */
+    void record(final long latency) {
+        final int bucket = (int) Math.min(BUCKETS - 1, Math.max(0, latency) / BUCKET_NANOS);
+        this.counts.incrementAndGet(bucket);
+        this.count.incrementAndGet();
+        this.max.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * As is.
+     * @return Number of recorded latencies.
+     */
+    long count() {
+        return this.count.get();
+    }
+
+    /**
+     * Summary for the console.
+     * The percentiles are the upper bounds of their buckets.
+     * @return For example, "n=100 p50=1.20ms p90=2.31ms p99=5.02ms p99.9=6.50ms max=7.10ms".
+     */
+    String summary() {
+        final long total = this.count.get();
+        return String.format(
+            Locale.ROOT,
+            "n=%d p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+            total,
+            this.percentile(total, 0.50),
+            this.percentile(total, 0.90),
+            this.percentile(total, 0.99),
+            this.percentile(total, 0.999),
+            this.max.get() / NANOS_PER_MILLI
+        );
+    }
+
+    /**
+     * As is.
+     * @param total Number of recorded latencies.
+     * @param rank Between 0 and 1.
+     * @return In milliseconds, or zero if nothing was recorded.
+     */
+    private double percentile(final long total, final double rank) {
+        double result = 0;
+        if (total > 0) {
+            final long target = Math.max(1, (long) Math.ceil(rank * total));
+            long seen = 0;
+            int bucket = 0;
+            while (bucket < BUCKETS - 1 && seen + this.counts.get(bucket) < target) {
+                seen = seen + this.counts.get(bucket);
+                bucket = bucket + 1;
+            }
+            result = (bucket + 1) * BUCKET_NANOS / NANOS_PER_MILLI;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.levelrin.wsvoip.loadtest;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Load test with many idle-but-connected sessions.
+ * It connects the sessions to a running server, and then measures the control plane while they stay connected:
+ * how long a channel creation takes to reach a connected client through the broadcast,
+ * and how long '/onlineUsers' takes.
+ * Run it against the server started with and without -Dwsvoip.virtualThreads=true to compare.
+ * See details at README.md
+ */
+public final class IdleSessions {
+
+    /**
+     * Sessions connecting at the same time.
+     */
+    private static final int CONNECT_BATCH = 200;
+
+    /**
+     * Utility class.
+     */
+    private IdleSessions() {
+    }
+
+    /**
+     * Options are sessions=5000 rounds=50 url=http://localhost:8080
+     * @param args Options in the form of key=value.
+     * @throws Exception If the server does not respond.
+     */
+    public static void main(final String... args) throws Exception {
+        final Options options = new Options(args);
+        final URI base = URI.create(options.text("url", "http://localhost:8080"));
+        final int sessions = options.integer("sessions", 5000);
+        final int rounds = options.integer("rounds", 50);
+        final HttpClient client = HttpClient.newHttpClient();
+        final AtomicReference<CompletableFuture<Void>> expected = new AtomicReference<>(new CompletableFuture<>());
+        final AtomicReference<String> expectedName = new AtomicReference<>("");
+        final List<WebSocket> sockets = new ArrayList<>(sessions);
+        final long connectStart = System.nanoTime();
+        final Latencies connects = new Latencies();
+        for (int batch = 0; batch < sessions; batch += CONNECT_BATCH) {
+            final List<CompletableFuture<WebSocket>> pending = new ArrayList<>();
+            for (int index = batch; index < Math.min(sessions, batch + CONNECT_BATCH); ++index) {
+                final long start = System.nanoTime();
+                WebSocket.Listener listener = new Ignore();
+                if (index == 0) {
+                    listener = new Probe(expected, expectedName);
+                }
+                pending.add(
+                    client.newWebSocketBuilder()
+                        .buildAsync(websocket(base, "idle-" + index), listener)
+                        .whenComplete((socket, error) -> connects.record(System.nanoTime() - start))
+                );
+            }
+            for (final CompletableFuture<WebSocket> each : pending) {
+                sockets.add(each.get(1, TimeUnit.MINUTES));
+            }
+        }
+        System.out.printf(
+            "Connected %d sessions in %d ms. Connect latency: %s%n",
+            sessions,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart),
+            connects.summary()
+        );
+        final Latencies broadcasts = new Latencies();
+        final Latencies onlineUsers = new Latencies();
+        for (int round = 0; round < rounds; ++round) {
+            final String name = "idle-load-" + round + "-" + System.nanoTime();
+            final CompletableFuture<Void> received = new CompletableFuture<>();
+            expectedName.set(name);
+            expected.set(received);
+            final long start = System.nanoTime();
+            client.send(
+                HttpRequest.newBuilder(base.resolve("/createVoiceChannel"))
+                    .header("Content-Type", "text/plain; charset=utf-8")
+                    .POST(HttpRequest.BodyPublishers.ofString(name))
+                    .build(),
+                HttpResponse.BodyHandlers.discarding()
+            );
+            received.get(1, TimeUnit.MINUTES);
+            broadcasts.record(System.nanoTime() - start);
+            client.send(
+                HttpRequest.newBuilder(base.resolve("/removeVoiceChannel"))
+                    .header("Content-Type", "text/plain; charset=utf-8")
+                    .method("DELETE", HttpRequest.BodyPublishers.ofString(name))
+                    .build(),
+                HttpResponse.BodyHandlers.discarding()
+            );
+            final long usersStart = System.nanoTime();
+            client.send(
+                HttpRequest.newBuilder(base.resolve("/onlineUsers")).GET().build(),
+                HttpResponse.BodyHandlers.discarding()
+            );
+            onlineUsers.record(System.nanoTime() - usersStart);
+        }
+        System.out.printf("Channel creation broadcast latency: %s%n", broadcasts.summary());
+        System.out.printf("GET /onlineUsers latency: %s%n", onlineUsers.summary());
+        for (final WebSocket socket : sockets) {
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "done");
+        }
+    }
+
+    /**
+     * WebSocket URI of the user.
+     * @param base HTTP URI of the server.
+     * @param username As is.
+     * @return As is.
+     */
+    private static URI websocket(final URI base, final String username) {
+        return URI.create(
+            String.format(
+                "ws://%s:%d/connect?username=%s",
+                base.getHost(),
+                base.getPort(),
+                URLEncoder.encode(username, StandardCharsets.UTF_8)
+            )
+        );
+    }
+
+    /**
+     * It ignores every message.
+     */
+    private static final class Ignore implements WebSocket.Listener {
+
+        @Override
+        public CompletionStage<?> onText(final WebSocket socket, final CharSequence data, final boolean last) {
+            socket.request(1);
+            return null;
+        }
+
+    }
+
+    /**
+     * It waits for the broadcast of the channel creation.
+     */
+    private static final class Probe implements WebSocket.Listener {
+
+        /**
+         * Completed when the broadcast arrives.
+         */
+        private final AtomicReference<CompletableFuture<Void>> expected;
+
+        /**
+         * Name of the channel we are waiting for.
+         */
+        private final AtomicReference<String> expectedName;
+
+        /**
+         * Parts of the current message.
+         */
+        private final StringBuilder message = new StringBuilder();
+
+        /**
+         * Constructor.
+         * @param expected Completed when the broadcast arrives.
+         * @param expectedName Name of the channel we are waiting for.
+         */
+        Probe(final AtomicReference<CompletableFuture<Void>> expected, final AtomicReference<String> expectedName) {
+            this.expected = expected;
+            this.expectedName = expectedName;
+        }
+
+        @Override
+        public CompletionStage<?> onText(final WebSocket socket, final CharSequence data, final boolean last) {
+            this.message.append(data);
+            if (last) {
+                final String text = this.message.toString();
+                this.message.setLength(0);
+                if (text.contains("voice channel is created")
+                    && text.contains('"' + this.expectedName.get() + '"')) {
+                    this.expected.get().complete(null);
+                }
+            }
+            socket.request(1);
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.levelrin.wsvoip.loadtest;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Recorded latencies and their percentiles.
+ * It's thread-safe.
+ */
+final class Latencies {
+
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    /**
+     * Recorded latencies in nanoseconds.
+     */
+    private long[] nanos = new long[1024];
+
+    /**
+     * Number of recorded latencies.
+     */
+    private int count;
+
+    /**
+     * As is.
+     * @param latency In nanoseconds.
+     */
+    synchronized void record(final long latency) {
+        if (this.count == this.nanos.length) {
+            this.nanos = Arrays.copyOf(this.nanos, this.count * 2);
+        }
+        this.nanos[this.count] = latency;
+        this.count = this.count + 1;
+    }
+
+    /**
+     * As is.
+     * @return Number of recorded latencies.
+     */
+    synchronized int count() {
+        return this.count;
+    }
+
+    /**
+     * Summary for the console.
+     * @return For example, "n=100 p50=1.20ms p90=2.31ms p99=5.02ms max=7.10ms".
+     */
+    synchronized String summary() {
+        final long[] sorted = Arrays.copyOf(this.nanos, this.count);
+        Arrays.sort(sorted);
+        return String.format(
+            Locale.ROOT,
+            "n=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+            this.count,
+            percentile(sorted, 0.50),
+            percentile(sorted, 0.90),
+            percentile(sorted, 0.99),
+            percentile(sorted, 1.0)
+        );
+    }
+
+    /**
+     * As is.
+     * @param sorted Latencies in ascending order.
+     * @param rank Between 0 and 1.
+     * @return In milliseconds, or zero if nothing was recorded.
+     */
+    private static double percentile(final long[] sorted, final double rank) {
+        double result = 0;
+        if (sorted.length > 0) {
+            final int index = (int) Math.ceil(rank * sorted.length) - 1;
+            result = sorted[Math.max(0, index)] / NANOS_PER_MILLI;
+        }
+        return result;
+    }
+
+}
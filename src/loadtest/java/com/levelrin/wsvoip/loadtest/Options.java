@@ -0,0 +1,53 @@
+package com.levelrin.wsvoip.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options in the form of key=value.
+ */
+final class Options {
+
+    /**
+     * Key - Option name.
+     * Value - Option value.
+     */
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * Constructor.
+     * @param args For example, {"sessions=5000", "url=http://localhost:8080"}.
+     */
+    Options(final String... args) {
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException(
+                    String.format("Options must be in the form of key=value, but it was: %s", arg)
+                );
+            }
+            this.values.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+    }
+
+    /**
+     * As is.
+     * @param name Option name.
+     * @param fallback It's used if the option does not exist.
+     * @return As is.
+     */
+    String text(final String name, final String fallback) {
+        return this.values.getOrDefault(name, fallback);
+    }
+
+    /**
+     * As is.
+     * @param name Option name.
+     * @param fallback It's used if the option does not exist.
+     * @return As is.
+     */
+    int integer(final String name, final int fallback) {
+        return Integer.parseInt(this.text(name, String.valueOf(fallback)));
+    }
+
+}
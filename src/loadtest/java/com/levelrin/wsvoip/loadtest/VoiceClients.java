@@ -0,0 +1,753 @@
+package com.levelrin.wsvoip.loadtest;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test with voice clients that talk and listen in relayed channels.
+ * Every client joins a channel, and a few clients per channel send a frame of 128 samples every 2.67 ms
+ * as the browser does without packetization, or a longer frame such as 960 samples every 20 ms,
+ * in binary frames or in the JSON messages.
+ * Extra clients keep joining, switching, and leaving channels at the same time.
+ * It measures how long a frame takes from the talker to each listener through the server,
+ * how many frames are lost on the way, and how many frames are delivered per second.
+ * All clients run in this process, so the send and receive times come from the same clock.
+ * See details at README.md
+ */
+public final class VoiceClients {
+
+    /**
+     * Samples per second.
+     */
+    private static final int SAMPLE_RATE = 48_000;
+
+    /**
+     * Bytes of the binary frame header.
+     */
+    private static final int HEADER_BYTES = 20;
+
+    /**
+     * Codec ID of PCM float32.
+     */
+    private static final int CODEC_FLOAT32 = 0;
+
+    /**
+     * Codec ID of PCM int16.
+     */
+    private static final int CODEC_INT16 = 2;
+
+    /**
+     * The sequence of a frame is the talker number shifted by this much plus the frame number of the talker,
+     * so a listener can tell the talker from the sequence alone.
+     * It gives each talker about 47 minutes of frames.
+     */
+    private static final int TALKER_SHIFT = 20;
+
+    /**
+     * Number of send times that each talker remembers, which is about 11 seconds.
+     */
+    private static final int SENT_RING = 4096;
+
+    /**
+     * Sessions connecting at the same time.
+     */
+    private static final int CONNECT_BATCH = 200;
+
+    /**
+     * Utility class.
+     */
+    private VoiceClients() {
+    }
+
+    /**
+     * Options are url=http://localhost:8080 clients=500 channels=50 talkers=1 movers=50 churn=20
+     * seconds=60 warmup=5 format=binary codec=float32 samples=128 senders=(number of cores).
+     * @param args Options in the form of key=value.
+     * @throws Exception If the server does not respond.
+     */
+    public static void main(final String... args) throws Exception {
+        final Options options = new Options(args);
+        final URI base = URI.create(options.text("url", "http://localhost:8080"));
+        final int clients = options.integer("clients", 500);
+        final int channels = options.integer("channels", 50);
+        final int talkersPerChannel = options.integer("talkers", 1);
+        final int movers = options.integer("movers", 50);
+        final int churn = options.integer("churn", 20);
+        final int seconds = options.integer("seconds", 60);
+        final int warmup = options.integer("warmup", 5);
+        final boolean json = "json".equals(options.text("format", "binary"));
+        final String codec = options.text("codec", "float32");
+        final int senders = options.integer("senders", Runtime.getRuntime().availableProcessors());
+        final int samples = options.integer("samples", 128);
+        final HttpClient client = HttpClient.newHttpClient();
+        final String run = Long.toString(System.currentTimeMillis(), 36);
+        final String[] channelNames = new String[channels];
+        final int[] channelIds = new int[channels];
+        for (int channel = 0; channel < channels; ++channel) {
+            channelNames[channel] = "load-" + run + "-" + channel;
+            post(client, base, "/createVoiceChannel", "text/plain; charset=utf-8", channelNames[channel]);
+        }
+        final String listing = client.send(
+            HttpRequest.newBuilder(base.resolve("/voiceChannels")).GET().build(),
+            HttpResponse.BodyHandlers.ofString()
+        ).body();
+        for (int channel = 0; channel < channels; ++channel) {
+            final Matcher matcher = Pattern.compile(
+                "\"name\":\"" + Pattern.quote(channelNames[channel]) + "\",\"id\":(\\d+)"
+            ).matcher(listing);
+            if (!matcher.find()) {
+                throw new IllegalStateException(
+                    String.format("The channel %s is not in /voiceChannels.", channelNames[channel])
+                );
+            }
+            channelIds[channel] = Integer.parseInt(matcher.group(1));
+        }
+        final Stats stats = new Stats();
+        final int talkerCount = Math.min(clients, channels * talkersPerChannel);
+        if (talkerCount >= 1 << (Integer.SIZE - TALKER_SHIFT)) {
+            throw new IllegalArgumentException(
+                String.format("Up to %d talkers are supported, but it was: %d", (1 << (Integer.SIZE - TALKER_SHIFT)) - 1, talkerCount)
+            );
+        }
+        final Talker[] talkers = new Talker[talkerCount];
+        final List<WebSocket> sockets = new ArrayList<>(clients + movers);
+        final Histogram connects = new Histogram();
+        for (int batch = 0; batch < clients; batch += CONNECT_BATCH) {
+            final List<CompletableFuture<WebSocket>> pending = new ArrayList<>();
+            for (int index = batch; index < Math.min(clients, batch + CONNECT_BATCH); ++index) {
+                final long start = System.nanoTime();
+                pending.add(
+                    client.newWebSocketBuilder()
+                        .buildAsync(websocket(base, "voice-" + index, codec), new Listener(stats, talkers, json))
+                        .whenComplete((socket, error) -> connects.record(System.nanoTime() - start))
+                );
+            }
+            for (final CompletableFuture<WebSocket> each : pending) {
+                sockets.add(each.get(1, TimeUnit.MINUTES));
+            }
+        }
+        final List<CompletableFuture<HttpResponse<Void>>> joins = new ArrayList<>();
+        for (int index = 0; index < clients; ++index) {
+            final int channel = index % channels;
+            joins.add(
+                postAsync(
+                    client,
+                    base,
+                    "/joinVoiceChannel",
+                    String.format("{\"username\":\"voice-%d\",\"channelName\":\"%s\"}", index, channelNames[channel])
+                )
+            );
+            // Client N is the talker number N, so the first clients of each channel talk.
+            if (index < talkerCount) {
+                talkers[index] = new Talker(sockets.get(index), index, channelIds[channel], json, codec, samples);
+            }
+        }
+        for (final CompletableFuture<HttpResponse<Void>> join : joins) {
+            join.get(1, TimeUnit.MINUTES);
+        }
+        final Mover[] moving = new Mover[movers];
+        for (int index = 0; index < movers; ++index) {
+            moving[index] = new Mover("mover-" + index);
+            sockets.add(
+                client.newWebSocketBuilder()
+                    .buildAsync(websocket(base, moving[index].username, codec), new Ignore())
+                    .get(1, TimeUnit.MINUTES)
+            );
+        }
+        System.out.printf(
+            "Connected %d clients (%d talkers, %d movers) to %d channels in the %s format. Connect latency: %s%n",
+            clients + movers,
+            talkerCount,
+            movers,
+            channels,
+            options.text("format", "binary"),
+            connects.summary()
+        );
+        final ScheduledExecutorService sending = Executors.newScheduledThreadPool(senders);
+        for (int sender = 0; sender < senders; ++sender) {
+            final int first = sender;
+            sending.scheduleAtFixedRate(
+                () -> {
+                    for (int index = first; index < talkers.length; index += senders) {
+                        talkers[index].send(stats);
+                    }
+                },
+                0,
+                samples * 1_000_000_000L / SAMPLE_RATE,
+                TimeUnit.NANOSECONDS
+            );
+        }
+        final ScheduledExecutorService churning = Executors.newSingleThreadScheduledExecutor();
+        final AtomicInteger nextMover = new AtomicInteger();
+        if (movers > 0 && churn > 0) {
+            churning.scheduleAtFixedRate(
+                () -> moving[nextMover.getAndIncrement() % movers].step(client, base, channelNames, stats),
+                0,
+                1_000_000 / churn,
+                TimeUnit.MICROSECONDS
+            );
+        }
+        TimeUnit.SECONDS.sleep(warmup);
+        stats.measuring = true;
+        final long start = System.nanoTime();
+        long previousReceived = 0;
+        for (int second = 1; second <= seconds; ++second) {
+            TimeUnit.SECONDS.sleep(1);
+            final long received = stats.received.sum();
+            if (second % 5 == 0) {
+                System.out.printf(
+                    "%ds: %d frames/s received, latency %s%n",
+                    second,
+                    (received - previousReceived) / 5,
+                    stats.latencies.summary()
+                );
+                previousReceived = received;
+            }
+        }
+        stats.measuring = false;
+        final double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+        sending.shutdownNow();
+        churning.shutdownNow();
+        final long received = stats.received.sum();
+        final long lost = stats.lost.sum();
+        System.out.printf(
+            Locale.ROOT,
+            "Sent %d frames (%.0f/s). %d frames were not sent because the socket was still busy with the previous one.%n",
+            stats.sent.sum(),
+            stats.sent.sum() / elapsed,
+            stats.busy.sum()
+        );
+        System.out.printf(
+            Locale.ROOT,
+            "Received %d frames (%.0f/s, %.1f Mbit/s). Lost %d frames (%.3f%%).%n",
+            received,
+            received / elapsed,
+            stats.bytes.sum() * 8 / elapsed / 1_000_000,
+            lost,
+            100.0 * lost / Math.max(1, received + lost)
+        );
+        System.out.printf("Frame delivery latency: %s%n", stats.latencies.summary());
+        System.out.printf("POST /joinVoiceChannel latency: %s%n", stats.joins.summary());
+        System.out.printf("POST /switchVoiceChannel latency: %s%n", stats.switches.summary());
+        System.out.printf("POST /leaveVoiceChannel latency: %s%n", stats.leaves.summary());
+        for (final WebSocket socket : sockets) {
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "done");
+        }
+        for (final String channelName : channelNames) {
+            client.send(
+                HttpRequest.newBuilder(base.resolve("/removeVoiceChannel"))
+                    .header("Content-Type", "text/plain; charset=utf-8")
+                    .method("DELETE", HttpRequest.BodyPublishers.ofString(channelName))
+                    .build(),
+                HttpResponse.BodyHandlers.discarding()
+            );
+        }
+    }
+
+    /**
+     * WebSocket URI of the user.
+     * @param base HTTP URI of the server.
+     * @param username As is.
+     * @param codec Codec name that the user asks for.
+     * @return As is.
+     */
+    private static URI websocket(final URI base, final String username, final String codec) {
+        return URI.create(
+            String.format(
+                "ws://%s:%d/connect?username=%s&codecs=%s",
+                base.getHost(),
+                base.getPort(),
+                URLEncoder.encode(username, StandardCharsets.UTF_8),
+                URLEncoder.encode(codec, StandardCharsets.UTF_8)
+            )
+        );
+    }
+
+    /**
+     * Send the POST request and wait for the response.
+     * @param client As is.
+     * @param base HTTP URI of the server.
+     * @param path As is.
+     * @param contentType As is.
+     * @param body As is.
+     * @throws Exception If the server does not respond.
+     */
+    private static void post(final HttpClient client, final URI base, final String path, final String contentType, final String body) throws Exception {
+        client.send(
+            HttpRequest.newBuilder(base.resolve(path))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(),
+            HttpResponse.BodyHandlers.discarding()
+        );
+    }
+
+    /**
+     * Send the POST request with the JSON body.
+     * @param client As is.
+     * @param base HTTP URI of the server.
+     * @param path As is.
+     * @param body JSON.
+     * @return Completed with the response.
+     */
+    private static CompletableFuture<HttpResponse<Void>> postAsync(final HttpClient client, final URI base, final String path, final String body) {
+        return client.sendAsync(
+            HttpRequest.newBuilder(base.resolve(path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(),
+            HttpResponse.BodyHandlers.discarding()
+        );
+    }
+
+    /**
+     * Counters shared by all clients.
+     */
+    private static final class Stats {
+
+        /**
+         * Frames sent by the talkers.
+         */
+        private final LongAdder sent = new LongAdder();
+
+        /**
+         * Frames not sent because the socket was still sending the previous one.
+         */
+        private final LongAdder busy = new LongAdder();
+
+        /**
+         * Frames received by the listeners.
+         */
+        private final LongAdder received = new LongAdder();
+
+        /**
+         * Bytes received by the listeners.
+         */
+        private final LongAdder bytes = new LongAdder();
+
+        /**
+         * Frames that a listener did not receive between two frames of the same talker.
+         */
+        private final LongAdder lost = new LongAdder();
+
+        /**
+         * From the talker's send to the listener's receive.
+         */
+        private final Histogram latencies = new Histogram();
+
+        /**
+         * As is.
+         */
+        private final Latencies joins = new Latencies();
+
+        /**
+         * As is.
+         */
+        private final Latencies switches = new Latencies();
+
+        /**
+         * As is.
+         */
+        private final Latencies leaves = new Latencies();
+
+        /**
+         * False during the warmup and after the end.
+         */
+        private volatile boolean measuring;
+
+    }
+
+    /**
+     * A client that talks.
+     * Only one sender thread uses it.
+     */
+    private static final class Talker {
+
+        /**
+         * As is.
+         */
+        private final WebSocket socket;
+
+        /**
+         * Talker number, which is in the upper bits of the sequence.
+         */
+        private final int number;
+
+        /**
+         * True if it sends the JSON messages instead of the binary frames.
+         */
+        private final boolean json;
+
+        /**
+         * The binary frame, which is reused after the previous send completes.
+         */
+        private final ByteBuffer frame;
+
+        /**
+         * Everything of the JSON message after the sequence.
+         */
+        private final String jsonTail;
+
+        /**
+         * Send times by the frame number modulo {@link VoiceClients#SENT_RING}.
+         * The listeners read them.
+         */
+        private final AtomicLongArray sentAt = new AtomicLongArray(SENT_RING);
+
+        /**
+         * Frame number of the next frame.
+         */
+        private int next;
+
+        /**
+         * The previous send, or null.
+         */
+        private CompletableFuture<WebSocket> sending;
+
+        /**
+         * Constructor.
+         * @param socket As is.
+         * @param number Talker number.
+         * @param channelId Channel ID for the binary frames.
+         * @param json True if it sends the JSON messages instead of the binary frames.
+         * @param codec 'float32' or 'int16' for the binary frames.
+         * @param count Samples per frame.
+         */
+        Talker(final WebSocket socket, final int number, final int channelId, final boolean json, final String codec, final int count) {
+            this.socket = socket;
+            this.number = number;
+            this.json = json;
+            // One cycle per frame, so the frames join without a click and the talker is always voiced.
+            final float[] samples = new float[count];
+            for (int index = 0; index < count; ++index) {
+                samples[index] = (float) (0.3 * Math.sin(2 * Math.PI * index / count));
+            }
+            final boolean int16 = "int16".equals(codec);
+            int bytesPerSample = 4;
+            if (int16) {
+                bytesPerSample = 2;
+            }
+            this.frame = ByteBuffer.allocate(HEADER_BYTES + count * bytesPerSample).order(ByteOrder.LITTLE_ENDIAN);
+            this.frame.put(0, (byte) 1);
+            if (int16) {
+                this.frame.put(1, (byte) CODEC_INT16);
+            } else {
+                this.frame.put(1, (byte) CODEC_FLOAT32);
+            }
+            this.frame.put(2, (byte) 1);
+            this.frame.putInt(4, SAMPLE_RATE);
+            this.frame.putInt(12, channelId);
+            for (int index = 0; index < count; ++index) {
+                if (int16) {
+                    this.frame.putShort(HEADER_BYTES + index * 2, (short) Math.round(samples[index] * Short.MAX_VALUE));
+                } else {
+                    this.frame.putFloat(HEADER_BYTES + index * 4, samples[index]);
+                }
+            }
+            // JSON.stringify writes a Float32Array as an object whose keys are the indexes.
+            final StringBuilder tail = new StringBuilder(",\"data\":[[{");
+            for (int index = 0; index < count; ++index) {
+                if (index > 0) {
+                    tail.append(',');
+                }
+                tail.append('"').append(index).append("\":").append((double) samples[index]);
+            }
+            tail.append("}]]}");
+            this.jsonTail = tail.toString();
+        }
+
+        /**
+         * Send the next frame unless the previous one is still being sent.
+         * @param stats To count the frames.
+         */
+        void send(final Stats stats) {
+            if (this.sending != null && !this.sending.isDone()) {
+                if (stats.measuring) {
+                    stats.busy.increment();
+                }
+            } else {
+                final int sequence = (this.number << TALKER_SHIFT) | (this.next & ((1 << TALKER_SHIFT) - 1));
+                this.sentAt.set(this.next % SENT_RING, System.nanoTime());
+                if (this.json) {
+                    this.sending = this.socket.sendText(
+                        "{\"about\":\"audio data\",\"dataType\":\"array of Float32Array\",\"sequence\":" + sequence + this.jsonTail,
+                        true
+                    );
+                } else {
+                    this.frame.putInt(8, sequence);
+                    this.sending = this.socket.sendBinary(this.frame.rewind(), true);
+                }
+                this.next = this.next + 1;
+                if (stats.measuring) {
+                    stats.sent.increment();
+                }
+            }
+        }
+
+        /**
+         * As is.
+         * @param frameNumber Frame number of the talker.
+         * @return When the frame was sent in {@link System#nanoTime()}.
+         */
+        long sentAt(final int frameNumber) {
+            return this.sentAt.get(frameNumber % SENT_RING);
+        }
+
+    }
+
+    /**
+     * A client that only joins, switches, and leaves channels.
+     */
+    private static final class Mover {
+
+        /**
+         * As is.
+         */
+        private final String username;
+
+        /**
+         * True while a request is in flight.
+         */
+        private final AtomicBoolean busy = new AtomicBoolean();
+
+        /**
+         * Index of the channel the mover is in, or -1.
+         */
+        private int channel = -1;
+
+        /**
+         * Number of switches since the join.
+         */
+        private int switches;
+
+        /**
+         * Constructor.
+         * @param username As is.
+         */
+        Mover(final String username) {
+            this.username = username;
+        }
+
+        /**
+         * Join a channel, switch twice, and leave, one request per step.
+         * @param client As is.
+         * @param base HTTP URI of the server.
+         * @param channelNames As is.
+         * @param stats To record the latencies.
+         */
+        void step(final HttpClient client, final URI base, final String[] channelNames, final Stats stats) {
+            if (this.busy.compareAndSet(false, true)) {
+                final long start = System.nanoTime();
+                final CompletableFuture<HttpResponse<Void>> response;
+                final Latencies latencies;
+                if (this.channel < 0) {
+                    this.channel = (int) (Math.random() * channelNames.length);
+                    this.switches = 0;
+                    latencies = stats.joins;
+                    response = postAsync(
+                        client,
+                        base,
+                        "/joinVoiceChannel",
+                        String.format("{\"username\":\"%s\",\"channelName\":\"%s\"}", this.username, channelNames[this.channel])
+                    );
+                } else if (this.switches < 2) {
+                    final int previous = this.channel;
+                    this.channel = (this.channel + 1) % channelNames.length;
+                    this.switches = this.switches + 1;
+                    latencies = stats.switches;
+                    response = postAsync(
+                        client,
+                        base,
+                        "/switchVoiceChannel",
+                        String.format(
+                            "{\"username\":\"%s\",\"oldChannelName\":\"%s\",\"newChannelName\":\"%s\"}",
+                            this.username,
+                            channelNames[previous],
+                            channelNames[this.channel]
+                        )
+                    );
+                } else {
+                    final int previous = this.channel;
+                    this.channel = -1;
+                    latencies = stats.leaves;
+                    response = postAsync(
+                        client,
+                        base,
+                        "/leaveVoiceChannel",
+                        String.format("{\"username\":\"%s\",\"channelName\":\"%s\"}", this.username, channelNames[previous])
+                    );
+                }
+                response.whenComplete(
+                    (ignored, error) -> {
+                        if (stats.measuring) {
+                            latencies.record(System.nanoTime() - start);
+                        }
+                        this.busy.set(false);
+                    }
+                );
+            }
+        }
+
+    }
+
+    /**
+     * It ignores every message.
+     * Movers use it because their frames would look lost whenever they switch channels.
+     */
+    private static final class Ignore implements WebSocket.Listener {
+
+        @Override
+        public CompletionStage<?> onText(final WebSocket socket, final CharSequence data, final boolean last) {
+            socket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(final WebSocket socket, final ByteBuffer data, final boolean last) {
+            socket.request(1);
+            return null;
+        }
+
+    }
+
+    /**
+     * It receives the audio and checks each frame against the send time of its talker.
+     * The JDK calls it for one message at a time, so its state needs no lock.
+     */
+    private static final class Listener implements WebSocket.Listener {
+
+        /**
+         * As is.
+         */
+        private final Stats stats;
+
+        /**
+         * Talkers by their numbers.
+         * They are filled in after the connection, so a frame may arrive before its talker is known.
+         */
+        private final Talker[] talkers;
+
+        /**
+         * True if the audio comes in the JSON messages.
+         */
+        private final boolean json;
+
+        /**
+         * The last frame number received from each talker, or -1.
+         */
+        private final int[] last;
+
+        /**
+         * Parts of the current text message.
+         */
+        private final StringBuilder text = new StringBuilder();
+
+        /**
+         * Parts of the current binary message.
+         */
+        private final ByteBuffer binary = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+
+        /**
+         * Constructor.
+         * @param stats As is.
+         * @param talkers Talkers by their numbers.
+         * @param json True if the audio comes in the JSON messages.
+         */
+        Listener(final Stats stats, final Talker[] talkers, final boolean json) {
+            this.stats = stats;
+            this.talkers = talkers;
+            this.json = json;
+            this.last = new int[talkers.length];
+            Arrays.fill(this.last, -1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(final WebSocket socket, final CharSequence data, final boolean last) {
+            if (this.json) {
+                this.text.append(data);
+                if (last) {
+                    final int start = this.text.indexOf("\"sequence\":");
+                    if (this.text.indexOf("\"audio data\"") >= 0 && start >= 0) {
+                        int end = start + "\"sequence\":".length();
+                        while (end < this.text.length() && Character.isDigit(this.text.charAt(end))) {
+                            end = end + 1;
+                        }
+                        this.receive(
+                            Integer.parseInt(this.text, start + "\"sequence\":".length(), end, 10),
+                            this.text.length()
+                        );
+                    }
+                    this.text.setLength(0);
+                }
+            }
+            socket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(final WebSocket socket, final ByteBuffer data, final boolean last) {
+            if (data.remaining() <= this.binary.remaining()) {
+                this.binary.put(data);
+            }
+            if (last) {
+                this.binary.flip();
+                // Markers without samples, such as the talk end, are not audio.
+                if (this.binary.remaining() > HEADER_BYTES) {
+                    this.receive(this.binary.getInt(8), this.binary.remaining());
+                }
+                this.binary.clear();
+            }
+            socket.request(1);
+            return null;
+        }
+
+        /**
+         * Record the latency and the loss of the frame.
+         * @param sequence From the frame.
+         * @param size Bytes of the message.
+         */
+        private void receive(final int sequence, final int size) {
+            final int number = sequence >>> TALKER_SHIFT;
+            final int frameNumber = sequence & ((1 << TALKER_SHIFT) - 1);
+            if (number < this.talkers.length && this.talkers[number] != null) {
+                final long latency = System.nanoTime() - this.talkers[number].sentAt(frameNumber);
+                final int previous = this.last[number];
+                if (frameNumber > previous) {
+                    this.last[number] = frameNumber;
+                }
+                if (this.stats.measuring) {
+                    this.stats.received.increment();
+                    this.stats.bytes.add(size);
+                    this.stats.latencies.record(latency);
+                    if (previous >= 0 && frameNumber > previous + 1) {
+                        this.stats.lost.add(frameNumber - previous - 1);
+                    }
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.levelrin.wsvoip;
+
+/**
+ * Immutable binding of a user to its WebSocket connection.
+ * {@link WsConnections} swaps the whole binding atomically when the user connects from another device.
+ */
+final class Binding {
+
+    /**
+     * The current connection of the user.
+     */
+    private final Connection connection;
+
+    /**
+     * Source ID that the server puts in the audio frames from the user.
+     * It stays the same when the user switches the device.
+     */
+    private final int sourceId;
+
+    /**
+     * Codec ID of the audio frames that the connection receives.
+     */
+    private final int codec;
+
+    /**
+     * False if the user is connected to another node of the cluster.
+     */
+    private final boolean local;
+
+    /**
+     * Constructor.
+     * @param connection The current connection of the user.
+     * @param sourceId Source ID that the server puts in the audio frames from the user.
+     * @param codec Codec ID of the audio frames that the connection receives.
+     * @param local False if the user is connected to another node of the cluster.
+     */
+    Binding(final Connection connection, final int sourceId, final int codec, final boolean local) {
+        this.connection = connection;
+        this.sourceId = sourceId;
+        this.codec = codec;
+        this.local = local;
+    }
+
+    /**
+     * The same user on another device.
+     * @param another The new connection.
+     * @param anotherCodec Codec ID that the new connection uses.
+     * @param anotherLocal False if the new connection is to another node of the cluster.
+     * @return New binding.
+     */
+    Binding with(final Connection another, final int anotherCodec, final boolean anotherLocal) {
+        return new Binding(another, this.sourceId, anotherCodec, anotherLocal);
+    }
+
+    /**
+     * As is.
+     * @return The current connection of the user.
+     */
+    Connection connection() {
+        return this.connection;
+    }
+
+    /**
+     * As is.
+     * @return Source ID of the user.
+     */
+    int sourceId() {
+        return this.sourceId;
+    }
+
+    /**
+     * As is.
+     * @return Codec ID of the audio frames that the connection receives.
+     */
+    int codec() {
+        return this.codec;
+    }
+
+    /**
+     * As is.
+     * @return False if the user is connected to another node of the cluster.
+     */
+    boolean local() {
+        return this.local;
+    }
+
+}
@@ -0,0 +1,348 @@
+package com.levelrin.wsvoip;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.FrameReceiver;
+import com.levelrin.wsvoip.metrics.LatencyHistogram;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serial executor of a voice channel, which makes the channel an actor.
+ * The membership changes, the audio routing, and the mixing of the channel run one at a time
+ * on the thread that {@link ChannelThreads} pinned the channel to, so the state of the channel needs no lock.
+ * Another channel is reached only by posting a task to its executor.
+ * Tasks and audio frames run in the order they were posted.
+ * Audio frames wait in a fixed ring, and the oldest one is dropped when the ring is full,
+ * so posting a frame does not allocate, and a channel whose thread is behind costs memory proportional to the ring.
+ * The lock only guards the mailbox; nothing runs under it.
+ */
+public final class ChannelExecutor implements Executor {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChannelExecutor.class);
+
+    /**
+     * Tasks and frames that run in one turn at most.
+     * The other channels of the thread get their turns before the rest runs.
+     */
+    private static final int TURN = 64;
+
+    /**
+     * For the log.
+     */
+    private final String channelName;
+
+    /**
+     * The thread of the channel.
+     */
+    private final ScheduledExecutorService thread;
+
+    /**
+     * Thread lock for the mailbox.
+     * It's not a monitor because a virtual thread waiting for a monitor pins its carrier thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Tasks waiting.
+     */
+    private final Queue<Task> tasks = new ArrayDeque<>();
+
+    /**
+     * Ring of the receivers of the frames waiting.
+     */
+    private final FrameReceiver[] receivers;
+
+    /**
+     * Ring of the talkers of the frames waiting.
+     */
+    private final String[] talkers;
+
+    /**
+     * Ring of the frames waiting.
+     * The executor holds them until they run.
+     */
+    private final AudioFrame[] frames;
+
+    /**
+     * Ring of the order of the frames waiting among the tasks.
+     */
+    private final long[] orders;
+
+    /**
+     * Ring of the times the frames were posted in {@link System#nanoTime()}.
+     */
+    private final long[] postTimes;
+
+    /**
+     * Index of the oldest frame in the ring.
+     */
+    private int head;
+
+    /**
+     * Number of frames in the ring.
+     */
+    private int size;
+
+    /**
+     * Order of the next task or frame.
+     */
+    private long order;
+
+    /**
+     * True if a turn is scheduled or running.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * We keep it in a field to avoid creating a lambda per schedule.
+     */
+    private final Runnable turn = this::turn;
+
+    /**
+     * Where the waits of the tasks and frames for the thread are recorded.
+     */
+    private final LatencyHistogram waits;
+
+    /**
+     * Where the frames dropped because the ring was full are counted.
+     */
+    private final LongAdder lateFrames;
+
+    /**
+     * Constructor.
+     * @param channelName For the log.
+     * @param thread The thread of the channel, such as from {@link ChannelThreads#next()}.
+     * @param frameLimit Maximum number of frames waiting.
+     * @param waits Where the waits of the tasks and frames for the thread are recorded.
+     * @param lateFrames Where the frames dropped because the ring was full are counted.
+     */
+    public ChannelExecutor(final String channelName, final ScheduledExecutorService thread, final int frameLimit, final LatencyHistogram waits, final LongAdder lateFrames) {
+        this.channelName = channelName;
+        this.thread = thread;
+        this.receivers = new FrameReceiver[frameLimit];
+        this.talkers = new String[frameLimit];
+        this.frames = new AudioFrame[frameLimit];
+        this.orders = new long[frameLimit];
+        this.postTimes = new long[frameLimit];
+        this.waits = waits;
+        this.lateFrames = lateFrames;
+    }
+
+    /**
+     * As is.
+     * @return The thread of the channel, such as for the clock of the mixer.
+     */
+    public ScheduledExecutorService thread() {
+        return this.thread;
+    }
+
+    /**
+     * Run the task on the thread of the channel after everything posted before it.
+     * It's never dropped.
+     * @param task Such as a membership change.
+     */
+    @Override
+    public void execute(final Runnable task) {
+        final Task waiting = new Task(task, System.nanoTime());
+        this.lock.lock();
+        try {
+            waiting.order = this.order;
+            this.order = this.order + 1;
+            this.tasks.add(waiting);
+        } finally {
+            this.lock.unlock();
+        }
+        this.schedule();
+    }
+
+    /**
+     * Give the frame to the receiver on the thread of the channel after everything posted before it.
+     * The oldest frame is dropped if the ring is full.
+     * @param receiver It takes the frame.
+     * @param username Talker.
+     * @param frame From the talker. It's retained until the receiver returns, so the caller may release it.
+     */
+    public void post(final FrameReceiver receiver, final String username, final AudioFrame frame) {
+        frame.retain();
+        final long now = System.nanoTime();
+        AudioFrame dropped = null;
+        this.lock.lock();
+        try {
+            if (this.size == this.frames.length) {
+                dropped = this.frames[this.head];
+                this.clear(this.head);
+                this.head = (this.head + 1) % this.frames.length;
+                this.size = this.size - 1;
+            }
+            final int tail = (this.head + this.size) % this.frames.length;
+            this.receivers[tail] = receiver;
+            this.talkers[tail] = username;
+            this.frames[tail] = frame;
+            this.orders[tail] = this.order;
+            this.postTimes[tail] = now;
+            this.order = this.order + 1;
+            this.size = this.size + 1;
+        } finally {
+            this.lock.unlock();
+        }
+        if (dropped != null) {
+            dropped.release();
+            this.lateFrames.increment();
+        }
+        this.schedule();
+    }
+
+    /**
+     * Number of tasks and frames waiting.
+     * @return As is.
+     */
+    public int depth() {
+        this.lock.lock();
+        try {
+            return this.tasks.size() + this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Start a turn unless one is scheduled or running already.
+     */
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.thread.execute(this.turn);
+        }
+    }
+
+    /**
+     * Run what is waiting, up to {@link ChannelExecutor#TURN}.
+     * Only one turn runs at a time.
+     */
+    private void turn() {
+        boolean more = true;
+        int count = 0;
+        while (more) {
+            if (this.runNext()) {
+                count = count + 1;
+                if (count == TURN) {
+                    more = false;
+                    // The flag stays set, so nobody else schedules a turn in the meantime.
+                    this.thread.execute(this.turn);
+                }
+            } else {
+                this.scheduled.set(false);
+                // Something might have been posted right before the flag was cleared.
+                more = this.depth() > 0 && this.scheduled.compareAndSet(false, true);
+            }
+        }
+    }
+
+    /**
+     * Take the oldest task or frame and run it.
+     * An exception must not escape; otherwise, the rest of the turn would be lost.
+     * @return False if nothing was waiting.
+     */
+    private boolean runNext() {
+        Task task = null;
+        FrameReceiver receiver = null;
+        String talker = null;
+        AudioFrame frame = null;
+        long postTime = 0;
+        this.lock.lock();
+        try {
+            final Task first = this.tasks.peek();
+            if (first != null && (this.size == 0 || first.order < this.orders[this.head])) {
+                task = this.tasks.poll();
+                postTime = task.postTime;
+            } else if (this.size > 0) {
+                receiver = this.receivers[this.head];
+                talker = this.talkers[this.head];
+                frame = this.frames[this.head];
+                postTime = this.postTimes[this.head];
+                this.clear(this.head);
+                this.head = (this.head + 1) % this.frames.length;
+                this.size = this.size - 1;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        final boolean result = task != null || frame != null;
+        if (result) {
+            this.waits.record(System.nanoTime() - postTime);
+        }
+        try {
+            if (task != null) {
+                task.runnable.run();
+            } else if (frame != null) {
+                receiver.receive(this.channelName, talker, frame);
+            }
+        } catch (final Exception exception) {
+            if (LOGGER.isErrorEnabled()) {
+                LOGGER.error(
+                    String.format("Failed to run a task of the channel %s.", this.channelName),
+                    exception
+                );
+            }
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Let go of the references in the slot of the ring.
+     * It must be called under the lock.
+     * @param index Of the slot.
+     */
+    private void clear(final int index) {
+        this.receivers[index] = null;
+        this.talkers[index] = null;
+        this.frames[index] = null;
+    }
+
+    /**
+     * A task waiting.
+     */
+    private static final class Task {
+
+        /**
+         * As is.
+         */
+        private final Runnable runnable;
+
+        /**
+         * When it was posted in {@link System#nanoTime()}.
+         */
+        private final long postTime;
+
+        /**
+         * Its order among the tasks and frames.
+         */
+        private long order;
+
+        /**
+         * Constructor.
+         * @param runnable As is.
+         * @param postTime When it was posted in {@link System#nanoTime()}.
+         */
+        Task(final Runnable runnable, final long postTime) {
+            this.runnable = runnable;
+            this.postTime = postTime;
+        }
+
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.levelrin.wsvoip;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of threads that run the voice channels.
+ * Each channel is pinned to one of them when it's created, and the channels take turns in order,
+ * so the channels spread over the threads evenly and a channel never runs on two threads at once.
+ * See {@link ChannelExecutor}.
+ */
+public final class ChannelThreads {
+
+    /**
+     * Single-threaded executors.
+     * They are scheduled executors so that the mixers can run their clocks on the threads of their channels.
+     */
+    private final ScheduledExecutorService[] threads;
+
+    /**
+     * How many channels have been pinned so far.
+     */
+    private final AtomicInteger pinned = new AtomicInteger();
+
+    /**
+     * Constructor.
+     * @param count Number of threads, such as the number of cores.
+     */
+    public ChannelThreads(final int count) {
+        this(threads(count));
+    }
+
+    /**
+     * Constructor.
+     * @param threads Single-threaded executors.
+     */
+    public ChannelThreads(final ScheduledExecutorService... threads) {
+        this.threads = threads.clone();
+    }
+
+    /**
+     * Pick the thread of a new channel.
+     * @return Single-threaded executor.
+     */
+    public ScheduledExecutorService next() {
+        return this.threads[Math.floorMod(this.pinned.getAndIncrement(), this.threads.length)];
+    }
+
+    /**
+     * As is.
+     * @return Number of threads.
+     */
+    public int count() {
+        return this.threads.length;
+    }
+
+    /**
+     * Stop the threads.
+     * The tasks waiting for them are discarded.
+     */
+    public void close() {
+        for (final ScheduledExecutorService thread : this.threads) {
+            thread.shutdownNow();
+        }
+    }
+
+    /**
+     * Start the threads.
+     * @param count As is.
+     * @return Single-threaded executors.
+     */
+    private static ScheduledExecutorService[] threads(final int count) {
+        final ScheduledExecutorService[] result = new ScheduledExecutorService[count];
+        for (int index = 0; index < count; ++index) {
+            result[index] = Executors.newSingleThreadScheduledExecutor();
+        }
+        return result;
+    }
+
+}
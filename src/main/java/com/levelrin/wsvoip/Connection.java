@@ -0,0 +1,41 @@
+package com.levelrin.wsvoip;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The server side of a client's WebSocket connection.
+ */
+public interface Connection {
+
+    /**
+     * WebSocket session ID.
+     * @return As is.
+     */
+    String id();
+
+    /**
+     * Check if we can still send messages.
+     * @return True if the connection is open.
+     */
+    boolean open();
+
+    /**
+     * Send a text message.
+     * @param message JSON.
+     */
+    void send(final String message);
+
+    /**
+     * Send a binary message.
+     * It's consumed from its position to its limit before this method returns.
+     * @param message For example, an audio frame.
+     */
+    void send(final ByteBuffer message);
+
+    /**
+     * Close the connection.
+     * @param reason It's sent to the client.
+     */
+    void close(final String reason);
+
+}
@@ -0,0 +1,257 @@
+package com.levelrin.wsvoip;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.levelrin.wsvoip.metrics.LatencyHistogram;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * It collects the presence and channel events for a short window and delivers them together.
+ * Each batch is serialized once, and every session receives the same message.
+ * That way, a thousand users reconnecting at once cost a few batches instead of a million messages.
+ * See details at doc/ws.md
+ */
+public final class EventBus {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventBus.class);
+
+    /**
+     * Delivers the serialized batch to every session.
+     */
+    private final Consumer<String> sink;
+
+    /**
+     * To flush the batch at the end of the window.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Length of the window in milliseconds.
+     * Zero means every event is delivered right away by the caller.
+     */
+    private final long windowMillis;
+
+    /**
+     * Events waiting for the end of the window.
+     */
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * True if a flush is scheduled.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * The flush, which is created once.
+     */
+    private final Runnable flusher = this::flush;
+
+    /**
+     * Number of delivered batches.
+     */
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * Number of delivered events.
+     */
+    private final LongAdder events = new LongAdder();
+
+    /**
+     * Number of events in the largest batch.
+     */
+    private final AtomicLong largestBatch = new AtomicLong();
+
+    /**
+     * Sum of the time from publishing to delivery of all events in nanoseconds.
+     */
+    private final LongAdder latencyNanos = new LongAdder();
+
+    /**
+     * The longest time from publishing to delivery in nanoseconds.
+     */
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * How long it took to hand a batch to every session.
+     */
+    private final LatencyHistogram fanOuts = new LatencyHistogram();
+
+    /**
+     * Constructor.
+     * @param sink Delivers the serialized batch to every session.
+     * @param scheduler To flush the batch at the end of the window.
+     * @param windowMillis Length of the window. Zero means no batching.
+     */
+    public EventBus(final Consumer<String> sink, final ScheduledExecutorService scheduler, final long windowMillis) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Deliver the event to every session at the end of the current window.
+     * @param event JSON with the 'about' attribute.
+     */
+    public void publish(final JsonObject event) {
+        this.pending.add(new Pending(event, System.nanoTime()));
+        if (this.windowMillis == 0) {
+            this.flush();
+        } else if (this.scheduled.compareAndSet(false, true)) {
+            this.scheduler.schedule(this.flusher, this.windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * As is.
+     * @return Number of delivered batches.
+     */
+    public long batches() {
+        return this.batches.sum();
+    }
+
+    /**
+     * As is.
+     * @return Number of delivered events.
+     */
+    public long events() {
+        return this.events.sum();
+    }
+
+    /**
+     * As is.
+     * @return Number of events in the largest batch.
+     */
+    public long largestBatch() {
+        return this.largestBatch.get();
+    }
+
+    /**
+     * As is.
+     * @return Sum of the time from publishing to delivery of all events in nanoseconds.
+     */
+    public long latencyNanos() {
+        return this.latencyNanos.sum();
+    }
+
+    /**
+     * As is.
+     * @return The longest time from publishing to delivery in nanoseconds.
+     */
+    public long maxLatencyNanos() {
+        return this.maxLatencyNanos.get();
+    }
+
+    /**
+     * As is.
+     * @return How long it took to hand a batch to every session.
+     */
+    public LatencyHistogram fanOuts() {
+        return this.fanOuts;
+    }
+
+    /**
+     * Deliver the pending events.
+     * A single event is delivered as is, and multiple events are wrapped in one message.
+     */
+    private void flush() {
+        // Events published from now on schedule another flush.
+        this.scheduled.set(false);
+        try {
+            final JsonArray batch = new JsonArray();
+            Pending next = this.pending.poll();
+            long oldest = 0;
+            long waitedLess = 0;
+            if (next != null) {
+                oldest = next.publishedAt;
+            }
+            while (next != null) {
+                batch.add(next.event);
+                waitedLess = waitedLess + next.publishedAt - oldest;
+                next = this.pending.poll();
+            }
+            if (batch.size() == 1) {
+                this.deliver(batch.get(0).toString(), 1, oldest, waitedLess);
+            } else if (batch.size() > 1) {
+                final JsonObject message = new JsonObject();
+                message.addProperty("about", "events");
+                message.add("events", batch);
+                this.deliver(message.toString(), batch.size(), oldest, waitedLess);
+            } else {
+                // Another flush has taken the events.
+            }
+        } catch (final Exception exception) {
+            if (LOGGER.isErrorEnabled()) {
+                LOGGER.error("Failed to deliver the events.", exception);
+            }
+        }
+    }
+
+    /**
+     * Send the message and record the metrics.
+     * @param message Serialized batch.
+     * @param size Number of events in the batch.
+     * @param oldest When the oldest event in the batch was published.
+     * @param waitedLess Sum of how much less the other events waited than the oldest one in nanoseconds.
+     */
+    private void deliver(final String message, final int size, final long oldest, final long waitedLess) {
+        final long start = System.nanoTime();
+        this.sink.accept(message);
+        final long end = System.nanoTime();
+        this.fanOuts.record(end - start);
+        final long latency = end - oldest;
+        this.batches.increment();
+        this.events.add(size);
+        this.largestBatch.accumulateAndGet(size, Math::max);
+        this.latencyNanos.add(latency * size - waitedLess);
+        this.maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                String.format(
+                    "Delivered %d events in one batch. The oldest one waited %d microseconds.",
+                    size,
+                    TimeUnit.NANOSECONDS.toMicros(latency)
+                )
+            );
+        }
+    }
+
+    /**
+     * Event waiting for the end of the window.
+     */
+    private static final class Pending {
+
+        /**
+         * As is.
+         */
+        private final JsonObject event;
+
+        /**
+         * When the event was published in {@link System#nanoTime()}.
+         */
+        private final long publishedAt;
+
+        /**
+         * Constructor.
+         * @param event As is.
+         * @param publishedAt When the event was published.
+         */
+        Pending(final JsonObject event, final long publishedAt) {
+            this.event = event;
+            this.publishedAt = publishedAt;
+        }
+
+    }
+
+}
@@ -4,25 +4,42 @@ import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import com.levelrin.wsvoip.audio.AudioFanOut;
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import com.levelrin.wsvoip.audio.PacketTime;
+import com.levelrin.wsvoip.audio.codec.AudioCodec;
+import com.levelrin.wsvoip.audio.codec.AudioCodecs;
+import com.levelrin.wsvoip.cluster.Cluster;
+import com.levelrin.wsvoip.cluster.PeerLinks;
 import com.levelrin.wsvoip.messagelogic.HandleArrayOfFloat32Array;
+import com.levelrin.wsvoip.messagelogic.HandleAudioFrame;
+import com.levelrin.wsvoip.messagelogic.RouteAudioFrame;
+import com.levelrin.wsvoip.messagelogic.WsBinaryMessageLogic;
+import com.levelrin.wsvoip.messagelogic.WsMessageDispatcher;
 import com.levelrin.wsvoip.messagelogic.WsMessageLogic;
+import com.levelrin.wsvoip.metrics.Metrics;
+import com.levelrin.wsvoip.metrics.PrometheusText;
+import com.levelrin.wsvoip.recording.Recorder;
 import io.javalin.Javalin;
-import io.javalin.http.ContentType;
 import io.javalin.http.Context;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.websocket.WsContext;
-import io.javalin.websocket.WsMessageContext;
 import io.pebbletemplates.pebble.PebbleEngine;
-import io.pebbletemplates.pebble.template.PebbleTemplate;
-import java.io.StringWriter;
-import java.io.Writer;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,26 +47,102 @@ public final class Main {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
 
+    /**
+     * It's thread-safe, so we share it instead of creating one per request.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Number of audio frames kept for reuse.
+     * It covers the frames being relayed and mixed at the same time, including those waiting for the threads of their channels.
+     */
+    private static final int AUDIO_FRAME_POOL_SIZE = 256;
+
+    /**
+     * How long a link from another node may stay silent before we take the node as down.
+     * The nodes ping every few seconds.
+     */
+    private static final long CLUSTER_IDLE_MILLIS = 15_000;
+
+    /**
+     * Maximum size of a text message from another node.
+     * The state that a node sends when its link opens has every channel and user in it.
+     */
+    private static final long CLUSTER_MAX_TEXT_BYTES = 16 * 1024 * 1024;
+
     public static void main(final String... args) {
-        final WsConnections wsConnections = new WsConnections();
-        final VoiceChannels voiceChannels = new VoiceChannels();
+        final Settings settings = new Settings(System.getProperties());
+        final ExecutorService outboundWriters = outboundWriters(settings);
+        final PeerLinks links = new PeerLinks(
+            settings.clusterSelf(),
+            settings.clusterNodes(),
+            settings.clusterSecret(),
+            outboundWriters,
+            Executors.newSingleThreadScheduledExecutor()
+        );
+        final WsConnections wsConnections = new WsConnections(
+            Executors.newSingleThreadScheduledExecutor(),
+            settings.eventWindowMillis(),
+            links::replicate
+        );
+        final AudioFramePool framePool = new AudioFramePool(AUDIO_FRAME_POOL_SIZE, AudioFrame.MAX_BYTES);
+        // Each node gives its own channel IDs, so the IDs are unique in the cluster.
+        final VoiceChannels voiceChannels = new VoiceChannels(
+            new ChannelThreads(settings.channelThreads()),
+            framePool,
+            settings.maxSpeakers(),
+            links.nodes().indexOf(links.self()) + 1,
+            links.nodes().size(),
+            PacketTime.samples(settings.packetMillis())
+        );
         final PebbleEngine pebbleEngine = new PebbleEngine.Builder().build();
-        final PebbleTemplate mainTemplate = pebbleEngine.getTemplate("template/main.html");
-        final Map<String, WsMessageLogic> messageLogicMap = new HashMap<>();
-        messageLogicMap.put("audio data", new HandleArrayOfFloat32Array());
+        final MainPage mainPage = new MainPage(pebbleEngine.getTemplate("template/main.html"));
+        final Map<String, WsMessageLogic<?>> messageLogicMap = new HashMap<>();
+        final AudioFanOut fanOut = new AudioFanOut(voiceChannels, wsConnections, framePool, hangoverMillis(settings), recorder(settings));
+        messageLogicMap.put("audio data", new HandleArrayOfFloat32Array(fanOut));
+        final WsMessageDispatcher messageDispatcher = new WsMessageDispatcher(messageLogicMap, GSON);
+        final Cluster cluster = new Cluster(links, wsConnections, voiceChannels, fanOut, framePool);
+        final WsBinaryMessageLogic audioFrameLogic;
+        if (links.nodes().size() > 1) {
+            audioFrameLogic = new RouteAudioFrame(cluster);
+        } else {
+            audioFrameLogic = new HandleAudioFrame(fanOut);
+        }
+        final OutboundTotals outboundTotals = new OutboundTotals();
+        final ResumableSessions resumableSessions = new ResumableSessions(
+            wsConnections,
+            Executors.newSingleThreadScheduledExecutor(),
+            settings.resumeGraceMillis()
+        );
+        // Ends the session for good, so everyone is told that the user has left.
+        final Consumer<String> endSession = sessionId -> {
+            final String username = wsConnections.username(sessionId);
+            voiceChannels.leave(username, wsConnections);
+            wsConnections.remove(sessionId);
+            resumableSessions.end(sessionId);
+            if (username != null && !wsConnections.hasUser(username)) {
+                fanOut.forget(username);
+                cluster.disconnected(username);
+            }
+        };
+        final Metrics metrics = new Metrics(wsConnections, voiceChannels, fanOut, framePool, outboundTotals);
         final Javalin app = Javalin
             .create(config -> {
-                config.staticFiles.add("/public", Location.CLASSPATH);
+                config.useVirtualThreads = settings.virtualThreads();
+                config.staticFiles.add(staticFiles -> {
+                    staticFiles.hostedPath = "/";
+                    staticFiles.directory = "/public";
+                    staticFiles.location = Location.CLASSPATH;
+                    // Each file is compressed once and kept in memory, and it's served with an ETag.
+                    staticFiles.precompress = true;
+                    // Browsers revalidate with the ETag, so a new version is picked up right away.
+                    staticFiles.headers = Map.of("Cache-Control", "no-cache");
+                });
             }).get("/yoi", context -> {
                 context.result("Yoi Yoi\n");
             }).post("/main", context -> {
                 if (context.formParamMap().containsKey("username")) {
-                    context.contentType(ContentType.HTML);
-                    Map<String, Object> pebbleContext = new HashMap<>();
-                    pebbleContext.put("username", context.formParam("username"));
-                    final Writer writer = new StringWriter();
-                    mainTemplate.evaluate(writer, pebbleContext);
-                    context.result(writer.toString());
+                    mainPage.respond(context.formParam("username"), context);
                 } else {
                     context.status(400);
                     context.result(
@@ -60,12 +153,16 @@ public final class Main {
                     );
                 }
             }).get("/onlineUsers", context -> {
-                context.status(200);
-                context.result(wsConnections.onlineUsers().toString());
+                wsConnections.snapshot().respond(context);
             }).post("/createVoiceChannel", context -> {
                 if (contentTypeSpecified(context) && contentTypeIsPlainText(context)) {
                     final String channelName = context.body();
-                    voiceChannels.create(channelName, context, wsConnections);
+                    voiceChannels.create(
+                        channelName,
+                        "mixed".equals(context.queryParam("mode")),
+                        context,
+                        wsConnections
+                    );
                 }
             }).delete("/removeVoiceChannel", context -> {
                 if (contentTypeSpecified(context) && contentTypeIsPlainText(context)) {
@@ -80,7 +177,7 @@ public final class Main {
                         && jsonBodyHas("username", context)
                         && jsonBodyHas("channelName", context)
                 ) {
-                    final JsonObject body = new Gson().fromJson(context.body(), JsonObject.class);
+                    final JsonObject body = GSON.fromJson(context.body(), JsonObject.class);
                     voiceChannels.join(
                         body.get("username").getAsString(),
                         body.get("channelName").getAsString(),
@@ -96,7 +193,7 @@ public final class Main {
                         && jsonBodyHas("username", context)
                         && jsonBodyHas("channelName", context)
                 ) {
-                    final JsonObject body = new Gson().fromJson(context.body(), JsonObject.class);
+                    final JsonObject body = GSON.fromJson(context.body(), JsonObject.class);
                     voiceChannels.leave(
                         body.get("username").getAsString(),
                         body.get("channelName").getAsString(),
@@ -113,7 +210,7 @@ public final class Main {
                         && jsonBodyHas("oldChannelName", context)
                         && jsonBodyHas("newChannelName", context)
                 ) {
-                    final JsonObject body = new Gson().fromJson(context.body(), JsonObject.class);
+                    final JsonObject body = GSON.fromJson(context.body(), JsonObject.class);
                     voiceChannels.switchChannel(
                         body.get("username").getAsString(),
                         body.get("oldChannelName").getAsString(),
@@ -123,8 +220,10 @@ public final class Main {
                     );
                 }
             }).get("/voiceChannels", context -> {
-                context.status(200);
-                context.result(voiceChannels.json().toString());
+                voiceChannels.snapshot().respond(context);
+            }).get("/metrics", context -> {
+                context.contentType(PrometheusText.CONTENT_TYPE);
+                context.result(metrics.scrape());
             }).exception(Exception.class, (exception, context) -> {
                 if (LOGGER.isErrorEnabled()) {
                     LOGGER.error(
@@ -146,7 +245,42 @@ public final class Main {
                         Objects.requireNonNull(context.queryParam("username")),
                         StandardCharsets.UTF_8
                     );
-                    wsConnections.add(username, context);
+                    OutboundQueue connection = null;
+                    if (context.queryParam("resume") != null) {
+                        // The user stays in the channel, and the messages that waited are sent first.
+                        connection = resumableSessions.resume(
+                            context.queryParam("resume"),
+                            username,
+                            new WsContextConnection(context)
+                        );
+                    }
+                    final boolean resumed = connection != null;
+                    if (!resumed) {
+                        final AudioCodec codec = AudioCodecs.negotiate(context.queryParam("codecs"));
+                        connection = new OutboundQueue(
+                            new WsContextConnection(context),
+                            outboundWriters,
+                            settings.outboundAudioFrames(),
+                            settings.outboundControlMessages(),
+                            outboundTotals
+                        );
+                        final JsonObject selected = new JsonObject();
+                        selected.addProperty("about", "audio codec is selected");
+                        selected.addProperty("codec", codec.name());
+                        selected.addProperty(
+                            "packetMillis",
+                            PacketTime.negotiate(context.queryParam("packetMillis"), settings.packetMillis())
+                        );
+                        connection.send(selected.toString());
+                        cluster.connected(username, codec.id());
+                        wsConnections.add(username, connection, codec.id());
+                    }
+                    final JsonObject resumable = new JsonObject();
+                    resumable.addProperty("about", "session is resumable");
+                    resumable.addProperty("token", resumableSessions.issue(context.getSessionId(), username, connection));
+                    resumable.addProperty("graceMillis", resumableSessions.graceMillis());
+                    resumable.addProperty("resumed", resumed);
+                    connection.send(resumable.toString());
                 } else {
                     context.closeSession(
                         5000,
@@ -158,34 +292,30 @@ public final class Main {
                 }
             });
             ws.onClose(context -> {
-                voiceChannels.leave(
-                    wsConnections.username(context.getSessionId()),
-                    wsConnections
-                );
-                wsConnections.remove(context.getSessionId());
+                final String sessionId = context.getSessionId();
+                if (!resumableSessions.hold(sessionId, () -> endSession.accept(sessionId))) {
+                    endSession.accept(sessionId);
+                }
                 context.closeSession();
             });
-            ws.onMessage(context -> {
-                if (wsMessageIsJsonObject(context)) {
-                    final JsonObject messageJson = new Gson().fromJson(
-                        context.message(),
-                        JsonObject.class
-                    );
-                    if (aboutAttributeExists(messageJson)) {
-                        final String about = messageJson.get("about").getAsString();
-                        if (messageLogicMap.containsKey(about)) {
-                            messageLogicMap.get(about).handle(context, messageJson);
-                        } else {
-                            if (LOGGER.isWarnEnabled()) {
-                                LOGGER.warn(
-                                    String.format(
-                                        "We got a suspicious/unsupported message from the WebSocket. Message: %s",
-                                        context.message()
-                                    )
-                                );
-                            }
+            ws.onMessage(messageDispatcher::dispatch);
+            ws.onBinaryMessage(context -> {
+                final AudioFrame frame = framePool.acquire();
+                try {
+                    if (frame.load(context.data(), context.offset(), context.length()) && frame.valid()) {
+                        audioFrameLogic.handle(context, frame);
+                    } else {
+                        if (LOGGER.isWarnEnabled()) {
+                            LOGGER.warn(
+                                String.format(
+                                    "We got an invalid audio frame from the WebSocket. Length: %d",
+                                    context.length()
+                                )
+                            );
                         }
                     }
+                } finally {
+                    frame.release();
                 }
             });
             ws.onError(context -> {
@@ -193,7 +323,10 @@ public final class Main {
                     if (LOGGER.isErrorEnabled()) {
                         LOGGER.error("Unexpected error occurred from the WebSocket.", context.error());
                     }
-                    wsConnections.remove(context.getSessionId());
+                    final String sessionId = context.getSessionId();
+                    if (!resumableSessions.hold(sessionId, () -> endSession.accept(sessionId))) {
+                        endSession.accept(sessionId);
+                    }
                     context.closeSession(
                         1011,
                         "Unexpected error occurred from the WebSocket. Please check the server log."
@@ -205,10 +338,136 @@ public final class Main {
                 }
             });
         });
-        app.start();
+        // WebSocket session IDs of the links that showed the secret of the cluster.
+        // Nothing from the other sessions of '/cluster' is handled, even before they are closed.
+        final Set<String> clusterSessions = ConcurrentHashMap.newKeySet();
+        app.ws("/cluster", ws -> {
+            ws.onConnect(context -> {
+                final String node = context.queryParam("node");
+                if (!links.authorized(context.header(PeerLinks.SECRET_HEADER))) {
+                    if (LOGGER.isWarnEnabled()) {
+                        LOGGER.warn(
+                            String.format(
+                                "We rejected a link to '/cluster' without the secret of the cluster. Query string: %s",
+                                context.queryString()
+                            )
+                        );
+                    }
+                    context.closeSession(5001, "The secret of the cluster is wrong.");
+                } else if (node != null && links.nodes().contains(node) && !node.equals(links.self())) {
+                    context.session.setIdleTimeout(Duration.ofMillis(CLUSTER_IDLE_MILLIS));
+                    context.session.setMaxTextMessageSize(CLUSTER_MAX_TEXT_BYTES);
+                    clusterSessions.add(context.getSessionId());
+                    cluster.up(node, context.getSessionId());
+                } else {
+                    context.closeSession(
+                        5000,
+                        String.format(
+                            "We expect 'node' query string with another node of %s for ws '/cluster' request. Actual query string: %s",
+                            links.nodes(),
+                            context.queryString()
+                        )
+                    );
+                }
+            });
+            ws.onClose(context -> {
+                final String node = context.queryParam("node");
+                if (clusterSessions.remove(context.getSessionId())) {
+                    cluster.down(node, context.getSessionId());
+                }
+            });
+            ws.onMessage(context -> {
+                if (clusterSessions.contains(context.getSessionId())) {
+                    cluster.receive(context.queryParam("node"), context.message());
+                }
+            });
+            ws.onBinaryMessage(context -> {
+                if (clusterSessions.contains(context.getSessionId())) {
+                    cluster.receive(context.queryParam("node"), context.data(), context.offset(), context.length());
+                }
+            });
+            ws.onError(context -> {
+                final String node = context.queryParam("node");
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn(String.format("The link from %s failed.", node), context.error());
+                }
+                if (clusterSessions.remove(context.getSessionId())) {
+                    cluster.down(node, context.getSessionId());
+                }
+            });
+        });
+        app.start(settings.port());
         if (LOGGER.isInfoEnabled()) {
             LOGGER.info("Server is ready!");
         }
+        links.connect(cluster::opened);
+    }
+
+    /**
+     * How long a talker is still taken as talking after the last voiced frame.
+     * @param settings To check if the voice activity detection is enabled.
+     * @return Zero if it's disabled.
+     */
+    private static int hangoverMillis(final Settings settings) {
+        int result = 0;
+        if (settings.voiceActivityDetection()) {
+            result = settings.voiceActivityHangoverMillis();
+        }
+        return result;
+    }
+
+    /**
+     * Create the recorder of the channels if it's enabled.
+     * @param settings To check if the recording directory is set.
+     * @return Null if nothing is recorded.
+     */
+    private static Recorder recorder(final Settings settings) {
+        Recorder result = null;
+        if (!settings.recordingDirectory().isEmpty()) {
+            result = new Recorder(
+                Paths.get(settings.recordingDirectory()),
+                settings.recordingChannels(),
+                settings.recordingQueueFrames(),
+                TimeUnit.MINUTES.toMillis(settings.recordingSegmentMinutes()),
+                TimeUnit.HOURS.toMillis(settings.recordingRetentionHours()),
+                Executors.newSingleThreadScheduledExecutor()
+            );
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info(String.format("Recording the channels %s in %s.", settings.recordingChannels(), settings.recordingDirectory()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create the executor for the writers of {@link OutboundQueue}.
+     * Writers block while sending to slow clients.
+     * With virtual threads, a blocked writer costs almost nothing.
+     * Otherwise, the pool grows with the slow clients instead of starving the others.
+     * @param settings To check if virtual threads are enabled.
+     * @return As is.
+     */
+    private static ExecutorService outboundWriters(final Settings settings) {
+        ExecutorService result;
+        if (settings.virtualThreads()) {
+            try {
+                // We call it reflectively to compile on Java versions without virtual threads.
+                result = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            } catch (final ReflectiveOperationException exception) {
+                throw new IllegalStateException(
+                    String.format(
+                        "Virtual threads require Java 21 or later, but it's running on Java %s.",
+                        Runtime.version()
+                    ),
+                    exception
+                );
+            }
+        } else {
+            result = Executors.newCachedThreadPool();
+        }
+        return result;
     }
 
     /**
@@ -279,7 +538,7 @@ public final class Main {
     private static boolean bodyIsJsonObject(final Context context) {
         boolean valid = true;
         try {
-            final JsonElement jsonElement = new Gson().fromJson(context.body(), JsonElement.class);
+            final JsonElement jsonElement = GSON.fromJson(context.body(), JsonElement.class);
             if (!jsonElement.isJsonObject()) {
                 valid = false;
             }
@@ -301,56 +560,6 @@ public final class Main {
         return valid;
     }
 
-    /**
-     * Check if the WebSocket message is in valid JsonObject.
-     * @param context It has the message.
-     * @return True if the message is in valid JSON.
-     */
-    private static boolean wsMessageIsJsonObject(final WsMessageContext context) {
-        boolean valid = true;
-        try {
-            final JsonElement jsonElement = new Gson().fromJson(context.message(), JsonElement.class);
-            if (!jsonElement.isJsonObject()) {
-                valid = false;
-            }
-        } catch (final JsonSyntaxException | NullPointerException exception) {
-            valid = false;
-        }
-        if (!valid) {
-            if (LOGGER.isWarnEnabled()) {
-                LOGGER.warn(
-                    String.format(
-                        "WebSocket server received non-JSON message: %s",
-                        context.message()
-                    )
-                );
-            }
-        }
-        return valid;
-    }
-
-    /**
-     * Check if the JSON object has the attribute 'about'.
-     * @param json As is.
-     * @return True if it has the attribute 'about'.
-     */
-    private static boolean aboutAttributeExists(final JsonObject json) {
-        boolean valid = false;
-        if (json.has("about")) {
-            valid = true;
-        } else {
-            if (LOGGER.isWarnEnabled()) {
-                LOGGER.warn(
-                    String.format(
-                        "We expect JSON message to have 'about' attribute, but it does not exist. JSON: %s",
-                        json
-                    )
-                );
-            }
-        }
-        return valid;
-    }
-
     /**
      * Check if the request body (assuming it's in JSON) has the specified attribute.
      * @param attribute Check if this exists.
@@ -358,7 +567,7 @@ public final class Main {
      * @return True if the JSON has the attribute.
      */
     private static boolean jsonBodyHas(final String attribute, final Context context) {
-        return new Gson().fromJson(context.body(), JsonObject.class).has(attribute);
+        return GSON.fromJson(context.body(), JsonObject.class).has(attribute);
     }
 
     /**
@@ -0,0 +1,246 @@
+package com.levelrin.wsvoip;
+
+import io.javalin.http.Context;
+import io.pebbletemplates.pebble.template.PebbleTemplate;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The main page, rendered once at startup.
+ * The username is the only part that differs per user, so a request only splices it in.
+ * The parts around the username are also compressed once.
+ * A request with gzip gets the compressed parts with the username in between as an uncompressed block,
+ * so it costs a checksum instead of a compression.
+ */
+public final class MainPage {
+
+    /**
+     * What we render in place of the username.
+     * It has no character that the template escapes, so it appears in the output as is.
+     */
+    private static final String PLACEHOLDER = "wsvoip-username-placeholder";
+
+    /**
+     * Header of a gzip stream: magic, deflate, no flags, no time, no extra flags, unknown OS.
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /**
+     * Maximum length of an uncompressed deflate block.
+     */
+    private static final int MAX_STORED_BLOCK = 65_535;
+
+    /**
+     * Content type of the page.
+     */
+    private static final String CONTENT_TYPE = "text/html; charset=utf-8";
+
+    /**
+     * The page before the username in UTF-8.
+     */
+    private final byte[] head;
+
+    /**
+     * The page after the username in UTF-8.
+     */
+    private final byte[] tail;
+
+    /**
+     * {@link MainPage#head} compressed without the final block, ending at a byte boundary.
+     */
+    private final byte[] deflatedHead;
+
+    /**
+     * {@link MainPage#tail} compressed with the final block.
+     * It does not refer back to anything before it, so it can follow any other blocks.
+     */
+    private final byte[] deflatedTail;
+
+    /**
+     * Constructor.
+     * @param template It has '{{username}}' once.
+     */
+    public MainPage(final PebbleTemplate template) {
+        final Writer writer = new StringWriter();
+        try {
+            template.evaluate(writer, Collections.<String, Object>singletonMap("username", PLACEHOLDER));
+        } catch (final IOException exception) {
+            throw new UncheckedIOException("Failed to render the main page.", exception);
+        }
+        final String rendered = writer.toString();
+        final int index = rendered.indexOf(PLACEHOLDER);
+        if (index < 0 || index != rendered.lastIndexOf(PLACEHOLDER)) {
+            throw new IllegalStateException("The main page must have the username exactly once.");
+        }
+        this.head = rendered.substring(0, index).getBytes(StandardCharsets.UTF_8);
+        this.tail = rendered.substring(index + PLACEHOLDER.length()).getBytes(StandardCharsets.UTF_8);
+        this.deflatedHead = deflate(this.head, false);
+        this.deflatedTail = deflate(this.tail, true);
+    }
+
+    /**
+     * Configure the HTTP response with the page for the user.
+     * The page is personal, so it must not be cached.
+     * @param username As is.
+     * @param httpContext As is.
+     */
+    public void respond(final String username, final Context httpContext) {
+        final byte[] escaped = escape(username).getBytes(StandardCharsets.UTF_8);
+        httpContext.status(200);
+        httpContext.header("Content-Type", CONTENT_TYPE);
+        httpContext.header("Cache-Control", "private, no-store");
+        httpContext.header("Vary", "Accept-Encoding");
+        if (acceptsGzip(httpContext.header("Accept-Encoding"))) {
+            httpContext.header("Content-Encoding", "gzip");
+            httpContext.result(this.gzip(escaped));
+        } else {
+            final byte[] page = new byte[this.head.length + escaped.length + this.tail.length];
+            System.arraycopy(this.head, 0, page, 0, this.head.length);
+            System.arraycopy(escaped, 0, page, this.head.length, escaped.length);
+            System.arraycopy(this.tail, 0, page, this.head.length + escaped.length, this.tail.length);
+            httpContext.result(page);
+        }
+    }
+
+    /**
+     * Build the gzip stream of the page.
+     * @param escaped Username escaped for HTML in UTF-8.
+     * @return As is.
+     */
+    private byte[] gzip(final byte[] escaped) {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream(
+            GZIP_HEADER.length + this.deflatedHead.length + escaped.length + 16 + this.deflatedTail.length
+        );
+        stream.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        stream.write(this.deflatedHead, 0, this.deflatedHead.length);
+        int offset = 0;
+        while (offset < escaped.length) {
+            final int length = Math.min(MAX_STORED_BLOCK, escaped.length - offset);
+            // Not the final block, uncompressed, then the length and its complement.
+            stream.write(0);
+            stream.write(length & 0xff);
+            stream.write(length >>> 8);
+            stream.write(~length & 0xff);
+            stream.write((~length >>> 8) & 0xff);
+            stream.write(escaped, offset, length);
+            offset = offset + length;
+        }
+        stream.write(this.deflatedTail, 0, this.deflatedTail.length);
+        final CRC32 checksum = new CRC32();
+        checksum.update(this.head);
+        checksum.update(escaped);
+        checksum.update(this.tail);
+        writeIntLittleEndian(stream, (int) checksum.getValue());
+        writeIntLittleEndian(stream, this.head.length + escaped.length + this.tail.length);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Compress the bytes in raw deflate.
+     * @param bytes As is.
+     * @param last True to end with the final block.
+     *             Otherwise, it ends with an empty uncompressed block at a byte boundary so that more blocks can follow.
+     * @return As is.
+     */
+    private static byte[] deflate(final byte[] bytes, final boolean last) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length);
+        final byte[] buffer = new byte[8192];
+        try {
+            deflater.setInput(bytes);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    final int length = deflater.deflate(buffer);
+                    result.write(buffer, 0, length);
+                }
+            } else {
+                int length = buffer.length;
+                // A full buffer means there may be more output.
+                while (length == buffer.length) {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    result.write(buffer, 0, length);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * As is.
+     * @param stream Where the number is written.
+     * @param value As is.
+     */
+    private static void writeIntLittleEndian(final ByteArrayOutputStream stream, final int value) {
+        stream.write(value & 0xff);
+        stream.write((value >>> 8) & 0xff);
+        stream.write((value >>> 16) & 0xff);
+        stream.write((value >>> 24) & 0xff);
+    }
+
+    /**
+     * Check if the client accepts gzip.
+     * @param acceptEncoding Value of the 'Accept-Encoding' header. It may be null.
+     * @return False if gzip is not listed or its quality is zero.
+     */
+    private static boolean acceptsGzip(final String acceptEncoding) {
+        boolean result = false;
+        if (acceptEncoding != null) {
+            for (final String coding : acceptEncoding.split(",")) {
+                final String[] parameters = coding.split(";");
+                if ("gzip".equalsIgnoreCase(parameters[0].trim())) {
+                    result = true;
+                    for (int index = 1; index < parameters.length; ++index) {
+                        if (parameters[index].trim().matches("q=0(\\.0{0,3})?")) {
+                            result = false;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Escape the text for HTML as the template would.
+     * @param text As is.
+     * @return As is.
+     */
+    private static String escape(final String text) {
+        final StringBuilder result = new StringBuilder(text.length() + 16);
+        for (int index = 0; index < text.length(); ++index) {
+            final char character = text.charAt(index);
+            switch (character) {
+                case '&':
+                    result.append("&amp;");
+                    break;
+                case '<':
+                    result.append("&lt;");
+                    break;
+                case '>':
+                    result.append("&gt;");
+                    break;
+                case '"':
+                    result.append("&quot;");
+                    break;
+                case '\'':
+                    result.append("&#39;");
+                    break;
+                default:
+                    result.append(character);
+                    break;
+            }
+        }
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,374 @@
+package com.levelrin.wsvoip;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of the messages to a client with its own writer.
+ * Callers only copy the message into the queue, so a slow client never blocks them.
+ * Control messages are always delivered and go before the audio.
+ * Audio frames are kept in a fixed ring, and the oldest one is dropped when the ring is full.
+ * That way, a slow client costs memory proportional to the queue size, not to how slow it is.
+ * Messages wait while the socket is closed, so a client that resumes its session on a new socket gets them.
+ */
+public final class OutboundQueue implements Connection {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboundQueue.class);
+
+    /**
+     * Prefix of the frames that go to the socket as they are.
+     */
+    private static final byte[] NO_PREFIX = new byte[0];
+
+    /**
+     * The client's connection that the writer sends to.
+     * It's replaced when the client resumes the session.
+     */
+    private volatile Connection socket;
+
+    /**
+     * Runs the writer.
+     */
+    private final Executor writers;
+
+    /**
+     * Maximum number of control messages waiting.
+     */
+    private final int controlLimit;
+
+    /**
+     * Thread lock for the queues.
+     * It's never held while sending to the socket.
+     * It's not a monitor because a virtual thread waiting for a monitor pins its carrier thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Control messages waiting.
+     */
+    private final Queue<String> control = new ArrayDeque<>();
+
+    /**
+     * Ring of audio frames waiting.
+     * The buffers are allocated on the first use and reused afterward.
+     */
+    private final ByteBuffer[] audio;
+
+    /**
+     * Index of the oldest audio frame in the ring.
+     */
+    private int head;
+
+    /**
+     * Number of audio frames in the ring.
+     */
+    private int size;
+
+    /**
+     * The buffer the writer has just sent.
+     * It goes back into the ring when the writer takes the next frame, so the ring does not allocate.
+     * Only the writer uses it outside the lock.
+     */
+    private ByteBuffer spare;
+
+    /**
+     * True if the writer is scheduled or running.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Number of audio frames dropped because the client was too slow.
+     */
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /**
+     * Counters shared with the other queues.
+     */
+    private final OutboundTotals totals;
+
+    /**
+     * True once the queue has closed the socket, so the client must fetch the state again.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The writer.
+     * We keep it in a field to avoid creating a lambda per schedule.
+     */
+    private final Runnable writer = this::drain;
+
+    /**
+     * Constructor.
+     * @param socket The client's connection that the writer sends to.
+     * @param writers Runs the writer.
+     * @param audioLimit Maximum number of audio frames waiting.
+     * @param controlLimit Maximum number of control messages waiting.
+     */
+    public OutboundQueue(final Connection socket, final Executor writers, final int audioLimit, final int controlLimit) {
+        this(socket, writers, audioLimit, controlLimit, new OutboundTotals());
+    }
+
+    /**
+     * Constructor.
+     * @param socket The client's connection that the writer sends to.
+     * @param writers Runs the writer.
+     * @param audioLimit Maximum number of audio frames waiting.
+     * @param controlLimit Maximum number of control messages waiting.
+     * @param totals Counters shared with the other queues.
+     */
+    public OutboundQueue(final Connection socket, final Executor writers, final int audioLimit, final int controlLimit, final OutboundTotals totals) {
+        this.socket = socket;
+        this.writers = writers;
+        this.audio = new ByteBuffer[audioLimit];
+        this.controlLimit = controlLimit;
+        this.totals = totals;
+    }
+
+    @Override
+    public String id() {
+        return this.socket.id();
+    }
+
+    @Override
+    public boolean open() {
+        return this.socket.open();
+    }
+
+    /**
+     * Queue the control message.
+     * If too many control messages are waiting, the client cannot keep up with the state anymore.
+     * In that case, we close the connection so that the client reconnects and fetches the state again.
+     * @param message JSON.
+     */
+    @Override
+    public void send(final String message) {
+        boolean overflow = false;
+        this.lock.lock();
+        try {
+            if (this.control.size() >= this.controlLimit) {
+                overflow = true;
+            } else {
+                this.control.add(message);
+                this.totals.queuedMessages(1);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (overflow) {
+            this.close("Too many messages are waiting to be sent. Please reconnect.");
+        } else {
+            this.schedule();
+        }
+    }
+
+    /**
+     * Copy the audio frame into the ring.
+     * The oldest frame is dropped if the ring is full.
+     * @param message Audio frame. It's consumed.
+     */
+    @Override
+    public void send(final ByteBuffer message) {
+        this.send(NO_PREFIX, message);
+    }
+
+    /**
+     * Copy the prefix and the audio frame into the ring as one message.
+     * The oldest frame is dropped if the ring is full.
+     * It's for the links between the nodes, which put an envelope before the frame without allocation.
+     * @param prefix Bytes that go before the frame.
+     * @param message Audio frame. It's consumed.
+     */
+    public void send(final byte[] prefix, final ByteBuffer message) {
+        this.lock.lock();
+        try {
+            if (this.size == this.audio.length) {
+                this.head = (this.head + 1) % this.audio.length;
+                this.size = this.size - 1;
+                this.droppedFrames.incrementAndGet();
+                this.totals.droppedFrame();
+                this.totals.queuedFrames(-1);
+            }
+            final int tail = (this.head + this.size) % this.audio.length;
+            final int length = prefix.length + message.remaining();
+            ByteBuffer slot = this.audio[tail];
+            if (slot == null || slot.capacity() < length) {
+                slot = ByteBuffer.allocate(length);
+                this.audio[tail] = slot;
+            }
+            slot.clear();
+            slot.put(prefix);
+            slot.put(message);
+            slot.flip();
+            this.size = this.size + 1;
+            this.totals.queuedFrames(1);
+        } finally {
+            this.lock.unlock();
+        }
+        this.schedule();
+    }
+
+    @Override
+    public void close(final String reason) {
+        this.closed = true;
+        this.discard();
+        this.socket.close(reason);
+    }
+
+    /**
+     * Drop every message waiting.
+     * It must be called when the messages will never be sent, such as when the session has ended.
+     */
+    public void discard() {
+        this.lock.lock();
+        try {
+            this.totals.queuedMessages(-this.control.size());
+            this.totals.queuedFrames(-this.size);
+            this.control.clear();
+            this.size = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Continue on the client's new socket.
+     * The control messages that waited are sent first, and the audio frames that waited are dropped as stale.
+     * @param another The client's new connection.
+     */
+    public void resume(final Connection another) {
+        this.lock.lock();
+        try {
+            this.totals.queuedFrames(-this.size);
+            this.size = 0;
+        } finally {
+            this.lock.unlock();
+        }
+        this.socket = another;
+        this.schedule();
+    }
+
+    /**
+     * As is.
+     * @return True once the queue has closed the socket because the client could not keep up.
+     */
+    public boolean closed() {
+        return this.closed;
+    }
+
+    /**
+     * Number of messages waiting.
+     * @return Control messages plus audio frames.
+     */
+    public int depth() {
+        this.lock.lock();
+        try {
+            return this.control.size() + this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Number of audio frames dropped because the client was too slow.
+     * @return As is.
+     */
+    public long droppedFrames() {
+        return this.droppedFrames.get();
+    }
+
+    /**
+     * Start the writer unless it's running already.
+     */
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.writers.execute(this.writer);
+        }
+    }
+
+    /**
+     * Send everything in the queue.
+     * Only one writer runs at a time.
+     */
+    private void drain() {
+        boolean more = true;
+        while (more) {
+            String text = null;
+            ByteBuffer bytes = null;
+            // The messages wait for the client to resume the session while the socket is closed.
+            if (this.socket.open()) {
+                this.lock.lock();
+                try {
+                    text = this.control.poll();
+                    if (text != null) {
+                        this.totals.queuedMessages(-1);
+                    } else if (this.size > 0) {
+                        bytes = this.audio[this.head];
+                        this.audio[this.head] = this.spare;
+                        this.head = (this.head + 1) % this.audio.length;
+                        this.size = this.size - 1;
+                        this.totals.queuedFrames(-1);
+                    }
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+            if (text != null) {
+                this.write(text);
+            } else if (bytes != null) {
+                this.write(bytes);
+                this.spare = bytes;
+            } else {
+                this.scheduled.set(false);
+                // A message might have been queued, or the session resumed, right before the flag was cleared.
+                more = this.socket.open() && this.depth() > 0 && this.scheduled.compareAndSet(false, true);
+            }
+        }
+    }
+
+    /**
+     * Send the control message to the socket.
+     * @param message JSON.
+     */
+    private void write(final String message) {
+        try {
+            if (this.socket.open()) {
+                this.socket.send(message);
+                this.totals.sentMessage();
+            }
+        } catch (final Exception exception) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("Failed to send a message to %s: %s", this.id(), exception));
+            }
+        }
+    }
+
+    /**
+     * Send the audio frame to the socket.
+     * @param message Audio frame.
+     */
+    private void write(final ByteBuffer message) {
+        try {
+            if (this.socket.open()) {
+                final int bytes = message.remaining();
+                this.socket.send(message);
+                this.totals.sentFrame(bytes);
+            }
+        } catch (final Exception exception) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("Failed to send an audio frame to %s: %s", this.id(), exception));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.levelrin.wsvoip;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters that all {@link OutboundQueue}s add to.
+ * They outlive the connections, so they only grow except the number of waiting messages.
+ * Every counter is striped, so the writers of many connections do not contend on it.
+ */
+public final class OutboundTotals {
+
+    /**
+     * Audio frames sent to the sockets.
+     */
+    private final LongAdder audioFrames = new LongAdder();
+
+    /**
+     * Bytes of the audio frames sent to the sockets.
+     */
+    private final LongAdder audioBytes = new LongAdder();
+
+    /**
+     * Control messages sent to the sockets.
+     */
+    private final LongAdder controlMessages = new LongAdder();
+
+    /**
+     * Audio frames dropped because the clients were too slow.
+     */
+    private final LongAdder droppedFrames = new LongAdder();
+
+    /**
+     * Audio frames waiting in all queues.
+     */
+    private final LongAdder queuedFrames = new LongAdder();
+
+    /**
+     * Control messages waiting in all queues.
+     */
+    private final LongAdder queuedMessages = new LongAdder();
+
+    /**
+     * An audio frame was sent.
+     * @param bytes Size of the frame.
+     */
+    void sentFrame(final int bytes) {
+        this.audioFrames.increment();
+        this.audioBytes.add(bytes);
+    }
+
+    /**
+     * A control message was sent.
+     */
+    void sentMessage() {
+        this.controlMessages.increment();
+    }
+
+    /**
+     * An audio frame was dropped.
+     */
+    void droppedFrame() {
+        this.droppedFrames.increment();
+    }
+
+    /**
+     * Audio frames were queued or taken out of a queue.
+     * @param delta Positive if queued, negative if taken out.
+     */
+    void queuedFrames(final int delta) {
+        this.queuedFrames.add(delta);
+    }
+
+    /**
+     * Control messages were queued or taken out of a queue.
+     * @param delta Positive if queued, negative if taken out.
+     */
+    void queuedMessages(final int delta) {
+        this.queuedMessages.add(delta);
+    }
+
+    /**
+     * As is.
+     * @return Audio frames sent to the sockets.
+     */
+    public long audioFrames() {
+        return this.audioFrames.sum();
+    }
+
+    /**
+     * As is.
+     * @return Bytes of the audio frames sent to the sockets.
+     */
+    public long audioBytes() {
+        return this.audioBytes.sum();
+    }
+
+    /**
+     * As is.
+     * @return Control messages sent to the sockets.
+     */
+    public long controlMessages() {
+        return this.controlMessages.sum();
+    }
+
+    /**
+     * As is.
+     * @return Audio frames dropped because the clients were too slow.
+     */
+    public long droppedFrames() {
+        return this.droppedFrames.sum();
+    }
+
+    /**
+     * As is.
+     * @return Audio frames waiting in all queues.
+     */
+    public long queuedFrames() {
+        return this.queuedFrames.sum();
+    }
+
+    /**
+     * As is.
+     * @return Control messages waiting in all queues.
+     */
+    public long queuedMessages() {
+        return this.queuedMessages.sum();
+    }
+
+}
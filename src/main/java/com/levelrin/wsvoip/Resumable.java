@@ -0,0 +1,97 @@
+package com.levelrin.wsvoip;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A session that the client can resume with its token.
+ * It's held after the socket closes, until the client resumes it or the grace window ends.
+ */
+final class Resumable {
+
+    /**
+     * The session's user.
+     */
+    private final String username;
+
+    /**
+     * The user's connection, which keeps the messages while the socket is closed.
+     */
+    private final OutboundQueue queue;
+
+    /**
+     * WebSocket session ID of the socket that the session was on.
+     */
+    private final String sessionId;
+
+    /**
+     * End of the grace window.
+     * It's null while the socket is open.
+     */
+    private final AtomicReference<ScheduledFuture<?>> expiry = new AtomicReference<>();
+
+    /**
+     * Constructor.
+     * @param username The session's user.
+     * @param queue The user's connection.
+     * @param sessionId WebSocket session ID of the socket that the session is on.
+     */
+    Resumable(final String username, final OutboundQueue queue, final String sessionId) {
+        this.username = username;
+        this.queue = queue;
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * As is.
+     * @return The session's user.
+     */
+    String username() {
+        return this.username;
+    }
+
+    /**
+     * As is.
+     * @return The user's connection.
+     */
+    OutboundQueue queue() {
+        return this.queue;
+    }
+
+    /**
+     * As is.
+     * @return WebSocket session ID of the socket that the session was on.
+     */
+    String sessionId() {
+        return this.sessionId;
+    }
+
+    /**
+     * Start holding the session.
+     * @param end End of the grace window. It's cancelled if the session is held already.
+     */
+    void hold(final ScheduledFuture<?> end) {
+        if (!this.expiry.compareAndSet(null, end)) {
+            end.cancel(false);
+        }
+    }
+
+    /**
+     * As is.
+     * @return True if the socket has closed and the session is waiting for the client.
+     */
+    boolean held() {
+        return this.expiry.get() != null;
+    }
+
+    /**
+     * Stop the grace window because the client has resumed the session.
+     */
+    void cancel() {
+        final ScheduledFuture<?> end = this.expiry.get();
+        if (end != null) {
+            end.cancel(false);
+        }
+    }
+
+}
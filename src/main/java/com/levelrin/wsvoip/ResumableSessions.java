@@ -0,0 +1,170 @@
+package com.levelrin.wsvoip;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sessions that survive a short disconnect.
+ * Each connection gets a token, and the user and the outbound queue are kept for a grace window after the socket closes.
+ * A client that reconnects with the token within the window continues the session on the new socket,
+ * so nobody is told that the user left and joined again, and the messages that waited are delivered.
+ * See details at doc/ws.md
+ */
+public final class ResumableSessions {
+
+    /**
+     * Random bytes in a token.
+     */
+    private static final int TOKEN_BYTES = 18;
+
+    /**
+     * To check if the connection is still the user's.
+     */
+    private final WsConnections wsConnections;
+
+    /**
+     * To end the sessions that are not resumed in time.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * How long a session is held after its socket closes.
+     */
+    private final long graceMillis;
+
+    /**
+     * Makes the tokens.
+     */
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Key - Token.
+     * Value - The session that the token resumes.
+     * A session is removed from here by exactly one of the resumption and the end.
+     */
+    private final Map<String, Resumable> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Key - WebSocket session ID.
+     * Value - Token of the session.
+     */
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param wsConnections To check if the connection is still the user's.
+     * @param scheduler To end the sessions that are not resumed in time.
+     * @param graceMillis How long a session is held after its socket closes.
+     */
+    public ResumableSessions(final WsConnections wsConnections, final ScheduledExecutorService scheduler, final long graceMillis) {
+        this.wsConnections = wsConnections;
+        this.scheduler = scheduler;
+        this.graceMillis = graceMillis;
+    }
+
+    /**
+     * Give a token to the session.
+     * @param sessionId WebSocket session ID.
+     * @param username The session's user.
+     * @param queue The user's connection.
+     * @return The token that resumes the session.
+     */
+    public String issue(final String sessionId, final String username, final OutboundQueue queue) {
+        final byte[] bytes = new byte[TOKEN_BYTES];
+        this.random.nextBytes(bytes);
+        final String result = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        this.sessions.put(result, new Resumable(username, queue, sessionId));
+        this.tokens.put(sessionId, result);
+        return result;
+    }
+
+    /**
+     * Hold the session whose socket has closed.
+     * It's not held if the user has connected with another device or the client could not keep up with the messages.
+     * @param sessionId WebSocket session ID.
+     * @param expired Ends the session if it's not resumed within the grace window.
+     * @return True if the session is held, including when it was held already.
+     */
+    public boolean hold(final String sessionId, final Runnable expired) {
+        boolean result = false;
+        final String token = this.tokens.get(sessionId);
+        Resumable session = null;
+        if (token != null) {
+            session = this.sessions.get(token);
+        }
+        if (session != null && session.held()) {
+            result = true;
+        } else if (session != null
+            && !session.queue().closed()
+            && this.wsConnections.connection(session.username()) == session.queue()) {
+            final Resumable held = session;
+            session.hold(
+                this.scheduler.schedule(
+                    () -> {
+                        if (this.sessions.remove(token, held)) {
+                            this.tokens.remove(sessionId, token);
+                            held.queue().discard();
+                            expired.run();
+                        }
+                    },
+                    this.graceMillis,
+                    TimeUnit.MILLISECONDS
+                )
+            );
+            result = true;
+        }
+        return result;
+    }
+
+    /**
+     * Continue the session on the new socket.
+     * @param token From {@link ResumableSessions#issue(String, String, OutboundQueue)}. It's used up.
+     * @param username The user who reconnects.
+     * @param socket The new socket.
+     * @return The user's connection, or null if the token is unknown, expired, or not the user's.
+     */
+    public OutboundQueue resume(final String token, final String username, final Connection socket) {
+        OutboundQueue result = null;
+        final Resumable session = this.sessions.get(token);
+        if (session != null && session.username().equals(username) && this.sessions.remove(token, session)) {
+            session.cancel();
+            this.tokens.remove(session.sessionId(), token);
+            if (this.wsConnections.connection(username) == session.queue()) {
+                session.queue().resume(socket);
+                this.wsConnections.resume(username, session.queue(), session.sessionId());
+                result = session.queue();
+            } else {
+                session.queue().discard();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forget the session that has ended.
+     * @param sessionId WebSocket session ID.
+     */
+    public void end(final String sessionId) {
+        final String token = this.tokens.remove(sessionId);
+        if (token != null) {
+            final Resumable session = this.sessions.remove(token);
+            if (session != null) {
+                session.cancel();
+                session.queue().discard();
+            }
+        }
+    }
+
+    /**
+     * As is.
+     * @return How long a session is held after its socket closes.
+     */
+    public long graceMillis() {
+        return this.graceMillis;
+    }
+
+}
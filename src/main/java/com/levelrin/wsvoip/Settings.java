@@ -0,0 +1,228 @@
+package com.levelrin.wsvoip;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.PacketTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Server settings from the system properties.
+ * For example, run the server with -Dwsvoip.outbound.audioFrames=16
+ * See details at README.md
+ */
+public final class Settings {
+
+    /**
+     * Usually, the system properties.
+     */
+    private final Properties properties;
+
+    /**
+     * Constructor.
+     * @param properties Usually, the system properties.
+     */
+    public Settings(final Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Maximum number of audio frames waiting to be sent to a client.
+     * The oldest frame is dropped when a new one arrives at the full queue.
+     * @return Property 'wsvoip.outbound.audioFrames'. Default is 8.
+     */
+    public int outboundAudioFrames() {
+        return this.integer("wsvoip.outbound.audioFrames", 8);
+    }
+
+    /**
+     * Maximum number of control messages waiting to be sent to a client.
+     * Control messages are never dropped, so the connection is closed when the queue is full.
+     * @return Property 'wsvoip.outbound.controlMessages'. Default is 1024.
+     */
+    public int outboundControlMessages() {
+        return this.integer("wsvoip.outbound.controlMessages", 1024);
+    }
+
+    /**
+     * How long the presence and channel events are collected before they are delivered together.
+     * @return Property 'wsvoip.events.windowMillis'. Default is 20.
+     */
+    public int eventWindowMillis() {
+        return this.integer("wsvoip.events.windowMillis", 20);
+    }
+
+    /**
+     * Drop the frames of talkers who are not talking instead of delivering them.
+     * @return Property 'wsvoip.vad.enabled'. Default is true.
+     */
+    public boolean voiceActivityDetection() {
+        return Boolean.parseBoolean(this.properties.getProperty("wsvoip.vad.enabled", "true").trim());
+    }
+
+    /**
+     * How long a talker is still taken as talking after the last voiced frame.
+     * @return Property 'wsvoip.vad.hangoverMillis'. Default is 300.
+     */
+    public int voiceActivityHangoverMillis() {
+        return this.integer("wsvoip.vad.hangoverMillis", 300);
+    }
+
+    /**
+     * Maximum number of talkers whose audio is delivered at a time in a channel.
+     * It requires the voice activity detection.
+     * @return Property 'wsvoip.speakers.max'. Default is 3.
+     */
+    public int maxSpeakers() {
+        return this.integer("wsvoip.speakers.max", 3);
+    }
+
+    /**
+     * Run the HTTP handlers and the outbound writers on virtual threads.
+     * It requires Java 21 or later.
+     * @return Property 'wsvoip.virtualThreads'. Default is false.
+     */
+    public boolean virtualThreads() {
+        return Boolean.parseBoolean(this.properties.getProperty("wsvoip.virtualThreads", "false").trim());
+    }
+
+    /**
+     * Packet time of the mixers, and of the clients that support it.
+     * @return Property 'wsvoip.audio.packetMillis', which is 10, 20, or 40. Default is 20.
+     */
+    public int packetMillis() {
+        final int result = this.integer("wsvoip.audio.packetMillis", PacketTime.DEFAULT_MILLIS);
+        if (!PacketTime.supported(result)) {
+            throw new IllegalArgumentException(
+                String.format("The property 'wsvoip.audio.packetMillis' must be 10, 20, or 40, but it was: %d", result)
+            );
+        }
+        return result;
+    }
+
+    /**
+     * Number of threads that run the voice channels.
+     * Each channel stays on one of them, so the channels spread over the cores.
+     * @return Property 'wsvoip.channels.threads'. Default is the number of cores.
+     */
+    public int channelThreads() {
+        return this.integer("wsvoip.channels.threads", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * How long a session is held after its socket closes, so the client can resume it.
+     * @return Property 'wsvoip.resume.graceMillis'. Default is 10000.
+     */
+    public int resumeGraceMillis() {
+        return this.integer("wsvoip.resume.graceMillis", 10_000);
+    }
+
+    /**
+     * HTTP port of the server.
+     * @return Property 'wsvoip.port'. Default is 8080.
+     */
+    public int port() {
+        return this.integer("wsvoip.port", 8080);
+    }
+
+    /**
+     * Nodes of the cluster, including this one.
+     * @return Property 'wsvoip.cluster.nodes' split by commas, e.g. [localhost:8080, localhost:8081].
+     *         Empty list if the server runs alone.
+     */
+    public List<String> clusterNodes() {
+        final List<String> result = new ArrayList<>();
+        for (final String node : this.properties.getProperty("wsvoip.cluster.nodes", "").split(",")) {
+            if (!node.isBlank()) {
+                result.add(node.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This node's address in {@link Settings#clusterNodes()}.
+     * @return Property 'wsvoip.cluster.self'. Default is 'localhost:' plus {@link Settings#port()}.
+     */
+    public String clusterSelf() {
+        return this.properties.getProperty("wsvoip.cluster.self", "localhost:" + this.port()).trim();
+    }
+
+    /**
+     * Secret that the nodes of the cluster show each other when they open their links.
+     * It's required if the cluster has more than one node, and it must be the same on every node.
+     * @return Property 'wsvoip.cluster.secret'. Empty if it's not set, which is the default.
+     */
+    public String clusterSecret() {
+        return this.properties.getProperty("wsvoip.cluster.secret", "").trim();
+    }
+
+    /**
+     * Where the recordings of the channels are written.
+     * @return Property 'wsvoip.recording.dir'. Empty if nothing is recorded, which is the default.
+     */
+    public String recordingDirectory() {
+        return this.properties.getProperty("wsvoip.recording.dir", "").trim();
+    }
+
+    /**
+     * Channels that are recorded if {@link Settings#recordingDirectory()} is set.
+     * @return Property 'wsvoip.recording.channels' split by commas, e.g. [lobby, standup].
+     *         Default is [*], which means every channel.
+     */
+    public List<String> recordingChannels() {
+        final List<String> result = new ArrayList<>();
+        for (final String channel : this.properties.getProperty("wsvoip.recording.channels", "*").split(",")) {
+            if (!channel.isBlank()) {
+                result.add(channel.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Maximum number of frames waiting to be written to the recordings.
+     * Each one takes {@link AudioFrame#MAX_BYTES}.
+     * @return Property 'wsvoip.recording.queueFrames'. Default is 1024.
+     */
+    public int recordingQueueFrames() {
+        return this.integer("wsvoip.recording.queueFrames", 1024);
+    }
+
+    /**
+     * A new segment file of a recording starts when the current one is this old.
+     * @return Property 'wsvoip.recording.segmentMinutes'. Default is 10.
+     */
+    public int recordingSegmentMinutes() {
+        return this.integer("wsvoip.recording.segmentMinutes", 10);
+    }
+
+    /**
+     * Segment files of the recordings older than this are deleted.
+     * @return Property 'wsvoip.recording.retentionHours'. Default is 168, which is a week.
+     */
+    public int recordingRetentionHours() {
+        return this.integer("wsvoip.recording.retentionHours", 168);
+    }
+
+    /**
+     * Read the positive integer property.
+     * @param name Name of the property.
+     * @param fallback It's used if the property does not exist.
+     * @return As is.
+     */
+    private int integer(final String name, final int fallback) {
+        final String value = this.properties.getProperty(name);
+        int result = fallback;
+        if (value != null) {
+            result = Integer.parseInt(value.trim());
+            if (result <= 0) {
+                throw new IllegalArgumentException(
+                    String.format("The property '%s' must be positive, but it was: %s", name, value)
+                );
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.levelrin.wsvoip;
+
+import com.google.gson.JsonObject;
+import io.javalin.http.Context;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Serialized view of a state that changes, stamped with a version.
+ * The owner of the state calls {@link VersionedSnapshot#changed(String)} after each mutation.
+ * The view is serialized only once per version no matter how many clients ask for it.
+ * Clients that have an older version can ask for the keys that changed since then.
+ * A delta has the current state of each changed key, so applying it twice does no harm.
+ */
+public final class VersionedSnapshot {
+
+    /**
+     * Number of changes we remember for the deltas.
+     * Clients that are further behind get the full view.
+     */
+    private static final int HISTORY = 1024;
+
+    /**
+     * Builds the full view from the current state.
+     */
+    private final Supplier<JsonObject> full;
+
+    /**
+     * Builds the delta from the current state of the changed keys.
+     */
+    private final Function<Set<String>, JsonObject> delta;
+
+    /**
+     * Versions of the remembered changes in a ring.
+     * It's accessed under the lock only.
+     */
+    private final long[] versions = new long[HISTORY];
+
+    /**
+     * Keys of the remembered changes in a ring.
+     * It's accessed under the lock only.
+     */
+    private final String[] keys = new String[HISTORY];
+
+    /**
+     * Index of the slot for the next change.
+     * It's accessed under the lock only.
+     */
+    private int next;
+
+    /**
+     * Number of the remembered changes.
+     * It's accessed under the lock only.
+     */
+    private int size;
+
+    /**
+     * Current version.
+     * It starts from the clock so that the versions of a restarted server are newer than before.
+     * The clock is in milliseconds times 1000, which keeps it within the integers that JavaScript can represent.
+     * It's written under the lock but read without the lock.
+     */
+    private volatile long version;
+
+    /**
+     * The latest serialized full view.
+     */
+    private final AtomicReference<Serialized> cache = new AtomicReference<>(new Serialized(-1, new byte[0]));
+
+    /**
+     * Thread lock.
+     * It's not a monitor because a virtual thread waiting for a monitor pins its carrier thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Constructor.
+     * @param full Builds the full view from the current state.
+     * @param delta Builds the delta from the current state of the changed keys.
+     */
+    public VersionedSnapshot(final Supplier<JsonObject> full, final Function<Set<String>, JsonObject> delta) {
+        this.full = full;
+        this.delta = delta;
+        this.version = System.currentTimeMillis() * 1000;
+    }
+
+    /**
+     * Record a change and invalidate the serialized view.
+     * @param key What has changed, such as a username or a channel name.
+     */
+    public void changed(final String key) {
+        this.lock.lock();
+        try {
+            final long changedVersion = this.version + 1;
+            this.versions[this.next] = changedVersion;
+            this.keys[this.next] = key;
+            this.next = (this.next + 1) % HISTORY;
+            if (this.size < HISTORY) {
+                this.size = this.size + 1;
+            }
+            this.version = changedVersion;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * As is.
+     * @return Current version.
+     */
+    public long version() {
+        return this.version;
+    }
+
+    /**
+     * The full view in JSON with the 'version' attribute.
+     * The state may be newer than the version, but never older.
+     * @return UTF-8 bytes that must not be modified.
+     */
+    public byte[] bytes() {
+        final long current = this.version;
+        Serialized serialized = this.cache.get();
+        if (serialized.version != current) {
+            final JsonObject view = this.full.get();
+            view.addProperty("version", current);
+            serialized = new Serialized(current, view.toString().getBytes(StandardCharsets.UTF_8));
+            this.cache.accumulateAndGet(serialized, Serialized::newer);
+        }
+        return serialized.bytes;
+    }
+
+    /**
+     * Configure the HTTP response.
+     * The query parameter 'since' is the version that the client has.
+     * The client gets 304 if nothing changed since then, the delta if we remember the changes,
+     * or the full view otherwise.
+     * See details at doc/ws.md and doc/voice-channels.md
+     * @param httpContext As is.
+     */
+    public void respond(final Context httpContext) {
+        final String since = httpContext.queryParam("since");
+        if (since == null) {
+            httpContext.status(200);
+            httpContext.header("Content-Type", "application/json");
+            httpContext.result(this.bytes());
+        } else if (since.matches("\\d{1,18}")) {
+            final long sinceVersion = Long.parseLong(since);
+            final long current = this.version;
+            if (sinceVersion == current) {
+                httpContext.status(304);
+            } else {
+                final Set<String> changedKeys = this.changedSince(sinceVersion, current);
+                httpContext.status(200);
+                httpContext.header("Content-Type", "application/json");
+                if (changedKeys == null) {
+                    httpContext.result(this.bytes());
+                } else {
+                    final JsonObject body = this.delta.apply(changedKeys);
+                    body.addProperty("version", current);
+                    body.addProperty("since", sinceVersion);
+                    httpContext.result(body.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } else {
+            httpContext.status(400);
+            httpContext.header("Content-Type", "application/json");
+            final JsonObject body = new JsonObject();
+            body.addProperty("reason", "The query parameter 'since' must be a version from the previous response.");
+            httpContext.result(body.toString());
+        }
+    }
+
+    /**
+     * Keys that changed after the version.
+     * @param since Version that the client has.
+     * @param until Version that the client will have.
+     * @return Null if we don't remember all the changes.
+     */
+    private Set<String> changedSince(final long since, final long until) {
+        Set<String> result = null;
+        this.lock.lock();
+        try {
+            final long oldest = this.version - this.size + 1;
+            if (since < until && since >= oldest - 1) {
+                result = new LinkedHashSet<>();
+                for (int count = 0; count < this.size; ++count) {
+                    final int index = Math.floorMod(this.next - this.size + count, HISTORY);
+                    if (this.versions[index] > since && this.versions[index] <= until) {
+                        result.add(this.keys[index]);
+                    }
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Serialized full view with its version.
+     */
+    private static final class Serialized {
+
+        /**
+         * As is.
+         */
+        private final long version;
+
+        /**
+         * As is.
+         */
+        private final byte[] bytes;
+
+        /**
+         * Constructor.
+         * @param version As is.
+         * @param bytes As is.
+         */
+        Serialized(final long version, final byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Pick the newer one so that an old view never replaces a new one.
+         * @param existing As is.
+         * @param candidate As is.
+         * @return As is.
+         */
+        static Serialized newer(final Serialized existing, final Serialized candidate) {
+            Serialized result = existing;
+            if (candidate.version > existing.version) {
+                result = candidate;
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.levelrin.wsvoip;
+
+import com.levelrin.wsvoip.audio.ActiveSpeakers;
+import com.levelrin.wsvoip.audio.ChannelMixer;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Members of one channel with their own executor.
+ * Only the executor changes the channel, so it needs no lock, and activity in a channel never blocks another.
+ * The methods that change the channel must run on {@link VoiceChannel#executor()}.
+ */
+final class VoiceChannel {
+
+    /**
+     * Channel name.
+     */
+    private final String name;
+
+    /**
+     * Channel ID that binary audio frames use instead of the name.
+     */
+    private final int id;
+
+    /**
+     * Index from the username to the channel name that all channels share.
+     * A channel writes its own name there on its own executor only.
+     * It removes an entry only when the entry still points to itself,
+     * so it never overwrites what another channel has written.
+     */
+    private final Map<String, String> usernameToChannel;
+
+    /**
+     * Usernames in the join order.
+     * Adding and removing a username are O(1).
+     * It's accessed on the executor only.
+     */
+    private final Set<String> usernames = new LinkedHashSet<>();
+
+    /**
+     * Immutable copy of {@link VoiceChannel#usernames}.
+     * It's republished whenever the members change,
+     * so the other threads can read it, such as for the list of the channels.
+     */
+    private volatile List<String> members = Collections.emptyList();
+
+    /**
+     * Null if the server does not mix the channel.
+     * It's written on the executor but read by the other threads too.
+     */
+    private volatile ChannelMixer mixer;
+
+    /**
+     * Talkers whose audio is delivered.
+     */
+    private final ActiveSpeakers speakers;
+
+    /**
+     * True once the channel is removed.
+     * Nobody can join the channel after that.
+     * It's accessed on the executor only.
+     */
+    private boolean removed;
+
+    /**
+     * Runs everything of the channel one at a time.
+     */
+    private final ChannelExecutor executor;
+
+    /**
+     * Constructor.
+     * @param name Channel name.
+     * @param id Channel ID.
+     * @param usernameToChannel Index from the username to the channel name that all channels share.
+     * @param maxSpeakers Maximum number of talkers whose audio is delivered at a time.
+     * @param executor Runs everything of the channel one at a time.
+     */
+    VoiceChannel(final String name, final int id, final Map<String, String> usernameToChannel, final int maxSpeakers, final ChannelExecutor executor) {
+        this.name = name;
+        this.id = id;
+        this.usernameToChannel = usernameToChannel;
+        this.speakers = new ActiveSpeakers(maxSpeakers);
+        this.executor = executor;
+    }
+
+    /**
+     * As is.
+     * @return Channel name.
+     */
+    String name() {
+        return this.name;
+    }
+
+    /**
+     * As is.
+     * @return Channel ID.
+     */
+    int id() {
+        return this.id;
+    }
+
+    /**
+     * As is.
+     * @return Immutable snapshot of the usernames.
+     */
+    List<String> members() {
+        return this.members;
+    }
+
+    /**
+     * As is.
+     * @return Null if the server does not mix the channel.
+     */
+    ChannelMixer mixer() {
+        return this.mixer;
+    }
+
+    /**
+     * As is.
+     * @return Talkers whose audio is delivered. Only the executor may use it.
+     */
+    ActiveSpeakers speakers() {
+        return this.speakers;
+    }
+
+    /**
+     * As is.
+     * @return Runs everything of the channel one at a time.
+     */
+    ChannelExecutor executor() {
+        return this.executor;
+    }
+
+    /**
+     * Start mixing the channel unless it's removed already.
+     * @param created The new mixer.
+     */
+    void mix(final ChannelMixer created) {
+        if (this.removed) {
+            created.close();
+        } else {
+            this.mixer = created;
+        }
+    }
+
+    /**
+     * Add the user.
+     * The index points to this channel afterward.
+     * @param username As is.
+     * @return False if the channel is removed already.
+     */
+    boolean add(final String username) {
+        boolean added = false;
+        if (!this.removed) {
+            if (this.usernames.add(username)) {
+                this.members = List.copyOf(this.usernames);
+            }
+            this.usernameToChannel.put(username, this.name);
+            added = true;
+        }
+        return added;
+    }
+
+    /**
+     * Remove the user.
+     * @param username As is.
+     * @return False if the user was not in the channel.
+     */
+    boolean remove(final String username) {
+        final boolean result = this.usernames.remove(username);
+        if (result) {
+            this.members = List.copyOf(this.usernames);
+            this.usernameToChannel.remove(username, this.name);
+            this.speakers.remove(username);
+        }
+        return result;
+    }
+
+    /**
+     * Remove the channel itself.
+     * It stops the mixer if any.
+     * @return The usernames that were in the channel.
+     */
+    List<String> close() {
+        final List<String> result = this.members;
+        this.removed = true;
+        for (final String username : this.usernames) {
+            this.usernameToChannel.remove(username, this.name);
+        }
+        this.usernames.clear();
+        this.members = Collections.emptyList();
+        if (this.mixer != null) {
+            this.mixer.close();
+            this.mixer = null;
+        }
+        return result;
+    }
+
+}
@@ -2,49 +2,189 @@ package com.levelrin.wsvoip;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.levelrin.wsvoip.audio.ActiveSpeakers;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import com.levelrin.wsvoip.audio.ChannelMixer;
+import com.levelrin.wsvoip.audio.PacketTime;
+import com.levelrin.wsvoip.metrics.LatencyHistogram;
 import io.javalin.http.Context;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * Voice channels and their members.
+ * Each channel is an actor: its membership, audio, and mixer are handled on its own {@link ChannelExecutor}.
+ * A change that involves two channels, such as switching, is done by one message to each channel in turn,
+ * so no thread ever holds two channels at once.
+ * The methods that change the channels wait for the executors, so they must not be called on a channel's thread.
+ */
 public final class VoiceChannels {
 
     /**
-     * We must maintain its reverse (in a sense) map {@link VoiceChannels#usernameToChannel}.
-     * We chose time complexity over space complexity.
+     * Maximum number of audio frames waiting for the thread of a channel.
+     * It's a third of a second of a talker at the render quantum of the browser (2.7 ms),
+     * which the thread never falls behind by unless it's overloaded.
+     */
+    private static final int FRAME_LIMIT = 128;
+
+    /**
+     * For the replicas, whose events are told by the other node.
+     */
+    private static final Consumer<String> IGNORED = channelName -> { };
+
+    /**
      * Key - Channel name.
-     * Value - Usernames in that channel.
+     * Value - Channel with its members.
+     * Each channel has its own executor, so activity in a channel never blocks another.
      */
-    private final Map<String, List<String>> channelToUsernames = new HashMap<>();
+    private final Map<String, VoiceChannel> channels = new ConcurrentHashMap<>();
 
     /**
-     * We must maintain its reverse (in a sense) map {@link VoiceChannels#channelToUsernames}.
+     * Reverse (in a sense) index of {@link VoiceChannels#channels}.
      * We chose time complexity over space complexity.
      * Key - Username.
      * Value - User's channel name.
+     * Only {@link VoiceChannel} modifies it on its executor, and the other threads read it.
+     */
+    private final Map<String, String> usernameToChannel = new ConcurrentHashMap<>();
+
+    /**
+     * The threads that the channels are pinned to.
+     */
+    private final ChannelThreads threads;
+
+    /**
+     * For the mixers to encode the mixed frames.
      */
-    private final Map<String, String> usernameToChannel = new HashMap<>();
+    private final AudioFramePool framePool;
 
     /**
-     * Thread lock.
+     * Maximum number of talkers whose audio is delivered at a time in a channel.
      */
-    private final Object lock = new Object();
+    private final int maxSpeakers;
+
+    /**
+     * How long the tasks and audio frames waited for the channels' threads.
+     */
+    private final LatencyHistogram waits = new LatencyHistogram();
+
+    /**
+     * Number of audio frames dropped because they waited for the channels' threads too long.
+     */
+    private final LongAdder lateFrames = new LongAdder();
+
+    /**
+     * How long the mixers' ticks took.
+     */
+    private final LatencyHistogram mixerTicks = new LatencyHistogram();
+
+    /**
+     * Number of samples in a frame of the mixers, which is also the period of their clocks.
+     */
+    private final int mixerFrameSamples;
+
+    /**
+     * ID of the first channel.
+     */
+    private final int firstChannelId;
+
+    /**
+     * Difference between the IDs of two channels created one after another.
+     * In a cluster, each node has its own first ID and they all step by the number of nodes,
+     * so the nodes never give the same ID.
+     */
+    private final int channelIdStep;
+
+    /**
+     * How many steps from the first ID the next channel is.
+     * IDs are never reused so that stale audio frames cannot reach a new channel.
+     */
+    private final AtomicInteger nextChannelIndex = new AtomicInteger();
+
+    /**
+     * Serialized view of the channels for '/voiceChannels' endpoint.
+     */
+    private final VersionedSnapshot snapshot = new VersionedSnapshot(this::json, this::changes);
+
+    /**
+     * Constructor.
+     * Every talker's audio is delivered.
+     * @param threads The threads that the channels are pinned to.
+     * @param framePool For the mixers to encode the mixed frames.
+     */
+    public VoiceChannels(final ChannelThreads threads, final AudioFramePool framePool) {
+        this(threads, framePool, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor.
+     * @param threads The threads that the channels are pinned to.
+     * @param framePool For the mixers to encode the mixed frames.
+     * @param maxSpeakers Maximum number of talkers whose audio is delivered at a time in a channel.
+     */
+    public VoiceChannels(final ChannelThreads threads, final AudioFramePool framePool, final int maxSpeakers) {
+        this(threads, framePool, maxSpeakers, 1, 1);
+    }
+
+    /**
+     * Constructor.
+     * @param threads The threads that the channels are pinned to.
+     * @param framePool For the mixers to encode the mixed frames.
+     * @param maxSpeakers Maximum number of talkers whose audio is delivered at a time in a channel.
+     * @param firstChannelId ID of the first channel.
+     * @param channelIdStep Difference between the IDs of two channels created one after another.
+     */
+    public VoiceChannels(final ChannelThreads threads, final AudioFramePool framePool, final int maxSpeakers, final int firstChannelId, final int channelIdStep) {
+        this(threads, framePool, maxSpeakers, firstChannelId, channelIdStep, PacketTime.samples(PacketTime.DEFAULT_MILLIS));
+    }
+
+    /**
+     * Constructor.
+     * @param threads The threads that the channels are pinned to.
+     * @param framePool For the mixers to encode the mixed frames.
+     * @param maxSpeakers Maximum number of talkers whose audio is delivered at a time in a channel.
+     * @param firstChannelId ID of the first channel.
+     * @param channelIdStep Difference between the IDs of two channels created one after another.
+     * @param mixerFrameSamples Number of samples in a mixed frame, e.g. {@link PacketTime#samples(int)}.
+     */
+    public VoiceChannels(final ChannelThreads threads, final AudioFramePool framePool, final int maxSpeakers, final int firstChannelId, final int channelIdStep, final int mixerFrameSamples) {
+        this.threads = threads;
+        this.mixerFrameSamples = mixerFrameSamples;
+        this.framePool = framePool;
+        this.maxSpeakers = maxSpeakers;
+        this.firstChannelId = firstChannelId;
+        this.channelIdStep = channelIdStep;
+    }
 
     /**
      * Create a new channel.
      * @param name Channel name.
+     * @param mixing True if the server mixes the audio of the channel.
      * @param httpContext To configure the HTTP response.
      * @param wsConnections To broadcast the event of channel creation.
      */
-    public void create(final String name, final Context httpContext, final WsConnections wsConnections) {
-        int statusCode;
-        synchronized (this.lock) {
-            if (this.channelToUsernames.containsKey(name)) {
-                statusCode = 409;
-            } else {
+    public void create(final String name, final boolean mixing, final Context httpContext, final WsConnections wsConnections) {
+        int statusCode = 409;
+        int channelId = 0;
+        if (!this.channels.containsKey(name)) {
+            final int id = this.firstChannelId + this.nextChannelIndex.getAndIncrement() * this.channelIdStep;
+            final VoiceChannel candidate = this.channel(name, id);
+            if (this.channels.putIfAbsent(name, candidate) == null) {
                 statusCode = 201;
-                this.channelToUsernames.put(name, new ArrayList<>());
+                channelId = candidate.id();
+                if (mixing) {
+                    this.mix(candidate, wsConnections);
+                }
+                this.snapshot.changed(name);
             }
         }
         if (statusCode == 409) {
@@ -58,6 +198,8 @@ public final class VoiceChannels {
             final JsonObject message = new JsonObject();
             message.addProperty("about", "voice channel is created");
             message.addProperty("name", name);
+            message.addProperty("id", channelId);
+            message.addProperty("mixing", mixing);
             wsConnections.broadcast(message);
         }
     }
@@ -69,17 +211,12 @@ public final class VoiceChannels {
      * @param wsConnections To broadcast the event of channel removal.
      */
     public void remove(final String name, final Context httpContext, final WsConnections wsConnections) {
-        int statusCode;
-        synchronized (this.lock) {
-            if (this.channelToUsernames.containsKey(name)) {
-                statusCode = 204;
-                for (final String username: this.channelToUsernames.get(name)) {
-                    this.usernameToChannel.remove(username);
-                }
-                this.channelToUsernames.remove(name);
-            } else {
-                statusCode = 404;
-            }
+        int statusCode = 404;
+        final VoiceChannel channel = this.channels.remove(name);
+        if (channel != null) {
+            statusCode = 204;
+            ask(channel, channel::close).join();
+            this.snapshot.changed(name);
         }
         if (statusCode == 204) {
             httpContext.status(204);
@@ -98,27 +235,32 @@ public final class VoiceChannels {
 
     /**
      * User joins the channel.
+     * A user is in one channel at most, so the user leaves the previous channel if any,
+     * and everyone is told about that before the joining.
      * @param username AS is.
      * @param channelName As is.
      * @param httpContext To configure the HTTP response.
-     * @param wsConnections To broadcast the event of joining.
+     * @param wsConnections To broadcast the events of leaving and joining.
      */
     public void join(final String username, final String channelName, final Context httpContext, final WsConnections wsConnections) {
         String status = "success";
-        synchronized (this.lock) {
-            if (wsConnections.hasUser(username)) {
-                if (this.channelToUsernames.containsKey(channelName)) {
-                    this.usernameToChannel.put(username, channelName);
-                    this.channelToUsernames.get(channelName).add(username);
-                } else {
-                    status = "channel not found";
-                }
-            } else {
-                status = "user not found";
+        final AtomicReference<String> left = new AtomicReference<>();
+        if (wsConnections.hasUser(username)) {
+            if (!this.add(username, channelName, left::set).join()) {
+                status = "channel not found";
             }
+        } else {
+            status = "user not found";
         }
         if ("success".equals(status)) {
             httpContext.status(204);
+            if (left.get() != null) {
+                final JsonObject leaving = new JsonObject();
+                leaving.addProperty("about", "user left the voice channel");
+                leaving.addProperty("username", username);
+                leaving.addProperty("channelName", left.get());
+                wsConnections.broadcast(leaving);
+            }
             final JsonObject message = new JsonObject();
             message.addProperty("about", "user joined the voice channel");
             message.addProperty("username", username);
@@ -148,17 +290,15 @@ public final class VoiceChannels {
      */
     public void leave(final String username, final String channelName, final Context httpContext, final WsConnections wsConnections) {
         String status = "success";
-        synchronized (this.lock) {
-            if (wsConnections.hasUser(username)) {
-                if (this.channelToUsernames.containsKey(channelName)) {
-                    this.usernameToChannel.remove(username);
-                    this.channelToUsernames.get(channelName).remove(username);
-                } else {
-                    status = "channel not found";
-                }
-            } else {
-                status = "user not found";
+        if (wsConnections.hasUser(username)) {
+            final VoiceChannel channel = this.channels.get(channelName);
+            if (channel == null) {
+                status = "channel not found";
+            } else if (ask(channel, () -> channel.remove(username)).join()) {
+                this.snapshot.changed(channelName);
             }
+        } else {
+            status = "user not found";
         }
         if ("success".equals(status)) {
             httpContext.status(204);
@@ -191,13 +331,15 @@ public final class VoiceChannels {
     public void leave(final String username, final WsConnections wsConnections) {
         boolean success = false;
         String channelName = "TBD.";
-        synchronized (this.lock) {
-            if (wsConnections.hasUser(username)) {
-                channelName = this.usernameToChannel.get(username);
-                if (this.channelToUsernames.containsKey(channelName)) {
-                    this.usernameToChannel.remove(username);
-                    this.channelToUsernames.get(channelName).remove(username);
-                    success = true;
+        if (wsConnections.hasUser(username)) {
+            channelName = this.usernameToChannel.get(username);
+            if (channelName != null) {
+                final VoiceChannel channel = this.channels.get(channelName);
+                if (channel != null) {
+                    success = ask(channel, () -> channel.remove(username)).join();
+                }
+                if (success) {
+                    this.snapshot.changed(channelName);
                 }
             }
         }
@@ -220,42 +362,53 @@ public final class VoiceChannels {
      */
     public void switchChannel(final String username, final String oldChannelName, final String newChannelName, final Context httpContext, final WsConnections wsConnections) {
         String status = "success";
-        synchronized (this.lock) {
-            if (wsConnections.hasUser(username)) {
-                if (this.channelToUsernames.containsKey(oldChannelName)) {
-                    if (this.channelToUsernames.containsKey(newChannelName)) {
-                        if (this.usernameToChannel.containsKey(username)) {
-                            if (this.usernameToChannel.get(username).equals(oldChannelName)) {
-                                this.usernameToChannel.remove(username);
-                                this.channelToUsernames.get(oldChannelName).remove(username);
-                                this.usernameToChannel.put(username, newChannelName);
-                                this.channelToUsernames.get(newChannelName).add(username);
-                            } else {
-                                status = "user not in old channel";
-                                httpContext.status(400);
-                                httpContext.header("Content-Type", "application/json");
-                                final JsonObject body = new JsonObject();
-                                body.addProperty(
-                                    "reason",
-                                    String.format(
-                                        "The user was not in the old channel. The user was in %s.",
-                                        this.usernameToChannel.get(username)
-                                    )
-                                );
-                                httpContext.result(body.toString());
+        if (wsConnections.hasUser(username)) {
+            final VoiceChannel oldChannel = this.channels.get(oldChannelName);
+            final VoiceChannel newChannel = this.channels.get(newChannelName);
+            final String current = this.usernameToChannel.get(username);
+            if (oldChannel == null) {
+                status = "old channel not found";
+            } else if (newChannel == null) {
+                status = "new channel not found";
+            } else if (current == null) {
+                status = "user not in any channel";
+            } else if (current.equals(oldChannelName)) {
+                // We join first so that the user stays where it was if the new channel is removed meanwhile.
+                // The new channel tells the old one to remove the user once it has added the user,
+                // so each channel changes on its own thread and two opposite switches cannot deadlock.
+                if (oldChannel != newChannel) {
+                    final boolean switched = ask(newChannel, () -> newChannel.add(username))
+                        .thenCompose(added -> {
+                            CompletableFuture<Boolean> result = CompletableFuture.completedFuture(false);
+                            if (added) {
+                                result = ask(oldChannel, () -> oldChannel.remove(username)).thenApply(removed -> true);
                             }
-                        } else {
-                            status = "user not in any channel";
-                        }
+                            return result;
+                        })
+                        .join();
+                    if (switched) {
+                        this.snapshot.changed(newChannelName);
+                        this.snapshot.changed(oldChannelName);
                     } else {
                         status = "new channel not found";
                     }
-                } else {
-                    status = "old channel not found";
                 }
             } else {
-                status = "user not found";
+                status = "user not in old channel";
+                httpContext.status(400);
+                httpContext.header("Content-Type", "application/json");
+                final JsonObject body = new JsonObject();
+                body.addProperty(
+                    "reason",
+                    String.format(
+                        "The user was not in the old channel. The user was in %s.",
+                        current
+                    )
+                );
+                httpContext.result(body.toString());
             }
+        } else {
+            status = "user not found";
         }
         if ("success".equals(status)) {
             httpContext.status(204);
@@ -294,28 +447,373 @@ public final class VoiceChannels {
         }
     }
 
+    /**
+     * Create the channel that another node has created.
+     * Nobody is told; the other node has told the clients already.
+     * The channel keeps its ID, and this node never gives the ID to another channel.
+     * @param name Channel name.
+     * @param id Channel ID from the other node.
+     * @param mixing True if the server mixes the audio of the channel.
+     * @param wsConnections For the mixer to send the mixed frames.
+     * @return False if the channel exists already.
+     */
+    public boolean replicateCreate(final String name, final int id, final boolean mixing, final WsConnections wsConnections) {
+        boolean result = false;
+        this.nextChannelIndex.accumulateAndGet((id - this.firstChannelId) / this.channelIdStep + 1, Math::max);
+        if (!this.channels.containsKey(name)) {
+            final VoiceChannel candidate = this.channel(name, id);
+            if (this.channels.putIfAbsent(name, candidate) == null) {
+                result = true;
+                if (mixing) {
+                    this.mix(candidate, wsConnections);
+                }
+                this.snapshot.changed(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove the channel that another node has removed.
+     * Nobody is told; the other node has told the clients already.
+     * @param name Channel name.
+     * @return False if the channel did not exist.
+     */
+    public boolean replicateRemove(final String name) {
+        boolean result = false;
+        final VoiceChannel channel = this.channels.remove(name);
+        if (channel != null) {
+            ask(channel, channel::close).join();
+            this.snapshot.changed(name);
+            result = true;
+        }
+        return result;
+    }
+
+    /**
+     * The user joins the channel on another node.
+     * Nobody is told; the other node has told the clients already.
+     * @param username As is.
+     * @param channelName As is.
+     * @return False if the channel does not exist.
+     */
+    public boolean replicateJoin(final String username, final String channelName) {
+        return this.add(username, channelName, IGNORED).join();
+    }
+
+    /**
+     * The user leaves the channel on another node.
+     * Nobody is told; the other node has told the clients already.
+     * @param username As is.
+     * @param channelName As is.
+     * @return False if the user was not in the channel.
+     */
+    public boolean replicateLeave(final String username, final String channelName) {
+        boolean result = false;
+        final VoiceChannel channel = this.channels.get(channelName);
+        if (channel != null && ask(channel, () -> channel.remove(username)).join()) {
+            this.snapshot.changed(channelName);
+            result = true;
+        }
+        return result;
+    }
+
+    /**
+     * The user switches the channel on another node.
+     * Nobody is told; the other node has told the clients already.
+     * @param username As is.
+     * @param oldChannelName As is.
+     * @param newChannelName As is.
+     * @return False if the new channel does not exist.
+     */
+    public boolean replicateSwitch(final String username, final String oldChannelName, final String newChannelName) {
+        final boolean result = this.add(username, newChannelName, IGNORED).join();
+        if (result && !oldChannelName.equals(newChannelName)) {
+            this.replicateLeave(username, oldChannelName);
+        }
+        return result;
+    }
+
+    /**
+     * Add the user to the channel and remove the user from the previous channel if any.
+     * The channel tells the previous one to remove the user once it has added the user.
+     * @param username As is.
+     * @param channelName As is.
+     * @param left Called with the name of the previous channel if the user was removed from it.
+     *             It's called before the returned future completes.
+     * @return Completes with false if the channel does not exist.
+     */
+    private CompletableFuture<Boolean> add(final String username, final String channelName, final Consumer<String> left) {
+        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(false);
+        final String previous = this.usernameToChannel.get(username);
+        final VoiceChannel channel = this.channels.get(channelName);
+        if (channel != null) {
+            result = ask(channel, () -> channel.add(username)).thenCompose(added -> {
+                CompletableFuture<Boolean> next = CompletableFuture.completedFuture(added);
+                if (added) {
+                    this.snapshot.changed(channelName);
+                    final VoiceChannel stale = this.stale(previous, channelName);
+                    if (stale != null) {
+                        next = ask(stale, () -> stale.remove(username)).thenApply(removed -> {
+                            if (removed) {
+                                this.snapshot.changed(previous);
+                                left.accept(previous);
+                            }
+                            return true;
+                        });
+                    }
+                }
+                return next;
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Find the channel that the user was in before joining another one.
+     * @param previous Name of the channel, or null if the user was not in any channel.
+     * @param joined Name of the channel that the user has joined.
+     * @return Null if there is nothing to leave.
+     */
+    private VoiceChannel stale(final String previous, final String joined) {
+        VoiceChannel result = null;
+        if (previous != null && !previous.equals(joined)) {
+            result = this.channels.get(previous);
+        }
+        return result;
+    }
+
+    /**
+     * Create the channel on the next thread.
+     * @param name Channel name.
+     * @param id Channel ID.
+     * @return As is.
+     */
+    private VoiceChannel channel(final String name, final int id) {
+        return new VoiceChannel(
+            name,
+            id,
+            this.usernameToChannel,
+            this.maxSpeakers,
+            new ChannelExecutor(name, this.threads.next(), FRAME_LIMIT, this.waits, this.lateFrames)
+        );
+    }
+
+    /**
+     * Start mixing the channel.
+     * The clock of the mixer runs on the thread of the channel too.
+     * @param channel As is.
+     * @param wsConnections For the mixer to send the mixed frames.
+     */
+    private void mix(final VoiceChannel channel, final WsConnections wsConnections) {
+        final ChannelMixer mixer = new ChannelMixer(
+            channel.name(),
+            this,
+            wsConnections,
+            this.framePool,
+            channel.executor().thread(),
+            this.mixerTicks,
+            this.mixerFrameSamples
+        );
+        ask(channel, () -> {
+            channel.mix(mixer);
+            return true;
+        }).join();
+    }
+
+    /**
+     * Run the task on the executor of the channel.
+     * @param channel As is.
+     * @param task It may change the channel.
+     * @param <T> Type of the result.
+     * @return Completes with the result of the task.
+     */
+    private static <T> CompletableFuture<T> ask(final VoiceChannel channel, final Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, channel.executor());
+    }
+
+    /**
+     * Get the channel that the user is in from any thread.
+     * @param username As is.
+     * @return Channel name, or null if the user is not in any channel.
+     */
+    public String channel(final String username) {
+        return this.usernameToChannel.get(username);
+    }
+
+    /**
+     * Get the ID of the channel from any thread.
+     * @param channelName As is.
+     * @return Channel ID, or zero if the channel does not exist.
+     */
+    public int channelId(final String channelName) {
+        int result = 0;
+        final VoiceChannel channel = this.channels.get(channelName);
+        if (channel != null) {
+            result = channel.id();
+        }
+        return result;
+    }
+
+    /**
+     * Get the mixer of the channel from any thread.
+     * @param channelName As is.
+     * @return Null if the server does not mix the channel.
+     */
+    public ChannelMixer mixer(final String channelName) {
+        ChannelMixer result = null;
+        final VoiceChannel channel = this.channels.get(channelName);
+        if (channel != null) {
+            result = channel.mixer();
+        }
+        return result;
+    }
+
+    /**
+     * Get the talkers whose audio is delivered in the channel.
+     * Only the thread of the channel may use them.
+     * @param channelName As is.
+     * @return Null if the channel does not exist.
+     */
+    public ActiveSpeakers speakers(final String channelName) {
+        ActiveSpeakers result = null;
+        final VoiceChannel channel = this.channels.get(channelName);
+        if (channel != null) {
+            result = channel.speakers();
+        }
+        return result;
+    }
+
+    /**
+     * Get the executor of the channel, which runs its audio.
+     * @param channelName As is.
+     * @return Null if the channel does not exist.
+     */
+    public ChannelExecutor executor(final String channelName) {
+        ChannelExecutor result = null;
+        final VoiceChannel channel = this.channels.get(channelName);
+        if (channel != null) {
+            result = channel.executor();
+        }
+        return result;
+    }
+
+    /**
+     * Get the members of the channel from any thread.
+     * @param channelName As is.
+     * @return Immutable snapshot of the usernames, or empty list if the channel does not exist.
+     */
+    public List<String> members(final String channelName) {
+        List<String> result = Collections.emptyList();
+        final VoiceChannel channel = this.channels.get(channelName);
+        if (channel != null) {
+            result = channel.members();
+        }
+        return result;
+    }
+
+    /**
+     * As is.
+     * @return Number of channels.
+     */
+    public int count() {
+        return this.channels.size();
+    }
+
+    /**
+     * As is.
+     * @return Number of users in any channel.
+     */
+    public int memberCount() {
+        return this.usernameToChannel.size();
+    }
+
+    /**
+     * As is.
+     * @return How long the tasks and audio frames waited for the channels' threads.
+     */
+    public LatencyHistogram waits() {
+        return this.waits;
+    }
+
+    /**
+     * As is.
+     * @return Number of audio frames dropped because they waited for the channels' threads too long.
+     */
+    public long lateFrames() {
+        return this.lateFrames.sum();
+    }
+
+    /**
+     * As is.
+     * @return How long the mixers' ticks took.
+     */
+    public LatencyHistogram mixerTicks() {
+        return this.mixerTicks;
+    }
+
     /**
      * It's for the response body of '/voiceChannels' endpoint.
      * See details at doc/voice-channels.md
      * @return Information of this object in JSON.
      */
     public JsonObject json() {
-        synchronized (this.lock) {
-            final JsonObject result = new JsonObject();
-            final JsonArray channels = new JsonArray();
-            for (final Map.Entry<String, List<String>> channelEntry : this.channelToUsernames.entrySet()) {
-                final JsonArray users = new JsonArray();
-                for (final String username : channelEntry.getValue()) {
-                    users.add(username);
-                }
-                final JsonObject channel = new JsonObject();
-                channel.addProperty("name", channelEntry.getKey());
-                channel.add("users", users);
-                channels.add(channel);
+        final JsonObject result = new JsonObject();
+        final JsonArray channels = new JsonArray();
+        for (final VoiceChannel channel : this.channels.values()) {
+            channels.add(this.json(channel));
+        }
+        result.add("channels", channels);
+        return result;
+    }
+
+    /**
+     * Serialized view of {@link VoiceChannels#json()} with its version.
+     * See details at doc/voice-channels.md
+     * @return As is.
+     */
+    public VersionedSnapshot snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * It's for the delta of '/voiceChannels' endpoint.
+     * @param channelNames Channels that have changed.
+     * @return Current information of the channels in JSON.
+     */
+    private JsonObject changes(final Set<String> channelNames) {
+        final JsonArray changed = new JsonArray();
+        final JsonArray removed = new JsonArray();
+        for (final String channelName : channelNames) {
+            final VoiceChannel channel = this.channels.get(channelName);
+            if (channel == null) {
+                removed.add(channelName);
+            } else {
+                changed.add(this.json(channel));
             }
-            result.add("channels", channels);
-            return result;
         }
+        final JsonObject result = new JsonObject();
+        result.add("channels", changed);
+        result.add("removed", removed);
+        return result;
+    }
+
+    /**
+     * As is.
+     * @param channel As is.
+     * @return Information of the channel in JSON.
+     */
+    private JsonObject json(final VoiceChannel channel) {
+        final JsonArray users = new JsonArray();
+        for (final String username : channel.members()) {
+            users.add(username);
+        }
+        final JsonObject result = new JsonObject();
+        result.addProperty("name", channel.name());
+        result.addProperty("id", channel.id());
+        result.addProperty("mixing", channel.mixer() != null);
+        result.add("users", users);
+        return result;
     }
 
 }
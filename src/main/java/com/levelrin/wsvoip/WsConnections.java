@@ -2,62 +2,202 @@ package com.levelrin.wsvoip;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import io.javalin.websocket.WsContext;
-import java.util.HashMap;
+import com.levelrin.wsvoip.audio.AudioFrame;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+/**
+ * Online users and their WebSocket connections.
+ * It does not take any lock, and it sends messages outside of any critical section,
+ * so a slow socket cannot stall the other users.
+ */
 public final class WsConnections {
 
     /**
      * We must maintain its reverse (in a sense) map {@link WsConnections#sessionToUsername}.
      * We chose time complexity over space complexity.
      * Key - Username
-     * Value - WebSocket context.
+     * Value - The user's connection.
      */
-    private final Map<String, WsContext> usernameToContext = new HashMap<>();
+    private final Map<String, Binding> usernameToBinding = new ConcurrentHashMap<>();
 
     /**
-     * We must maintain its reverse (in a sense) map {@link WsConnections#usernameToContext}.
+     * We must maintain its reverse (in a sense) map {@link WsConnections#usernameToBinding}.
      * We chose time complexity over space complexity.
      * Key - WebSocket session ID.
      * Value - Username.
      */
-    private final Map<String, String> sessionToUsername = new HashMap<>();
+    private final Map<String, String> sessionToUsername = new ConcurrentHashMap<>();
 
     /**
-     * Thread lock.
+     * The last source ID given to a user.
      */
-    private final Object lock = new Object();
+    private final AtomicInteger lastSourceId = new AtomicInteger();
+
+    /**
+     * Serialized view of the online users for '/onlineUsers' endpoint.
+     */
+    private final VersionedSnapshot snapshot = new VersionedSnapshot(this::onlineUsers, this::presence);
+
+    /**
+     * Delivers the broadcasts in batches.
+     */
+    private final EventBus events;
+
+    /**
+     * Receives every broadcast, such as the other nodes of the cluster.
+     */
+    private final Consumer<JsonObject> replicas;
+
+    /**
+     * Constructor without batching.
+     * Every broadcast is delivered right away by the caller.
+     */
+    public WsConnections() {
+        this(null, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param scheduler To deliver the batches of broadcasts. It's not used if the window is zero.
+     * @param windowMillis How long the broadcasts are collected before the delivery.
+     */
+    public WsConnections(final ScheduledExecutorService scheduler, final long windowMillis) {
+        this(scheduler, windowMillis, message -> { });
+    }
+
+    /**
+     * Constructor.
+     * @param scheduler To deliver the batches of broadcasts. It's not used if the window is zero.
+     * @param windowMillis How long the broadcasts are collected before the delivery.
+     * @param replicas Receives every broadcast right away, such as the other nodes of the cluster.
+     */
+    public WsConnections(final ScheduledExecutorService scheduler, final long windowMillis, final Consumer<JsonObject> replicas) {
+        this.events = new EventBus(this::deliver, scheduler, windowMillis);
+        this.replicas = replicas;
+    }
+
+    /**
+     * Add a new user that receives the audio in {@link AudioFrame#CODEC_PCM_FLOAT32}.
+     * @param username As is.
+     * @param context New connection.
+     */
+    public void add(final String username, final Connection context) {
+        this.add(username, context, AudioFrame.CODEC_PCM_FLOAT32);
+    }
 
     /**
      * Add a new user.
      * If the user exists already, it means the user is trying to connect to the server with another device.
-     * In that case, we will replace the context with the new one.
+     * In that case, we will replace the connection with the new one.
      * @param username As is.
-     * @param context New context.
-     */
-    public void add(final String username, final WsContext context) {
-        synchronized (this.lock) {
-            if (this.usernameToContext.containsKey(username)) {
-                final WsContext oldContext = this.usernameToContext.get(username);
-                this.usernameToContext.replace(username, context);
-                this.sessionToUsername.remove(oldContext.getSessionId());
-                this.sessionToUsername.put(context.getSessionId(), username);
-                final JsonObject message = new JsonObject();
-                message.addProperty("about", "another device is used");
-                oldContext.send(message.toString());
+     * @param context New connection.
+     * @param codec Codec ID of the audio frames that the connection receives.
+     */
+    public void add(final String username, final Connection context, final int codec) {
+        final Binding previous = this.bind(username, context, codec, true);
+        if (previous == null) {
+            final JsonObject message = new JsonObject();
+            message.addProperty("about", "user is connected to the websocket server");
+            message.addProperty("username", username);
+            this.broadcast(message);
+        } else if (previous.local()) {
+            final JsonObject message = new JsonObject();
+            message.addProperty("about", "another device is used");
+            previous.connection().send(message.toString());
+        } else {
+            // The other node tells the old device when it hears about the new one.
+        }
+    }
+
+    /**
+     * Add the user without telling anyone.
+     * It's for the users connected to another node, whose node tells the clients.
+     * @param username As is.
+     * @param context New connection.
+     * @param codec Codec ID of the audio frames that the connection receives.
+     * @return The connection it replaced, or null if the user was not online.
+     */
+    public Connection attach(final String username, final Connection context, final int codec) {
+        final Binding previous = this.bind(username, context, codec, false);
+        Connection result = null;
+        if (previous != null) {
+            result = previous.connection();
+        }
+        return result;
+    }
+
+    /**
+     * Remove the user without telling anyone if the connection is still the user's.
+     * It's for the users connected to another node, whose node tells the clients.
+     * @param username As is.
+     * @param context The connection that is gone.
+     * @return True if the user is removed.
+     */
+    public boolean detach(final String username, final Connection context) {
+        boolean result = false;
+        final Binding binding = this.usernameToBinding.get(username);
+        if (binding != null && binding.connection() == context && this.usernameToBinding.remove(username, binding)) {
+            this.sessionToUsername.remove(context.id(), username);
+            this.snapshot.changed(username);
+            result = true;
+        }
+        return result;
+    }
+
+    /**
+     * Bind the connection to the user.
+     * @param username As is.
+     * @param context New connection.
+     * @param codec Codec ID of the audio frames that the connection receives.
+     * @param local False if the user is connected to another node of the cluster.
+     * @return The binding it replaced, or null if the user was not online.
+     */
+    private Binding bind(final String username, final Connection context, final int codec, final boolean local) {
+        Binding previous;
+        boolean swapped;
+        do {
+            previous = this.usernameToBinding.get(username);
+            if (previous == null) {
+                swapped = this.usernameToBinding.putIfAbsent(
+                    username,
+                    new Binding(context, this.lastSourceId.incrementAndGet(), codec, local)
+                ) == null;
             } else {
-                this.usernameToContext.put(username, context);
-                this.sessionToUsername.put(context.getSessionId(), username);
-                final JsonObject message = new JsonObject();
-                message.addProperty("about", "user is connected to the websocket server");
-                message.addProperty("username", username);
-                for (final WsContext each: this.usernameToContext.values()) {
-                    each.send(message.toString());
-                }
+                swapped = this.usernameToBinding.replace(username, previous, previous.with(context, codec, local));
             }
+        } while (!swapped);
+        if (previous == null) {
+            this.snapshot.changed(username);
+        } else {
+            // The old one goes first in case both have the same ID.
+            this.sessionToUsername.remove(previous.connection().id(), username);
+        }
+        this.sessionToUsername.put(context.id(), username);
+        return previous;
+    }
+
+    /**
+     * Move the user's connection to the new session after the user has resumed the session.
+     * @param username As is.
+     * @param context The user's connection, which has the new session ID already.
+     * @param previousSessionId The session ID before the resumption.
+     * @return False if the connection is not the user's anymore.
+     */
+    public boolean resume(final String username, final Connection context, final String previousSessionId) {
+        boolean result = false;
+        final Binding binding = this.usernameToBinding.get(username);
+        if (binding != null && binding.connection() == context) {
+            this.sessionToUsername.remove(previousSessionId, username);
+            this.sessionToUsername.put(context.id(), username);
+            result = true;
         }
+        return result;
     }
 
     /**
@@ -67,63 +207,196 @@ public final class WsConnections {
      * @param sessionId As is.
      */
     public void remove(final String sessionId) {
-        synchronized (this.lock) {
-            if (this.sessionToUsername.containsKey(sessionId)) {
-                final String username = this.sessionToUsername.get(sessionId);
-                this.sessionToUsername.remove(sessionId);
-                this.usernameToContext.remove(username);
+        final String username = this.sessionToUsername.remove(sessionId);
+        if (username != null) {
+            final Binding binding = this.usernameToBinding.get(username);
+            // The binding belongs to another session if the user has just switched the device.
+            if (binding != null
+                && binding.connection().id().equals(sessionId)
+                && this.usernameToBinding.remove(username, binding)) {
+                this.snapshot.changed(username);
                 final JsonObject message = new JsonObject();
                 message.addProperty("about", "user is disconnected from the websocket server");
                 message.addProperty("username", username);
-                for (final WsContext each: this.usernameToContext.values()) {
-                    each.send(message.toString());
-                }
+                this.broadcast(message);
             }
         }
     }
 
+    /**
+     * Send the message to every online user.
+     * Messages within the window of {@link EventBus} are delivered together.
+     * @param message JSON.
+     */
     public void broadcast(final JsonObject message) {
-        synchronized (this.lock) {
-            for (final WsContext context: this.usernameToContext.values()) {
-                if (context.session.isOpen()) {
-                    context.send(message.toString());
-                }
+        this.events.publish(message);
+        this.replicas.accept(message);
+    }
+
+    /**
+     * Send the message to the given users only, such as the members of a channel.
+     * Unlike {@link WsConnections#broadcast(JsonObject)}, it's not replicated to the other nodes;
+     * the users of the other nodes receive it through their connections, which their nodes deliver.
+     * It's sent even if the connection is closed, because the user may resume the session and get it.
+     * @param usernames Recipients.
+     * @param message JSON.
+     */
+    public void send(final List<String> usernames, final JsonObject message) {
+        final String serialized = message.toString();
+        // Indexed loop because an iterator would be allocated per message.
+        for (int index = 0; index < usernames.size(); ++index) {
+            final Connection connection = this.connection(usernames.get(index));
+            if (connection != null) {
+                connection.send(serialized);
             }
         }
     }
 
-    public boolean hasUser(final String name) {
-        synchronized (this.lock) {
-            return this.usernameToContext.containsKey(name);
+    /**
+     * As is.
+     * @return Delivers the broadcasts in batches.
+     */
+    public EventBus events() {
+        return this.events;
+    }
+
+    /**
+     * Send the serialized message to every online user of this node.
+     * The users of the other nodes receive it from their own nodes.
+     * It's sent even if the connection is closed, because the user may resume the session and get it.
+     * The recipients are read from a weakly consistent view without the lock.
+     * @param serialized JSON.
+     */
+    private void deliver(final String serialized) {
+        for (final Binding binding : this.usernameToBinding.values()) {
+            if (binding.local()) {
+                binding.connection().send(serialized);
+            }
         }
     }
 
+    /**
+     * As is.
+     * @return Number of online users.
+     */
+    public int count() {
+        return this.usernameToBinding.size();
+    }
+
+    /**
+     * Check if the user is online.
+     * @param name Username.
+     * @return True if the user is online.
+     */
+    public boolean hasUser(final String name) {
+        // The username is null when the session was closed before it was registered.
+        return name != null && this.usernameToBinding.containsKey(name);
+    }
+
+    /**
+     * Check if the user is connected to this node rather than another node of the cluster.
+     * @param name Username.
+     * @return False if the user is offline or connected to another node.
+     */
+    public boolean local(final String name) {
+        final Binding binding = this.usernameToBinding.get(name);
+        return binding != null && binding.local();
+    }
+
     /**
      * It's for the response body of '/onlineUsers' endpoint.
      * See details at doc/ws.md
      * @return Information of online users in JSON.
      */
     public JsonObject onlineUsers() {
-        synchronized (this.lock) {
-            final JsonObject result = new JsonObject();
-            final JsonArray users = new JsonArray();
-            for (final String username : this.usernameToContext.keySet()) {
-                users.add(username);
+        final JsonObject result = new JsonObject();
+        final JsonArray users = new JsonArray();
+        for (final String username : this.usernameToBinding.keySet()) {
+            users.add(username);
+        }
+        result.add("users", users);
+        return result;
+    }
+
+    /**
+     * Serialized view of {@link WsConnections#onlineUsers()} with its version.
+     * See details at doc/ws.md
+     * @return As is.
+     */
+    public VersionedSnapshot snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * It's for the delta of '/onlineUsers' endpoint.
+     * @param usernames Users whose presence has changed.
+     * @return Current presence of the users in JSON.
+     */
+    private JsonObject presence(final Set<String> usernames) {
+        final JsonArray online = new JsonArray();
+        final JsonArray offline = new JsonArray();
+        for (final String username : usernames) {
+            if (this.usernameToBinding.containsKey(username)) {
+                online.add(username);
+            } else {
+                offline.add(username);
             }
-            result.add("users", users);
-            return result;
         }
+        final JsonObject result = new JsonObject();
+        result.add("online", online);
+        result.add("offline", offline);
+        return result;
     }
 
     /**
      * Get username by the WebSocket session ID.
      * @param sessionId As is.
-     * @return As is.
+     * @return Null if the session does not exist.
      */
     public String username(final String sessionId) {
-        synchronized (this.lock) {
-            return this.sessionToUsername.get(sessionId);
+        return this.sessionToUsername.get(sessionId);
+    }
+
+    /**
+     * Get the WebSocket connection of the user.
+     * @param username As is.
+     * @return Null if the user is not connected.
+     */
+    public Connection connection(final String username) {
+        final Binding binding = this.usernameToBinding.get(username);
+        Connection result = null;
+        if (binding != null) {
+            result = binding.connection();
+        }
+        return result;
+    }
+
+    /**
+     * Get the source ID of the user.
+     * @param username As is.
+     * @return Zero if the user is not connected.
+     */
+    public int sourceId(final String username) {
+        final Binding binding = this.usernameToBinding.get(username);
+        int result = 0;
+        if (binding != null) {
+            result = binding.sourceId();
+        }
+        return result;
+    }
+
+    /**
+     * Get the codec of the audio frames that the user receives.
+     * @param username As is.
+     * @return Codec ID, or {@link AudioFrame#CODEC_PCM_FLOAT32} if the user is not connected.
+     */
+    public int codec(final String username) {
+        final Binding binding = this.usernameToBinding.get(username);
+        int result = AudioFrame.CODEC_PCM_FLOAT32;
+        if (binding != null) {
+            result = binding.codec();
         }
+        return result;
     }
 
 }
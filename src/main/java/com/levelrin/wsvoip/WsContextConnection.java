@@ -0,0 +1,54 @@
+package com.levelrin.wsvoip;
+
+import io.javalin.websocket.WsContext;
+import java.nio.ByteBuffer;
+
+/**
+ * Javalin's WebSocket connection.
+ */
+public final class WsContextConnection implements Connection {
+
+    /**
+     * WebSocket close code that asks the client to try again later.
+     */
+    private static final int TRY_AGAIN_LATER = 1013;
+
+    /**
+     * As is.
+     */
+    private final WsContext context;
+
+    /**
+     * Constructor.
+     * @param context As is.
+     */
+    public WsContextConnection(final WsContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public String id() {
+        return this.context.getSessionId();
+    }
+
+    @Override
+    public boolean open() {
+        return this.context.session.isOpen();
+    }
+
+    @Override
+    public void send(final String message) {
+        this.context.send(message);
+    }
+
+    @Override
+    public void send(final ByteBuffer message) {
+        this.context.send(message);
+    }
+
+    @Override
+    public void close(final String reason) {
+        this.context.closeSession(TRY_AGAIN_LATER, reason);
+    }
+
+}
@@ -0,0 +1,358 @@
+package com.levelrin.wsvoip.audio;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * It picks the talkers of a channel whose audio is delivered.
+ * At most a few talkers are selected at a time, so a listener receives a few streams no matter how many people talk.
+ * Talkers are ranked by their recent level, and a talker who is not selected replaces the quietest selected one
+ * only if it stays louder by a margin for a while, so the selection does not flap between talkers of similar levels.
+ * The loudest selected talker is the dominant speaker, and it changes with the same hysteresis.
+ * A selected talker keeps the slot while talking, so the cost of a frame is a scan of the few slots.
+ * Only the thread of the channel uses it, so it needs no lock.
+ * See details at doc/audio.md
+ */
+public final class ActiveSpeakers {
+
+    /**
+     * Bit of {@link ActiveSpeakers#offer(String, double, long)}.
+     * The frame should be delivered.
+     */
+    public static final int SELECTED = 1;
+
+    /**
+     * Bit of {@link ActiveSpeakers#offer(String, double, long)}.
+     * The talker was selected or deselected since its previous frame.
+     */
+    public static final int CHANGED = 2;
+
+    /**
+     * Bit of {@link ActiveSpeakers#offer(String, double, long)}.
+     * The talker has just become the dominant speaker.
+     */
+    public static final int DOMINANT = 4;
+
+    /**
+     * A talker must be louder than the other by this much in dB to take its place.
+     */
+    private static final double MARGIN = 6;
+
+    /**
+     * How long a talker must stay louder by the margin to take the place of the other.
+     */
+    private static final long HOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * Maximum number of selected talkers.
+     */
+    private final int max;
+
+    /**
+     * Key - Username of the talker.
+     * Value - State of the talker.
+     * A talker stays here until leaving the channel, so a talk does not allocate anything.
+     */
+    private final Map<String, Speaker> speakers = new HashMap<>();
+
+    /**
+     * Selected talkers.
+     * It's replaced whenever the selection changes.
+     */
+    private Speaker[] selected = new Speaker[0];
+
+    /**
+     * The dominant speaker, or null if nobody has talked yet.
+     */
+    private Speaker dominant;
+
+    /**
+     * Constructor.
+     * @param max Maximum number of selected talkers.
+     */
+    public ActiveSpeakers(final int max) {
+        this.max = max;
+    }
+
+    /**
+     * Rank the talker by the level of its latest frame.
+     * @param username Talker who is talking.
+     * @param level Recent level of the talker in dBFS.
+     * @param now {@link System#nanoTime()}.
+     * @return Bits of {@link ActiveSpeakers#SELECTED}, {@link ActiveSpeakers#CHANGED}, and {@link ActiveSpeakers#DOMINANT}.
+     */
+    int offer(final String username, final double level, final long now) {
+        final Speaker speaker = this.speaker(username);
+        speaker.level = level;
+        boolean chosen = this.isSelected(speaker);
+        if (!chosen && this.challenges(speaker, now)) {
+            chosen = this.select(speaker);
+        }
+        int result = 0;
+        if (chosen) {
+            result = SELECTED;
+            if (this.leads(speaker, this.dominant, now)) {
+                this.dominant = speaker;
+                result = result | DOMINANT;
+            }
+        }
+        if (chosen != speaker.forwarded) {
+            speaker.forwarded = chosen;
+            result = result | CHANGED;
+        }
+        return result;
+    }
+
+    /**
+     * Free the slot of the talker who has stopped talking.
+     * The talker stays the dominant speaker until another one talks long enough.
+     * @param username Talker.
+     */
+    void release(final String username) {
+        final Speaker speaker = this.speakers.get(username);
+        if (speaker != null) {
+            this.deselect(speaker);
+            speaker.forwarded = false;
+        }
+    }
+
+    /**
+     * Forget the talker.
+     * It must be called when the user leaves the channel.
+     * @param username As is.
+     */
+    public void remove(final String username) {
+        final Speaker speaker = this.speakers.remove(username);
+        if (speaker != null) {
+            this.deselect(speaker);
+            if (this.dominant == speaker) {
+                this.dominant = null;
+            }
+        }
+    }
+
+    /**
+     * As is.
+     * @return Maximum number of selected talkers.
+     */
+    public int max() {
+        return this.max;
+    }
+
+    /**
+     * As is.
+     * @return Username of the dominant speaker, or null if nobody has talked yet.
+     */
+    public String dominant() {
+        String result = null;
+        final Speaker current = this.dominant;
+        if (current != null) {
+            result = current.username;
+        }
+        return result;
+    }
+
+    /**
+     * As is.
+     * @param speaker Talker.
+     * @return True if the talker has a slot.
+     */
+    private boolean isSelected(final Speaker speaker) {
+        final Speaker[] current = this.selected;
+        boolean result = false;
+        for (int index = 0; index < current.length && !result; ++index) {
+            result = current[index] == speaker;
+        }
+        return result;
+    }
+
+    /**
+     * Check if the talker may get a slot.
+     * It also keeps track of how long the talker has been louder than the quietest selected one.
+     * @param speaker Talker who is not selected.
+     * @param now {@link System#nanoTime()}.
+     * @return True if there is a free slot or the talker has been louder long enough.
+     */
+    private boolean challenges(final Speaker speaker, final long now) {
+        final Speaker[] current = this.selected;
+        boolean result = current.length < this.max;
+        if (!result) {
+            final Speaker quietest = quietest(current);
+            if (speaker.level > quietest.level + MARGIN) {
+                if (speaker.louder) {
+                    result = now - speaker.louderSince >= HOLD_NANOS;
+                } else {
+                    speaker.louder = true;
+                    speaker.louderSince = now;
+                }
+            } else {
+                speaker.louder = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Give the talker a free slot or the slot of the quietest selected talker.
+     * @param speaker Talker who is not selected.
+     * @return True if the talker got a slot.
+     */
+    private boolean select(final Speaker speaker) {
+        final Speaker[] current = this.selected;
+        boolean result = true;
+        if (current.length < this.max) {
+            final Speaker[] next = new Speaker[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = speaker;
+            this.selected = next;
+        } else {
+            final Speaker quietest = quietest(current);
+            if (speaker.level > quietest.level + MARGIN) {
+                final Speaker[] next = current.clone();
+                for (int index = 0; index < next.length; ++index) {
+                    if (next[index] == quietest) {
+                        next[index] = speaker;
+                    }
+                }
+                this.selected = next;
+            } else {
+                result = false;
+            }
+        }
+        speaker.louder = false;
+        return result;
+    }
+
+    /**
+     * Take the slot away from the talker if it has one.
+     * @param speaker Talker.
+     */
+    private void deselect(final Speaker speaker) {
+        final Speaker[] current = this.selected;
+        int found = -1;
+        for (int index = 0; index < current.length; ++index) {
+            if (current[index] == speaker) {
+                found = index;
+            }
+        }
+        if (found >= 0) {
+            final Speaker[] next = new Speaker[current.length - 1];
+            System.arraycopy(current, 0, next, 0, found);
+            System.arraycopy(current, found + 1, next, found, next.length - found);
+            this.selected = next;
+        }
+        // It cannot lead anymore, so the others do not have to be louder than its last words.
+        speaker.level = Double.NEGATIVE_INFINITY;
+        speaker.leading = false;
+    }
+
+    /**
+     * Check if the selected talker should become the dominant speaker.
+     * It keeps track of how long the talker has been louder than the dominant speaker.
+     * @param speaker Selected talker.
+     * @param current The dominant speaker, or null.
+     * @param now {@link System#nanoTime()}.
+     * @return True if the talker has been louder long enough or nobody is the dominant speaker.
+     */
+    private boolean leads(final Speaker speaker, final Speaker current, final long now) {
+        boolean result = false;
+        if (current == null) {
+            result = true;
+        } else if (current != speaker && speaker.level > current.level + MARGIN) {
+            if (speaker.leading) {
+                result = now - speaker.leadingSince >= HOLD_NANOS;
+            } else {
+                speaker.leading = true;
+                speaker.leadingSince = now;
+            }
+        } else {
+            speaker.leading = false;
+        }
+        if (result) {
+            speaker.leading = false;
+        }
+        return result;
+    }
+
+    /**
+     * Get the state of the talker.
+     * @param username Talker.
+     * @return As is.
+     */
+    private Speaker speaker(final String username) {
+        Speaker result = this.speakers.get(username);
+        if (result == null) {
+            result = new Speaker(username);
+            this.speakers.put(username, result);
+        }
+        return result;
+    }
+
+    /**
+     * As is.
+     * @param candidates Selected talkers, which are at least one.
+     * @return The quietest one.
+     */
+    private static Speaker quietest(final Speaker[] candidates) {
+        Speaker result = candidates[0];
+        for (int index = 1; index < candidates.length; ++index) {
+            if (candidates[index].level < result.level) {
+                result = candidates[index];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * State of a talker.
+     */
+    private static final class Speaker {
+
+        /**
+         * As is.
+         */
+        private final String username;
+
+        /**
+         * Recent level in dBFS.
+         * The other talkers compare their own with it.
+         */
+        private double level = Double.NEGATIVE_INFINITY;
+
+        /**
+         * True if the previous frame was selected.
+         */
+        private boolean forwarded;
+
+        /**
+         * True if the talker is louder than the quietest selected talker by the margin.
+         */
+        private boolean louder;
+
+        /**
+         * Since when {@link Speaker#louder} is true in {@link System#nanoTime()}.
+         */
+        private long louderSince;
+
+        /**
+         * True if the talker is louder than the dominant speaker by the margin.
+         */
+        private boolean leading;
+
+        /**
+         * Since when {@link Speaker#leading} is true in {@link System#nanoTime()}.
+         */
+        private long leadingSince;
+
+        /**
+         * Constructor.
+         * @param username As is.
+         */
+        Speaker(final String username) {
+            this.username = username;
+        }
+
+    }
+
+}
@@ -0,0 +1,521 @@
+package com.levelrin.wsvoip.audio;
+
+import com.google.gson.JsonObject;
+import com.levelrin.wsvoip.ChannelExecutor;
+import com.levelrin.wsvoip.Connection;
+import com.levelrin.wsvoip.VoiceChannels;
+import com.levelrin.wsvoip.WsConnections;
+import com.levelrin.wsvoip.audio.codec.AudioCodecs;
+import com.levelrin.wsvoip.audio.codec.EncodeStage;
+import com.levelrin.wsvoip.audio.codec.Transcoder;
+import com.levelrin.wsvoip.metrics.LatencyHistogram;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * It delivers the audio from a talker to the other members of the talker's channel.
+ * The frames are handed over to the {@link ChannelExecutor} of the channel,
+ * so the selection of the talkers and the mixing happen on the thread of the channel without any lock.
+ * It runs for every audio frame, so it does not allocate anything.
+ * Listeners that use the talker's codec receive the same bytes.
+ * The others receive the audio converted once per codec.
+ * Frames of talkers who are not talking are dropped before anything else is done with them.
+ * Of the talkers who are talking, only the few selected by {@link ActiveSpeakers} are delivered,
+ * so the cost of a channel grows with the listeners instead of the listeners times the talkers.
+ */
+public final class AudioFanOut {
+
+    /**
+     * To find the channel members.
+     */
+    private final VoiceChannels voiceChannels;
+
+    /**
+     * To find the WebSocket connections of the members.
+     */
+    private final WsConnections wsConnections;
+
+    /**
+     * To encode the converted frames without allocation.
+     */
+    private final AudioFramePool framePool;
+
+    /**
+     * Key - Username of the talker.
+     * Value - Codec state of the talker.
+     */
+    private final Map<String, Transcoder> transcoders = new ConcurrentHashMap<>();
+
+    /**
+     * How long a talker is still taken as talking after the last voiced frame.
+     * Zero means every frame is delivered.
+     */
+    private final int hangoverMillis;
+
+    /**
+     * Key - Username of the talker.
+     * Value - Voice activity of the talker.
+     */
+    private final Map<String, VoiceActivityDetector> detectors = new ConcurrentHashMap<>();
+
+    /**
+     * Number of frames that were not delivered because the talker was silent.
+     */
+    private final LongAdder suppressedFrames = new LongAdder();
+
+    /**
+     * Number of bytes of the frames that were not delivered because the talker was silent.
+     * It's counted once per frame, not per listener.
+     */
+    private final LongAdder suppressedBytes = new LongAdder();
+
+    /**
+     * Number of frames that were not delivered because other talkers were selected.
+     */
+    private final LongAdder unselectedFrames = new LongAdder();
+
+    /**
+     * Number of frames received from the talkers, binary or JSON.
+     */
+    private final LongAdder receivedFrames = new LongAdder();
+
+    /**
+     * Number of bytes of the frames received from the talkers.
+     * A JSON message is counted by its characters.
+     */
+    private final LongAdder receivedBytes = new LongAdder();
+
+    /**
+     * How long it took to relay a binary frame to all recipients, including the encoding.
+     */
+    private final LatencyHistogram relays = new LatencyHistogram();
+
+    /**
+     * Receives a copy of the delivered audio, such as for recording.
+     * Null means nobody does.
+     */
+    private final AudioTap tap;
+
+    /**
+     * It takes the frames on the threads of their channels.
+     * We keep it in a field to avoid creating a lambda per frame.
+     */
+    private final FrameReceiver router = this::route;
+
+    /**
+     * Constructor.
+     * Every frame is delivered.
+     * @param voiceChannels To find the channel members.
+     * @param wsConnections To find the WebSocket connections of the members.
+     * @param framePool To encode the converted frames without allocation.
+     */
+    public AudioFanOut(final VoiceChannels voiceChannels, final WsConnections wsConnections, final AudioFramePool framePool) {
+        this(voiceChannels, wsConnections, framePool, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param voiceChannels To find the channel members.
+     * @param wsConnections To find the WebSocket connections of the members.
+     * @param framePool To encode the converted frames without allocation.
+     * @param hangoverMillis How long a talker is still taken as talking after the last voiced frame.
+     *                       Zero means every frame is delivered, and the talkers are not selected either.
+     */
+    public AudioFanOut(final VoiceChannels voiceChannels, final WsConnections wsConnections, final AudioFramePool framePool, final int hangoverMillis) {
+        this(voiceChannels, wsConnections, framePool, hangoverMillis, null);
+    }
+
+    /**
+     * Constructor.
+     * @param voiceChannels To find the channel members.
+     * @param wsConnections To find the WebSocket connections of the members.
+     * @param framePool To encode the converted frames without allocation.
+     * @param hangoverMillis How long a talker is still taken as talking after the last voiced frame.
+     *                       Zero means every frame is delivered, and the talkers are not selected either.
+     * @param tap Receives a copy of the delivered audio, such as for recording. Null means nobody does.
+     */
+    public AudioFanOut(final VoiceChannels voiceChannels, final WsConnections wsConnections, final AudioFramePool framePool, final int hangoverMillis, final AudioTap tap) {
+        this.voiceChannels = voiceChannels;
+        this.wsConnections = wsConnections;
+        this.framePool = framePool;
+        this.hangoverMillis = hangoverMillis;
+        this.tap = tap;
+    }
+
+    /**
+     * Deliver the binary audio frame on the thread of the talker's channel.
+     * If the server mixes the channel, the frame goes to the mixer.
+     * Otherwise, the source ID is filled in once and the same bytes are sent to every recipient.
+     * Frames for a channel that the talker is not in (e.g. right after switching) are dropped.
+     * @param sessionId WebSocket session ID of the talker.
+     * @param frame From the talker. It's retained while it waits for the thread, so the caller may release it.
+     */
+    public void relay(final String sessionId, final AudioFrame frame) {
+        this.receivedFrames.increment();
+        this.receivedBytes.add(frame.payloadBytes() + AudioFrame.HEADER_BYTES);
+        final String username = this.wsConnections.username(sessionId);
+        if (username != null) {
+            final String channelName = this.voiceChannels.channel(username);
+            if (channelName != null) {
+                final ChannelExecutor executor = this.voiceChannels.executor(channelName);
+                if (executor != null) {
+                    executor.post(this.router, username, frame);
+                }
+            }
+        }
+    }
+
+    /**
+     * Do the work of {@link AudioFanOut#relay(String, AudioFrame)} on the thread of the channel.
+     * @param channelName The channel whose thread runs it.
+     * @param username Talker.
+     * @param frame From the talker.
+     */
+    private void route(final String channelName, final String username, final AudioFrame frame) {
+        final long start = System.nanoTime();
+        // The talker might have switched while the frame was waiting.
+        if (channelName.equals(this.voiceChannels.channel(username)) && this.voiceChannels.channelId(channelName) == frame.channelId()) {
+            final Transcoder transcoder = this.transcoder(username);
+            // Frames in PCM float32 are not decoded unless they need to be.
+            int decoded = -1;
+            int activity = VoiceActivityDetector.TALKING;
+            if (this.hangoverMillis > 0) {
+                final VoiceActivityDetector detector = this.detector(username);
+                if (frame.codec() == AudioFrame.CODEC_PCM_FLOAT32) {
+                    activity = detector.detect(frame);
+                } else {
+                    decoded = transcoder.decode(frame);
+                    activity = detector.detect(transcoder.pcm(), decoded, frame.sampleRate());
+                }
+            }
+            if (activity == VoiceActivityDetector.SILENT || activity == VoiceActivityDetector.STOPPED) {
+                this.suppressedFrames.increment();
+                this.suppressedBytes.add(frame.payloadBytes() + AudioFrame.HEADER_BYTES);
+                if (activity == VoiceActivityDetector.STOPPED) {
+                    this.release(username, channelName);
+                    this.stop(username, channelName, transcoder, frame);
+                }
+            } else {
+                final int selection = this.select(username, channelName);
+                if ((selection & ActiveSpeakers.SELECTED) == 0) {
+                    this.unselectedFrames.increment();
+                    if ((selection & ActiveSpeakers.CHANGED) != 0) {
+                        // The listeners hear it as the end of the talk.
+                        this.stop(username, channelName, transcoder, frame);
+                    }
+                } else {
+                    if (activity == VoiceActivityDetector.STARTED || (selection & ActiveSpeakers.CHANGED) != 0) {
+                        frame.flags(AudioFrame.FLAG_TALK_START);
+                    }
+                    this.deliver(username, channelName, transcoder, frame, decoded);
+                }
+            }
+        }
+        this.relays.record(System.nanoTime() - start);
+    }
+
+    /**
+     * As is.
+     * @return Number of frames that were not delivered because the talker was silent.
+     */
+    public long suppressedFrames() {
+        return this.suppressedFrames.sum();
+    }
+
+    /**
+     * As is.
+     * @return Number of bytes of the frames that were not delivered because the talker was silent.
+     */
+    public long suppressedBytes() {
+        return this.suppressedBytes.sum();
+    }
+
+    /**
+     * As is.
+     * @return Number of frames that were not delivered because other talkers were selected.
+     */
+    public long unselectedFrames() {
+        return this.unselectedFrames.sum();
+    }
+
+    /**
+     * As is.
+     * @return Number of frames received from the talkers, binary or JSON.
+     */
+    public long receivedFrames() {
+        return this.receivedFrames.sum();
+    }
+
+    /**
+     * As is.
+     * @return Number of bytes of the frames received from the talkers.
+     */
+    public long receivedBytes() {
+        return this.receivedBytes.sum();
+    }
+
+    /**
+     * As is.
+     * @return How long it took to relay a binary frame to all recipients.
+     */
+    public LatencyHistogram relays() {
+        return this.relays;
+    }
+
+    /**
+     * Rank the talker who is talking among the other talkers of the channel.
+     * It announces the dominant speaker to the members of the channel when it changes.
+     * @param username Talker.
+     * @param channelName The talker's channel.
+     * @return Bits of {@link ActiveSpeakers#SELECTED}, {@link ActiveSpeakers#CHANGED}, and {@link ActiveSpeakers#DOMINANT}.
+     */
+    private int select(final String username, final String channelName) {
+        int result = ActiveSpeakers.SELECTED;
+        final ActiveSpeakers speakers = this.voiceChannels.speakers(channelName);
+        if (this.hangoverMillis > 0 && speakers != null) {
+            result = speakers.offer(username, this.detector(username).level(), System.nanoTime());
+            if ((result & ActiveSpeakers.DOMINANT) != 0) {
+                final JsonObject message = new JsonObject();
+                message.addProperty("about", "dominant speaker changed");
+                message.addProperty("channelName", channelName);
+                message.addProperty("username", username);
+                this.wsConnections.send(this.voiceChannels.members(channelName), message);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Free the slot of the talker who has stopped talking.
+     * @param username Talker.
+     * @param channelName The talker's channel.
+     */
+    private void release(final String username, final String channelName) {
+        final ActiveSpeakers speakers = this.voiceChannels.speakers(channelName);
+        if (speakers != null) {
+            speakers.release(username);
+        }
+    }
+
+    /**
+     * Deliver the frame of a talker who is talking.
+     * @param username Talker.
+     * @param channelName The talker's channel.
+     * @param transcoder Codec state of the talker.
+     * @param frame From the talker.
+     * @param decoded Number of samples in {@link Transcoder#pcm()} if the frame is decoded already, or -1.
+     */
+    private void deliver(final String username, final String channelName, final Transcoder transcoder, final AudioFrame frame, final int decoded) {
+        if (this.tap != null) {
+            this.tap.frame(channelName, username, frame);
+        }
+        final ChannelMixer mixer = this.voiceChannels.mixer(channelName);
+        if (mixer == null) {
+            final int sourceId = this.wsConnections.sourceId(username);
+            frame.sourceId(sourceId);
+            final List<String> members = this.voiceChannels.members(channelName);
+            // Bit N is set if a listener needs the codec N.
+            int otherCodecs = 0;
+            // Indexed loop because an iterator would be allocated per frame.
+            for (int index = 0; index < members.size(); ++index) {
+                final String member = members.get(index);
+                if (!member.equals(username)) {
+                    final Connection connection = this.wsConnections.connection(member);
+                    if (connection != null && connection.open()) {
+                        final int codec = this.wsConnections.codec(member);
+                        if (codec == frame.codec()) {
+                            connection.send(frame.rewind());
+                        } else {
+                            otherCodecs = otherCodecs | (1 << codec);
+                        }
+                    }
+                }
+            }
+            if (otherCodecs != 0 && frame.sampleRate() == ChannelMixer.SAMPLE_RATE) {
+                this.transcode(username, transcoder, frame, decoded, otherCodecs, members, sourceId);
+            }
+        } else if (frame.codec() == AudioFrame.CODEC_PCM_FLOAT32) {
+            mixer.offer(username, frame);
+        } else {
+            int samples = decoded;
+            if (samples < 0) {
+                samples = transcoder.decode(frame);
+            }
+            mixer.offer(username, frame.sequence(), transcoder.pcm(), samples);
+        }
+    }
+
+    /**
+     * Tell the listeners that the talker became silent.
+     * The mixer needs nothing because it notices the silence by itself.
+     * @param username Talker.
+     * @param channelName The talker's channel.
+     * @param transcoder Codec state of the talker.
+     * @param frame The first silent frame from the talker.
+     */
+    private void stop(final String username, final String channelName, final Transcoder transcoder, final AudioFrame frame) {
+        // The next talk must not start with the samples of this one.
+        transcoder.clear();
+        if (this.voiceChannels.mixer(channelName) == null) {
+            final List<String> members = this.voiceChannels.members(channelName);
+            final AudioFrame marker = this.framePool.acquire();
+            try {
+                marker.marker(
+                    AudioFrame.FLAG_TALK_END,
+                    frame.sampleRate(),
+                    frame.sequence(),
+                    frame.channelId(),
+                    this.wsConnections.sourceId(username)
+                );
+                for (int index = 0; index < members.size(); ++index) {
+                    final String member = members.get(index);
+                    if (!member.equals(username)) {
+                        final Connection connection = this.wsConnections.connection(member);
+                        if (connection != null && connection.open()) {
+                            connection.send(marker.rewind());
+                        }
+                    }
+                }
+            } finally {
+                marker.release();
+            }
+        }
+    }
+
+    /**
+     * Forget the codec state of the user.
+     * It must be called when the user disconnects.
+     * @param username As is.
+     */
+    public void forget(final String username) {
+        this.transcoders.remove(username);
+        this.detectors.remove(username);
+    }
+
+    /**
+     * Convert the frame into the other codecs and deliver them.
+     * @param username Talker.
+     * @param transcoder Codec state of the talker.
+     * @param frame From the talker.
+     * @param decoded Number of samples in {@link Transcoder#pcm()} if the frame is decoded already, or -1.
+     * @param otherCodecs Bit N is set if a listener needs the codec N.
+     * @param members Of the channel.
+     * @param sourceId Of the talker.
+     */
+    private void transcode(final String username, final Transcoder transcoder, final AudioFrame frame, final int decoded, final int otherCodecs, final List<String> members, final int sourceId) {
+        int samples = decoded;
+        if (samples < 0) {
+            samples = transcoder.decode(frame);
+        }
+        if (samples > 0) {
+            for (int codec = 0; codec < AudioCodecs.count(); ++codec) {
+                if ((otherCodecs & (1 << codec)) != 0) {
+                    final EncodeStage stage = transcoder.stage(codec);
+                    stage.push(transcoder.pcm(), samples);
+                    while (stage.ready()) {
+                        final AudioFrame converted = this.framePool.acquire();
+                        try {
+                            if (stage.next(converted, frame.sampleRate(), frame.channelId(), sourceId)) {
+                                this.send(username, codec, members, converted);
+                            }
+                        } finally {
+                            converted.release();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the converted frame to the listeners that use its codec.
+     * @param username Talker.
+     * @param codec Codec ID of the frame.
+     * @param members Of the channel.
+     * @param converted As is.
+     */
+    private void send(final String username, final int codec, final List<String> members, final AudioFrame converted) {
+        for (int index = 0; index < members.size(); ++index) {
+            final String member = members.get(index);
+            if (!member.equals(username) && this.wsConnections.codec(member) == codec) {
+                final Connection connection = this.wsConnections.connection(member);
+                if (connection != null && connection.open()) {
+                    connection.send(converted.rewind());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the voice activity of the talker.
+     * @param username Talker.
+     * @return As is.
+     */
+    private VoiceActivityDetector detector(final String username) {
+        VoiceActivityDetector result = this.detectors.get(username);
+        if (result == null) {
+            result = this.detectors.computeIfAbsent(username, key -> new VoiceActivityDetector(this.hangoverMillis));
+        }
+        return result;
+    }
+
+    /**
+     * Get the codec state of the talker.
+     * @param username Talker.
+     * @return As is.
+     */
+    private Transcoder transcoder(final String username) {
+        Transcoder result = this.transcoders.get(username);
+        if (result == null) {
+            result = this.transcoders.computeIfAbsent(username, key -> new Transcoder());
+        }
+        return result;
+    }
+
+    /**
+     * Deliver the JSON audio message on the thread of the talker's channel.
+     * The message is serialized once by the caller and the same string is sent to every recipient.
+     * @param sessionId WebSocket session ID of the talker.
+     * @param message From the talker.
+     */
+    public void relay(final String sessionId, final String message) {
+        this.receivedFrames.increment();
+        this.receivedBytes.add(message.length());
+        final String username = this.wsConnections.username(sessionId);
+        if (username != null) {
+            final String channelName = this.voiceChannels.channel(username);
+            if (channelName != null) {
+                final ChannelExecutor executor = this.voiceChannels.executor(channelName);
+                if (executor != null) {
+                    executor.execute(() -> this.sendJson(channelName, username, message));
+                }
+            }
+        }
+    }
+
+    /**
+     * Do the work of {@link AudioFanOut#relay(String, String)} on the thread of the channel.
+     * @param channelName The talker's channel.
+     * @param username Talker.
+     * @param message From the talker.
+     */
+    private void sendJson(final String channelName, final String username, final String message) {
+        if (channelName.equals(this.voiceChannels.channel(username))) {
+            if (this.tap != null) {
+                this.tap.json(channelName, username, message);
+            }
+            final List<String> members = this.voiceChannels.members(channelName);
+            for (final String member : members) {
+                if (!member.equals(username)) {
+                    final Connection connection = this.wsConnections.connection(member);
+                    if (connection != null && connection.open()) {
+                        connection.send(message);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,378 @@
+package com.levelrin.wsvoip.audio;
+
+import com.levelrin.wsvoip.audio.codec.AudioDecoder;
+import com.levelrin.wsvoip.audio.codec.AudioEncoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Binary audio frame exchanged over the WebSocket.
+ * It's a fixed-size header followed by the samples.
+ * All numbers are in little-endian.
+ * See details at doc/audio.md
+ * Frames are taken from {@link AudioFramePool} and reused,
+ * so the audio path does not allocate anything per frame.
+ * Whoever keeps the frame after the current call must {@link AudioFrame#retain()} it
+ * and {@link AudioFrame#release()} it later.
+ */
+public final class AudioFrame {
+
+    /**
+     * Size of the header in bytes.
+     */
+    public static final int HEADER_BYTES = 20;
+
+    /**
+     * Maximum size of a frame in bytes including the header.
+     * It fits 40 ms of stereo float32 samples at 48 kHz, which is the longest {@link PacketTime}.
+     */
+    public static final int MAX_BYTES = 16_384;
+
+    /**
+     * Version of the frame format.
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * Codec ID for the raw 32-bit floating point PCM.
+     */
+    public static final byte CODEC_PCM_FLOAT32 = 0;
+
+    /**
+     * Flag of the first frame after the talker was silent.
+     */
+    public static final byte FLAG_TALK_START = 1;
+
+    /**
+     * Flag of the frame without samples that the server sends when the talker becomes silent.
+     */
+    public static final byte FLAG_TALK_END = 2;
+
+    /**
+     * Offset of the version in the header.
+     */
+    private static final int VERSION_OFFSET = 0;
+
+    /**
+     * Offset of the codec ID in the header.
+     */
+    private static final int CODEC_OFFSET = 1;
+
+    /**
+     * Offset of the number of audio channels in the header.
+     */
+    private static final int CHANNEL_COUNT_OFFSET = 2;
+
+    /**
+     * Offset of the flags in the header.
+     * Clients send zero, and the server sets them.
+     */
+    private static final int FLAGS_OFFSET = 3;
+
+    /**
+     * Offset of the sample rate in the header.
+     */
+    private static final int SAMPLE_RATE_OFFSET = 4;
+
+    /**
+     * Offset of the sequence number in the header.
+     */
+    private static final int SEQUENCE_OFFSET = 8;
+
+    /**
+     * Offset of the voice channel ID in the header.
+     */
+    private static final int CHANNEL_ID_OFFSET = 12;
+
+    /**
+     * Offset of the source ID in the header.
+     */
+    private static final int SOURCE_ID_OFFSET = 16;
+
+    /**
+     * Bytes of one sample in {@link AudioFrame#CODEC_PCM_FLOAT32}.
+     */
+    private static final int FLOAT32_BYTES = 4;
+
+    /**
+     * The whole frame including the header.
+     * The limit is the end of the frame.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Where the frame goes back on the last release.
+     */
+    private final AudioFramePool pool;
+
+    /**
+     * Number of holders.
+     * The frame goes back to the pool when it becomes zero.
+     */
+    private final AtomicInteger references = new AtomicInteger();
+
+    /**
+     * Constructor.
+     * @param pool Where the frame goes back on the last release.
+     * @param capacity Maximum size of the frame in bytes.
+     */
+    AudioFrame(final AudioFramePool pool, final int capacity) {
+        this.pool = pool;
+        this.buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copy the bytes of a binary WebSocket message into this frame.
+     * @param data As is.
+     * @param offset Where the frame starts in the data.
+     * @param length Length of the frame.
+     * @return False if the frame is too long.
+     */
+    public boolean load(final byte[] data, final int offset, final int length) {
+        boolean result = false;
+        if (length <= this.buffer.capacity()) {
+            this.buffer.clear();
+            this.buffer.put(data, offset, length);
+            this.buffer.flip();
+            result = true;
+        }
+        return result;
+    }
+
+    /**
+     * Check if the header is complete and consistent with the payload.
+     * @return True if we can route this frame.
+     */
+    public boolean valid() {
+        boolean result = false;
+        if (this.buffer.limit() >= HEADER_BYTES
+            && this.buffer.get(VERSION_OFFSET) == VERSION
+            && this.channelCount() > 0
+            && this.sampleRate() > 0) {
+            if (this.codec() == CODEC_PCM_FLOAT32) {
+                result = this.payloadBytes() % (FLOAT32_BYTES * this.channelCount()) == 0;
+            } else {
+                result = this.payloadBytes() > 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Codec ID of the payload.
+     * @return For example, {@link AudioFrame#CODEC_PCM_FLOAT32}.
+     */
+    public int codec() {
+        return this.buffer.get(CODEC_OFFSET);
+    }
+
+    /**
+     * Number of audio channels (e.g. 2 for stereo).
+     * @return As is.
+     */
+    public int channelCount() {
+        return Byte.toUnsignedInt(this.buffer.get(CHANNEL_COUNT_OFFSET));
+    }
+
+    /**
+     * Samples per second.
+     * @return For example, 48000.
+     */
+    public int sampleRate() {
+        return this.buffer.getInt(SAMPLE_RATE_OFFSET);
+    }
+
+    /**
+     * Sequence number assigned by the talker.
+     * @return It increases by one per frame.
+     */
+    public int sequence() {
+        return this.buffer.getInt(SEQUENCE_OFFSET);
+    }
+
+    /**
+     * ID of the voice channel that the frame belongs to.
+     * @return As is.
+     */
+    public int channelId() {
+        return this.buffer.getInt(CHANNEL_ID_OFFSET);
+    }
+
+    /**
+     * ID of the talker.
+     * Clients send zero, and the server fills it in when relaying.
+     * @return As is.
+     */
+    public int sourceId() {
+        return this.buffer.getInt(SOURCE_ID_OFFSET);
+    }
+
+    /**
+     * Fill in the ID of the talker.
+     * Do it once before relaying so that all recipients can share the same bytes.
+     * @param sourceId As is.
+     */
+    public void sourceId(final int sourceId) {
+        this.buffer.putInt(SOURCE_ID_OFFSET, sourceId);
+    }
+
+    /**
+     * As is.
+     * @return For example, {@link AudioFrame#FLAG_TALK_START}.
+     */
+    public int flags() {
+        return this.buffer.get(FLAGS_OFFSET);
+    }
+
+    /**
+     * Set the flags in the header.
+     * Do it once before relaying so that all recipients can share the same bytes.
+     * @param flags For example, {@link AudioFrame#FLAG_TALK_START}.
+     */
+    public void flags(final int flags) {
+        this.buffer.put(FLAGS_OFFSET, (byte) flags);
+    }
+
+    /**
+     * Make this frame a marker without samples.
+     * @param flags For example, {@link AudioFrame#FLAG_TALK_END}.
+     * @param sampleRate Samples per second of the talker.
+     * @param sequence Sequence number of the talker's last frame.
+     * @param channelId ID of the voice channel.
+     * @param sourceId ID of the talker.
+     */
+    public void marker(final int flags, final int sampleRate, final int sequence, final int channelId, final int sourceId) {
+        this.header(CODEC_PCM_FLOAT32, sampleRate, sequence, channelId, sourceId);
+        this.buffer.put(FLAGS_OFFSET, (byte) flags);
+        this.buffer.limit(HEADER_BYTES);
+    }
+
+    /**
+     * Size of the samples in bytes.
+     * @return As is.
+     */
+    public int payloadBytes() {
+        return this.buffer.limit() - HEADER_BYTES;
+    }
+
+    /**
+     * Number of samples in each audio channel.
+     * It's only meaningful for {@link AudioFrame#CODEC_PCM_FLOAT32}.
+     * @return For example, 128.
+     */
+    public int samplesPerChannel() {
+        return this.payloadBytes() / (FLOAT32_BYTES * this.channelCount());
+    }
+
+    /**
+     * Encode the mono PCM samples into this frame.
+     * @param samples Samples between -1 and 1.
+     * @param sampleRate Samples per second.
+     * @param sequence Sequence number of the frame.
+     * @param channelId ID of the voice channel.
+     * @param sourceId ID of the talker, or zero if it's mixed by the server.
+     */
+    public void encode(final float[] samples, final int sampleRate, final int sequence, final int channelId, final int sourceId) {
+        this.header(CODEC_PCM_FLOAT32, sampleRate, sequence, channelId, sourceId);
+        for (int index = 0; index < samples.length; ++index) {
+            this.buffer.putFloat(HEADER_BYTES + index * FLOAT32_BYTES, samples[index]);
+        }
+        this.buffer.limit(HEADER_BYTES + samples.length * FLOAT32_BYTES);
+    }
+
+    /**
+     * Encode the mono samples into this frame with the codec.
+     * @param encoder Encoder of the stream.
+     * @param samples Samples between -1 and 1.
+     * @param count Number of samples from the beginning of the array.
+     * @param sampleRate Samples per second.
+     * @param sequence Sequence number of the frame.
+     * @param channelId ID of the voice channel.
+     * @param sourceId ID of the talker, or zero if it's mixed by the server.
+     * @return False if the encoder failed.
+     */
+    public boolean encode(final AudioEncoder encoder, final float[] samples, final int count, final int sampleRate, final int sequence, final int channelId, final int sourceId) {
+        this.header((byte) encoder.codec(), sampleRate, sequence, channelId, sourceId);
+        final int length = encoder.encode(samples, count, this.buffer, HEADER_BYTES);
+        this.buffer.limit(HEADER_BYTES + length);
+        return length > 0;
+    }
+
+    /**
+     * Decode the payload into mono samples.
+     * @param decoder Decoder of the stream.
+     * @param target Where the samples between -1 and 1 go.
+     * @return Number of the decoded samples, or zero if it failed.
+     */
+    public int decode(final AudioDecoder decoder, final float[] target) {
+        return decoder.decode(this.buffer, HEADER_BYTES, this.payloadBytes(), this.channelCount(), target);
+    }
+
+    /**
+     * Write the header of a mono frame.
+     * The limit is the capacity until the caller sets it at the end of the payload.
+     * @param codec Codec ID of the payload.
+     * @param sampleRate Samples per second.
+     * @param sequence Sequence number of the frame.
+     * @param channelId ID of the voice channel.
+     * @param sourceId ID of the talker, or zero if it's mixed by the server.
+     */
+    private void header(final byte codec, final int sampleRate, final int sequence, final int channelId, final int sourceId) {
+        this.buffer.clear();
+        this.buffer.put(VERSION_OFFSET, VERSION);
+        this.buffer.put(CODEC_OFFSET, codec);
+        this.buffer.put(CHANNEL_COUNT_OFFSET, (byte) 1);
+        this.buffer.put(FLAGS_OFFSET, (byte) 0);
+        this.buffer.putInt(SAMPLE_RATE_OFFSET, sampleRate);
+        this.buffer.putInt(SEQUENCE_OFFSET, sequence);
+        this.buffer.putInt(CHANNEL_ID_OFFSET, channelId);
+        this.buffer.putInt(SOURCE_ID_OFFSET, sourceId);
+    }
+
+    /**
+     * Average the audio channels into one.
+     * It's only meaningful for {@link AudioFrame#CODEC_PCM_FLOAT32}.
+     * @param target Its length must be {@link AudioFrame#samplesPerChannel()}.
+     */
+    public void mixDown(final float[] target) {
+        final int channels = this.channelCount();
+        final int samples = this.samplesPerChannel();
+        for (int index = 0; index < samples; ++index) {
+            float total = 0;
+            for (int channel = 0; channel < channels; ++channel) {
+                total += this.buffer.getFloat(HEADER_BYTES + (channel * samples + index) * FLOAT32_BYTES);
+            }
+            target[index] = total / channels;
+        }
+    }
+
+    /**
+     * The whole frame for sending.
+     * The position is reset, so each send must finish before the next one starts.
+     * Do not use it after the release.
+     * @return The buffer of this frame.
+     */
+    public ByteBuffer rewind() {
+        this.buffer.position(0);
+        return this.buffer;
+    }
+
+    /**
+     * Add a holder.
+     */
+    public void retain() {
+        this.references.incrementAndGet();
+    }
+
+    /**
+     * Remove a holder.
+     * The last release puts the frame back into the pool.
+     */
+    public void release() {
+        if (this.references.decrementAndGet() == 0) {
+            this.pool.recycle(this);
+        }
+    }
+
+}
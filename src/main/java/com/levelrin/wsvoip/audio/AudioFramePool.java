@@ -0,0 +1,75 @@
+package com.levelrin.wsvoip.audio;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reusable audio frames.
+ * Taking and returning a frame does not allocate anything.
+ * If all frames are in use, a new one is created and it's kept if there is room on its return.
+ */
+public final class AudioFramePool {
+
+    /**
+     * Frames not in use.
+     * We use an array-backed queue because it does not allocate a node per operation.
+     */
+    private final BlockingQueue<AudioFrame> free;
+
+    /**
+     * Maximum size of a frame in bytes.
+     */
+    private final int frameBytes;
+
+    /**
+     * Number of frames created because all frames were in use.
+     * Each of them is garbage unless there is room on its return.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor.
+     * @param frames Maximum number of frames kept for reuse.
+     * @param frameBytes Maximum size of a frame in bytes.
+     */
+    public AudioFramePool(final int frames, final int frameBytes) {
+        this.free = new ArrayBlockingQueue<>(frames);
+        this.frameBytes = frameBytes;
+        for (int count = 0; count < frames; ++count) {
+            this.free.add(new AudioFrame(this, frameBytes));
+        }
+    }
+
+    /**
+     * Take a frame.
+     * The caller holds it and must call {@link AudioFrame#release()} when it's done.
+     * @return A frame with undefined content.
+     */
+    public AudioFrame acquire() {
+        AudioFrame frame = this.free.poll();
+        if (frame == null) {
+            frame = new AudioFrame(this, this.frameBytes);
+            this.misses.increment();
+        }
+        frame.retain();
+        return frame;
+    }
+
+    /**
+     * As is.
+     * @return Number of frames created because all frames were in use.
+     */
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Put the frame back.
+     * @param frame Nobody holds it anymore.
+     */
+    void recycle(final AudioFrame frame) {
+        this.free.offer(frame);
+    }
+
+}
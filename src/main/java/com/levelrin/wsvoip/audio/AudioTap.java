@@ -0,0 +1,25 @@
+package com.levelrin.wsvoip.audio;
+
+/**
+ * It receives a copy of the audio that {@link AudioFanOut} delivers, such as for recording.
+ * It's called on the threads of the channels, so it must return right away and must not keep the frame.
+ */
+public interface AudioTap {
+
+    /**
+     * The binary frame of a talker is delivered to the channel.
+     * @param channelName As is.
+     * @param username Talker.
+     * @param frame From the talker. It's released after this method returns.
+     */
+    void frame(final String channelName, final String username, final AudioFrame frame);
+
+    /**
+     * The JSON audio message of a talker is delivered to the channel.
+     * @param channelName As is.
+     * @param username Talker.
+     * @param message From the talker.
+     */
+    void json(final String channelName, final String username, final String message);
+
+}
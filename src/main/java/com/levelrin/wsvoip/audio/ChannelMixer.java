@@ -0,0 +1,323 @@
+package com.levelrin.wsvoip.audio;
+
+import com.levelrin.wsvoip.Connection;
+import com.levelrin.wsvoip.VoiceChannels;
+import com.levelrin.wsvoip.WsConnections;
+import com.levelrin.wsvoip.audio.codec.AudioCodecs;
+import com.levelrin.wsvoip.audio.codec.EncodeStage;
+import com.levelrin.wsvoip.metrics.LatencyHistogram;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * It mixes the talkers of a channel on the server.
+ * Every tick of the clock, each listener receives one frame that has everyone except the listener.
+ * That way, the listener receives one stream no matter how many people talk.
+ * The frames and the clock run on the thread of the channel, so the mixer needs no lock.
+ */
+public final class ChannelMixer {
+
+    /**
+     * Sample rate of the mixed frames.
+     * Frames in other sample rates are dropped.
+     */
+    public static final int SAMPLE_RATE = 48_000;
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChannelMixer.class);
+
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * The channel we mix.
+     */
+    private final String channelName;
+
+    /**
+     * To find the listeners.
+     */
+    private final VoiceChannels voiceChannels;
+
+    /**
+     * To send the mixed frames.
+     */
+    private final WsConnections wsConnections;
+
+    /**
+     * To encode the mixed frames without allocation.
+     */
+    private final AudioFramePool framePool;
+
+    /**
+     * Number of samples in a mixed frame, which is also the period of the clock.
+     * The talkers' frames can have any size because the jitter buffers cut them into the mixed frames.
+     */
+    private final int frameSamples;
+
+    /**
+     * Key - Username of the talker.
+     * Value - Frames from the talker.
+     * Only the thread of the channel uses it.
+     */
+    private final Map<String, JitterBuffer> talkers = new HashMap<>();
+
+    /**
+     * Mixes for the listeners that receive another codec than {@link AudioFrame#CODEC_PCM_FLOAT32}.
+     * Each listener has its own stream because each mix is different.
+     * Only the clock uses it.
+     * Key - Username of the listener.
+     * Value - The listener's stream.
+     */
+    private final Map<String, EncodeStage> listenerStages = new HashMap<>();
+
+    /**
+     * True if nobody talked in the last tick.
+     * Only the clock uses it.
+     */
+    private boolean silent = true;
+
+    /**
+     * Sum of all talkers in the current tick.
+     * Only the clock uses it.
+     */
+    private final float[] sum;
+
+    /**
+     * Mix for a listener in the current tick.
+     * Only the clock uses it.
+     */
+    private final float[] mix;
+
+    /**
+     * Sequence number of the next mixed frame.
+     * Only the clock uses it.
+     */
+    private int sequence;
+
+    /**
+     * Where the durations of the ticks are recorded.
+     */
+    private final LatencyHistogram ticks;
+
+    /**
+     * The scheduled clock.
+     */
+    private final ScheduledFuture<?> clock;
+
+    /**
+     * Constructor.
+     * It starts the clock right away.
+     * @param channelName The channel we mix.
+     * @param voiceChannels To find the listeners.
+     * @param wsConnections To send the mixed frames.
+     * @param framePool To encode the mixed frames without allocation.
+     * @param scheduler To run the clock. It must be the thread of the channel.
+     * @param ticks Where the durations of the ticks are recorded.
+     * @param frameSamples Number of samples in a mixed frame, e.g. {@link PacketTime#samples(int)}.
+     */
+    public ChannelMixer(final String channelName, final VoiceChannels voiceChannels, final WsConnections wsConnections, final AudioFramePool framePool, final ScheduledExecutorService scheduler, final LatencyHistogram ticks, final int frameSamples) {
+        this.channelName = channelName;
+        this.voiceChannels = voiceChannels;
+        this.wsConnections = wsConnections;
+        this.framePool = framePool;
+        this.ticks = ticks;
+        this.frameSamples = frameSamples;
+        this.sum = new float[frameSamples];
+        this.mix = new float[frameSamples];
+        final long period = frameSamples * NANOS_PER_SECOND / SAMPLE_RATE;
+        this.clock = scheduler.scheduleAtFixedRate(this::tick, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Add the frame from the talker to the talker's jitter buffer.
+     * @param username Talker.
+     * @param frame From the talker.
+     */
+    public void offer(final String username, final AudioFrame frame) {
+        if (frame.codec() == AudioFrame.CODEC_PCM_FLOAT32 && frame.sampleRate() == SAMPLE_RATE) {
+            this.buffer(username).offer(frame);
+        }
+    }
+
+    /**
+     * Add the decoded samples from the talker to the talker's jitter buffer.
+     * It's for the codecs other than {@link AudioFrame#CODEC_PCM_FLOAT32}.
+     * @param username Talker.
+     * @param sequence Of the frame that the samples are decoded from.
+     * @param samples Mono samples at {@link ChannelMixer#SAMPLE_RATE}.
+     * @param count Number of samples from the beginning of the array.
+     */
+    public void offer(final String username, final int sequence, final float[] samples, final int count) {
+        this.buffer(username).offer(sequence, samples, count);
+    }
+
+    /**
+     * Get the jitter buffer of the talker.
+     * @param username Talker.
+     * @return As is.
+     */
+    private JitterBuffer buffer(final String username) {
+        JitterBuffer result = this.talkers.get(username);
+        if (result == null) {
+            result = this.talkers.computeIfAbsent(username, key -> new JitterBuffer(this.frameSamples));
+        }
+        return result;
+    }
+
+    /**
+     * Stop the clock.
+     */
+    public void close() {
+        this.clock.cancel(false);
+    }
+
+    /**
+     * Mix one frame for every listener.
+     * An exception must not escape; otherwise, the scheduler stops the clock.
+     */
+    private void tick() {
+        final long start = System.nanoTime();
+        try {
+            this.mixTalkers();
+        } catch (final Exception exception) {
+            if (LOGGER.isErrorEnabled()) {
+                LOGGER.error(
+                    String.format("Failed to mix the channel %s.", this.channelName),
+                    exception
+                );
+            }
+        }
+        this.ticks.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Sum the talkers and send N-minus-one mixes to the listeners.
+     */
+    private void mixTalkers() {
+        Arrays.fill(this.sum, 0);
+        int talkers = 0;
+        final Iterator<Map.Entry<String, JitterBuffer>> iterator = this.talkers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, JitterBuffer> entry = iterator.next();
+            if (this.channelName.equals(this.voiceChannels.channel(entry.getKey()))) {
+                final JitterBuffer buffer = entry.getValue();
+                if (buffer.advance()) {
+                    talkers = talkers + 1;
+                    final float[] current = buffer.current();
+                    for (int index = 0; index < this.frameSamples; ++index) {
+                        this.sum[index] += current[index];
+                    }
+                }
+            } else {
+                // The talker left the channel.
+                iterator.remove();
+            }
+        }
+        if (talkers > 0) {
+            final int channelId = this.voiceChannels.channelId(this.channelName);
+            final List<String> listeners = this.voiceChannels.members(this.channelName);
+            final AudioFrame frame = this.framePool.acquire();
+            try {
+                for (int index = 0; index < listeners.size(); ++index) {
+                    final String listener = listeners.get(index);
+                    final JitterBuffer own = this.talkers.get(listener);
+                    final boolean talking = own != null && own.active();
+                    if (talkers > 1 || !talking) {
+                        final Connection connection = this.wsConnections.connection(listener);
+                        if (connection != null && connection.open()) {
+                            this.mixFor(own, talking);
+                            final int codec = this.wsConnections.codec(listener);
+                            if (codec == AudioFrame.CODEC_PCM_FLOAT32) {
+                                frame.encode(this.mix, SAMPLE_RATE, this.sequence, channelId, 0);
+                                connection.send(frame.rewind());
+                            } else {
+                                this.encodeFor(listener, codec, connection, channelId);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                frame.release();
+            }
+            this.silent = false;
+        } else if (!this.silent) {
+            this.silent = true;
+            this.resetListeners();
+        }
+        this.sequence = this.sequence + 1;
+    }
+
+    /**
+     * Add {@link ChannelMixer#mix} to the listener's stream and send the frames that are complete.
+     * @param listener Username.
+     * @param codec Codec ID that the listener receives.
+     * @param connection Of the listener.
+     * @param channelId ID of the channel.
+     */
+    private void encodeFor(final String listener, final int codec, final Connection connection, final int channelId) {
+        EncodeStage stage = this.listenerStages.get(listener);
+        if (stage == null || stage.codec() != codec) {
+            stage = new EncodeStage(AudioCodecs.byId(codec));
+            this.listenerStages.put(listener, stage);
+        }
+        stage.push(this.mix, this.frameSamples);
+        while (stage.ready()) {
+            final AudioFrame encoded = this.framePool.acquire();
+            try {
+                if (stage.next(encoded, SAMPLE_RATE, channelId, 0)) {
+                    connection.send(encoded.rewind());
+                }
+            } finally {
+                encoded.release();
+            }
+        }
+    }
+
+    /**
+     * Drop the samples that the listeners' streams have not sent, and forget the listeners who left.
+     * It's called when everyone stops talking so that the next talk does not start with old samples.
+     */
+    private void resetListeners() {
+        final Iterator<Map.Entry<String, EncodeStage>> iterator = this.listenerStages.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, EncodeStage> entry = iterator.next();
+            if (this.channelName.equals(this.voiceChannels.channel(entry.getKey()))) {
+                entry.getValue().clear();
+            } else {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Fill {@link ChannelMixer#mix} with everyone except the listener and clip it.
+     * @param own Frames from the listener. It can be null.
+     * @param talking True if the listener has audio in this tick.
+     */
+    private void mixFor(final JitterBuffer own, final boolean talking) {
+        System.arraycopy(this.sum, 0, this.mix, 0, this.frameSamples);
+        if (talking) {
+            final float[] current = own.current();
+            for (int index = 0; index < this.frameSamples; ++index) {
+                this.mix[index] -= current[index];
+            }
+        }
+        for (int index = 0; index < this.frameSamples; ++index) {
+            this.mix[index] = Math.max(-1f, Math.min(1f, this.mix[index]));
+        }
+    }
+
+}
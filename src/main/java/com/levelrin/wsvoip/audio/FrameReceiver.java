@@ -0,0 +1,17 @@
+package com.levelrin.wsvoip.audio;
+
+/**
+ * Takes the audio frames on the thread of their channel.
+ * See {@link com.levelrin.wsvoip.ChannelExecutor#post(FrameReceiver, String, AudioFrame)}.
+ */
+public interface FrameReceiver {
+
+    /**
+     * Handle the frame.
+     * @param channelName The channel whose thread runs it.
+     * @param username Talker.
+     * @param frame From the talker. It's released after the call.
+     */
+    void receive(String channelName, String username, AudioFrame frame);
+
+}
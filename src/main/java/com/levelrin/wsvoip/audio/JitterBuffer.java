@@ -0,0 +1,439 @@
+package com.levelrin.wsvoip.audio;
+
+import java.util.Arrays;
+
+/**
+ * Adaptive jitter buffer of a talker in the {@link ChannelMixer}.
+ * The talker's frames are written and the mixer clock reads one block per tick, both on the thread of the channel,
+ * so it needs no lock.
+ * Frames are placed on the talker's timeline by their sequence numbers,
+ * so they are played in order no matter the order they arrive in.
+ * Missing samples are concealed, and frames that arrive after their turn are dropped.
+ * The buffer waits for the target depth before it starts playing,
+ * and the target follows the jitter of the arrivals so that the latency stays as low as the network allows.
+ * See details at doc/audio.md
+ */
+final class JitterBuffer {
+
+    /**
+     * Samples the timeline can hold, which is about 680 ms.
+     * It's a power of two so that a position can be turned into an index with a mask.
+     */
+    static final int CAPACITY = 32_768;
+
+    /**
+     * To turn a position into an index.
+     */
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * Samples per second.
+     */
+    private static final int SAMPLE_RATE = ChannelMixer.SAMPLE_RATE;
+
+    /**
+     * The target depth never goes over this, which is 200 ms.
+     * It bounds the latency that the buffer adds.
+     */
+    private static final int MAX_TARGET = SAMPLE_RATE / 5;
+
+    /**
+     * Samples we conceal after the buffer runs dry, which is about 21 ms.
+     * If nothing arrives by then, the talker is treated as silent
+     * and the buffer waits for the target depth again.
+     */
+    private static final int CONCEAL_SAMPLES = 1024;
+
+    /**
+     * One block is skipped per this many ticks at most, so the catch-up is spread over time.
+     */
+    private static final int SKIP_INTERVAL = 4;
+
+    /**
+     * How much the concealment fades per block.
+     */
+    private static final float FADE = 0.5f;
+
+    /**
+     * Samples on the timeline.
+     */
+    private final float[] samples = new float[CAPACITY];
+
+    /**
+     * True if the sample at the same index has arrived and is not played yet.
+     */
+    private final boolean[] present = new boolean[CAPACITY];
+
+    /**
+     * To mix down the frames without allocation.
+     */
+    private final float[] scratch = new float[AudioFrame.MAX_BYTES / 4];
+
+    /**
+     * Samples per block, which is what the mixer reads per tick.
+     */
+    private final int block;
+
+    /**
+     * Number of blocks we conceal after the buffer runs dry.
+     * It covers {@link JitterBuffer#CONCEAL_SAMPLES}, rounded up to whole blocks.
+     */
+    private final int concealBlocks;
+
+    /**
+     * While the buffer is deeper than the target by this much plus a frame, blocks are skipped to catch up.
+     * The frame is there because the depth jumps by a frame whenever one arrives.
+     */
+    private final int skipMargin;
+
+    /**
+     * The block being mixed in the current tick.
+     */
+    private final float[] current;
+
+    /**
+     * The last block that had audio, for the concealment.
+     */
+    private final float[] last;
+
+    /**
+     * True once the first frame arrived.
+     */
+    private boolean started;
+
+    /**
+     * Samples per frame of the talker.
+     * The position of a frame is its sequence number times this.
+     */
+    private int frameSamples;
+
+    /**
+     * The highest sequence number so far, extended beyond 32 bits so that it does not wrap around.
+     */
+    private long highestSequence;
+
+    /**
+     * Position of the next sample to play.
+     */
+    private long readPosition;
+
+    /**
+     * Position right after the latest sample that arrived.
+     */
+    private long endPosition;
+
+    /**
+     * True if the talker is being mixed.
+     */
+    private boolean playing;
+
+    /**
+     * True if {@link JitterBuffer#current} has the talker's audio in the current tick.
+     */
+    private boolean active;
+
+    /**
+     * Number of blocks in a row that had no sample at all.
+     */
+    private int missingBlocks;
+
+    /**
+     * Number of ticks since a block was skipped.
+     */
+    private int sinceSkip;
+
+    /**
+     * Estimated jitter of the arrivals in samples.
+     * See RFC 3550, section 6.4.1.
+     */
+    private double jitter;
+
+    /**
+     * Arrival time minus the position of the previous frame in samples.
+     */
+    private double lastTransit;
+
+    /**
+     * False if {@link JitterBuffer#lastTransit} must not be compared, such as after a silence.
+     */
+    private boolean hasTransit;
+
+    /**
+     * Samples we wait for before playing.
+     */
+    private int target;
+
+    /**
+     * Number of frames that arrived after their turn.
+     */
+    private long late;
+
+    /**
+     * Number of samples that were concealed because they were lost or late.
+     * The fade-out after the talker stops is not counted.
+     */
+    private long concealed;
+
+    /**
+     * Number of samples that were skipped to catch up.
+     */
+    private long skipped;
+
+    /**
+     * Constructor.
+     * @param block Samples per block, which is what the mixer reads per tick.
+     */
+    JitterBuffer(final int block) {
+        this.block = block;
+        this.concealBlocks = (CONCEAL_SAMPLES + block - 1) / block;
+        this.skipMargin = 2 * block;
+        this.current = new float[block];
+        this.last = new float[block];
+        this.target = 2 * block;
+    }
+
+    /**
+     * Producer side.
+     * @param frame PCM float32 from the talker.
+     */
+    void offer(final AudioFrame frame) {
+        final int count = frame.samplesPerChannel();
+        if (count <= this.scratch.length) {
+            frame.mixDown(this.scratch);
+            this.put(frame.sequence(), this.scratch, count, System.nanoTime());
+        }
+    }
+
+    /**
+     * Producer side.
+     * @param sequence Of the frame that the samples are decoded from.
+     * @param decoded Mono samples.
+     * @param count Number of samples from the beginning of the array.
+     */
+    void offer(final int sequence, final float[] decoded, final int count) {
+        this.put(sequence, decoded, count, System.nanoTime());
+    }
+
+    /**
+     * Consumer side.
+     * Move to the next block.
+     * @return True if the talker has audio in this tick.
+     */
+    boolean advance() {
+        this.active = false;
+        if (this.started) {
+            if (!this.playing && this.endPosition - this.readPosition >= this.target) {
+                this.playing = true;
+                this.missingBlocks = 0;
+            }
+            if (this.playing) {
+                this.catchUp();
+                this.read();
+            }
+        }
+        return this.active;
+    }
+
+    /**
+     * Consumer side.
+     * @return True if the talker has audio in this tick.
+     */
+    boolean active() {
+        return this.active;
+    }
+
+    /**
+     * Consumer side.
+     * @return The block being mixed in the current tick. Do not modify it.
+     */
+    float[] current() {
+        return this.current;
+    }
+
+    /**
+     * As is.
+     * @return Number of frames that arrived after their turn.
+     */
+    long late() {
+        return this.late;
+    }
+
+    /**
+     * As is.
+     * @return Number of samples that were concealed because they were lost or late.
+     */
+    long concealed() {
+        return this.concealed;
+    }
+
+    /**
+     * As is.
+     * @return Number of samples that were skipped to catch up.
+     */
+    long skipped() {
+        return this.skipped;
+    }
+
+    /**
+     * As is.
+     * @return Samples we wait for before playing.
+     */
+    int target() {
+        return this.target;
+    }
+
+    /**
+     * Place the samples on the timeline.
+     * @param sequence Of the frame.
+     * @param source Mono samples.
+     * @param count Number of samples from the beginning of the array.
+     * @param arrival When the frame arrived in {@link System#nanoTime()}.
+     */
+    private void put(final int sequence, final float[] source, final int count, final long arrival) {
+        if (count > 0 && count <= CAPACITY / 4) {
+            if (!this.started || count != this.frameSamples) {
+                // A new stream, or the talker changed the frame size.
+                this.restart(sequence, count);
+            }
+            long position = this.extend(sequence) * count;
+            if (position + count - this.readPosition > CAPACITY
+                || !this.playing && this.endPosition - position > CAPACITY) {
+                // The talker jumped too far, such as after a reconnection.
+                this.restart(sequence, count);
+                position = this.extend(sequence) * count;
+            }
+            final long end = position + count;
+            if (this.playing && end <= this.readPosition) {
+                this.late = this.late + 1;
+            } else {
+                if (!this.playing && this.endPosition <= this.readPosition) {
+                    // The first frame after a silence.
+                    this.readPosition = position;
+                    this.endPosition = position;
+                } else if (!this.playing && position < this.readPosition) {
+                    // Nothing is played from here yet, so the frame can still be the first one.
+                    this.readPosition = position;
+                }
+                final long from = Math.max(position, this.readPosition);
+                for (long at = from; at < end; ++at) {
+                    final int index = (int) (at & MASK);
+                    this.samples[index] = source[(int) (at - position)];
+                    this.present[index] = true;
+                }
+                if (end > this.endPosition) {
+                    this.endPosition = end;
+                }
+                this.measure(position, arrival, count);
+            }
+        }
+    }
+
+    /**
+     * Update the jitter and the target depth with the arrival.
+     * @param position Of the frame.
+     * @param arrival When the frame arrived in {@link System#nanoTime()}.
+     * @param count Samples in the frame.
+     */
+    private void measure(final long position, final long arrival, final int count) {
+        final double transit = arrival * (SAMPLE_RATE / 1e9) - position;
+        if (this.hasTransit) {
+            final double difference = Math.min(Math.abs(transit - this.lastTransit), MAX_TARGET);
+            this.jitter = this.jitter + (difference - this.jitter) / 16;
+        }
+        this.lastTransit = transit;
+        this.hasTransit = true;
+        // One frame because it arrives all at once, one block because the clock reads it,
+        // and enough to cover most of the jitter.
+        this.target = (int) Math.min(MAX_TARGET, count + this.block + 3 * this.jitter);
+    }
+
+    /**
+     * Skip a block if the buffer is too deep.
+     */
+    private void catchUp() {
+        this.sinceSkip = this.sinceSkip + 1;
+        if (this.sinceSkip >= SKIP_INTERVAL && this.endPosition - this.readPosition > this.target + this.frameSamples + this.skipMargin) {
+            for (int offset = 0; offset < this.block; ++offset) {
+                this.present[(int) ((this.readPosition + offset) & MASK)] = false;
+            }
+            this.readPosition = this.readPosition + this.block;
+            this.skipped = this.skipped + this.block;
+            this.sinceSkip = 0;
+        }
+    }
+
+    /**
+     * Read the next block into {@link JitterBuffer#current}, concealing the missing samples.
+     * If the whole block is missing while the buffer is shallower than the target,
+     * the block is concealed without moving forward.
+     * That way, frames that are late by less than the target are delayed instead of lost.
+     */
+    private void read() {
+        int missing = 0;
+        final float fade = (float) Math.pow(FADE, this.missingBlocks + 1);
+        for (int offset = 0; offset < this.block; ++offset) {
+            final int index = (int) ((this.readPosition + offset) & MASK);
+            if (this.present[index]) {
+                this.current[offset] = this.samples[index];
+                this.present[index] = false;
+            } else {
+                this.current[offset] = this.last[offset] * fade;
+                missing = missing + 1;
+            }
+        }
+        if (missing < this.block || this.endPosition - this.readPosition >= this.target) {
+            this.readPosition = this.readPosition + this.block;
+            if (this.readPosition <= this.endPosition) {
+                // Later samples have arrived, so the missing ones are lost rather than not sent yet.
+                this.concealed = this.concealed + missing;
+            }
+        }
+        if (missing == this.block) {
+            this.missingBlocks = this.missingBlocks + 1;
+        } else {
+            this.missingBlocks = 0;
+            System.arraycopy(this.current, 0, this.last, 0, this.block);
+        }
+        if (this.readPosition >= this.endPosition && this.missingBlocks >= this.concealBlocks) {
+            // The talker stopped, so wait for the target depth again.
+            // The silence must not be taken as jitter.
+            this.playing = false;
+            this.hasTransit = false;
+            Arrays.fill(this.last, 0);
+        } else {
+            this.active = true;
+        }
+    }
+
+    /**
+     * Forget the timeline and start over from the frame.
+     * @param sequence Of the first frame.
+     * @param count Samples per frame.
+     */
+    private void restart(final int sequence, final int count) {
+        this.started = true;
+        this.frameSamples = count;
+        this.highestSequence = sequence;
+        this.readPosition = (long) sequence * count;
+        this.endPosition = this.readPosition;
+        this.playing = false;
+        this.hasTransit = false;
+        this.missingBlocks = 0;
+        Arrays.fill(this.present, false);
+        Arrays.fill(this.last, 0);
+    }
+
+    /**
+     * Extend the sequence number beyond 32 bits.
+     * @param sequence 32-bit sequence number that wraps around.
+     * @return The value closest to the highest sequence number so far.
+     */
+    private long extend(final int sequence) {
+        final long result = this.highestSequence + (sequence - (int) this.highestSequence);
+        if (result > this.highestSequence) {
+            this.highestSequence = result;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.levelrin.wsvoip.audio;
+
+/**
+ * Packet times that the server supports.
+ * A client collects the render quanta of the microphone, 128 samples each, into a frame of the packet time,
+ * and the mixers send a frame per packet time.
+ * Longer packets mean fewer messages per talker at the cost of that much more latency.
+ * See details at doc/audio.md
+ */
+public final class PacketTime {
+
+    /**
+     * Packet time in milliseconds unless it's configured.
+     */
+    public static final int DEFAULT_MILLIS = 20;
+
+    /**
+     * Packet times in milliseconds that the server supports.
+     */
+    private static final int[] SUPPORTED = {10, 20, 40};
+
+    /**
+     * Utility class.
+     */
+    private PacketTime() {
+    }
+
+    /**
+     * Check if the server supports the packet time.
+     * @param millis Packet time in milliseconds.
+     * @return As is.
+     */
+    public static boolean supported(final int millis) {
+        boolean result = false;
+        for (final int each : SUPPORTED) {
+            if (each == millis) {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pick the packet time for a session.
+     * The server's packet time wins if the client supports it, because the mixers use it.
+     * @param preferences Comma-separated packet times in milliseconds that the client supports, the preferred one first.
+     * @param configured Packet time of the server.
+     * @return The configured one if the client supports it or does not tell,
+     *         otherwise the first one that the server supports, or the configured one if there is none.
+     */
+    public static int negotiate(final String preferences, final int configured) {
+        int result = configured;
+        if (preferences != null) {
+            int first = 0;
+            boolean found = false;
+            for (final String each : preferences.split(",")) {
+                int millis = 0;
+                try {
+                    millis = Integer.parseInt(each.trim());
+                } catch (final NumberFormatException ex) {
+                    // The client may know the packet times that this server does not.
+                }
+                if (millis == configured) {
+                    found = true;
+                } else if (first == 0 && supported(millis)) {
+                    first = millis;
+                }
+            }
+            if (!found && first != 0) {
+                result = first;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of samples in a frame of the packet time at {@link ChannelMixer#SAMPLE_RATE}.
+     * @param millis Packet time in milliseconds.
+     * @return For example, 960 for 20 ms.
+     */
+    public static int samples(final int millis) {
+        return ChannelMixer.SAMPLE_RATE / 1000 * millis;
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.levelrin.wsvoip.audio;
+
+/**
+ * It tells if a talker is talking from the energy and the zero-crossing rate of the frames.
+ * The noise floor is learned from the talker's own silence, so a noisy room does not count as talking.
+ * A hangover keeps the talker talking for a while after the last voiced frame
+ * so that quiet ends of words and short pauses between them are not cut.
+ * Only the thread of the talker's channel may use it.
+ */
+final class VoiceActivityDetector {
+
+    /**
+     * The talker is silent, and the frame should not be delivered.
+     */
+    static final int SILENT = 0;
+
+    /**
+     * The talker is talking.
+     */
+    static final int TALKING = 1;
+
+    /**
+     * The talker has just started talking with this frame.
+     */
+    static final int STARTED = 2;
+
+    /**
+     * The talker has just stopped talking, and this frame is the first silent one.
+     */
+    static final int STOPPED = 3;
+
+    /**
+     * Frames quieter than this in dBFS are never voiced.
+     */
+    private static final double ABSOLUTE_FLOOR = -55;
+
+    /**
+     * Frames must be louder than the noise floor by this much in dB to be voiced.
+     */
+    private static final double MARGIN = 9;
+
+    /**
+     * Frames louder than the noise floor by this much in dB are voiced even if they cross zero often.
+     */
+    private static final double STRONG_MARGIN = 18;
+
+    /**
+     * Frames crossing zero more often than this per sample look like noise rather than voice.
+     */
+    private static final double NOISY_CROSSINGS = 0.35;
+
+    /**
+     * How much of the gap between the noise floor and a silent frame is closed per second.
+     * It's fast because the talker is known to be silent.
+     */
+    private static final double FOLLOW_PER_SECOND = 5;
+
+    /**
+     * How fast the noise floor rises during voice in dB per second.
+     * It's slow, but it lets the floor catch up if the room gets noisier while the talker is taken as talking.
+     */
+    private static final double RISE_PER_SECOND = 2;
+
+    /**
+     * How much of the gap between the recent level and the level of a frame is closed per second.
+     * About a third of a second, which is roughly a syllable.
+     */
+    private static final double LEVEL_PER_SECOND = 3;
+
+    /**
+     * How long the talker keeps talking after the last voiced frame in milliseconds.
+     */
+    private final int hangoverMillis;
+
+    /**
+     * To mix down PCM float32 frames without allocation.
+     */
+    private final float[] scratch = new float[AudioFrame.MAX_BYTES / 4];
+
+    /**
+     * Estimated noise floor in dBFS.
+     */
+    private double noiseFloor = ABSOLUTE_FLOOR - MARGIN;
+
+    /**
+     * Recent level in dBFS.
+     */
+    private double level = ABSOLUTE_FLOOR - MARGIN;
+
+    /**
+     * Samples left in the hangover.
+     */
+    private long hangover;
+
+    /**
+     * True if the talker is talking.
+     */
+    private boolean talking;
+
+    /**
+     * Constructor.
+     * @param hangoverMillis How long the talker keeps talking after the last voiced frame.
+     */
+    VoiceActivityDetector(final int hangoverMillis) {
+        this.hangoverMillis = hangoverMillis;
+    }
+
+    /**
+     * Classify the PCM float32 frame.
+     * @param frame From the talker.
+     * @return One of {@link VoiceActivityDetector#SILENT}, {@link VoiceActivityDetector#TALKING},
+     *  {@link VoiceActivityDetector#STARTED}, and {@link VoiceActivityDetector#STOPPED}.
+     */
+    int detect(final AudioFrame frame) {
+        int count = frame.samplesPerChannel();
+        if (count > this.scratch.length) {
+            count = 0;
+        } else {
+            frame.mixDown(this.scratch);
+        }
+        return this.detect(this.scratch, count, frame.sampleRate());
+    }
+
+    /**
+     * Classify the decoded frame.
+     * @param samples Mono samples.
+     * @param count Number of samples from the beginning of the array.
+     * @param sampleRate Samples per second.
+     * @return One of {@link VoiceActivityDetector#SILENT}, {@link VoiceActivityDetector#TALKING},
+     *  {@link VoiceActivityDetector#STARTED}, and {@link VoiceActivityDetector#STOPPED}.
+     */
+    int detect(final float[] samples, final int count, final int sampleRate) {
+        final boolean before = this.talking;
+        if (count > 0) {
+            double energy = 0;
+            int crossings = 0;
+            for (int index = 0; index < count; ++index) {
+                energy = energy + samples[index] * samples[index];
+                if (index > 0 && (samples[index] >= 0) != (samples[index - 1] >= 0)) {
+                    crossings = crossings + 1;
+                }
+            }
+            final double frameLevel = 10 * Math.log10(energy / count + 1e-12);
+            final double seconds = (double) count / sampleRate;
+            this.level = this.level + (frameLevel - this.level) * Math.min(1, LEVEL_PER_SECOND * seconds);
+            final boolean voiced = frameLevel > Math.max(ABSOLUTE_FLOOR, this.noiseFloor + MARGIN)
+                && ((double) crossings / count < NOISY_CROSSINGS || frameLevel > this.noiseFloor + STRONG_MARGIN);
+            if (voiced) {
+                this.hangover = (long) this.hangoverMillis * sampleRate / 1000;
+                this.noiseFloor = this.noiseFloor + RISE_PER_SECOND * seconds;
+            } else {
+                this.hangover = this.hangover - count;
+                if (frameLevel < this.noiseFloor) {
+                    this.noiseFloor = frameLevel;
+                } else {
+                    this.noiseFloor = this.noiseFloor + (frameLevel - this.noiseFloor) * Math.min(1, FOLLOW_PER_SECOND * seconds);
+                }
+            }
+            this.talking = voiced || this.hangover > 0;
+        }
+        int result = SILENT;
+        if (this.talking && before) {
+            result = TALKING;
+        } else if (this.talking) {
+            result = STARTED;
+        } else if (before) {
+            result = STOPPED;
+        }
+        return result;
+    }
+
+    /**
+     * As is.
+     * @return Recent level of the talker in dBFS, which is smoothed over about a third of a second.
+     */
+    double level() {
+        return this.level;
+    }
+
+}
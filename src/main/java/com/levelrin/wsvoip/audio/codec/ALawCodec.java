@@ -0,0 +1,120 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * G.711 A-law, which stores each sample in 8 bits on a logarithmic scale.
+ * It's the European counterpart of {@link MuLawCodec} with slightly less precision for quiet samples.
+ * It has no state, so the same object is the encoder and the decoder of every stream.
+ */
+public final class ALawCodec implements AudioCodec, AudioEncoder, AudioDecoder {
+
+    /**
+     * Codec ID in the header of the audio frames.
+     */
+    public static final byte ID = 4;
+
+    /**
+     * Every other bit is inverted on the wire.
+     */
+    private static final int INVERSION = 0x55;
+
+    /**
+     * Index - Encoded byte.
+     * Value - Decoded sample.
+     */
+    private static final float[] DECODED = new float[256];
+
+    static {
+        for (int encoded = 0; encoded < 256; ++encoded) {
+            final int value = encoded ^ INVERSION;
+            final int segment = (value & 0x70) >> 4;
+            int sample = (value & 0x0F) << 4;
+            if (segment == 0) {
+                sample = sample + 8;
+            } else {
+                sample = (sample + 0x108) << (segment - 1);
+            }
+            if ((value & 0x80) == 0) {
+                sample = -sample;
+            }
+            DECODED[encoded] = Pcm.toFloat(sample);
+        }
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "alaw";
+    }
+
+    @Override
+    public int frameSamples() {
+        return 0;
+    }
+
+    @Override
+    public AudioEncoder encoder() {
+        return this;
+    }
+
+    @Override
+    public AudioDecoder decoder() {
+        return this;
+    }
+
+    @Override
+    public int codec() {
+        return ID;
+    }
+
+    @Override
+    public int encode(final float[] samples, final int count, final ByteBuffer target, final int offset) {
+        final int fitting = Math.min(count, target.capacity() - offset);
+        for (int index = 0; index < fitting; ++index) {
+            target.put(offset + index, encode(Pcm.quantize(samples[index])));
+        }
+        return fitting;
+    }
+
+    @Override
+    public int decode(final ByteBuffer source, final int offset, final int length, final int channelCount, final float[] target) {
+        final int perChannel = length / channelCount;
+        final int samples = Math.min(perChannel, target.length);
+        for (int index = 0; index < samples; ++index) {
+            float total = 0;
+            for (int channel = 0; channel < channelCount; ++channel) {
+                total += DECODED[source.get(offset + channel * perChannel + index) & 0xFF];
+            }
+            target[index] = total / channelCount;
+        }
+        return samples;
+    }
+
+    /**
+     * Encode one sample.
+     * @param sample 16-bit sample.
+     * @return Encoded byte.
+     */
+    private static byte encode(final int sample) {
+        // A-law works on 13 bits.
+        int magnitude = sample >> 3;
+        int mask = INVERSION | 0x80;
+        if (magnitude < 0) {
+            mask = INVERSION;
+            magnitude = -magnitude - 1;
+        }
+        // The position of the highest bit above the 4 lowest ones, which is between 0 and 7.
+        final int segment = Math.max(0, 27 - Integer.numberOfLeadingZeros(magnitude));
+        int shift = segment;
+        if (segment < 2) {
+            shift = 1;
+        }
+        return (byte) (((segment << 4) | ((magnitude >> shift) & 0x0F)) ^ mask);
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.levelrin.wsvoip.audio.codec;
+
+/**
+ * Codec of the samples in the audio frames.
+ * Clients choose one when they connect, and the server converts the audio only when the talker and the listener disagree.
+ * See details at doc/audio.md
+ */
+public interface AudioCodec {
+
+    /**
+     * Codec ID in the header of the audio frames.
+     * @return For example, {@link com.levelrin.wsvoip.audio.AudioFrame#CODEC_PCM_FLOAT32}.
+     */
+    int id();
+
+    /**
+     * Name that clients use to ask for the codec.
+     * @return For example, "opus".
+     */
+    String name();
+
+    /**
+     * Number of samples that the encoder takes at once.
+     * @return Zero if the encoder takes any number of samples.
+     */
+    int frameSamples();
+
+    /**
+     * Create an encoder for one stream.
+     * Encoders may keep the state between frames, so streams must not share them.
+     * @return As is.
+     */
+    AudioEncoder encoder();
+
+    /**
+     * Create a decoder for one stream.
+     * Decoders may keep the state between frames, so streams must not share them.
+     * @return As is.
+     */
+    AudioDecoder decoder();
+
+}
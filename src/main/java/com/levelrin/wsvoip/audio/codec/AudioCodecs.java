@@ -0,0 +1,92 @@
+package com.levelrin.wsvoip.audio.codec;
+
+/**
+ * Codecs that the server supports.
+ */
+public final class AudioCodecs {
+
+    /**
+     * As is.
+     */
+    public static final AudioCodec FLOAT32 = new Float32Codec();
+
+    /**
+     * As is.
+     */
+    public static final AudioCodec OPUS = new OpusCodec();
+
+    /**
+     * As is.
+     */
+    public static final AudioCodec INT16 = new Int16Codec();
+
+    /**
+     * As is.
+     */
+    public static final AudioCodec MU_LAW = new MuLawCodec();
+
+    /**
+     * As is.
+     */
+    public static final AudioCodec A_LAW = new ALawCodec();
+
+    /**
+     * As is.
+     */
+    public static final AudioCodec IMA_ADPCM = new ImaAdpcmCodec();
+
+    /**
+     * Index - Codec ID.
+     * Value - Codec.
+     */
+    private static final AudioCodec[] BY_ID = {FLOAT32, OPUS, INT16, MU_LAW, A_LAW, IMA_ADPCM};
+
+    /**
+     * Utility class.
+     */
+    private AudioCodecs() {
+    }
+
+    /**
+     * Find the codec by its ID.
+     * @param id Codec ID in the header of the audio frames.
+     * @return Null if the server does not support it.
+     */
+    public static AudioCodec byId(final int id) {
+        AudioCodec result = null;
+        if (id >= 0 && id < BY_ID.length) {
+            result = BY_ID[id];
+        }
+        return result;
+    }
+
+    /**
+     * As is.
+     * @return Codec IDs are smaller than this.
+     */
+    public static int count() {
+        return BY_ID.length;
+    }
+
+    /**
+     * Pick the codec for a session.
+     * @param preferences Comma-separated codec names that the client supports, the preferred one first.
+     * @return The first one that the server supports, or {@link AudioCodecs#FLOAT32} if there is none.
+     */
+    public static AudioCodec negotiate(final String preferences) {
+        AudioCodec result = FLOAT32;
+        if (preferences != null) {
+            boolean found = false;
+            for (final String name : preferences.split(",")) {
+                for (final AudioCodec codec : BY_ID) {
+                    if (!found && codec.name().equals(name.trim())) {
+                        result = codec;
+                        found = true;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+}
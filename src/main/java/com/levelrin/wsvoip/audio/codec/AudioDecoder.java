@@ -0,0 +1,23 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder of one audio stream.
+ * It's called for every frame, so it must not allocate anything.
+ */
+public interface AudioDecoder {
+
+    /**
+     * Decode the payload into mono samples.
+     * Multiple audio channels are averaged into one.
+     * @param source Encoded bytes. Only absolute methods are used, so the position does not change.
+     * @param offset Where the encoded bytes start in the source.
+     * @param length Number of the encoded bytes.
+     * @param channelCount Number of audio channels in the payload.
+     * @param target Where the samples between -1 and 1 go.
+     * @return Number of the decoded samples, or zero if it failed.
+     */
+    int decode(ByteBuffer source, int offset, int length, int channelCount, float[] target);
+
+}
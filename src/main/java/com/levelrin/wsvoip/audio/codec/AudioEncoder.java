@@ -0,0 +1,27 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder of one audio stream.
+ * It's called for every frame, so it must not allocate anything.
+ */
+public interface AudioEncoder {
+
+    /**
+     * As is.
+     * @return Codec ID in the header of the audio frames.
+     */
+    int codec();
+
+    /**
+     * Encode the mono samples.
+     * @param samples Samples between -1 and 1.
+     * @param count Number of samples to encode from the beginning of the array.
+     * @param target Where the encoded bytes go. Only absolute methods are used, so the position does not change.
+     * @param offset Where the encoded bytes start in the target.
+     * @return Number of the encoded bytes, or zero if it failed.
+     */
+    int encode(float[] samples, int count, ByteBuffer target, int offset);
+
+}
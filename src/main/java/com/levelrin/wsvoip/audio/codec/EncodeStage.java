@@ -0,0 +1,114 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+
+/**
+ * Encoder of one stream that collects the samples until the codec can take them.
+ * For example, Opus takes 960 samples at once while the browser produces 128 samples at a time.
+ * Only one thread may use it.
+ */
+public final class EncodeStage {
+
+    /**
+     * Maximum number of samples waiting to be encoded.
+     * Samples beyond that are dropped.
+     */
+    private static final int CAPACITY = 5760;
+
+    /**
+     * As is.
+     */
+    private final AudioEncoder encoder;
+
+    /**
+     * Number of samples that the encoder takes at once, or zero if it takes any number.
+     */
+    private final int frameSamples;
+
+    /**
+     * Samples waiting to be encoded.
+     */
+    private final float[] pending = new float[CAPACITY];
+
+    /**
+     * Number of samples in {@link EncodeStage#pending}.
+     */
+    private int size;
+
+    /**
+     * Sequence number of the next frame.
+     */
+    private int sequence;
+
+    /**
+     * Constructor.
+     * @param codec The codec of the stream.
+     */
+    public EncodeStage(final AudioCodec codec) {
+        this.encoder = codec.encoder();
+        this.frameSamples = codec.frameSamples();
+    }
+
+    /**
+     * As is.
+     * @return Codec ID of the frames this stage produces.
+     */
+    public int codec() {
+        return this.encoder.codec();
+    }
+
+    /**
+     * Add the samples to the stream.
+     * @param samples Mono samples between -1 and 1.
+     * @param count Number of samples from the beginning of the array.
+     */
+    public void push(final float[] samples, final int count) {
+        final int accepted = Math.min(count, CAPACITY - this.size);
+        System.arraycopy(samples, 0, this.pending, this.size, accepted);
+        this.size = this.size + accepted;
+    }
+
+    /**
+     * Check if the next frame can be encoded.
+     * @return True if there are enough samples.
+     */
+    public boolean ready() {
+        boolean result;
+        if (this.frameSamples == 0) {
+            result = this.size > 0;
+        } else {
+            result = this.size >= this.frameSamples;
+        }
+        return result;
+    }
+
+    /**
+     * Encode the next frame.
+     * Call it only when {@link EncodeStage#ready()} is true.
+     * @param frame Where the encoded frame goes.
+     * @param sampleRate Samples per second.
+     * @param channelId ID of the voice channel.
+     * @param sourceId ID of the talker, or zero if it's mixed by the server.
+     * @return False if the encoder failed, in which case the frame must not be sent.
+     */
+    public boolean next(final AudioFrame frame, final int sampleRate, final int channelId, final int sourceId) {
+        int count = this.frameSamples;
+        if (count == 0) {
+            count = this.size;
+        }
+        final boolean result = frame.encode(this.encoder, this.pending, count, sampleRate, this.sequence, channelId, sourceId);
+        this.sequence = this.sequence + 1;
+        this.size = this.size - count;
+        System.arraycopy(this.pending, count, this.pending, 0, this.size);
+        return result;
+    }
+
+    /**
+     * Drop the samples waiting to be encoded.
+     * For example, it's called when the stream is interrupted so that old samples are not glued to new ones.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+}
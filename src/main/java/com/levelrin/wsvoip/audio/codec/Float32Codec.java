@@ -0,0 +1,70 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import java.nio.ByteBuffer;
+
+/**
+ * Raw 32-bit floating point PCM.
+ * It has no state, so the same object is the encoder and the decoder of every stream.
+ */
+public final class Float32Codec implements AudioCodec, AudioEncoder, AudioDecoder {
+
+    /**
+     * Bytes of one sample.
+     */
+    private static final int SAMPLE_BYTES = 4;
+
+    @Override
+    public int id() {
+        return AudioFrame.CODEC_PCM_FLOAT32;
+    }
+
+    @Override
+    public String name() {
+        return "float32";
+    }
+
+    @Override
+    public int frameSamples() {
+        return 0;
+    }
+
+    @Override
+    public AudioEncoder encoder() {
+        return this;
+    }
+
+    @Override
+    public AudioDecoder decoder() {
+        return this;
+    }
+
+    @Override
+    public int codec() {
+        return AudioFrame.CODEC_PCM_FLOAT32;
+    }
+
+    @Override
+    public int encode(final float[] samples, final int count, final ByteBuffer target, final int offset) {
+        final int fitting = Math.min(count, (target.capacity() - offset) / SAMPLE_BYTES);
+        for (int index = 0; index < fitting; ++index) {
+            target.putFloat(offset + index * SAMPLE_BYTES, samples[index]);
+        }
+        return fitting * SAMPLE_BYTES;
+    }
+
+    @Override
+    public int decode(final ByteBuffer source, final int offset, final int length, final int channelCount, final float[] target) {
+        final int perChannel = length / SAMPLE_BYTES / channelCount;
+        final int samples = Math.min(perChannel, target.length);
+        for (int index = 0; index < samples; ++index) {
+            float total = 0;
+            for (int channel = 0; channel < channelCount; ++channel) {
+                total += source.getFloat(offset + (channel * perChannel + index) * SAMPLE_BYTES);
+            }
+            target[index] = total / channelCount;
+        }
+        return samples;
+    }
+
+}
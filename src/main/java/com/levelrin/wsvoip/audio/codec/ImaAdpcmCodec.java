@@ -0,0 +1,137 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * IMA ADPCM, which stores each sample in 4 bits as a step from the previous one.
+ * Each frame starts with the state of the encoder, so frames can be decoded on their own,
+ * and a lost frame does not break the following ones.
+ * The decoder has no state, so the same object is the decoder of every stream.
+ *
+ * <p>Each audio channel has one block:
+ * a 16-bit predictor, an 8-bit step index, a reserved byte,
+ * and two samples per byte with the low 4 bits first.</p>
+ */
+public final class ImaAdpcmCodec implements AudioCodec, AudioDecoder {
+
+    /**
+     * Codec ID in the header of the audio frames.
+     */
+    public static final byte ID = 5;
+
+    /**
+     * Bytes of the state at the start of each block.
+     */
+    static final int BLOCK_HEADER_BYTES = 4;
+
+    /**
+     * Index - Step index.
+     * Value - Step size.
+     */
+    static final int[] STEPS = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+        19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+        130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+        337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+        876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+        2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+        5894, 6484, 7132, 7845, 8630, 9493, 10_442, 11_487, 12_635, 13_899,
+        15_289, 16_818, 18_500, 20_350, 22_385, 24_623, 27_086, 29_794, 32_767,
+    };
+
+    /**
+     * Index - Encoded sample without the sign bit.
+     * Value - How much the step index moves.
+     */
+    private static final int[] INDEX_MOVES = {-1, -1, -1, -1, 2, 4, 6, 8};
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "adpcm";
+    }
+
+    @Override
+    public int frameSamples() {
+        return 0;
+    }
+
+    @Override
+    public AudioEncoder encoder() {
+        return new ImaAdpcmEncoder();
+    }
+
+    @Override
+    public AudioDecoder decoder() {
+        return this;
+    }
+
+    @Override
+    public int decode(final ByteBuffer source, final int offset, final int length, final int channelCount, final float[] target) {
+        final int blockBytes = length / channelCount;
+        int samples = 0;
+        if (blockBytes > BLOCK_HEADER_BYTES) {
+            samples = Math.min((blockBytes - BLOCK_HEADER_BYTES) * 2, target.length);
+            for (int channel = 0; channel < channelCount; ++channel) {
+                final int block = offset + channel * blockBytes;
+                int predictor = source.getShort(block);
+                int stepIndex = Math.min(source.get(block + 2) & 0xFF, STEPS.length - 1);
+                for (int index = 0; index < samples; ++index) {
+                    final int nibble = (source.get(block + BLOCK_HEADER_BYTES + index / 2) >> ((index & 1) * 4)) & 0x0F;
+                    predictor = predict(predictor, stepIndex, nibble);
+                    stepIndex = move(stepIndex, nibble);
+                    final float sample = Pcm.toFloat(predictor) / channelCount;
+                    if (channel == 0) {
+                        target[index] = sample;
+                    } else {
+                        target[index] += sample;
+                    }
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Apply the encoded sample to the previous one.
+     * The encoder does the same so that both sides stay in step.
+     * @param predictor The previous sample.
+     * @param stepIndex Current step index.
+     * @param nibble Encoded sample.
+     * @return The next sample.
+     */
+    static int predict(final int predictor, final int stepIndex, final int nibble) {
+        final int step = STEPS[stepIndex];
+        int delta = step >> 3;
+        if ((nibble & 4) != 0) {
+            delta = delta + step;
+        }
+        if ((nibble & 2) != 0) {
+            delta = delta + (step >> 1);
+        }
+        if ((nibble & 1) != 0) {
+            delta = delta + (step >> 2);
+        }
+        int result = predictor + delta;
+        if ((nibble & 8) != 0) {
+            result = predictor - delta;
+        }
+        return Pcm.clamp(result);
+    }
+
+    /**
+     * Adapt the step size to the encoded sample.
+     * @param stepIndex Current step index.
+     * @param nibble Encoded sample.
+     * @return The next step index.
+     */
+    static int move(final int stepIndex, final int nibble) {
+        return Math.max(0, Math.min(STEPS.length - 1, stepIndex + INDEX_MOVES[nibble & 0x07]));
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder of one IMA ADPCM stream.
+ * It carries the predictor and the step index from frame to frame so that the stream sounds continuous.
+ * See the format at {@link ImaAdpcmCodec}.
+ */
+final class ImaAdpcmEncoder implements AudioEncoder {
+
+    /**
+     * The last sample that the decoder will see.
+     */
+    private int predictor;
+
+    /**
+     * Current step index.
+     */
+    private int stepIndex;
+
+    @Override
+    public int codec() {
+        return ImaAdpcmCodec.ID;
+    }
+
+    @Override
+    public int encode(final float[] samples, final int count, final ByteBuffer target, final int offset) {
+        final int fitting = Math.min(count, (target.capacity() - offset - ImaAdpcmCodec.BLOCK_HEADER_BYTES) * 2);
+        int result = 0;
+        if (fitting > 0) {
+            target.putShort(offset, (short) this.predictor);
+            target.put(offset + 2, (byte) this.stepIndex);
+            target.put(offset + 3, (byte) 0);
+            int packed = 0;
+            for (int index = 0; index < fitting; ++index) {
+                final int nibble = this.nibble(Pcm.quantize(samples[index]));
+                this.predictor = ImaAdpcmCodec.predict(this.predictor, this.stepIndex, nibble);
+                this.stepIndex = ImaAdpcmCodec.move(this.stepIndex, nibble);
+                if ((index & 1) == 0) {
+                    packed = nibble;
+                } else {
+                    target.put(offset + ImaAdpcmCodec.BLOCK_HEADER_BYTES + index / 2, (byte) (packed | (nibble << 4)));
+                }
+            }
+            if ((fitting & 1) == 1) {
+                // The last byte has one sample, and the decoder plays the empty half as a tiny step.
+                target.put(offset + ImaAdpcmCodec.BLOCK_HEADER_BYTES + fitting / 2, (byte) packed);
+            }
+            result = ImaAdpcmCodec.BLOCK_HEADER_BYTES + (fitting + 1) / 2;
+        }
+        return result;
+    }
+
+    /**
+     * Quantize the difference from the predictor into 4 bits.
+     * @param sample 16-bit sample.
+     * @return Encoded sample.
+     */
+    private int nibble(final int sample) {
+        int difference = sample - this.predictor;
+        int result = 0;
+        if (difference < 0) {
+            result = 8;
+            difference = -difference;
+        }
+        int step = ImaAdpcmCodec.STEPS[this.stepIndex];
+        if (difference >= step) {
+            result = result | 4;
+            difference = difference - step;
+        }
+        step = step >> 1;
+        if (difference >= step) {
+            result = result | 2;
+            difference = difference - step;
+        }
+        step = step >> 1;
+        if (difference >= step) {
+            result = result | 1;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 16-bit signed integer PCM, which is half the size of float32 without audible loss.
+ * It has no state, so the same object is the encoder and the decoder of every stream.
+ */
+public final class Int16Codec implements AudioCodec, AudioEncoder, AudioDecoder {
+
+    /**
+     * Codec ID in the header of the audio frames.
+     */
+    public static final byte ID = 2;
+
+    /**
+     * Bytes of one sample.
+     */
+    private static final int SAMPLE_BYTES = 2;
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "int16";
+    }
+
+    @Override
+    public int frameSamples() {
+        return 0;
+    }
+
+    @Override
+    public AudioEncoder encoder() {
+        return this;
+    }
+
+    @Override
+    public AudioDecoder decoder() {
+        return this;
+    }
+
+    @Override
+    public int codec() {
+        return ID;
+    }
+
+    @Override
+    public int encode(final float[] samples, final int count, final ByteBuffer target, final int offset) {
+        final int fitting = Math.min(count, (target.capacity() - offset) / SAMPLE_BYTES);
+        for (int index = 0; index < fitting; ++index) {
+            target.putShort(offset + index * SAMPLE_BYTES, (short) Pcm.quantize(samples[index]));
+        }
+        return fitting * SAMPLE_BYTES;
+    }
+
+    @Override
+    public int decode(final ByteBuffer source, final int offset, final int length, final int channelCount, final float[] target) {
+        final int perChannel = length / SAMPLE_BYTES / channelCount;
+        final int samples = Math.min(perChannel, target.length);
+        for (int index = 0; index < samples; ++index) {
+            int total = 0;
+            for (int channel = 0; channel < channelCount; ++channel) {
+                total += source.getShort(offset + (channel * perChannel + index) * SAMPLE_BYTES);
+            }
+            target[index] = Pcm.toFloat(total / channelCount);
+        }
+        return samples;
+    }
+
+}
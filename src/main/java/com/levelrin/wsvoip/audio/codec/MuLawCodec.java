@@ -0,0 +1,118 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * G.711 mu-law, which stores each sample in 8 bits on a logarithmic scale.
+ * Quiet samples keep more precision than loud ones, which suits voice.
+ * It has no state, so the same object is the encoder and the decoder of every stream.
+ */
+public final class MuLawCodec implements AudioCodec, AudioEncoder, AudioDecoder {
+
+    /**
+     * Codec ID in the header of the audio frames.
+     */
+    public static final byte ID = 3;
+
+    /**
+     * Added to the magnitude so that every segment starts at a power of two.
+     */
+    private static final int BIAS = 0x84;
+
+    /**
+     * Largest magnitude before the bias is added.
+     */
+    private static final int CLIP = 32_635;
+
+    /**
+     * Index - Encoded byte.
+     * Value - Decoded sample.
+     */
+    private static final float[] DECODED = new float[256];
+
+    static {
+        for (int encoded = 0; encoded < 256; ++encoded) {
+            final int inverted = ~encoded & 0xFF;
+            final int exponent = (inverted >> 4) & 0x07;
+            final int mantissa = inverted & 0x0F;
+            int sample = (((mantissa << 3) + BIAS) << exponent) - BIAS;
+            if ((inverted & 0x80) != 0) {
+                sample = -sample;
+            }
+            DECODED[encoded] = Pcm.toFloat(sample);
+        }
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "mulaw";
+    }
+
+    @Override
+    public int frameSamples() {
+        return 0;
+    }
+
+    @Override
+    public AudioEncoder encoder() {
+        return this;
+    }
+
+    @Override
+    public AudioDecoder decoder() {
+        return this;
+    }
+
+    @Override
+    public int codec() {
+        return ID;
+    }
+
+    @Override
+    public int encode(final float[] samples, final int count, final ByteBuffer target, final int offset) {
+        final int fitting = Math.min(count, target.capacity() - offset);
+        for (int index = 0; index < fitting; ++index) {
+            target.put(offset + index, encode(Pcm.quantize(samples[index])));
+        }
+        return fitting;
+    }
+
+    @Override
+    public int decode(final ByteBuffer source, final int offset, final int length, final int channelCount, final float[] target) {
+        final int perChannel = length / channelCount;
+        final int samples = Math.min(perChannel, target.length);
+        for (int index = 0; index < samples; ++index) {
+            float total = 0;
+            for (int channel = 0; channel < channelCount; ++channel) {
+                total += DECODED[source.get(offset + channel * perChannel + index) & 0xFF];
+            }
+            target[index] = total / channelCount;
+        }
+        return samples;
+    }
+
+    /**
+     * Encode one sample.
+     * @param sample 16-bit sample.
+     * @return Encoded byte.
+     */
+    private static byte encode(final int sample) {
+        int sign = 0;
+        int magnitude = sample;
+        if (magnitude < 0) {
+            sign = 0x80;
+            magnitude = -magnitude;
+        }
+        magnitude = Math.min(magnitude, CLIP) + BIAS;
+        // The position of the highest bit above the 7 lowest ones, which is between 0 and 7.
+        final int exponent = 31 - Integer.numberOfLeadingZeros(magnitude >> 7);
+        final int mantissa = (magnitude >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.levelrin.wsvoip.audio.codec;
+
+/**
+ * Opus in mono at 48 kHz with 20 ms frames.
+ * It takes a talker from about 1.5 Mbit/s of float samples to about 32 kbit/s.
+ * It uses Concentus, which is Opus written in Java, so no native library is needed.
+ */
+public final class OpusCodec implements AudioCodec {
+
+    /**
+     * Codec ID in the header of the audio frames.
+     */
+    public static final byte ID = 1;
+
+    /**
+     * Samples per second.
+     * Opus always decodes at this rate.
+     */
+    public static final int SAMPLE_RATE = 48_000;
+
+    /**
+     * Samples in 20 ms.
+     */
+    public static final int FRAME_SAMPLES = 960;
+
+    /**
+     * Bits per second of the encoded audio.
+     */
+    static final int BITRATE = 32_000;
+
+    /**
+     * Maximum size of an Opus packet in bytes.
+     */
+    static final int MAX_PACKET_BYTES = 1275;
+
+    /**
+     * Maximum number of samples in an Opus packet, which is 120 ms.
+     */
+    static final int MAX_PACKET_SAMPLES = 5760;
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "opus";
+    }
+
+    @Override
+    public int frameSamples() {
+        return FRAME_SAMPLES;
+    }
+
+    @Override
+    public AudioEncoder encoder() {
+        return new OpusStreamEncoder(BITRATE);
+    }
+
+    @Override
+    public AudioDecoder decoder() {
+        return new OpusStreamDecoder();
+    }
+
+}
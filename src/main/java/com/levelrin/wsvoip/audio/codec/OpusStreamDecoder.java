@@ -0,0 +1,81 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+import org.concentus.OpusDecoder;
+import org.concentus.OpusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opus decoder of one stream.
+ * The Opus decoder predicts each frame from the previous ones, so it must be reused for the same stream.
+ */
+public final class OpusStreamDecoder implements AudioDecoder {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpusStreamDecoder.class);
+
+    /**
+     * Scale from the 16-bit integers to the samples between -1 and 1.
+     */
+    private static final float SCALE = 1f / 32_768f;
+
+    /**
+     * It decodes into mono no matter how many channels the packet has.
+     */
+    private final OpusDecoder decoder;
+
+    /**
+     * Packet copied out of the frame because Concentus takes an array.
+     */
+    private final byte[] packet = new byte[OpusCodec.MAX_PACKET_BYTES];
+
+    /**
+     * Decoded 16-bit integers.
+     */
+    private final short[] pcm = new short[OpusCodec.MAX_PACKET_SAMPLES];
+
+    /**
+     * Constructor.
+     */
+    public OpusStreamDecoder() {
+        try {
+            this.decoder = new OpusDecoder(OpusCodec.SAMPLE_RATE, 1);
+        } catch (final OpusException exception) {
+            throw new IllegalStateException("Failed to create the Opus decoder.", exception);
+        }
+    }
+
+    @Override
+    public int decode(final ByteBuffer source, final int offset, final int length, final int channelCount, final float[] target) {
+        int result = 0;
+        if (length <= this.packet.length) {
+            for (int index = 0; index < length; ++index) {
+                this.packet[index] = source.get(offset + index);
+            }
+            try {
+                final int samples = this.decoder.decode(
+                    this.packet,
+                    0,
+                    length,
+                    this.pcm,
+                    0,
+                    Math.min(this.pcm.length, target.length),
+                    false
+                );
+                for (int index = 0; index < samples; ++index) {
+                    target[index] = this.pcm[index] * SCALE;
+                }
+                result = samples;
+            } catch (final OpusException exception) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(String.format("Failed to decode an Opus packet of %d bytes.", length), exception);
+                }
+            }
+        }
+        return result;
+    }
+
+}
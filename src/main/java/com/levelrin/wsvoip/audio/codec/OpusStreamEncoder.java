@@ -0,0 +1,84 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import java.nio.ByteBuffer;
+import org.concentus.OpusApplication;
+import org.concentus.OpusEncoder;
+import org.concentus.OpusException;
+import org.concentus.OpusSignal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opus encoder of one stream.
+ * The Opus encoder predicts each frame from the previous ones, so it must be reused for the same stream.
+ */
+public final class OpusStreamEncoder implements AudioEncoder {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpusStreamEncoder.class);
+
+    /**
+     * As is.
+     */
+    private final OpusEncoder encoder;
+
+    /**
+     * Samples converted to 16-bit integers that Concentus takes.
+     */
+    private final short[] pcm = new short[OpusCodec.MAX_PACKET_SAMPLES];
+
+    /**
+     * Encoded packet before it's copied into the frame.
+     */
+    private final byte[] packet = new byte[OpusCodec.MAX_PACKET_BYTES];
+
+    /**
+     * Constructor.
+     * @param bitrate Bits per second.
+     */
+    public OpusStreamEncoder(final int bitrate) {
+        try {
+            this.encoder = new OpusEncoder(OpusCodec.SAMPLE_RATE, 1, OpusApplication.OPUS_APPLICATION_VOIP);
+        } catch (final OpusException exception) {
+            throw new IllegalStateException("Failed to create the Opus encoder.", exception);
+        }
+        this.encoder.setBitrate(bitrate);
+        this.encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
+    }
+
+    @Override
+    public int codec() {
+        return OpusCodec.ID;
+    }
+
+    @Override
+    public int encode(final float[] samples, final int count, final ByteBuffer target, final int offset) {
+        int result = 0;
+        final int frameSamples = Math.min(count, this.pcm.length);
+        for (int index = 0; index < frameSamples; ++index) {
+            this.pcm[index] = (short) Math.round(Math.max(-1f, Math.min(1f, samples[index])) * Short.MAX_VALUE);
+        }
+        try {
+            final int length = this.encoder.encode(
+                this.pcm,
+                0,
+                frameSamples,
+                this.packet,
+                0,
+                Math.min(this.packet.length, target.capacity() - offset)
+            );
+            for (int index = 0; index < length; ++index) {
+                target.put(offset + index, this.packet[index]);
+            }
+            result = length;
+        } catch (final OpusException exception) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(String.format("Failed to encode %d samples into Opus.", frameSamples), exception);
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.levelrin.wsvoip.audio.codec;
+
+/**
+ * Conversions between float samples and 16-bit integer samples.
+ */
+final class Pcm {
+
+    /**
+     * Largest 16-bit sample.
+     */
+    static final int MAX = 32_767;
+
+    /**
+     * Smallest 16-bit sample.
+     */
+    static final int MIN = -32_768;
+
+    /**
+     * Utility class.
+     */
+    private Pcm() {
+    }
+
+    /**
+     * Convert the sample into 16 bits.
+     * Samples out of range are clipped instead of wrapping around.
+     * @param sample Between -1 and 1.
+     * @return Between {@link Pcm#MIN} and {@link Pcm#MAX}.
+     */
+    static int quantize(final float sample) {
+        return clamp(Math.round(sample * MAX));
+    }
+
+    /**
+     * Convert the 16-bit sample into a float.
+     * @param sample Between {@link Pcm#MIN} and {@link Pcm#MAX}.
+     * @return Between -1 and 1.
+     */
+    static float toFloat(final int sample) {
+        return sample / 32_768f;
+    }
+
+    /**
+     * Keep the value in 16 bits.
+     * @param value As is.
+     * @return Between {@link Pcm#MIN} and {@link Pcm#MAX}.
+     */
+    static int clamp(final int value) {
+        return Math.max(MIN, Math.min(MAX, value));
+    }
+
+}
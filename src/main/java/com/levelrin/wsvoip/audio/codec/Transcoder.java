@@ -0,0 +1,81 @@
+package com.levelrin.wsvoip.audio.codec;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+
+/**
+ * Codec state of a talker.
+ * It decodes the talker's frames and encodes them again for the listeners that use another codec.
+ * Each codec is encoded once per frame no matter how many listeners use it.
+ * The decoders and the encoders are created when they are needed for the first time and reused afterward.
+ * Only the thread of the talker's channel may use it.
+ */
+public final class Transcoder {
+
+    /**
+     * Index - Codec ID.
+     * Value - Decoder of the talker's stream in that codec.
+     */
+    private final AudioDecoder[] decoders = new AudioDecoder[AudioCodecs.count()];
+
+    /**
+     * Index - Codec ID.
+     * Value - The talker's stream encoded in that codec.
+     */
+    private final EncodeStage[] stages = new EncodeStage[AudioCodecs.count()];
+
+    /**
+     * Samples of the last decoded frame.
+     */
+    private final float[] pcm = new float[OpusCodec.MAX_PACKET_SAMPLES];
+
+    /**
+     * Decode the frame into {@link Transcoder#pcm()}.
+     * @param frame From the talker.
+     * @return Number of the decoded samples, or zero if the codec is not supported.
+     */
+    public int decode(final AudioFrame frame) {
+        int result = 0;
+        final int codec = frame.codec();
+        final AudioCodec supported = AudioCodecs.byId(codec);
+        if (supported != null) {
+            if (this.decoders[codec] == null) {
+                this.decoders[codec] = supported.decoder();
+            }
+            result = frame.decode(this.decoders[codec], this.pcm);
+        }
+        return result;
+    }
+
+    /**
+     * Mono samples of the last decoded frame.
+     * @return Do not modify it.
+     */
+    public float[] pcm() {
+        return this.pcm;
+    }
+
+    /**
+     * Drop the samples that the streams have not encoded yet.
+     * It's called when the talker stops so that the next talk does not start with old samples.
+     */
+    public void clear() {
+        for (final EncodeStage stage : this.stages) {
+            if (stage != null) {
+                stage.clear();
+            }
+        }
+    }
+
+    /**
+     * The talker's stream in the codec.
+     * @param codec Codec ID that the server supports.
+     * @return As is.
+     */
+    public EncodeStage stage(final int codec) {
+        if (this.stages[codec] == null) {
+            this.stages[codec] = new EncodeStage(AudioCodecs.byId(codec));
+        }
+        return this.stages[codec];
+    }
+
+}
@@ -0,0 +1,556 @@
+package com.levelrin.wsvoip.cluster;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.levelrin.wsvoip.Connection;
+import com.levelrin.wsvoip.VoiceChannels;
+import com.levelrin.wsvoip.WsConnections;
+import com.levelrin.wsvoip.audio.AudioFanOut;
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This node's part of the cluster.
+ * Every node has the whole state of the channels and the online users,
+ * so '/voiceChannels' and '/onlineUsers' answer without asking the other nodes.
+ * Each channel belongs to one node on a {@link HashRing} of the nodes that are up.
+ * The talkers' nodes forward the audio frames to that node, which relays them to every listener,
+ * and the frames for the listeners of the other nodes go back over the links.
+ * See details at doc/cluster.md
+ */
+public final class Cluster {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(Cluster.class);
+
+    /**
+     * Links to the other nodes.
+     */
+    private final PeerLinks links;
+
+    /**
+     * Online users of all nodes.
+     */
+    private final WsConnections wsConnections;
+
+    /**
+     * Channels of all nodes.
+     */
+    private final VoiceChannels voiceChannels;
+
+    /**
+     * Relays the frames of the channels that this node owns.
+     */
+    private final AudioFanOut fanOut;
+
+    /**
+     * To read the frames from the other nodes without allocation.
+     */
+    private final AudioFramePool framePool;
+
+    /**
+     * Key - Address of a node whose link to this node is open, or this node.
+     * Value - WebSocket session ID of the link, or the address for this node.
+     * It's modified under {@link Cluster#lock} together with {@link Cluster#ring}.
+     */
+    private final Map<String, String> up = new HashMap<>();
+
+    /**
+     * Guards {@link Cluster#up}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Owners of the channels.
+     * It's replaced whenever a node comes up or goes down, and the audio path reads it without the lock.
+     */
+    private volatile HashRing ring;
+
+    /**
+     * Key - Address of another node.
+     * Value - Users connected to the node by their usernames.
+     */
+    private final Map<String, Map<String, RemoteConnection>> remotes = new ConcurrentHashMap<>();
+
+    /**
+     * Key - Username of a talker of this node.
+     * Value - Envelope of the talker's frames to the owners of the channels.
+     */
+    private final Map<String, byte[]> talkerEnvelopes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param links Links to the other nodes.
+     * @param wsConnections Online users of all nodes.
+     * @param voiceChannels Channels of all nodes.
+     * @param fanOut Relays the frames of the channels that this node owns.
+     * @param framePool To read the frames from the other nodes without allocation.
+     */
+    public Cluster(final PeerLinks links, final WsConnections wsConnections, final VoiceChannels voiceChannels, final AudioFanOut fanOut, final AudioFramePool framePool) {
+        this.links = links;
+        this.wsConnections = wsConnections;
+        this.voiceChannels = voiceChannels;
+        this.fanOut = fanOut;
+        this.framePool = framePool;
+        this.up.put(links.self(), links.self());
+        this.ring = new HashRing(this.up.keySet());
+    }
+
+    /**
+     * The other node has opened its link to this node.
+     * Its channels come to this node from now on.
+     * @param node Address of the other node.
+     * @param sessionId WebSocket session ID of the link.
+     */
+    public void up(final String node, final String sessionId) {
+        this.lock.lock();
+        try {
+            this.up.put(node, sessionId);
+            this.ring = new HashRing(this.up.keySet());
+        } finally {
+            this.lock.unlock();
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info(String.format("The node %s is up.", node));
+        }
+    }
+
+    /**
+     * The other node's link to this node is closed.
+     * Its channels move to the remaining nodes, and its users are taken as disconnected.
+     * Nothing happens if the other node has opened another link meanwhile.
+     * @param node Address of the other node.
+     * @param sessionId WebSocket session ID of the link.
+     */
+    public void down(final String node, final String sessionId) {
+        boolean removed = false;
+        this.lock.lock();
+        try {
+            if (this.up.remove(node, sessionId)) {
+                removed = true;
+                this.ring = new HashRing(this.up.keySet());
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (removed) {
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info(String.format("The node %s is down.", node));
+            }
+            final Map<String, RemoteConnection> users = this.remotes.remove(node);
+            if (users != null) {
+                for (final Map.Entry<String, RemoteConnection> entry : users.entrySet()) {
+                    this.gone(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the state of this node to the other node.
+     * It's called whenever the link to the other node opens,
+     * because the other node may have missed the events while the link was down.
+     * @param node Address of the other node.
+     */
+    public void opened(final String node) {
+        final JsonArray users = new JsonArray();
+        for (final JsonElement username : this.wsConnections.onlineUsers().getAsJsonArray("users")) {
+            final String name = username.getAsString();
+            if (this.wsConnections.local(name)) {
+                final JsonObject user = new JsonObject();
+                user.addProperty("username", name);
+                user.addProperty("codec", this.wsConnections.codec(name));
+                users.add(user);
+            }
+        }
+        final JsonObject sync = new JsonObject();
+        sync.addProperty("about", "cluster sync");
+        sync.add("users", users);
+        sync.add("channels", this.voiceChannels.json().getAsJsonArray("channels"));
+        this.links.send(node, sync.toString());
+    }
+
+    /**
+     * Tell the other nodes that a user has connected to this node.
+     * It must be called before the user is added to {@link WsConnections},
+     * so that the other nodes know the user before they hear the user's events.
+     * @param username As is.
+     * @param codec Codec ID of the audio frames that the user receives.
+     */
+    public void connected(final String username, final int codec) {
+        for (final Map<String, RemoteConnection> users : this.remotes.values()) {
+            users.remove(username);
+        }
+        final JsonObject message = new JsonObject();
+        message.addProperty("about", "cluster user is connected");
+        message.addProperty("username", username);
+        message.addProperty("codec", codec);
+        this.links.replicate(message);
+    }
+
+    /**
+     * Tell the other nodes that a user has disconnected from this node.
+     * @param username As is.
+     */
+    public void disconnected(final String username) {
+        this.talkerEnvelopes.remove(username);
+        final JsonObject message = new JsonObject();
+        message.addProperty("about", "cluster user is disconnected");
+        message.addProperty("username", username);
+        this.links.replicate(message);
+    }
+
+    /**
+     * Deliver the binary audio frame from a talker of this node.
+     * The node that owns the talker's channel relays it.
+     * It does not allocate after the talker's first frame.
+     * @param sessionId WebSocket session ID of the talker.
+     * @param frame From the talker.
+     */
+    public void relay(final String sessionId, final AudioFrame frame) {
+        final String username = this.wsConnections.username(sessionId);
+        String owner = this.links.self();
+        if (username != null) {
+            final String channelName = this.voiceChannels.channel(username);
+            if (channelName != null) {
+                owner = this.ring.owner(channelName);
+            }
+        }
+        if (owner.equals(this.links.self()) || !this.links.open(owner)) {
+            this.fanOut.relay(sessionId, frame);
+        } else {
+            this.links.send(owner, this.talkerEnvelope(username), frame.rewind());
+        }
+    }
+
+    /**
+     * Handle the text message from the other node.
+     * @param node Address of the other node.
+     * @param message JSON with the 'about' attribute.
+     */
+    public void receive(final String node, final String message) {
+        JsonObject event = null;
+        try {
+            event = JsonParser.parseString(message).getAsJsonObject();
+        } catch (final JsonParseException | IllegalStateException exception) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(String.format("We got an invalid message from the node %s: %s", node, message));
+            }
+        }
+        if (event != null && event.has("about")) {
+            final String about = event.get("about").getAsString();
+            if ("cluster user is connected".equals(about)) {
+                this.attach(node, event.get("username").getAsString(), event.get("codec").getAsInt());
+            } else if ("cluster user is disconnected".equals(about)) {
+                final String username = event.get("username").getAsString();
+                final Map<String, RemoteConnection> users = this.remotes.get(node);
+                if (users != null) {
+                    final RemoteConnection connection = users.remove(username);
+                    if (connection != null && this.wsConnections.detach(username, connection)) {
+                        this.fanOut.forget(username);
+                    }
+                }
+            } else if ("cluster sync".equals(about)) {
+                this.sync(node, event);
+            } else {
+                this.replay(node, about, event);
+            }
+        }
+    }
+
+    /**
+     * Handle the binary message from the other node.
+     * @param node Address of the other node.
+     * @param data It has the message.
+     * @param offset Where the message starts in the data.
+     * @param length Number of bytes of the message.
+     */
+    public void receive(final String node, final byte[] data, final int offset, final int length) {
+        final int end = offset + length;
+        int body = end + 1;
+        if (length >= PeerLinks.ENVELOPE_BYTES) {
+            body = offset + PeerLinks.ENVELOPE_BYTES + (data[offset + 1] & 0xff) + ((data[offset + 2] & 0xff) << 8);
+        }
+        if (body <= end) {
+            final byte type = data[offset];
+            final String username = new String(
+                data,
+                offset + PeerLinks.ENVELOPE_BYTES,
+                body - offset - PeerLinks.ENVELOPE_BYTES,
+                StandardCharsets.UTF_8
+            );
+            if (type == PeerLinks.TALKER_FRAME) {
+                this.relay(node, username, data, body, end - body);
+            } else if (type == PeerLinks.LISTENER_FRAME) {
+                final Connection connection = this.listener(username);
+                if (connection != null) {
+                    connection.send(ByteBuffer.wrap(data, body, end - body));
+                }
+            } else if (type == PeerLinks.LISTENER_TEXT) {
+                final Connection connection = this.listener(username);
+                if (connection != null) {
+                    connection.send(new String(data, body, end - body, StandardCharsets.UTF_8));
+                }
+            } else {
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn(String.format("We got a binary message of unknown type %d from the node %s.", type, node));
+                }
+            }
+        } else {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(String.format("We got a broken binary message from the node %s. Length: %d", node, length));
+            }
+        }
+    }
+
+    /**
+     * Relay the frame of a talker of the other node in a channel that this node owns.
+     * @param node Address of the other node.
+     * @param username Talker.
+     * @param data It has the frame.
+     * @param offset Where the frame starts in the data.
+     * @param length Number of bytes of the frame.
+     */
+    private void relay(final String node, final String username, final byte[] data, final int offset, final int length) {
+        final Map<String, RemoteConnection> users = this.remotes.get(node);
+        RemoteConnection talker = null;
+        if (users != null) {
+            talker = users.get(username);
+        }
+        if (talker != null) {
+            final AudioFrame frame = this.framePool.acquire();
+            try {
+                if (frame.load(data, offset, length) && frame.valid()) {
+                    this.fanOut.relay(talker.id(), frame);
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Find the connection of a listener of this node.
+     * @param username Listener.
+     * @return Null if the listener is not connected to this node anymore.
+     */
+    private Connection listener(final String username) {
+        Connection result = null;
+        if (this.wsConnections.local(username)) {
+            final Connection connection = this.wsConnections.connection(username);
+            if (connection != null && connection.open()) {
+                result = connection;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the user of the other node.
+     * If the user was connected to this node, the old device is told as if the user connected here.
+     * @param node Address of the other node.
+     * @param username As is.
+     * @param codec Codec ID of the audio frames that the user receives.
+     * @return True if the user was offline.
+     */
+    private boolean attach(final String node, final String username, final int codec) {
+        final boolean wasLocal = this.wsConnections.local(username);
+        final RemoteConnection connection = new RemoteConnection(node, username, this.links);
+        for (final Map<String, RemoteConnection> users : this.remotes.values()) {
+            users.remove(username);
+        }
+        this.remotes.computeIfAbsent(node, key -> new ConcurrentHashMap<>()).put(username, connection);
+        final Connection previous = this.wsConnections.attach(username, connection, codec);
+        if (wasLocal && previous != null) {
+            this.talkerEnvelopes.remove(username);
+            final JsonObject message = new JsonObject();
+            message.addProperty("about", "another device is used");
+            previous.send(message.toString());
+        }
+        return previous == null;
+    }
+
+    /**
+     * Take the user of the other node as disconnected, and tell the users of this node.
+     * @param username As is.
+     * @param connection The user's connection on this node.
+     */
+    private void gone(final String username, final RemoteConnection connection) {
+        final String channelName = this.voiceChannels.channel(username);
+        if (this.wsConnections.detach(username, connection)) {
+            if (channelName != null && this.voiceChannels.replicateLeave(username, channelName)) {
+                final JsonObject left = new JsonObject();
+                left.addProperty("about", "user left the voice channel");
+                left.addProperty("username", username);
+                left.addProperty("channelName", channelName);
+                this.wsConnections.events().publish(left);
+            }
+            final JsonObject disconnected = new JsonObject();
+            disconnected.addProperty("about", "user is disconnected from the websocket server");
+            disconnected.addProperty("username", username);
+            this.wsConnections.events().publish(disconnected);
+            this.fanOut.forget(username);
+        }
+    }
+
+    /**
+     * Take in the state of the other node.
+     * The users of this node are told about whatever this node has missed.
+     * @param node Address of the other node.
+     * @param sync It has the users connected to the other node and all channels that the other node knows.
+     */
+    private void sync(final String node, final JsonObject sync) {
+        final Set<String> current = new HashSet<>();
+        for (final JsonElement element : sync.getAsJsonArray("users")) {
+            final JsonObject user = element.getAsJsonObject();
+            final String username = user.get("username").getAsString();
+            current.add(username);
+            final Map<String, RemoteConnection> users = this.remotes.get(node);
+            if ((users == null || !users.containsKey(username)) && this.attach(node, username, user.get("codec").getAsInt())) {
+                final JsonObject connected = new JsonObject();
+                connected.addProperty("about", "user is connected to the websocket server");
+                connected.addProperty("username", username);
+                this.wsConnections.events().publish(connected);
+            }
+        }
+        final Map<String, RemoteConnection> users = this.remotes.get(node);
+        if (users != null) {
+            // The other node has restarted since it told us about these users.
+            for (final Map.Entry<String, RemoteConnection> entry : users.entrySet()) {
+                if (!current.contains(entry.getKey()) && users.remove(entry.getKey(), entry.getValue())) {
+                    this.gone(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        for (final JsonElement element : sync.getAsJsonArray("channels")) {
+            final JsonObject channel = element.getAsJsonObject();
+            final String channelName = channel.get("name").getAsString();
+            final int channelId = channel.get("id").getAsInt();
+            final boolean mixing = channel.get("mixing").getAsBoolean();
+            if (this.create(channelName, channelId, mixing)) {
+                final JsonObject created = new JsonObject();
+                created.addProperty("about", "voice channel is created");
+                created.addProperty("name", channelName);
+                created.addProperty("id", channelId);
+                created.addProperty("mixing", mixing);
+                this.wsConnections.events().publish(created);
+            }
+            for (final JsonElement member : channel.getAsJsonArray("users")) {
+                final String username = member.getAsString();
+                // The other node knows best where its own users are.
+                if (users != null
+                    && users.containsKey(username)
+                    && !channelName.equals(this.voiceChannels.channel(username))
+                    && this.voiceChannels.replicateJoin(username, channelName)) {
+                    final JsonObject joined = new JsonObject();
+                    joined.addProperty("about", "user joined the voice channel");
+                    joined.addProperty("username", username);
+                    joined.addProperty("channelName", channelName);
+                    this.wsConnections.events().publish(joined);
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the event that the other node has broadcast to its users, and broadcast it to the users of this node.
+     * Events that change nothing here, such as a channel that exists already, are not broadcast again.
+     * @param node Address of the other node.
+     * @param about What the event is about.
+     * @param event As is.
+     */
+    private void replay(final String node, final String about, final JsonObject event) {
+        boolean applied = true;
+        if ("voice channel is created".equals(about)) {
+            applied = this.create(
+                event.get("name").getAsString(),
+                event.get("id").getAsInt(),
+                event.get("mixing").getAsBoolean()
+            );
+        } else if ("voice channel is removed".equals(about)) {
+            applied = this.voiceChannels.replicateRemove(event.get("name").getAsString());
+        } else if ("user joined the voice channel".equals(about)) {
+            applied = this.voiceChannels.replicateJoin(
+                event.get("username").getAsString(),
+                event.get("channelName").getAsString()
+            );
+        } else if ("user left the voice channel".equals(about)) {
+            this.voiceChannels.replicateLeave(
+                event.get("username").getAsString(),
+                event.get("channelName").getAsString()
+            );
+        } else if ("user switched the voice channel".equals(about)) {
+            applied = this.voiceChannels.replicateSwitch(
+                event.get("username").getAsString(),
+                event.get("oldChannelName").getAsString(),
+                event.get("newChannelName").getAsString()
+            );
+        } else {
+            // Presence and speaker events change nothing here because the cluster messages do it.
+        }
+        if (applied) {
+            this.wsConnections.events().publish(event);
+        } else {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("The event from the node %s changed nothing here: %s", node, event));
+            }
+        }
+    }
+
+    /**
+     * Create the channel that the other node has.
+     * If both nodes created a channel with the same name at the same time, the channel that is here stays.
+     * @param name Channel name.
+     * @param id Channel ID from the other node.
+     * @param mixing True if the server mixes the audio of the channel.
+     * @return True if the channel is created.
+     */
+    private boolean create(final String name, final int id, final boolean mixing) {
+        final boolean result = this.voiceChannels.replicateCreate(name, id, mixing, this.wsConnections);
+        if (!result && this.voiceChannels.channelId(name) != id) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(
+                    String.format(
+                        "The channel %s was created here and on another node at the same time. We keep the ID %d over %d.",
+                        name,
+                        this.voiceChannels.channelId(name),
+                        id
+                    )
+                );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the envelope of the talker's frames to the owners of the channels.
+     * @param username Talker.
+     * @return As is.
+     */
+    private byte[] talkerEnvelope(final String username) {
+        byte[] result = this.talkerEnvelopes.get(username);
+        if (result == null) {
+            result = this.talkerEnvelopes.computeIfAbsent(
+                username,
+                key -> PeerLinks.envelope(PeerLinks.TALKER_FRAME, key)
+            );
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.levelrin.wsvoip.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Consistent hashing of the channel names to the nodes.
+ * Each node has many points on the ring, and a channel belongs to the node of the first point after its hash.
+ * When a node leaves, only its channels move, and they spread over the remaining nodes.
+ * It's immutable, so a new ring is made when the nodes change.
+ */
+public final class HashRing {
+
+    /**
+     * Number of points per node.
+     * More points spread the channels more evenly.
+     */
+    private static final int POINTS_PER_NODE = 128;
+
+    /**
+     * Offset basis of 64-bit FNV-1a.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * Prime of 64-bit FNV-1a.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Hashes of the points in ascending order.
+     */
+    private final long[] points;
+
+    /**
+     * Node of each point in {@link HashRing#points}.
+     */
+    private final String[] owners;
+
+    /**
+     * Constructor.
+     * @param nodes It must not be empty.
+     */
+    public HashRing(final Collection<String> nodes) {
+        final String[] sorted = nodes.toArray(new String[0]);
+        Arrays.sort(sorted);
+        final long[] keyed = new long[sorted.length * POINTS_PER_NODE];
+        final String[] byKey = new String[keyed.length];
+        int count = 0;
+        for (final String node : sorted) {
+            for (int point = 0; point < POINTS_PER_NODE; ++point) {
+                keyed[count] = hash(node + '#' + point);
+                byKey[count] = node;
+                count = count + 1;
+            }
+        }
+        final Integer[] order = new Integer[count];
+        for (int index = 0; index < count; ++index) {
+            order[index] = index;
+        }
+        Arrays.sort(order, (left, right) -> Long.compare(keyed[left], keyed[right]));
+        this.points = new long[count];
+        this.owners = new String[count];
+        for (int index = 0; index < count; ++index) {
+            this.points[index] = keyed[order[index]];
+            this.owners[index] = byKey[order[index]];
+        }
+    }
+
+    /**
+     * Find the node that the key belongs to.
+     * It does not allocate, so it can run on every audio frame.
+     * @param key For example, a channel name.
+     * @return As is.
+     */
+    public String owner(final String key) {
+        final long hash = hash(key);
+        int index = Arrays.binarySearch(this.points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index == this.points.length) {
+            index = 0;
+        }
+        return this.owners[index];
+    }
+
+    /**
+     * 64-bit FNV-1a of the characters followed by the finalizer of MurmurHash3.
+     * The finalizer spreads the similar names, such as 'room1' and 'room2', over the ring.
+     * @param text As is.
+     * @return As is.
+     */
+    static long hash(final String text) {
+        long result = FNV_OFFSET;
+        for (int index = 0; index < text.length(); ++index) {
+            result = (result ^ text.charAt(index)) * FNV_PRIME;
+        }
+        result = (result ^ (result >>> 33)) * 0xff51afd7ed558ccdL;
+        result = (result ^ (result >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return result ^ (result >>> 33);
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.levelrin.wsvoip.cluster;
+
+import com.levelrin.wsvoip.Connection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WebSocket from this node to another node's '/cluster' endpoint.
+ * This node only sends on it; the other node sends on its own link to this node.
+ * It reconnects until it succeeds, and it pings so that the other node notices when this node hangs.
+ * It's the socket of an {@link com.levelrin.wsvoip.OutboundQueue}, which calls the sends from one writer at a time.
+ */
+final class PeerLink implements Connection, WebSocket.Listener {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PeerLink.class);
+
+    /**
+     * How long we wait before reconnecting.
+     */
+    private static final long RETRY_MILLIS = 1000;
+
+    /**
+     * Address of the other node, e.g. localhost:8081.
+     */
+    private final String node;
+
+    /**
+     * The other node's '/cluster' endpoint with this node's address in the query string.
+     */
+    private final URI uri;
+
+    /**
+     * Secret of the cluster, which the other node checks before it accepts the link.
+     */
+    private final String secret;
+
+    /**
+     * Opens the WebSocket.
+     */
+    private final HttpClient client;
+
+    /**
+     * To reconnect and ping.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Called with the other node's address whenever the link opens.
+     */
+    private final Consumer<String> opened;
+
+    /**
+     * True while a connection attempt is pending.
+     */
+    private final AtomicBoolean connecting = new AtomicBoolean();
+
+    /**
+     * Null while the link is down.
+     */
+    private final AtomicReference<WebSocket> socket = new AtomicReference<>();
+
+    /**
+     * Constructor.
+     * @param self This node's address.
+     * @param node Address of the other node.
+     * @param secret Secret of the cluster, which the other node checks before it accepts the link.
+     * @param client Opens the WebSocket.
+     * @param scheduler To reconnect and ping.
+     * @param opened Called with the other node's address whenever the link opens.
+     */
+    PeerLink(final String self, final String node, final String secret, final HttpClient client, final ScheduledExecutorService scheduler, final Consumer<String> opened) {
+        this.node = node;
+        this.uri = URI.create(String.format("ws://%s/cluster?node=%s", node, self));
+        this.secret = secret;
+        this.client = client;
+        this.scheduler = scheduler;
+        this.opened = opened;
+    }
+
+    /**
+     * Open the link unless it's open or opening.
+     */
+    void connect() {
+        if (this.socket.get() == null && this.connecting.compareAndSet(false, true)) {
+            this.client.newWebSocketBuilder()
+                .connectTimeout(Duration.ofMillis(RETRY_MILLIS * 3))
+                .header(PeerLinks.SECRET_HEADER, this.secret)
+                .buildAsync(this.uri, this)
+                .whenComplete((created, error) -> {
+                    this.connecting.set(false);
+                    if (error == null) {
+                        this.socket.set(created);
+                        if (LOGGER.isInfoEnabled()) {
+                            LOGGER.info(String.format("The link to %s is open.", this.node));
+                        }
+                        this.opened.accept(this.node);
+                    } else {
+                        this.retry();
+                    }
+                });
+        }
+    }
+
+    /**
+     * Ping the other node if the link is open.
+     */
+    void ping() {
+        final WebSocket current = this.socket.get();
+        if (current != null) {
+            try {
+                current.sendPing(ByteBuffer.allocate(0));
+            } catch (final IllegalStateException exception) {
+                // The previous ping has not gone out yet, so the link is busy anyway.
+            }
+        }
+    }
+
+    @Override
+    public String id() {
+        return this.node;
+    }
+
+    @Override
+    public boolean open() {
+        final WebSocket current = this.socket.get();
+        return current != null && !current.isOutputClosed();
+    }
+
+    @Override
+    public void send(final String message) {
+        this.socket.get().sendText(message, true).join();
+    }
+
+    @Override
+    public void send(final ByteBuffer message) {
+        this.socket.get().sendBinary(message, true).join();
+    }
+
+    @Override
+    public void close(final String reason) {
+        final WebSocket current = this.socket.get();
+        if (current != null) {
+            // The other node gets the state again when the link reopens.
+            current.abort();
+            this.down(current);
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onClose(final WebSocket webSocket, final int statusCode, final String reason) {
+        this.down(webSocket);
+        return null;
+    }
+
+    @Override
+    public void onError(final WebSocket webSocket, final Throwable error) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("The link to %s failed: %s", this.node, error));
+        }
+        this.down(webSocket);
+    }
+
+    /**
+     * Forget the socket and reconnect.
+     * @param webSocket The socket that is down.
+     */
+    private void down(final WebSocket webSocket) {
+        if (this.socket.compareAndSet(webSocket, null)) {
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info(String.format("The link to %s is down.", this.node));
+            }
+            this.retry();
+        }
+    }
+
+    /**
+     * Reconnect later.
+     */
+    private void retry() {
+        this.scheduler.schedule(this::connect, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,284 @@
+package com.levelrin.wsvoip.cluster;
+
+import com.google.gson.JsonObject;
+import com.levelrin.wsvoip.OutboundQueue;
+import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Links from this node to the other nodes of the cluster.
+ * Each link has its own {@link OutboundQueue}, so a slow node never blocks the callers.
+ * Text messages are JSON events in order, and binary messages are audio in an envelope.
+ * See details at doc/cluster.md
+ */
+public final class PeerLinks {
+
+    /**
+     * Header of the request that opens a link, which has the secret of the cluster.
+     */
+    public static final String SECRET_HEADER = "X-Wsvoip-Cluster-Secret";
+
+    /**
+     * Envelope of a frame from a talker to the node that owns the channel.
+     * Type, length of the talker's username in 2 bytes, the username in UTF-8, then the audio frame.
+     */
+    static final byte TALKER_FRAME = 1;
+
+    /**
+     * Envelope of a frame from the node that owns the channel to a listener's node.
+     * Type, length of the listener's username in 2 bytes, the username in UTF-8, then the audio frame.
+     */
+    static final byte LISTENER_FRAME = 2;
+
+    /**
+     * Envelope of a text message to a listener's node, such as a JSON audio message.
+     * Type, length of the listener's username in 2 bytes, the username in UTF-8, then the text in UTF-8.
+     */
+    static final byte LISTENER_TEXT = 3;
+
+    /**
+     * Bytes before the username in an envelope.
+     */
+    static final int ENVELOPE_BYTES = 3;
+
+    /**
+     * Maximum number of audio frames waiting for a link.
+     * The oldest one is dropped when the queue is full, as for a client.
+     */
+    private static final int AUDIO_FRAMES = 1024;
+
+    /**
+     * Maximum number of events waiting for a link.
+     * The link is reopened when the queue is full, and the other node gets the state again.
+     */
+    private static final int CONTROL_MESSAGES = 65_536;
+
+    /**
+     * How often the links ping.
+     * The other node closes a link if it hears nothing for a few of these.
+     */
+    private static final long PING_MILLIS = 5000;
+
+    /**
+     * This node's address, e.g. localhost:8080.
+     */
+    private final String self;
+
+    /**
+     * Addresses of all nodes, including this one.
+     */
+    private final List<String> nodes;
+
+    /**
+     * Secret that the nodes show each other when they open their links.
+     */
+    private final String secret;
+
+    /**
+     * Runs the writers of the links.
+     */
+    private final Executor writers;
+
+    /**
+     * To reconnect and ping.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Key - Address of another node.
+     * Value - Queue whose socket is the link to the node.
+     * It's empty until {@link PeerLinks#connect(Consumer)}.
+     */
+    private final Map<String, OutboundQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Key - Address of another node.
+     * Value - The link to the node.
+     */
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     * @param self This node's address.
+     * @param nodes Addresses of all nodes, including this one. Empty if the server runs alone.
+     * @param secret Secret that the nodes show each other when they open their links.
+     *               It's required if there is another node.
+     * @param writers Runs the writers of the links.
+     * @param scheduler To reconnect and ping.
+     */
+    public PeerLinks(final String self, final List<String> nodes, final String secret, final Executor writers, final ScheduledExecutorService scheduler) {
+        if (!nodes.isEmpty() && !nodes.contains(self)) {
+            throw new IllegalArgumentException(
+                String.format("The cluster nodes %s must include this node %s.", nodes, self)
+            );
+        }
+        if (nodes.size() > 1 && secret.isEmpty()) {
+            throw new IllegalArgumentException(
+                "The property 'wsvoip.cluster.secret' must be set when the cluster has other nodes."
+            );
+        }
+        this.self = self;
+        this.secret = secret;
+        if (nodes.isEmpty()) {
+            this.nodes = Collections.singletonList(self);
+        } else {
+            this.nodes = List.copyOf(nodes);
+        }
+        this.writers = writers;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Open the links to the other nodes and keep them open.
+     * @param opened Called with the other node's address whenever its link opens.
+     *               It's the moment to send the state, which the other node may have missed.
+     */
+    public void connect(final Consumer<String> opened) {
+        final HttpClient client = HttpClient.newHttpClient();
+        final Consumer<String> reopened = node -> {
+            // The state that goes next covers whatever waited while the link was down.
+            this.queues.get(node).discard();
+            opened.accept(node);
+        };
+        for (final String node : this.nodes) {
+            if (!node.equals(this.self)) {
+                final PeerLink link = new PeerLink(this.self, node, this.secret, client, this.scheduler, reopened);
+                this.links.put(node, link);
+                this.queues.put(node, new OutboundQueue(link, this.writers, AUDIO_FRAMES, CONTROL_MESSAGES));
+                link.connect();
+            }
+        }
+        if (!this.links.isEmpty()) {
+            this.scheduler.scheduleAtFixedRate(this::ping, PING_MILLIS, PING_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Check the secret that another node showed when it opened its link.
+     * It takes the same time wherever the secrets differ, so the secret cannot be guessed byte by byte.
+     * @param presented Value of {@link PeerLinks#SECRET_HEADER}, or null if the request did not have it.
+     * @return True if it's the secret of the cluster.
+     */
+    public boolean authorized(final String presented) {
+        boolean result = false;
+        if (presented != null && !this.secret.isEmpty()) {
+            // The digests have the same length, so even the length of the secret does not leak.
+            result = MessageDigest.isEqual(digest(this.secret), digest(presented));
+        }
+        return result;
+    }
+
+    /**
+     * As is.
+     * @return This node's address.
+     */
+    public String self() {
+        return this.self;
+    }
+
+    /**
+     * As is.
+     * @return Addresses of all nodes, including this one.
+     */
+    public List<String> nodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Send the event to every other node.
+     * @param event JSON with the 'about' attribute.
+     */
+    public void replicate(final JsonObject event) {
+        if (!this.queues.isEmpty()) {
+            final String serialized = event.toString();
+            for (final OutboundQueue queue : this.queues.values()) {
+                queue.send(serialized);
+            }
+        }
+    }
+
+    /**
+     * Check if the link to the node is open.
+     * @param node Address of another node.
+     * @return As is.
+     */
+    boolean open(final String node) {
+        final PeerLink link = this.links.get(node);
+        return link != null && link.open();
+    }
+
+    /**
+     * Send the text message to the node.
+     * @param node Address of another node.
+     * @param message As is.
+     */
+    void send(final String node, final String message) {
+        final OutboundQueue queue = this.queues.get(node);
+        if (queue != null) {
+            queue.send(message);
+        }
+    }
+
+    /**
+     * Send the binary message to the node.
+     * @param node Address of another node.
+     * @param envelope From {@link PeerLinks#envelope(byte, String)}.
+     * @param message As is. It's consumed.
+     */
+    void send(final String node, final byte[] envelope, final ByteBuffer message) {
+        final OutboundQueue queue = this.queues.get(node);
+        if (queue != null) {
+            queue.send(envelope, message);
+        }
+    }
+
+    /**
+     * Make the envelope that goes before a binary message.
+     * @param type For example, {@link PeerLinks#TALKER_FRAME}.
+     * @param username As is.
+     * @return As is.
+     */
+    static byte[] envelope(final byte type, final String username) {
+        final byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        final byte[] result = new byte[ENVELOPE_BYTES + name.length];
+        result[0] = type;
+        result[1] = (byte) name.length;
+        result[2] = (byte) (name.length >>> 8);
+        System.arraycopy(name, 0, result, ENVELOPE_BYTES, name.length);
+        return result;
+    }
+
+    /**
+     * Ping the other nodes.
+     */
+    private void ping() {
+        for (final PeerLink link : this.links.values()) {
+            link.ping();
+        }
+    }
+
+    /**
+     * Hash the secret.
+     * @param secret As is.
+     * @return SHA-256 of the secret in UTF-8.
+     */
+    private static byte[] digest(final String secret) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("Every Java platform must support SHA-256.", exception);
+        }
+    }
+
+}
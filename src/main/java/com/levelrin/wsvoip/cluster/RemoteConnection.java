@@ -0,0 +1,78 @@
+package com.levelrin.wsvoip.cluster;
+
+import com.levelrin.wsvoip.Connection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Connection of a user who is connected to another node of the cluster.
+ * Messages for the user go over the link to that node in an envelope with the username,
+ * and that node sends them to the user.
+ */
+final class RemoteConnection implements Connection {
+
+    /**
+     * Address of the user's node.
+     */
+    private final String node;
+
+    /**
+     * It's unique among the sessions of this node.
+     */
+    private final String id;
+
+    /**
+     * Links to the other nodes.
+     */
+    private final PeerLinks links;
+
+    /**
+     * Envelope of the audio frames for the user.
+     */
+    private final byte[] frameEnvelope;
+
+    /**
+     * Envelope of the text messages for the user.
+     */
+    private final byte[] textEnvelope;
+
+    /**
+     * Constructor.
+     * @param node Address of the user's node.
+     * @param username As is.
+     * @param links Links to the other nodes.
+     */
+    RemoteConnection(final String node, final String username, final PeerLinks links) {
+        this.node = node;
+        this.id = String.format("cluster/%s/%s", node, username);
+        this.links = links;
+        this.frameEnvelope = PeerLinks.envelope(PeerLinks.LISTENER_FRAME, username);
+        this.textEnvelope = PeerLinks.envelope(PeerLinks.LISTENER_TEXT, username);
+    }
+
+    @Override
+    public String id() {
+        return this.id;
+    }
+
+    @Override
+    public boolean open() {
+        return this.links.open(this.node);
+    }
+
+    @Override
+    public void send(final String message) {
+        this.links.send(this.node, this.textEnvelope, ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void send(final ByteBuffer message) {
+        this.links.send(this.node, this.frameEnvelope, message);
+    }
+
+    @Override
+    public void close(final String reason) {
+        // The user's node owns the WebSocket, and it closes it when it needs to.
+    }
+
+}
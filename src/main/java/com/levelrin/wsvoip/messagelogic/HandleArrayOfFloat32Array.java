@@ -1,14 +1,199 @@
 package com.levelrin.wsvoip.messagelogic;
 
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.levelrin.wsvoip.audio.AudioFanOut;
 import io.javalin.websocket.WsMessageContext;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public final class HandleArrayOfFloat32Array implements WsMessageLogic {
+/**
+ * It relays the JSON audio message that the browser used to send.
+ * The message is read by a streaming reader and written again from the fields it has,
+ * so the listeners never receive the text of the talker as is.
+ * Otherwise, a talker could add another 'about' attribute or events to it,
+ * and the listeners' browsers would take it as a message from the server.
+ */
+public final class HandleArrayOfFloat32Array implements WsMessageLogic<String> {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HandleArrayOfFloat32Array.class);
+
+    /**
+     * The 'about' attribute of the message.
+     */
+    private static final String ABOUT = "audio data";
+
+    /**
+     * The 'dataType' attribute of the message.
+     */
+    private static final String DATA_TYPE = "array of Float32Array";
+
+    /**
+     * To deliver the audio to the other members of the channel.
+     */
+    private final AudioFanOut fanOut;
+
+    /**
+     * Constructor.
+     * @param fanOut To deliver the audio to the other members of the channel.
+     */
+    public HandleArrayOfFloat32Array(final AudioFanOut fanOut) {
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * We read the message with a streaming reader, so there is no need to build a JSON tree.
+     * @return As is.
+     */
+    @Override
+    public Class<String> type() {
+        return String.class;
+    }
 
     @Override
-    public void handle(final WsMessageContext context, final JsonObject message) {
-        // todo: Do not send audio data to the source client.
-        context.send(message.toString());
+    public void handle(final WsMessageContext context, final String message) {
+        final String rebuilt = rebuild(message);
+        if (rebuilt == null) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(
+                    String.format(
+                        "We got a malformed audio data message from the WebSocket. Message: %s",
+                        message
+                    )
+                );
+            }
+        } else {
+            this.fanOut.relay(context.getSessionId(), rebuilt);
+        }
+    }
+
+    /**
+     * Write the message again from its fields.
+     * It must have 'about' once, and 'data' once as an array of inputs, each of which is an array of channels.
+     * A channel is an object from the sample index to the sample, which is how JSON.stringify writes a Float32Array.
+     * Other attributes are not relayed.
+     * @param message JSON text from the talker.
+     * @return Null if the message is malformed.
+     */
+    static String rebuild(final String message) {
+        String result = null;
+        final StringWriter text = new StringWriter(message.length());
+        try (JsonReader reader = new JsonReader(new StringReader(message)); JsonWriter writer = new JsonWriter(text)) {
+            int abouts = 0;
+            int datas = 0;
+            boolean valid = true;
+            writer.beginObject();
+            writer.name("about").value(ABOUT);
+            writer.name("dataType").value(DATA_TYPE);
+            writer.name("data");
+            reader.beginObject();
+            while (valid && reader.hasNext()) {
+                final String name = reader.nextName();
+                if ("about".equals(name)) {
+                    abouts = abouts + 1;
+                    valid = reader.peek() == JsonToken.STRING && ABOUT.equals(reader.nextString());
+                } else if ("data".equals(name)) {
+                    datas = datas + 1;
+                    valid = datas == 1 && inputs(reader, writer);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            if (valid && abouts == 1 && datas == 1) {
+                reader.endObject();
+                if (reader.peek() == JsonToken.END_DOCUMENT) {
+                    writer.endObject();
+                    writer.flush();
+                    result = text.toString();
+                }
+            }
+        } catch (final IOException | IllegalStateException | IllegalArgumentException exception) {
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * Copy the inputs of the 'data' attribute.
+     * @param reader At the value of the attribute.
+     * @param writer At the value of the attribute.
+     * @return False if it's not an array of arrays of channels.
+     * @throws IOException If the message is malformed.
+     */
+    private static boolean inputs(final JsonReader reader, final JsonWriter writer) throws IOException {
+        boolean result = reader.peek() == JsonToken.BEGIN_ARRAY;
+        if (result) {
+            reader.beginArray();
+            writer.beginArray();
+            while (result && reader.hasNext()) {
+                result = reader.peek() == JsonToken.BEGIN_ARRAY;
+                if (result) {
+                    reader.beginArray();
+                    writer.beginArray();
+                    while (result && reader.hasNext()) {
+                        result = channel(reader, writer);
+                    }
+                    if (result) {
+                        reader.endArray();
+                        writer.endArray();
+                    }
+                }
+            }
+            if (result) {
+                reader.endArray();
+                writer.endArray();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy a channel, which is an object from the sample index to the sample.
+     * @param reader At the channel.
+     * @param writer At the channel.
+     * @return False if it's not an object from indexes to numbers.
+     * @throws IOException If the message is malformed.
+     */
+    private static boolean channel(final JsonReader reader, final JsonWriter writer) throws IOException {
+        boolean result = reader.peek() == JsonToken.BEGIN_OBJECT;
+        if (result) {
+            reader.beginObject();
+            writer.beginObject();
+            while (result && reader.hasNext()) {
+                final String index = reader.nextName();
+                result = index(index) && reader.peek() == JsonToken.NUMBER;
+                if (result) {
+                    writer.name(index);
+                    writer.value(reader.nextDouble());
+                }
+            }
+            if (result) {
+                reader.endObject();
+                writer.endObject();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if the name is a sample index.
+     * @param name Of an attribute of a channel.
+     * @return True if it has digits only.
+     */
+    private static boolean index(final String name) {
+        boolean result = !name.isEmpty() && name.length() <= 9;
+        for (int position = 0; result && position < name.length(); ++position) {
+            final char digit = name.charAt(position);
+            result = digit >= '0' && digit <= '9';
+        }
+        return result;
     }
 
 }
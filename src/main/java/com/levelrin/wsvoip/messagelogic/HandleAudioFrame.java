@@ -0,0 +1,27 @@
+package com.levelrin.wsvoip.messagelogic;
+
+import com.levelrin.wsvoip.audio.AudioFanOut;
+import com.levelrin.wsvoip.audio.AudioFrame;
+import io.javalin.websocket.WsBinaryMessageContext;
+
+public final class HandleAudioFrame implements WsBinaryMessageLogic {
+
+    /**
+     * To deliver the frame to the other members of the channel.
+     */
+    private final AudioFanOut fanOut;
+
+    /**
+     * Constructor.
+     * @param fanOut To deliver the frame to the other members of the channel.
+     */
+    public HandleAudioFrame(final AudioFanOut fanOut) {
+        this.fanOut = fanOut;
+    }
+
+    @Override
+    public void handle(final WsBinaryMessageContext context, final AudioFrame frame) {
+        this.fanOut.relay(context.getSessionId(), frame);
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.levelrin.wsvoip.messagelogic;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.cluster.Cluster;
+import io.javalin.websocket.WsBinaryMessageContext;
+
+/**
+ * It's the {@link HandleAudioFrame} of a cluster.
+ * The frame goes to the node that owns the talker's channel, which may be this node.
+ */
+public final class RouteAudioFrame implements WsBinaryMessageLogic {
+
+    /**
+     * To find the node that owns the channel.
+     */
+    private final Cluster cluster;
+
+    /**
+     * Constructor.
+     * @param cluster To find the node that owns the channel.
+     */
+    public RouteAudioFrame(final Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    @Override
+    public void handle(final WsBinaryMessageContext context, final AudioFrame frame) {
+        this.cluster.relay(context.getSessionId(), frame);
+    }
+
+}
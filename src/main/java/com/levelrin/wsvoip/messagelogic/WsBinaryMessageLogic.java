@@ -0,0 +1,19 @@
+package com.levelrin.wsvoip.messagelogic;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import io.javalin.websocket.WsBinaryMessageContext;
+
+/**
+ * It's responsible for handling binary messages from clients in WebSocket.
+ */
+public interface WsBinaryMessageLogic {
+
+    /**
+     * Handle the binary WebSocket message.
+     * @param context For sending messages back to the client.
+     * @param frame Audio frame that has a valid header.
+     *              It's released after this method returns, so retain it to keep it.
+     */
+    void handle(final WsBinaryMessageContext context, final AudioFrame frame);
+
+}
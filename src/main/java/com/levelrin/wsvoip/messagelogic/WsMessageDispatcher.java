@@ -0,0 +1,146 @@
+package com.levelrin.wsvoip.messagelogic;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.javalin.websocket.WsMessageContext;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * It chooses the {@link WsMessageLogic} by the 'about' attribute of the message.
+ * The attribute is read by a streaming reader, so unsupported messages are rejected without building a JSON tree.
+ * The chosen logic receives the message parsed into its own type, or the text as is.
+ * The rest of the text is not checked here, so a logic that takes the text must check it by itself.
+ */
+public final class WsMessageDispatcher {
+
+    /**
+     * As is.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WsMessageDispatcher.class);
+
+    /**
+     * Key - The 'about' attribute.
+     * Value - Logic for the message.
+     */
+    private final Map<String, WsMessageLogic<?>> messageLogicMap;
+
+    /**
+     * To parse the message into the type of the logic.
+     */
+    private final Gson gson;
+
+    /**
+     * Constructor.
+     * @param messageLogicMap Key is the 'about' attribute, and value is the logic for the message.
+     * @param gson To parse the message into the type of the logic.
+     */
+    public WsMessageDispatcher(final Map<String, WsMessageLogic<?>> messageLogicMap, final Gson gson) {
+        this.messageLogicMap = messageLogicMap;
+        this.gson = gson;
+    }
+
+    /**
+     * Handle the WebSocket message.
+     * @param context It has the message.
+     */
+    public void dispatch(final WsMessageContext context) {
+        final String message = context.message();
+        final String about = about(message);
+        if (about != null) {
+            final WsMessageLogic<?> logic = this.messageLogicMap.get(about);
+            if (logic == null) {
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn(
+                        String.format(
+                            "We got a suspicious/unsupported message from the WebSocket. Message: %s",
+                            message
+                        )
+                    );
+                }
+            } else {
+                this.handle(logic, context, message);
+            }
+        }
+    }
+
+    /**
+     * Parse the message and pass it to the logic.
+     * @param logic Chosen by the 'about' attribute.
+     * @param context It has the message.
+     * @param message JSON text.
+     * @param <T> Type of the message after parsing.
+     */
+    private <T> void handle(final WsMessageLogic<T> logic, final WsMessageContext context, final String message) {
+        final Class<T> type = logic.type();
+        if (type == String.class) {
+            logic.handle(context, type.cast(message));
+        } else {
+            try {
+                logic.handle(context, this.gson.fromJson(message, type));
+            } catch (final JsonParseException exception) {
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn(
+                        String.format(
+                            "WebSocket server received malformed message: %s",
+                            message
+                        ),
+                        exception
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the 'about' attribute of the JSON object.
+     * It stops reading as soon as the attribute is found and skips the other values without parsing them.
+     * @param message JSON text.
+     * @return Null if the message is not a JSON object or it does not have the 'about' attribute.
+     */
+    private static String about(final String message) {
+        String result = null;
+        boolean isObject = false;
+        try (JsonReader reader = new JsonReader(new StringReader(message))) {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                isObject = true;
+                reader.beginObject();
+                while (result == null && reader.hasNext()) {
+                    if ("about".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                        result = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+            }
+        } catch (final IOException | IllegalStateException exception) {
+            isObject = false;
+        }
+        if (!isObject) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(
+                    String.format(
+                        "WebSocket server received non-JSON message: %s",
+                        message
+                    )
+                );
+            }
+        } else if (result == null) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(
+                    String.format(
+                        "We expect JSON message to have 'about' attribute, but it does not exist. JSON: %s",
+                        message
+                    )
+                );
+            }
+        }
+        return result;
+    }
+
+}
@@ -1,18 +1,26 @@
 package com.levelrin.wsvoip.messagelogic;
 
-import com.google.gson.JsonObject;
 import io.javalin.websocket.WsMessageContext;
 
 /**
  * It's responsible for handling messages from clients in WebSocket.
+ * @param <T> Type of the message after parsing.
  */
-public interface WsMessageLogic {
+public interface WsMessageLogic<T> {
+
+    /**
+     * The type that the message is parsed into.
+     * {@link String} means the message is passed as is without parsing.
+     * Only the 'about' attribute is checked then, so the logic must not relay the text to other clients as is.
+     * @return As is.
+     */
+    Class<T> type();
 
     /**
      * Handle the WebSocket message.
      * @param context For sending messages back to the client.
-     * @param message JSON.
+     * @param message Parsed into {@link WsMessageLogic#type()}.
      */
-    void handle(final WsMessageContext context, final JsonObject message);
+    void handle(final WsMessageContext context, final T message);
 
 }
@@ -0,0 +1,79 @@
+package com.levelrin.wsvoip.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations counted in buckets whose bounds double from about a microsecond.
+ * Recording is a shift and two striped additions, so it can run on every audio frame without allocation or contention.
+ * The precision is a factor of two, which is enough to see where the time goes and when it changes.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Number of buckets.
+     * The last one ends at about 36 minutes, and anything longer goes there too.
+     */
+    static final int BUCKETS = 32;
+
+    /**
+     * The first bucket ends at 2 to the power of this in nanoseconds, which is about a microsecond.
+     */
+    private static final int FIRST_BOUND_SHIFT = 10;
+
+    /**
+     * Number of durations in each bucket.
+     */
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    /**
+     * Sum of the durations in nanoseconds.
+     */
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Constructor.
+     */
+    public LatencyHistogram() {
+        for (int index = 0; index < BUCKETS; ++index) {
+            this.counts[index] = new LongAdder();
+        }
+    }
+
+    /**
+     * As is.
+     * @param nanos Duration in nanoseconds.
+     */
+    public void record(final long nanos) {
+        final long positive = Math.max(0, nanos);
+        final int bucket = Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(positive >> FIRST_BOUND_SHIFT));
+        this.counts[bucket].increment();
+        this.sumNanos.add(positive);
+    }
+
+    /**
+     * As is.
+     * @param bucket Index of the bucket.
+     * @return Number of durations in the bucket.
+     */
+    long count(final int bucket) {
+        return this.counts[bucket].sum();
+    }
+
+    /**
+     * As is.
+     * @return Sum of the durations in nanoseconds.
+     */
+    long sumNanos() {
+        return this.sumNanos.sum();
+    }
+
+    /**
+     * As is.
+     * @param bucket Index of the bucket.
+     * @return The upper bound of the bucket in nanoseconds.
+     */
+    static long upperBoundNanos(final int bucket) {
+        return 1L << (FIRST_BOUND_SHIFT + bucket);
+    }
+
+}
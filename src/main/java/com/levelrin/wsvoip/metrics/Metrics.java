@@ -0,0 +1,130 @@
+package com.levelrin.wsvoip.metrics;
+
+import com.levelrin.wsvoip.EventBus;
+import com.levelrin.wsvoip.OutboundTotals;
+import com.levelrin.wsvoip.VoiceChannels;
+import com.levelrin.wsvoip.WsConnections;
+import com.levelrin.wsvoip.audio.AudioFanOut;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * It's for the response body of '/metrics' endpoint.
+ * The components count on their own, and this class only reads the counters when it's scraped.
+ * So, the audio path pays for striped additions only.
+ * See details at doc/metrics.md
+ */
+public final class Metrics {
+
+    /**
+     * Milliseconds in a second.
+     */
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /**
+     * To read the online users and the broadcasts.
+     */
+    private final WsConnections wsConnections;
+
+    /**
+     * To read the channels, their locks, and the mixers.
+     */
+    private final VoiceChannels voiceChannels;
+
+    /**
+     * To read the incoming audio.
+     */
+    private final AudioFanOut fanOut;
+
+    /**
+     * To read the frames created outside the pool.
+     */
+    private final AudioFramePool framePool;
+
+    /**
+     * To read the outgoing messages.
+     */
+    private final OutboundTotals outbound;
+
+    /**
+     * Constructor.
+     * @param wsConnections To read the online users and the broadcasts.
+     * @param voiceChannels To read the channels, their locks, and the mixers.
+     * @param fanOut To read the incoming audio.
+     * @param framePool To read the frames created outside the pool.
+     * @param outbound To read the outgoing messages.
+     */
+    public Metrics(final WsConnections wsConnections, final VoiceChannels voiceChannels, final AudioFanOut fanOut, final AudioFramePool framePool, final OutboundTotals outbound) {
+        this.wsConnections = wsConnections;
+        this.voiceChannels = voiceChannels;
+        this.fanOut = fanOut;
+        this.framePool = framePool;
+        this.outbound = outbound;
+    }
+
+    /**
+     * Read every metric.
+     * @return Prometheus text format.
+     */
+    public String scrape() {
+        final PrometheusText text = new PrometheusText();
+        final EventBus events = this.wsConnections.events();
+        text.gauge("wsvoip_sessions", "Online users.", this.wsConnections.count())
+            .gauge("wsvoip_voice_channels", "Voice channels.", this.voiceChannels.count())
+            .gauge("wsvoip_voice_channel_members", "Users in any voice channel.", this.voiceChannels.memberCount())
+            .counter("wsvoip_audio_frames_received_total", "Audio frames received from the talkers.", this.fanOut.receivedFrames())
+            .counter("wsvoip_audio_bytes_received_total", "Bytes of the audio frames received from the talkers.", this.fanOut.receivedBytes())
+            .counter("wsvoip_audio_frames_suppressed_total", "Audio frames not delivered because the talker was silent.", this.fanOut.suppressedFrames())
+            .counter("wsvoip_audio_frames_unselected_total", "Audio frames not delivered because other talkers were selected.", this.fanOut.unselectedFrames())
+            .histogram("wsvoip_audio_relay_seconds", "Time to relay a binary audio frame to all recipients.", this.fanOut.relays())
+            .counter("wsvoip_audio_frames_sent_total", "Audio frames sent to the sockets.", this.outbound.audioFrames())
+            .counter("wsvoip_audio_bytes_sent_total", "Bytes of the audio frames sent to the sockets.", this.outbound.audioBytes())
+            .counter("wsvoip_audio_frames_dropped_total", "Audio frames dropped because the clients were too slow.", this.outbound.droppedFrames())
+            .counter("wsvoip_control_messages_sent_total", "Control messages sent to the sockets.", this.outbound.controlMessages())
+            .gauge("wsvoip_outbound_audio_frames", "Audio frames waiting in the outbound queues.", this.outbound.queuedFrames())
+            .gauge("wsvoip_outbound_control_messages", "Control messages waiting in the outbound queues.", this.outbound.queuedMessages())
+            .counter("wsvoip_event_batches_total", "Batches of presence and channel events delivered.", events.batches())
+            .counter("wsvoip_events_total", "Presence and channel events delivered.", events.events())
+            .histogram("wsvoip_event_fan_out_seconds", "Time to hand a batch of events to every session.", events.fanOuts())
+            .histogram("wsvoip_voice_channel_wait_seconds", "Time a task or an audio frame waited for the thread of its voice channel.", this.voiceChannels.waits())
+            .counter("wsvoip_audio_frames_late_total", "Audio frames dropped because the thread of their voice channel was behind.", this.voiceChannels.lateFrames())
+            .histogram("wsvoip_mixer_tick_seconds", "Time to mix one frame for every listener of a channel.", this.voiceChannels.mixerTicks())
+            .counter("wsvoip_audio_frame_pool_misses_total", "Audio frames created because all pooled frames were in use.", this.framePool.misses());
+        this.jvm(text);
+        return text.toString();
+    }
+
+    /**
+     * Read the garbage collection and allocation metrics of the JVM.
+     * @param text Where the metrics are written.
+     */
+    private void jvm(final PrometheusText text) {
+        text.family("jvm_gc_collections_total", "Garbage collections.", "counter");
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            text.sample("jvm_gc_collections_total", "gc=\"" + PrometheusText.escape(collector.getName()) + '"', collector.getCollectionCount());
+        }
+        text.family("jvm_gc_collection_seconds_total", "Time spent in garbage collections.", "counter");
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            text.sample("jvm_gc_collection_seconds_total", "gc=\"" + PrometheusText.escape(collector.getName()) + '"', collector.getCollectionTime() / MILLIS_PER_SECOND);
+        }
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        text.gauge("jvm_heap_used_bytes", "Used heap.", memory.getHeapMemoryUsage().getUsed());
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+                long allocated = 0;
+                for (final long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+                    // It's -1 for a thread that has ended since the IDs were read.
+                    allocated = allocated + Math.max(0, bytes);
+                }
+                // Threads that have ended take their bytes with them, so it's not a counter.
+                text.gauge("jvm_live_threads_allocated_bytes", "Bytes allocated by the live platform threads.", allocated);
+            }
+        }
+    }
+
+}
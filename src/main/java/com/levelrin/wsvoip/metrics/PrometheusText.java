@@ -0,0 +1,145 @@
+package com.levelrin.wsvoip.metrics;
+
+/**
+ * Writer of the Prometheus text exposition format.
+ * Each method writes one metric family with its HELP and TYPE lines.
+ * Durations are written in seconds as Prometheus expects.
+ */
+public final class PrometheusText {
+
+    /**
+     * Content type of the format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    /**
+     * As is.
+     */
+    private final StringBuilder text = new StringBuilder(8192);
+
+    /**
+     * Write a counter.
+     * @param name It should end with '_total'.
+     * @param help Description.
+     * @param value As is.
+     * @return This.
+     */
+    public PrometheusText counter(final String name, final String help, final double value) {
+        this.header(name, help, "counter");
+        this.sample(name, "", value);
+        return this;
+    }
+
+    /**
+     * Write a gauge.
+     * @param name As is.
+     * @param help Description.
+     * @param value As is.
+     * @return This.
+     */
+    public PrometheusText gauge(final String name, final String help, final double value) {
+        this.header(name, help, "gauge");
+        this.sample(name, "", value);
+        return this;
+    }
+
+    /**
+     * Write the HELP and TYPE lines for a family whose samples have labels.
+     * Write the samples with {@link PrometheusText#sample(String, String, double)} right after this.
+     * @param name As is.
+     * @param help Description.
+     * @param type 'counter' or 'gauge'.
+     * @return This.
+     */
+    public PrometheusText family(final String name, final String help, final String type) {
+        this.header(name, help, type);
+        return this;
+    }
+
+    /**
+     * Write a sample.
+     * @param name As is.
+     * @param labels For example, 'gc="G1 Young Generation"', or empty.
+     * @param value As is.
+     * @return This.
+     */
+    public PrometheusText sample(final String name, final String labels, final double value) {
+        this.text.append(name);
+        if (!labels.isEmpty()) {
+            this.text.append('{').append(labels).append('}');
+        }
+        this.text.append(' ').append(number(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Write a histogram of durations.
+     * @param name It should end with '_seconds'.
+     * @param help Description.
+     * @param histogram As is.
+     * @return This.
+     */
+    public PrometheusText histogram(final String name, final String help, final LatencyHistogram histogram) {
+        this.header(name, help, "histogram");
+        long cumulative = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; ++bucket) {
+            cumulative = cumulative + histogram.count(bucket);
+            this.sample(
+                name + "_bucket",
+                "le=\"" + number(LatencyHistogram.upperBoundNanos(bucket) / NANOS_PER_SECOND) + '"',
+                cumulative
+            );
+        }
+        this.sample(name + "_bucket", "le=\"+Inf\"", cumulative);
+        this.sample(name + "_sum", "", histogram.sumNanos() / NANOS_PER_SECOND);
+        this.sample(name + "_count", "", cumulative);
+        return this;
+    }
+
+    /**
+     * Escape the label value.
+     * @param value As is.
+     * @return Backslashes, double quotes, and line feeds are escaped.
+     */
+    public static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public String toString() {
+        return this.text.toString();
+    }
+
+    /**
+     * Write the HELP and TYPE lines.
+     * @param name As is.
+     * @param help Description.
+     * @param type As is.
+     */
+    private void header(final String name, final String help, final String type) {
+        this.text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        this.text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Format the number.
+     * Whole numbers are written without the fraction so that counters are easy to read.
+     * @param value As is.
+     * @return As is.
+     */
+    private static String number(final double value) {
+        final String result;
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            result = Long.toString((long) value);
+        } else {
+            result = Double.toString(value);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.levelrin.wsvoip.recording;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import java.nio.ByteBuffer;
+
+/**
+ * Audio of a talker waiting for the writer of the {@link Recorder}.
+ * The slots are created once and reused, so a binary frame is copied without allocation.
+ */
+final class Pending {
+
+    /**
+     * Copy of the binary frame.
+     */
+    private final byte[] bytes = new byte[AudioFrame.MAX_BYTES];
+
+    /**
+     * Length of the binary frame in {@link Pending#bytes}.
+     */
+    private int length;
+
+    /**
+     * JSON audio message, or null if it's a binary frame.
+     */
+    private String json;
+
+    /**
+     * Channel of the talker.
+     */
+    private String channelName;
+
+    /**
+     * Talker.
+     */
+    private String username;
+
+    /**
+     * When the server delivered the audio.
+     */
+    private long timeMillis;
+
+    /**
+     * Hold a copy of the binary frame.
+     * @param channelName Channel of the talker.
+     * @param username Talker.
+     * @param timeMillis When the server delivered the frame.
+     * @param frame It's read from the beginning to the limit, and the position is left at the limit.
+     */
+    void frame(final String channelName, final String username, final long timeMillis, final ByteBuffer frame) {
+        this.channelName = channelName;
+        this.username = username;
+        this.timeMillis = timeMillis;
+        this.json = null;
+        this.length = frame.remaining();
+        frame.get(this.bytes, 0, this.length);
+    }
+
+    /**
+     * Hold the JSON audio message.
+     * @param channelName Channel of the talker.
+     * @param username Talker.
+     * @param timeMillis When the server delivered the message.
+     * @param message As is.
+     */
+    void json(final String channelName, final String username, final long timeMillis, final String message) {
+        this.channelName = channelName;
+        this.username = username;
+        this.timeMillis = timeMillis;
+        this.json = message;
+        this.length = 0;
+    }
+
+    /**
+     * Forget the references, so the strings can be collected while the slot is free.
+     */
+    void clear() {
+        this.channelName = null;
+        this.username = null;
+        this.json = null;
+    }
+
+    /**
+     * As is.
+     * @return Copy of the binary frame. Only the first {@link Pending#length()} bytes are the frame.
+     */
+    byte[] bytes() {
+        return this.bytes;
+    }
+
+    /**
+     * As is.
+     * @return Length of the binary frame.
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * As is.
+     * @return JSON audio message, or null if it's a binary frame.
+     */
+    String json() {
+        return this.json;
+    }
+
+    /**
+     * As is.
+     * @return Channel of the talker.
+     */
+    String channelName() {
+        return this.channelName;
+    }
+
+    /**
+     * As is.
+     * @return Talker.
+     */
+    String username() {
+        return this.username;
+    }
+
+    /**
+     * As is.
+     * @return When the server delivered the audio.
+     */
+    long timeMillis() {
+        return this.timeMillis;
+    }
+
+}
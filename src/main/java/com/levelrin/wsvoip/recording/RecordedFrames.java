@@ -0,0 +1,20 @@
+package com.levelrin.wsvoip.recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the frames that {@link SegmentReader} reads.
+ */
+interface RecordedFrames {
+
+    /**
+     * A frame in the time range.
+     * @param username Talker.
+     * @param timeMillis When the server delivered the frame.
+     * @param frame As the talker sent it, from the position to the limit. It's only valid during the call.
+     * @throws IOException If the frame cannot be used.
+     */
+    void frame(final String username, final long timeMillis, final ByteBuffer frame) throws IOException;
+
+}
@@ -0,0 +1,415 @@
+package com.levelrin.wsvoip.recording;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import com.levelrin.wsvoip.audio.AudioTap;
+import com.levelrin.wsvoip.audio.ChannelMixer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the audio of the chosen channels into segment files.
+ * The relay threads only copy the frame into a preallocated slot of a bounded queue,
+ * and one writer thread appends the frames to the files.
+ * If the writer falls behind and the queue is full, the new frames are dropped and counted,
+ * so the recording never slows down the delivery or takes more memory.
+ * See details at doc/recording.md
+ */
+public final class Recorder implements AudioTap {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Recorder.class);
+
+    /**
+     * Channel name that means every channel.
+     */
+    public static final String EVERY_CHANNEL = "*";
+
+    /**
+     * How often the writer closes the idle segments and deletes the old ones.
+     */
+    private static final long MAINTENANCE_MILLIS = 10_000;
+
+    /**
+     * A segment is closed when its channel is silent for this long.
+     */
+    private static final long IDLE_MILLIS = 60_000;
+
+    /**
+     * Size of a segment file.
+     * It's mapped at once, but the disk only keeps the written part.
+     */
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Where the channel directories are.
+     */
+    private final Path directory;
+
+    /**
+     * Names of the recorded channels.
+     */
+    private final Set<String> channels;
+
+    /**
+     * True if every channel is recorded.
+     */
+    private final boolean everyChannel;
+
+    /**
+     * A new segment starts when the current one is this old.
+     */
+    private final long segmentMillis;
+
+    /**
+     * Segments older than this are deleted.
+     */
+    private final long retentionMillis;
+
+    /**
+     * Runs the writer and the maintenance.
+     */
+    private final ScheduledExecutorService writer;
+
+    /**
+     * Guards {@link Recorder#queue}, {@link Recorder#head}, and {@link Recorder#size}.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Ring of the audio waiting for the writer.
+     */
+    private final Pending[] queue;
+
+    /**
+     * Index of the oldest audio in {@link Recorder#queue}.
+     */
+    private int head;
+
+    /**
+     * Number of the audio in {@link Recorder#queue}.
+     */
+    private int size;
+
+    /**
+     * The slot that the writer gives back in exchange for the next one.
+     * Only the writer uses it.
+     */
+    private Pending spare = new Pending();
+
+    /**
+     * True if the writer is scheduled or running.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * The writer.
+     * We keep it in a field to avoid creating a lambda per schedule.
+     */
+    private final Runnable drainer = this::drain;
+
+    /**
+     * Number of frames dropped because the writer was too slow.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Dropped frames that have been logged.
+     * Only the writer uses it.
+     */
+    private long droppedReported;
+
+    /**
+     * Key - Channel name.
+     * Value - Its segments.
+     * Only the writer uses it.
+     */
+    private final Map<String, SegmentWriter> writers = new HashMap<>();
+
+    /**
+     * To encode the JSON audio messages into frames.
+     * Only the writer uses it.
+     */
+    private final AudioFramePool framePool = new AudioFramePool(1, AudioFrame.MAX_BYTES);
+
+    /**
+     * Constructor.
+     * @param directory Where the channel directories are.
+     * @param channels Names of the recorded channels, or {@link Recorder#EVERY_CHANNEL}.
+     * @param queueFrames Maximum number of frames waiting for the writer.
+     * @param segmentMillis A new segment starts when the current one is this old.
+     * @param retentionMillis Segments older than this are deleted.
+     * @param writer Runs the writer. It must have a single thread.
+     */
+    public Recorder(final Path directory, final Collection<String> channels, final int queueFrames, final long segmentMillis, final long retentionMillis, final ScheduledExecutorService writer) {
+        this.directory = directory;
+        this.channels = new HashSet<>(channels);
+        this.everyChannel = this.channels.contains(EVERY_CHANNEL);
+        this.segmentMillis = segmentMillis;
+        this.retentionMillis = retentionMillis;
+        this.writer = writer;
+        this.queue = new Pending[queueFrames];
+        for (int index = 0; index < queueFrames; ++index) {
+            this.queue[index] = new Pending();
+        }
+        this.writer.scheduleAtFixedRate(this::maintain, MAINTENANCE_MILLIS, MAINTENANCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void frame(final String channelName, final String username, final AudioFrame frame) {
+        if (this.recorded(channelName)) {
+            boolean queued = false;
+            this.lock.lock();
+            try {
+                if (this.size < this.queue.length) {
+                    // The time is taken in the lock, so the frames are in the order of the time.
+                    this.queue[(this.head + this.size) % this.queue.length]
+                        .frame(channelName, username, System.currentTimeMillis(), frame.rewind());
+                    this.size = this.size + 1;
+                    queued = true;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            // The listeners get the frame from the beginning.
+            frame.rewind();
+            this.queued(queued);
+        }
+    }
+
+    @Override
+    public void json(final String channelName, final String username, final String message) {
+        if (this.recorded(channelName)) {
+            boolean queued = false;
+            this.lock.lock();
+            try {
+                if (this.size < this.queue.length) {
+                    this.queue[(this.head + this.size) % this.queue.length]
+                        .json(channelName, username, System.currentTimeMillis(), message);
+                    this.size = this.size + 1;
+                    queued = true;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            this.queued(queued);
+        }
+    }
+
+    /**
+     * Check if the channel is recorded.
+     * @param channelName As is.
+     * @return As is.
+     */
+    private boolean recorded(final String channelName) {
+        return this.everyChannel || this.channels.contains(channelName);
+    }
+
+    /**
+     * Start the writer, or count the drop.
+     * @param queued False if the queue was full.
+     */
+    private void queued(final boolean queued) {
+        if (!queued) {
+            this.dropped.increment();
+        } else if (this.scheduled.compareAndSet(false, true)) {
+            this.writer.execute(this.drainer);
+        }
+    }
+
+    /**
+     * Write everything in the queue.
+     */
+    private void drain() {
+        boolean more = true;
+        while (more) {
+            Pending taken = null;
+            this.lock.lock();
+            try {
+                if (this.size > 0) {
+                    taken = this.queue[this.head];
+                    this.queue[this.head] = this.spare;
+                    this.head = (this.head + 1) % this.queue.length;
+                    this.size = this.size - 1;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            if (taken == null) {
+                this.scheduled.set(false);
+                // A frame might have been queued right before the flag was cleared.
+                more = this.depth() > 0 && this.scheduled.compareAndSet(false, true);
+            } else {
+                this.write(taken);
+                taken.clear();
+                this.spare = taken;
+            }
+        }
+    }
+
+    /**
+     * As is.
+     * @return Number of frames waiting for the writer.
+     */
+    private int depth() {
+        this.lock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Append the audio to the segment of its channel.
+     * @param pending Taken from the queue.
+     */
+    private void write(final Pending pending) {
+        SegmentWriter segments = this.writers.get(pending.channelName());
+        if (segments == null) {
+            segments = new SegmentWriter(
+                this.directory.resolve(SegmentWriter.directoryName(pending.channelName())),
+                SEGMENT_BYTES,
+                this.segmentMillis
+            );
+            this.writers.put(pending.channelName(), segments);
+        }
+        try {
+            if (pending.json() == null) {
+                segments.write(pending.username(), pending.timeMillis(), pending.bytes(), pending.length());
+            } else {
+                final AudioFrame frame = this.framePool.acquire();
+                try {
+                    if (this.encode(pending.json(), frame)) {
+                        final ByteBuffer bytes = frame.rewind();
+                        final int length = bytes.remaining();
+                        bytes.get(pending.bytes(), 0, length);
+                        segments.write(pending.username(), pending.timeMillis(), pending.bytes(), length);
+                    }
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (final IOException ex) {
+            this.dropped.increment();
+            if (LOGGER.isErrorEnabled()) {
+                LOGGER.error(String.format("Failed to record the audio of the channel '%s'.", pending.channelName()), ex);
+            }
+        }
+    }
+
+    /**
+     * Encode the JSON audio message into a mono frame, so it's recorded like the binary frames.
+     * It's the format of {@link com.levelrin.wsvoip.messagelogic.HandleArrayOfFloat32Array},
+     * which has no sample rate, so it's taken as {@link ChannelMixer#SAMPLE_RATE}.
+     * @param message JSON audio message.
+     * @param frame Where the frame goes.
+     * @return False if the message has no samples or too many of them.
+     */
+    private boolean encode(final String message, final AudioFrame frame) {
+        boolean result = false;
+        try {
+            final JsonArray data = JsonParser.parseString(message).getAsJsonObject().getAsJsonArray("data");
+            final JsonArray audioChannels = data.get(0).getAsJsonArray();
+            final int count = audioChannels.get(0).getAsJsonObject().size();
+            if (count > 0 && AudioFrame.HEADER_BYTES + count * Float.BYTES <= AudioFrame.MAX_BYTES) {
+                final float[] samples = new float[count];
+                for (final JsonElement element : audioChannels) {
+                    final JsonObject audioChannel = element.getAsJsonObject();
+                    for (int index = 0; index < count; ++index) {
+                        final JsonElement sample = audioChannel.get(Integer.toString(index));
+                        if (sample != null) {
+                            samples[index] += sample.getAsFloat() / audioChannels.size();
+                        }
+                    }
+                }
+                frame.encode(samples, ChannelMixer.SAMPLE_RATE, 0, 0, 0);
+                result = true;
+            }
+        } catch (final JsonParseException | IllegalStateException | IndexOutOfBoundsException | NumberFormatException ex) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn("Skipped a JSON audio message that could not be recorded.", ex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Close the segments of the silent channels, delete the old segments, and log the drops.
+     * It runs on the writer thread.
+     */
+    private void maintain() {
+        final long now = System.currentTimeMillis();
+        final Iterator<SegmentWriter> iterator = this.writers.values().iterator();
+        while (iterator.hasNext()) {
+            final SegmentWriter segments = iterator.next();
+            if (segments.expired(now, IDLE_MILLIS)) {
+                segments.close();
+                iterator.remove();
+            }
+        }
+        try {
+            this.expire(now - this.retentionMillis);
+        } catch (final IOException ex) {
+            if (LOGGER.isErrorEnabled()) {
+                LOGGER.error("Failed to delete the old recordings.", ex);
+            }
+        }
+        final long drops = this.dropped.sum();
+        if (drops > this.droppedReported) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(String.format("The recorder dropped %d frames because it could not keep up.", drops - this.droppedReported));
+            }
+            this.droppedReported = drops;
+        }
+    }
+
+    /**
+     * Delete the segments that ended before the time.
+     * A segment ends where the next one starts, or {@link Recorder#segmentMillis} after its start at the latest.
+     * @param beforeMillis As is.
+     * @throws IOException If a directory cannot be listed.
+     */
+    private void expire(final long beforeMillis) throws IOException {
+        if (Files.isDirectory(this.directory)) {
+            try (DirectoryStream<Path> channelDirectories = Files.newDirectoryStream(this.directory)) {
+                for (final Path channelDirectory : channelDirectories) {
+                    final List<Long> starts = SegmentReader.starts(channelDirectory);
+                    for (int position = 0; position < starts.size(); ++position) {
+                        long end = starts.get(position) + this.segmentMillis;
+                        if (position + 1 < starts.size()) {
+                            end = Math.min(end, starts.get(position + 1));
+                        }
+                        if (end < beforeMillis) {
+                            Files.deleteIfExists(channelDirectory.resolve(starts.get(position) + SegmentWriter.SEGMENT_SUFFIX));
+                            Files.deleteIfExists(channelDirectory.resolve(starts.get(position) + SegmentWriter.INDEX_SUFFIX));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.levelrin.wsvoip.recording;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the frames of a channel in a time range from the segments of {@link SegmentWriter}.
+ * It finds the first segment by the file names and the first record by the index,
+ * so it only touches the pages of the range.
+ * It can read the segment that is being written, up to the last complete record.
+ */
+final class SegmentReader {
+
+    /**
+     * Directory of the channel.
+     */
+    private final Path directory;
+
+    /**
+     * Constructor.
+     * @param directory Directory of the channel.
+     */
+    SegmentReader(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Read the frames in the range in the order they were written.
+     * @param fromMillis Start of the range.
+     * @param toMillis End of the range, exclusive.
+     * @param frames Receives the frames.
+     * @throws IOException If a segment cannot be read.
+     */
+    void read(final long fromMillis, final long toMillis, final RecordedFrames frames) throws IOException {
+        final List<Long> starts = starts(this.directory);
+        for (int position = 0; position < starts.size(); ++position) {
+            final long start = starts.get(position);
+            // A segment ends where the next one starts.
+            final boolean after = position + 1 < starts.size() && starts.get(position + 1) <= fromMillis;
+            if (start < toMillis && !after) {
+                this.read(start, fromMillis, toMillis, frames);
+            }
+        }
+    }
+
+    /**
+     * Read the frames of the segment in the range.
+     * @param start Start time of the segment.
+     * @param fromMillis Start of the range.
+     * @param toMillis End of the range, exclusive.
+     * @param frames Receives the frames.
+     * @throws IOException If the segment cannot be read.
+     */
+    private void read(final long start, final long fromMillis, final long toMillis, final RecordedFrames frames) throws IOException {
+        final MappedByteBuffer segment = map(this.directory.resolve(start + SegmentWriter.SEGMENT_SUFFIX));
+        if (segment.limit() < SegmentWriter.HEADER_BYTES
+            || segment.getInt(0) != SegmentWriter.MAGIC
+            || segment.getShort(4) != SegmentWriter.VERSION) {
+            throw new IOException(String.format("%s is not a segment of version %d.", start, SegmentWriter.VERSION));
+        }
+        final Map<Integer, String> talkers = new HashMap<>();
+        int offset = this.seek(start, fromMillis);
+        boolean more = true;
+        while (more && offset + SegmentWriter.RECORD_BYTES <= segment.limit()) {
+            final int size = segment.getInt(offset);
+            final int end = offset + SegmentWriter.SIZE_BYTES + size;
+            if (size <= 0 || end > segment.limit()) {
+                more = false;
+            } else {
+                final byte type = segment.get(offset + SegmentWriter.SIZE_BYTES);
+                final int talker = segment.getShort(offset + SegmentWriter.RECORD_BYTES) & 0xFFFF;
+                if (type == SegmentWriter.TALKER) {
+                    final int length = segment.getShort(offset + SegmentWriter.RECORD_BYTES + 2) & 0xFFFF;
+                    final byte[] name = new byte[length];
+                    segment.position(offset + SegmentWriter.TALKER_RECORD_BYTES);
+                    segment.get(name);
+                    segment.clear();
+                    talkers.put(talker, new String(name, StandardCharsets.UTF_8));
+                } else if (type == SegmentWriter.FRAME) {
+                    final long time = segment.getLong(offset + SegmentWriter.RECORD_BYTES + 2);
+                    if (time >= toMillis) {
+                        more = false;
+                    } else if (time >= fromMillis) {
+                        segment.limit(end).position(offset + SegmentWriter.FRAME_RECORD_BYTES);
+                        frames.frame(talkers.get(talker), time, segment);
+                        segment.clear();
+                    } else {
+                        // It's before the range, between the index entry and the start of the range.
+                    }
+                } else {
+                    // A later version may add records that this one does not know.
+                }
+                offset = end;
+            }
+        }
+    }
+
+    /**
+     * Find where to start reading the segment.
+     * @param start Start time of the segment.
+     * @param fromMillis Start of the range.
+     * @return Offset of the last index entry at or before the time, or the first record if there is none.
+     * @throws IOException If the index cannot be read.
+     */
+    private int seek(final long start, final long fromMillis) throws IOException {
+        final Path path = this.directory.resolve(start + SegmentWriter.INDEX_SUFFIX);
+        int result = SegmentWriter.HEADER_BYTES;
+        if (Files.exists(path)) {
+            final MappedByteBuffer index = map(path);
+            // The entries that are not written yet are zeros at the end.
+            int low = 0;
+            int high = index.limit() / SegmentWriter.INDEX_ENTRY_BYTES;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (index.getLong(middle * SegmentWriter.INDEX_ENTRY_BYTES) > 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            final int entries = low;
+            low = 0;
+            high = entries;
+            // Finds the first entry after the time.
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (index.getLong(middle * SegmentWriter.INDEX_ENTRY_BYTES) <= fromMillis) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low > 0) {
+                result = index.getInt((low - 1) * SegmentWriter.INDEX_ENTRY_BYTES + 8);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start times of the segments in the directory.
+     * @param directory Directory of a channel.
+     * @return In ascending order. Empty if the directory does not exist.
+     * @throws IOException If the directory cannot be listed.
+     */
+    static List<Long> starts(final Path directory) throws IOException {
+        final List<Long> result = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SegmentWriter.SEGMENT_SUFFIX)) {
+                for (final Path file : files) {
+                    final String name = file.getFileName().toString();
+                    try {
+                        result.add(Long.parseLong(name.substring(0, name.length() - SegmentWriter.SEGMENT_SUFFIX.length())));
+                    } catch (final NumberFormatException ex) {
+                        // It's not a segment that we wrote.
+                    }
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Map the whole file for reading.
+     * @param path As is.
+     * @return Little-endian buffer.
+     * @throws IOException If the file cannot be read.
+     */
+    private static MappedByteBuffer map(final Path path) throws IOException {
+        final MappedByteBuffer result;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            result = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        result.order(ByteOrder.LITTLE_ENDIAN);
+        return result;
+    }
+
+}
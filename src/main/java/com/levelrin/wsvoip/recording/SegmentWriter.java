@@ -0,0 +1,288 @@
+package com.levelrin.wsvoip.recording;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Appends the audio of a channel to memory-mapped segment files.
+ * A segment is mapped at its full size up front, and the part that is not written yet stays a hole in the file.
+ * Each segment has an index file with an entry per second, so a reader can jump to a time.
+ * Only the writer thread of the {@link Recorder} may use it.
+ * See details at doc/recording.md
+ */
+final class SegmentWriter {
+
+    /**
+     * First 4 bytes of a segment, which are 'WSVR' in little-endian.
+     */
+    static final int MAGIC = 0x52565357;
+
+    /**
+     * Version of the segment format.
+     */
+    static final short VERSION = 1;
+
+    /**
+     * Magic, version, 2 reserved bytes, and the start time of the segment.
+     */
+    static final int HEADER_BYTES = 16;
+
+    /**
+     * Bytes of the size field at the start of a record.
+     * The size counts the bytes after the field, and zero means there are no more records.
+     */
+    static final int SIZE_BYTES = 4;
+
+    /**
+     * Size field and the record type.
+     */
+    static final int RECORD_BYTES = SIZE_BYTES + 1;
+
+    /**
+     * Record that gives a talker a number until the next index entry.
+     * Talker number in 2 bytes, length of the username in 2 bytes, then the username in UTF-8.
+     */
+    static final byte TALKER = 1;
+
+    /**
+     * Record of an audio frame.
+     * Talker number in 2 bytes, the delivery time in 8 bytes, then the frame as the talker sent it.
+     */
+    static final byte FRAME = 2;
+
+    /**
+     * Bytes of a {@link SegmentWriter#TALKER} record before the username.
+     */
+    static final int TALKER_RECORD_BYTES = RECORD_BYTES + 4;
+
+    /**
+     * Bytes of a {@link SegmentWriter#FRAME} record before the frame.
+     */
+    static final int FRAME_RECORD_BYTES = RECORD_BYTES + 10;
+
+    /**
+     * Time in 8 bytes and the offset of the first record at that time in 4 bytes.
+     */
+    static final int INDEX_ENTRY_BYTES = 12;
+
+    /**
+     * How often an index entry is written.
+     */
+    static final long INDEX_MILLIS = 1000;
+
+    /**
+     * Segment files are named by the start time in Unix milliseconds and this suffix.
+     */
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * Index files have the name of the segment with this suffix.
+     */
+    static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Directory of the channel.
+     */
+    private final Path directory;
+
+    /**
+     * Size of a segment file.
+     */
+    private final int segmentBytes;
+
+    /**
+     * A new segment starts when the current one is this old.
+     */
+    private final long segmentMillis;
+
+    /**
+     * Key - Username.
+     * Value - Talker number that the segment has given the user since the last index entry.
+     * It's cleared at every index entry, so a reader that starts there does not need the records before.
+     */
+    private final Map<String, Integer> talkers = new HashMap<>();
+
+    /**
+     * The current segment, or null if none is open.
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * Index of the current segment.
+     */
+    private MappedByteBuffer index;
+
+    /**
+     * Start time of the current segment.
+     */
+    private long startMillis;
+
+    /**
+     * When the next index entry is due.
+     */
+    private long nextIndexMillis;
+
+    /**
+     * Time of the last frame.
+     */
+    private long lastMillis;
+
+    /**
+     * Constructor.
+     * @param directory Directory of the channel.
+     * @param segmentBytes Size of a segment file.
+     * @param segmentMillis A new segment starts when the current one is this old.
+     */
+    SegmentWriter(final Path directory, final int segmentBytes, final long segmentMillis) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+    }
+
+    /**
+     * Append the frame.
+     * @param username Talker.
+     * @param timeMillis When the server delivered the frame.
+     * @param frame As the talker sent it.
+     * @param length Length of the frame.
+     * @throws IOException If a new segment cannot be created.
+     */
+    void write(final String username, final long timeMillis, final byte[] frame, final int length) throws IOException {
+        // A UTF-8 character takes 3 bytes at most, and the frame may need a talker record first.
+        final int needed = TALKER_RECORD_BYTES + username.length() * 3 + FRAME_RECORD_BYTES + length + SIZE_BYTES;
+        if (this.segment == null
+            || timeMillis - this.startMillis >= this.segmentMillis
+            || this.segment.remaining() < needed) {
+            this.rotate(timeMillis);
+        } else if (timeMillis >= this.nextIndexMillis) {
+            this.mark(timeMillis);
+        }
+        Integer talker = this.talkers.get(username);
+        if (talker == null) {
+            talker = this.talkers.size();
+            this.talkers.put(username, talker);
+            final byte[] name = username.getBytes(StandardCharsets.UTF_8);
+            this.segment.putInt(TALKER_RECORD_BYTES - SIZE_BYTES + name.length);
+            this.segment.put(TALKER);
+            this.segment.putShort((short) talker.intValue());
+            this.segment.putShort((short) name.length);
+            this.segment.put(name);
+        }
+        this.segment.putInt(FRAME_RECORD_BYTES - SIZE_BYTES + length);
+        this.segment.put(FRAME);
+        this.segment.putShort((short) talker.intValue());
+        this.segment.putLong(timeMillis);
+        this.segment.put(frame, 0, length);
+        this.lastMillis = timeMillis;
+    }
+
+    /**
+     * Check if the writer can be closed.
+     * @param nowMillis Current time.
+     * @param idleMillis How long the channel may be silent before its segment is closed.
+     * @return True if the segment is too old or nothing has been written for a while.
+     */
+    boolean expired(final long nowMillis, final long idleMillis) {
+        return this.segment == null
+            || nowMillis - this.startMillis >= this.segmentMillis
+            || nowMillis - this.lastMillis >= idleMillis;
+    }
+
+    /**
+     * Flush the current segment and its index to the disk.
+     * The next frame starts a new segment.
+     */
+    void close() {
+        if (this.segment != null) {
+            this.segment.force();
+            this.index.force();
+            this.segment = null;
+            this.index = null;
+        }
+    }
+
+    /**
+     * Close the current segment and start a new one.
+     * @param timeMillis Start time of the new segment.
+     * @throws IOException If the files cannot be created.
+     */
+    private void rotate(final long timeMillis) throws IOException {
+        this.close();
+        Files.createDirectories(this.directory);
+        long start = timeMillis;
+        // Two segments may start in the same millisecond if the frames fill one right away.
+        while (Files.exists(this.directory.resolve(start + SEGMENT_SUFFIX))) {
+            start = start + 1;
+        }
+        final MappedByteBuffer created = map(this.directory.resolve(start + SEGMENT_SUFFIX), this.segmentBytes);
+        created.putInt(MAGIC);
+        created.putShort(VERSION);
+        created.putShort((short) 0);
+        created.putLong(start);
+        this.index = map(
+            this.directory.resolve(start + INDEX_SUFFIX),
+            (int) (this.segmentMillis / INDEX_MILLIS + 2) * INDEX_ENTRY_BYTES
+        );
+        this.segment = created;
+        this.startMillis = start;
+        this.mark(timeMillis);
+    }
+
+    /**
+     * Write an index entry at the current position and forget the talker numbers.
+     * @param timeMillis Time of the next frame.
+     */
+    private void mark(final long timeMillis) {
+        this.talkers.clear();
+        // The index has room for an entry per second of a segment, so it's only full if the clock goes back.
+        if (this.index.remaining() >= INDEX_ENTRY_BYTES) {
+            this.index.putLong(timeMillis);
+            this.index.putInt(this.segment.position());
+        }
+        this.nextIndexMillis = timeMillis - timeMillis % INDEX_MILLIS + INDEX_MILLIS;
+    }
+
+    /**
+     * Create the file and map it.
+     * @param path As is.
+     * @param bytes Size of the file.
+     * @return Little-endian buffer of the whole file at the position zero.
+     * @throws IOException If the file exists already or cannot be created.
+     */
+    private static MappedByteBuffer map(final Path path, final int bytes) throws IOException {
+        final MappedByteBuffer result;
+        try (FileChannel channel = FileChannel.open(
+            path,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )) {
+            // Mapping beyond the end grows the file without writing the bytes.
+            result = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        }
+        result.order(ByteOrder.LITTLE_ENDIAN);
+        return result;
+    }
+
+    /**
+     * Name of the channel's directory.
+     * The name is URL-encoded, and the dots are encoded too, so it cannot be '.' or '..'.
+     * @param channelName As is.
+     * @return As is.
+     */
+    static String directoryName(final String channelName) {
+        return URLEncoder.encode(channelName, StandardCharsets.UTF_8)
+            .replace(".", "%2E")
+            .replace("*", "%2A");
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.levelrin.wsvoip.recording;
+
+import com.levelrin.wsvoip.audio.AudioFrame;
+import com.levelrin.wsvoip.audio.AudioFramePool;
+import com.levelrin.wsvoip.audio.ChannelMixer;
+import com.levelrin.wsvoip.audio.codec.Transcoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exports a time range of a recorded channel to a WAV file.
+ * The talkers are decoded and mixed into mono 16-bit PCM at {@link ChannelMixer#SAMPLE_RATE}.
+ * Each talker's frames are placed one after another, and a talker jumps to the delivery time
+ * after a pause, so the network jitter does not cut the audio.
+ * The WAV file is memory-mapped, so the talkers are mixed in place without holding the range in memory.
+ * See details at doc/recording.md
+ */
+public final class WavExport {
+
+    /**
+     * Size of the WAV header.
+     */
+    private static final int WAV_HEADER_BYTES = 44;
+
+    /**
+     * Bytes of a sample.
+     */
+    private static final int SAMPLE_BYTES = 2;
+
+    /**
+     * Samples per millisecond.
+     */
+    private static final int SAMPLES_PER_MILLI = ChannelMixer.SAMPLE_RATE / 1000;
+
+    /**
+     * A talker jumps to the delivery time if it's this far from where the talker's audio has reached.
+     */
+    private static final long DRIFT_SAMPLES = 200L * SAMPLES_PER_MILLI;
+
+    /**
+     * Where the range starts.
+     */
+    private final long fromMillis;
+
+    /**
+     * Only this talker is exported, or null for everyone.
+     */
+    private final String talker;
+
+    /**
+     * Samples of the WAV file after the header.
+     */
+    private final ByteBuffer samples;
+
+    /**
+     * Key - Username.
+     * Value - The talker's decoder and position.
+     */
+    private final Map<String, Track> tracks = new HashMap<>();
+
+    /**
+     * To decode the recorded frames.
+     */
+    private final AudioFrame frame = new AudioFramePool(1, AudioFrame.MAX_BYTES).acquire();
+
+    /**
+     * Copy of a recorded frame for {@link AudioFrame#load(byte[], int, int)}.
+     */
+    private final byte[] bytes = new byte[AudioFrame.MAX_BYTES];
+
+    /**
+     * Constructor.
+     * @param fromMillis Where the range starts.
+     * @param talker Only this talker is exported, or null for everyone.
+     * @param samples Samples of the WAV file after the header, which are zeros.
+     */
+    private WavExport(final long fromMillis, final String talker, final ByteBuffer samples) {
+        this.fromMillis = fromMillis;
+        this.talker = talker;
+        this.samples = samples;
+    }
+
+    /**
+     * Options are dir=recordings channel=lobby from=2026-10-17T09:00:00Z to=2026-10-17T09:10:00Z out=lobby.wav talker=alice
+     * The times are ISO-8601 instants or Unix milliseconds, and the talker is optional.
+     * @param args Options in the form of key=value.
+     * @throws IOException If the recording cannot be read or the WAV file cannot be written.
+     */
+    public static void main(final String... args) throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException(
+                    String.format("Options must be in the form of key=value, but it was: %s", arg)
+                );
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        final Path channel = Paths.get(required(options, "dir"))
+            .resolve(SegmentWriter.directoryName(required(options, "channel")));
+        final long from = millis(required(options, "from"));
+        final long to = millis(required(options, "to"));
+        final long dataBytes = (to - from) * SAMPLES_PER_MILLI * SAMPLE_BYTES;
+        if (to <= from || WAV_HEADER_BYTES + dataBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                String.format("The range must be positive and shorter than %d hours.", Integer.MAX_VALUE / SAMPLE_BYTES / ChannelMixer.SAMPLE_RATE / 3600)
+            );
+        }
+        final MappedByteBuffer wav;
+        try (FileChannel file = FileChannel.open(
+            Paths.get(required(options, "out")),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )) {
+            wav = file.map(FileChannel.MapMode.READ_WRITE, 0, WAV_HEADER_BYTES + dataBytes);
+        }
+        wav.order(ByteOrder.LITTLE_ENDIAN);
+        header(wav, (int) dataBytes);
+        wav.position(WAV_HEADER_BYTES);
+        final ByteBuffer samples = wav.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final WavExport export = new WavExport(from, options.get("talker"), samples);
+        new SegmentReader(channel).read(from, to, export::frame);
+        wav.force();
+        System.out.printf("Exported %d talkers to %s.%n", export.tracks.size(), options.get("out"));
+    }
+
+    /**
+     * Mix the recorded frame into the WAV file.
+     * @param username Talker.
+     * @param timeMillis When the server delivered the frame.
+     * @param recorded As the talker sent it.
+     */
+    private void frame(final String username, final long timeMillis, final ByteBuffer recorded) {
+        if (username != null && (this.talker == null || this.talker.equals(username))) {
+            final int length = recorded.remaining();
+            recorded.get(this.bytes, 0, length);
+            if (this.frame.load(this.bytes, 0, length) && this.frame.valid()) {
+                Track track = this.tracks.get(username);
+                if (track == null) {
+                    track = new Track();
+                    this.tracks.put(username, track);
+                }
+                final int decoded = track.transcoder.decode(this.frame);
+                final long target = (timeMillis - this.fromMillis) * SAMPLES_PER_MILLI;
+                if (track.position < 0 || Math.abs(track.position - target) > DRIFT_SAMPLES) {
+                    track.position = target;
+                }
+                track.position = this.mix(track.transcoder.pcm(), decoded, this.frame.sampleRate(), track.position);
+            }
+        }
+    }
+
+    /**
+     * Add the samples to the WAV file, resampling them if they are not at {@link ChannelMixer#SAMPLE_RATE}.
+     * @param pcm Mono samples between -1 and 1.
+     * @param count Number of the samples.
+     * @param sampleRate Sample rate of the samples.
+     * @param position Where the first sample goes in the WAV file.
+     * @return Where the next samples go.
+     */
+    private long mix(final float[] pcm, final int count, final int sampleRate, final long position) {
+        final long total = this.samples.limit() / SAMPLE_BYTES;
+        final int output = (int) ((long) count * ChannelMixer.SAMPLE_RATE / sampleRate);
+        for (int index = 0; index < output; ++index) {
+            final long at = position + index;
+            if (at >= 0 && at < total) {
+                // Linear interpolation, which is exact when the rates are the same.
+                final double source = (double) index * sampleRate / ChannelMixer.SAMPLE_RATE;
+                final int before = (int) source;
+                final int after = Math.min(before + 1, count - 1);
+                final double weight = source - before;
+                final double sample = pcm[before] * (1 - weight) + pcm[after] * weight;
+                final int offset = (int) at * SAMPLE_BYTES;
+                final long mixed = this.samples.getShort(offset) + Math.round(sample * Short.MAX_VALUE);
+                this.samples.putShort(offset, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixed)));
+            }
+        }
+        return position + output;
+    }
+
+    /**
+     * Write the header of a mono 16-bit PCM WAV file.
+     * @param wav The file from the beginning.
+     * @param dataBytes Size of the samples.
+     */
+    private static void header(final ByteBuffer wav, final int dataBytes) {
+        wav.put(0, (byte) 'R').put(1, (byte) 'I').put(2, (byte) 'F').put(3, (byte) 'F');
+        wav.putInt(4, WAV_HEADER_BYTES - 8 + dataBytes);
+        wav.put(8, (byte) 'W').put(9, (byte) 'A').put(10, (byte) 'V').put(11, (byte) 'E');
+        wav.put(12, (byte) 'f').put(13, (byte) 'm').put(14, (byte) 't').put(15, (byte) ' ');
+        wav.putInt(16, 16);
+        // PCM.
+        wav.putShort(20, (short) 1);
+        // Mono.
+        wav.putShort(22, (short) 1);
+        wav.putInt(24, ChannelMixer.SAMPLE_RATE);
+        wav.putInt(28, ChannelMixer.SAMPLE_RATE * SAMPLE_BYTES);
+        wav.putShort(32, (short) SAMPLE_BYTES);
+        wav.putShort(34, (short) (SAMPLE_BYTES * 8));
+        wav.put(36, (byte) 'd').put(37, (byte) 'a').put(38, (byte) 't').put(39, (byte) 'a');
+        wav.putInt(40, dataBytes);
+    }
+
+    /**
+     * Read the option that must be given.
+     * @param options Key - Option name, Value - Option value.
+     * @param name Option name.
+     * @return As is.
+     */
+    private static String required(final Map<String, String> options, final String name) {
+        final String result = options.get(name);
+        if (result == null) {
+            throw new IllegalArgumentException(String.format("The option '%s' is required.", name));
+        }
+        return result;
+    }
+
+    /**
+     * Parse the time.
+     * @param text ISO-8601 instant, e.g. 2026-10-17T09:00:00Z, or Unix milliseconds.
+     * @return Unix milliseconds.
+     */
+    private static long millis(final String text) {
+        long result;
+        try {
+            result = Long.parseLong(text);
+        } catch (final NumberFormatException ex) {
+            result = Instant.parse(text).toEpochMilli();
+        }
+        return result;
+    }
+
+    /**
+     * A talker in the export.
+     */
+    private static final class Track {
+
+        /**
+         * Decodes the talker's frames in order, which Opus needs.
+         */
+        private final Transcoder transcoder = new Transcoder();
+
+        /**
+         * Where the talker's next sample goes in the WAV file, or -1 before the first frame.
+         */
+        private long position = -1;
+
+    }
+
+}
@@ -6,17 +6,49 @@ class AudioInputProcess extends AudioWorkletProcessor {
      */
     active = false;
 
+    /**
+     * Samples per channel in a packet.
+     * It's one render quantum until the server tells us the packet time.
+     * @type {number}
+     */
+    packetSamples = 128;
+
+    /**
+     * Float32Array per channel of the packet being filled.
+     * @type {Array}
+     */
+    packet = [];
+
+    /**
+     * Samples per channel in the packet so far.
+     * @type {number}
+     */
+    filled = 0;
+
     constructor() {
         super();
         this.port.onmessage = this.handleMessage.bind(this);
     }
 
+    /**
+     * @param event {MessageEvent} True or false to activate or deactivate,
+     *                             or {packetMillis: 20} to set the packet time.
+     */
     handleMessage(event) {
-        this.active = event.data;
+        if (typeof event.data === "boolean") {
+            this.active = event.data;
+        } else {
+            // sampleRate is a global of the AudioWorkletGlobalScope.
+            this.packetSamples = Math.round(sampleRate * event.data.packetMillis / 1000);
+        }
+        // The rest of the packet would be glued to audio from another time.
+        this.filled = 0;
     }
 
     /**
      * https://developer.mozilla.org/en-US/docs/Web/API/Web_Audio_API/Using_AudioWorklet
+     * It collects the render quanta into a packet and posts the packet in the same shape as the inputList,
+     * so the page sends one message per packet instead of one per quantum.
      * @param inputList Number of active microphones.
      *                  The length is usually one because other microphones are deactivated.
      * @param _ We are not using this.
@@ -24,9 +56,27 @@ class AudioInputProcess extends AudioWorkletProcessor {
      * @return {boolean}
      */
     process(inputList, _, __) {
-        if (this.active) {
-            // todo: compress the data.
-            this.port.postMessage(inputList);
+        if (this.active && inputList.length > 0 && inputList[0].length > 0) {
+            const input = inputList[0];
+            // A quantum may end one packet and start the next, e.g. 480 samples for 10 ms.
+            let offset = 0;
+            while (offset < input[0].length) {
+                if (this.filled === 0 || this.packet.length !== input.length) {
+                    this.packet = input.map(() => new Float32Array(this.packetSamples));
+                    this.filled = 0;
+                }
+                const count = Math.min(input[0].length - offset, this.packetSamples - this.filled);
+                for (let channelIndex = 0; channelIndex < input.length; channelIndex++) {
+                    this.packet[channelIndex].set(input[channelIndex].subarray(offset, offset + count), this.filled);
+                }
+                this.filled += count;
+                offset += count;
+                if (this.filled === this.packetSamples) {
+                    // The buffers are transferred, so the next packet gets new ones.
+                    this.port.postMessage([this.packet], this.packet.map(channel => channel.buffer));
+                    this.filled = 0;
+                }
+            }
         }
         return true;
     }
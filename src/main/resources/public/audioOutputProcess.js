@@ -1,51 +1,135 @@
 class AudioOutputProcess extends AudioWorkletProcessor {
 
-    inputListQueue = [];
+    /**
+     * Maximum number of queued samples per channel at short packet times, which is about 85 ms at 48 kHz.
+     * When the network delivers a burst, the oldest audio is dropped
+     * so that the latency does not keep growing.
+     * @type {number}
+     */
+    static MAX_QUEUED_SAMPLES = 4096;
+
+    /**
+     * Number of frames of the packet time that the queue holds at least.
+     * At 40 ms, 85 ms is barely two frames, so a frame that arrives a little early would drop the audio.
+     * @type {number}
+     */
+    static QUEUED_PACKETS = 3;
+
+    /**
+     * Maximum number of queued samples per channel for the packet time.
+     * @type {number}
+     */
+    maxQueuedSamples = AudioOutputProcess.MAX_QUEUED_SAMPLES;
+
+    /**
+     * Pieces waiting to be played in the arrival order.
+     * Each piece is an array of Float32Array, one per channel, and the pieces can have any length.
+     * @type {Array}
+     */
+    pieceQueue = [];
+
+    /**
+     * Number of samples of the first piece that are played already.
+     * @type {number}
+     */
+    readOffset = 0;
+
+    /**
+     * Number of samples per channel that are not played yet.
+     * @type {number}
+     */
+    queuedSamples = 0;
 
     constructor() {
         super();
         this.port.onmessage = this.handleMessage.bind(this);
     }
 
+    /**
+     * Queue the audio, or set the packet time.
+     * @param event {MessageEvent} Its data is {packetMillis: 20} to set the packet time.
+     *                             Otherwise, it's an array of inputs, and we play the first one.
+     *                             An input is an array of channels, each of which is a Float32Array,
+     *                             or a JSON object whose keys are the indexes as JSON.stringify writes a Float32Array.
+     */
     handleMessage(event) {
-        this.inputListQueue.push(event.data);
+        if (!Array.isArray(event.data)) {
+            this.maxQueuedSamples = Math.max(
+                AudioOutputProcess.MAX_QUEUED_SAMPLES,
+                Math.round(sampleRate * event.data.packetMillis / 1000) * AudioOutputProcess.QUEUED_PACKETS
+            );
+            return;
+        }
+        const inputList = event.data;
+        if (inputList.length === 0 || inputList[0].length === 0) {
+            return;
+        }
+        const piece = inputList[0].map(AudioOutputProcess.samples);
+        if (piece[0].length === 0) {
+            return;
+        }
+        this.pieceQueue.push(piece);
+        this.queuedSamples += piece[0].length;
+        // The piece that is being played goes first, so the rest of it is dropped, not only what is played.
+        while (this.queuedSamples > this.maxQueuedSamples && this.pieceQueue.length > 1) {
+            const dropped = this.pieceQueue.shift();
+            this.queuedSamples -= dropped[0].length - this.readOffset;
+            this.readOffset = 0;
+        }
     }
 
     /**
+     * Get the samples of a channel as a Float32Array.
+     * @param channel {Float32Array|Object} Float32Array, or a JSON object whose keys are the indexes.
+     * @return {Float32Array}
+     */
+    static samples(channel) {
+        if (channel instanceof Float32Array) {
+            return channel;
+        }
+        const result = new Float32Array(Object.keys(channel).length);
+        for (const sampleIndex in channel) {
+            result[sampleIndex] = channel[sampleIndex];
+        }
+        return result;
+    }
+
+    /**
+     * Fill the render quantum from the queue across the pieces.
+     * The pieces do not have to be a multiple of the render quantum, such as 960 samples of a 20 ms frame,
+     * so a piece can end in the middle of a quantum, and the next one continues from there.
+     * Whatever the queue cannot fill stays silent.
      * https://developer.mozilla.org/en-US/docs/Web/API/Web_Audio_API/Using_AudioWorklet
      * @param _ We are not using this parameter.
      * @param outputList Number of active speakers/headphones.
-     * @param __ We are not suing this parameter.
+     * @param __ We are not using this parameter.
      * @return {boolean}
      */
     process(_, outputList, __) {
-        if (this.inputListQueue.length === 0) {
+        const output = outputList[0];
+        if (output.length === 0) {
             return true;
         }
-
-        const inputList = this.inputListQueue.shift();
-        const sourceLimit = Math.min(inputList.length, outputList.length);
-        for (let inputIndex = 0; inputIndex < sourceLimit; inputIndex++) {
-            const input = inputList[inputIndex];
-            const output = outputList[inputIndex];
+        // There are 128 samples by the spec at the time of writing.
+        // It might be changed in the future, though.
+        const frames = output[0].length;
+        let written = 0;
+        while (written < frames && this.pieceQueue.length > 0) {
+            const piece = this.pieceQueue[0];
+            const count = Math.min(frames - written, piece[0].length - this.readOffset);
             // There are usually two channels. One for left ear, another for right.
-            const channelLimit = Math.min(input.length, output.length);
-            for (let channelIndex = 0; channelIndex < channelLimit; channelIndex++) {
-                const inputChannel = input[channelIndex];
-                const outputChannel = output[channelIndex];
-                // There are 128 samples by the spec at the time of writing.
-                // It might be changed in the future, though.
-                // Note that the for-loop using index incrementation like above won't work
-                // because inputChannel is not array. It's a JSON object where key is used as index like this:
-                // {"0":-0.011914870701730251,"1":-0.01202797144651413, ... "127":-0.016677042469382286}
-                for (let sampleIndex in inputChannel) {
-                    // 32-bit floating point number
-                    const inputSample = inputChannel[sampleIndex];
-
-                    // play the sample by setting the output values.
-                    outputChannel[sampleIndex] = inputSample;
-
-                }
+            // If the piece has fewer channels (e.g. mono audio mixed by the server),
+            // its last channel is played on the remaining ones.
+            for (let channelIndex = 0; channelIndex < output.length; channelIndex++) {
+                const inputChannel = piece[Math.min(channelIndex, piece.length - 1)];
+                output[channelIndex].set(inputChannel.subarray(this.readOffset, this.readOffset + count), written);
+            }
+            written += count;
+            this.readOffset += count;
+            this.queuedSamples -= count;
+            if (this.readOffset >= piece[0].length) {
+                this.pieceQueue.shift();
+                this.readOffset = 0;
             }
         }
         return true;